@@ -0,0 +1,74 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import lib.tartard.alfresco.lazymodel.services.BatchConverter;
+import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
+import lib.tartard.alfresco.lazymodel.services.ConversionResult;
+import lib.tartard.alfresco.lazymodel.services.ModelConverter;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of batches of conversions of distinct models, as run by the command line : each batch is converted by a
+ * new converter, so that it parses its models and compiles its templates, sequentially or in parallel.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BatchBenchmark {
+
+    @Param({"1", "8", "32"})
+    public int batchSize;
+
+    @Param({"100"})
+    public int types;
+
+    private File folder;
+
+    private List<ConversionConfig> configs;
+
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        generator.setTypes(types);
+        folder = Files.createTempDirectory("lazymodel-benchmarks").toFile();
+        File templateFile = BenchmarkFixtures.copyTemplate("java.UTF-8.ftl", new File(folder, "templates"));
+
+        configs = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            generator.setSeed(SyntheticModelGenerator.DEFAULT_SEED + i);
+            File modelFile = generator.write(new File(folder, "model" + i + ".xml"), "bench" + i);
+            configs.add(new ConversionConfig(modelFile.getAbsolutePath(), templateFile.getAbsolutePath(),
+                    new File(folder, "output/model" + i + ".java").getPath(), "UTF-8"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(folder);
+    }
+
+
+    @Benchmark
+    public List<File> convertSequentially() {
+        return new ModelConverter().convert(configs);
+    }
+
+    @Benchmark
+    public List<ConversionResult> convertInParallel() {
+        return new BatchConverter(new ModelConverter()).convert(configs);
+    }
+}
@@ -0,0 +1,78 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.TemplateExceptionHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Fixtures shared by the benchmarks.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+final class BenchmarkFixtures {
+
+    private static final String TEMPLATES_FOLDER = "templates/";
+
+    private BenchmarkFixtures() {}
+
+
+    /**
+     * Get a Freemarker configuration set up as the one of a ModelConverter, to compile and render templates outside
+     * of a converter.
+     * @return
+     */
+    static Configuration newConfiguration() {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+        configuration.setWhitespaceStripping(true);
+        configuration.setDefaultEncoding("UTF-8");
+        configuration.setLocale(Locale.US);
+        configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        configuration.setLocalizedLookup(false);
+        DefaultObjectWrapperBuilder wrapperBuilder = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_23);
+        wrapperBuilder.setUseAdaptersForContainers(true);
+        wrapperBuilder.setExposeFields(false);
+        configuration.setObjectWrapper(wrapperBuilder.build());
+        return configuration;
+    }
+
+
+    /**
+     * Open one of the templates distributed with lazymodel.
+     * @param name name of the template, e.g. {@code java.UTF-8.ftl}
+     * @return
+     * @throws IOException if there is no such template
+     */
+    static InputStream getTemplate(String name) throws IOException {
+        InputStream in = BenchmarkFixtures.class.getClassLoader().getResourceAsStream(TEMPLATES_FOLDER + name);
+        if (in == null) {
+            throw new IOException("No template named '" + name + "'.");
+        }
+        return in;
+    }
+
+
+    /**
+     * Copy one of the templates distributed with lazymodel to the given folder, as converters load templates from
+     * files.
+     * @param name name of the template
+     * @param folder
+     * @return the copied template
+     * @throws IOException
+     */
+    static File copyTemplate(String name, File folder) throws IOException {
+        Files.createDirectories(folder.toPath());
+        File templateFile = new File(folder, name);
+        try (InputStream in = getTemplate(name)) {
+            Files.copy(in, templateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return templateFile;
+    }
+}
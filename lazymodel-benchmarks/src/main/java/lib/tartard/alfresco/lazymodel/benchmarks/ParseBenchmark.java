@@ -0,0 +1,104 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import lib.tartard.alfresco.lazymodel.services.ModelCache;
+import lib.tartard.alfresco.lazymodel.services.ParsedModel;
+import lib.tartard.alfresco.lazymodel.services.StaxModelReader;
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import org.alfresco.repo.dictionary.M2Model;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the parsing phase : unmarshalling of the xml into a M2Model, or streaming read with the
+ * {@link StaxModelReader}, building of its template view and index, and loading through a cold model cache, which
+ * also reads and hashes the file.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int types;
+
+    @Param({"10"})
+    public int propertiesPerClass;
+
+    private File folder;
+
+    private File modelFile;
+
+    private byte[] content;
+
+    private M2Model model;
+
+    private final StaxModelReader staxModelReader = new StaxModelReader();
+
+    private ModelView view;
+
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        generator.setTypes(types);
+        generator.setPropertiesPerClass(propertiesPerClass);
+        folder = Files.createTempDirectory("lazymodel-benchmarks").toFile();
+        modelFile = generator.write(new File(folder, "model.xml"), "bench");
+        content = Files.readAllBytes(modelFile.toPath());
+        model = M2Model.createModel(new ByteArrayInputStream(content));
+        view = new ModelView(model);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(folder);
+    }
+
+
+    @Benchmark
+    public M2Model unmarshal() {
+        return M2Model.createModel(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public M2Model streamingRead() {
+        return staxModelReader.read(ByteBuffer.wrap(content));
+    }
+
+    @Benchmark
+    public ModelView buildView() {
+        return new ModelView(model);
+    }
+
+    @Benchmark
+    public ModelIndex buildIndex() {
+        return new ModelIndex(Collections.singletonList(view));
+    }
+
+    @Benchmark
+    public ParsedModel loadThroughColdCache() {
+        return new ModelCache().get(modelFile.getAbsolutePath());
+    }
+
+    @Benchmark
+    public ParsedModel streamingLoadThroughColdCache() {
+        ModelCache modelCache = new ModelCache();
+        modelCache.setModelReader(staxModelReader);
+        return modelCache.get(modelFile.getAbsolutePath());
+    }
+}
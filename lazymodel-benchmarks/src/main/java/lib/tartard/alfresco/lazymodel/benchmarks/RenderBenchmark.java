@@ -0,0 +1,110 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import lib.tartard.alfresco.lazymodel.services.*;
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the rendering and writing phases, on a model already parsed and a template already compiled : the
+ * rendering alone, the writing of an already rendered output, and a whole conversion with warm caches.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int types;
+
+    @Param({"java.UTF-8.ftl", "properties.ISO-8859-1.ftl"})
+    public String template;
+
+    private File folder;
+
+    private Template compiledTemplate;
+
+    private Map<String, Object> ftlModel;
+
+    private byte[] rendered;
+
+    private File writtenFile;
+
+    private ModelConverter modelConverter;
+
+    private ConversionConfig config;
+
+
+    @Setup
+    public void setup() throws IOException, TemplateException {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        generator.setTypes(types);
+        folder = Files.createTempDirectory("lazymodel-benchmarks").toFile();
+        File modelFile = generator.write(new File(folder, "model.xml"), "bench");
+
+        Configuration configuration = BenchmarkFixtures.newConfiguration();
+        try (InputStream in = BenchmarkFixtures.getTemplate(template)) {
+            compiledTemplate = new Template(template, new StringReader(IOUtils.toString(in, StandardCharsets.UTF_8)),
+                    configuration);
+        }
+        ParsedModel parsedModel = new ModelCache().get(modelFile.getAbsolutePath());
+        ftlModel = new HashMap<>();
+        ftlModel.put("model", parsedModel.getModel());
+        ftlModel.put("view", parsedModel.getView());
+        ftlModel.put("index", new ModelIndex(Collections.singletonList(parsedModel.getView())));
+
+        StringWriter output = new StringWriter();
+        compiledTemplate.process(ftlModel, output);
+        rendered = output.toString().getBytes(StandardCharsets.UTF_8);
+        writtenFile = new File(folder, "written.out");
+
+        File templateFile = BenchmarkFixtures.copyTemplate(template, new File(folder, "templates"));
+        modelConverter = new ModelConverter();
+        config = new ConversionConfig(modelFile.getAbsolutePath(), templateFile.getAbsolutePath(),
+                new File(folder, "converted.out").getPath(), TemplateName.parse(template).getEncoding());
+        modelConverter.convert(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(folder);
+    }
+
+
+    @Benchmark
+    public void render() throws IOException, TemplateException {
+        compiledTemplate.process(ftlModel, new NullWriter());
+    }
+
+    @Benchmark
+    public boolean write() throws IOException {
+        try (AtomicOutputFile output = new AtomicOutputFile(writtenFile)) {
+            output.getOutputStream().write(rendered);
+            return output.commit();
+        }
+    }
+
+    @Benchmark
+    public File convert() {
+        return modelConverter.convert(config);
+    }
+}
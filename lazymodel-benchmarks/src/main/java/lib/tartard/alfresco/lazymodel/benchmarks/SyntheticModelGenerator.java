@@ -0,0 +1,211 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates synthetic Alfresco models of a given size, to benchmark conversions on models larger than the test ones.
+ *
+ * The generated models are deterministic : the same sizes and seed always give the same xml, whatever the platform.
+ * Types inherit from one another, have mandatory aspects and properties of various data types, some of which
+ * reference the constraints of the model. The imported namespaces are only declared, as no other model defines them.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class SyntheticModelGenerator {
+
+    /** Seed of the models generated by default. */
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final String[] DATA_TYPES = {"d:text", "d:mltext", "d:int", "d:long", "d:double", "d:date",
+            "d:datetime", "d:boolean", "d:noderef"};
+
+    private int types = 100;
+
+    private int aspects = 20;
+
+    private int propertiesPerClass = 10;
+
+    private int constraints = 10;
+
+    private int imports = 2;
+
+    private long seed = DEFAULT_SEED;
+
+
+    /**
+     * Generate the xml of a model whose elements are prefixed with the given prefix.
+     * @param prefix prefix of the namespace of the model, e.g. {@code bench}
+     * @return
+     */
+    public String generate(String prefix) {
+        Random random = new Random(seed);
+        StringBuilder xml = new StringBuilder(1024 + types * propertiesPerClass * 128);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<model name=\"").append(prefix).append(":model\" ")
+                .append("xmlns=\"http://www.alfresco.org/model/dictionary/1.0\">\n\n");
+        xml.append("    <description>Synthetic model : ").append(types).append(" types, ").append(aspects)
+                .append(" aspects, ").append(propertiesPerClass).append(" properties per class</description>\n");
+        xml.append("    <version>1.0</version>\n\n");
+
+        xml.append("    <imports>\n");
+        xml.append("        <import uri=\"http://www.alfresco.org/model/dictionary/1.0\" prefix=\"d\"/>\n");
+        for (int i = 0; i < imports; i++) {
+            xml.append("        <import uri=\"http://www.example.org/model/import").append(i)
+                    .append("/1.0\" prefix=\"imp").append(i).append("\"/>\n");
+        }
+        xml.append("    </imports>\n\n");
+
+        xml.append("    <namespaces>\n");
+        xml.append("        <namespace uri=\"http://www.example.org/model/").append(prefix)
+                .append("/1.0\" prefix=\"").append(prefix).append("\"/>\n");
+        xml.append("    </namespaces>\n\n");
+
+        if (constraints > 0) {
+            xml.append("    <constraints>\n");
+            for (int i = 0; i < constraints; i++) {
+                appendConstraint(xml, prefix, i, random);
+            }
+            xml.append("    </constraints>\n\n");
+        }
+
+        if (types > 0) {
+            xml.append("    <types>\n");
+            for (int i = 0; i < types; i++) {
+                // Each type but the first one inherits from a previous type, making inheritance chains
+                String parent = i == 0 ? null : prefix + ":type" + random.nextInt(i);
+                appendClass(xml, "type", prefix, i, parent, random);
+            }
+            xml.append("    </types>\n\n");
+        }
+
+        if (aspects > 0) {
+            xml.append("    <aspects>\n");
+            for (int i = 0; i < aspects; i++) {
+                appendClass(xml, "aspect", prefix, i, null, random);
+            }
+            xml.append("    </aspects>\n\n");
+        }
+
+        xml.append("</model>\n");
+        return xml.toString();
+    }
+
+
+    /**
+     * Write a generated model to the given file.
+     * @param file
+     * @param prefix prefix of the namespace of the model
+     * @return the file
+     * @throws IOException
+     */
+    public File write(File file, String prefix) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), generate(prefix).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+
+    private void appendConstraint(StringBuilder xml, String prefix, int index, Random random) {
+        xml.append("        <constraint name=\"").append(prefix).append(":constraint").append(index)
+                .append("\" type=\"LIST\">\n");
+        xml.append("            <parameter name=\"allowedValues\">\n");
+        xml.append("                <list>\n");
+        int values = 2 + random.nextInt(8);
+        for (int i = 0; i < values; i++) {
+            xml.append("                    <value>VALUE_").append(index).append('_').append(i).append("</value>\n");
+        }
+        xml.append("                </list>\n");
+        xml.append("            </parameter>\n");
+        xml.append("        </constraint>\n");
+    }
+
+    private void appendClass(StringBuilder xml, String kind, String prefix, int index, String parent,
+                             Random random) {
+        String name = prefix + ":" + kind + index;
+        xml.append("        <").append(kind).append(" name=\"").append(name).append("\">\n");
+        xml.append("            <title>").append(kind).append(' ').append(index).append("</title>\n");
+        if (parent != null) {
+            xml.append("            <parent>").append(parent).append("</parent>\n");
+        }
+
+        xml.append("            <properties>\n");
+        for (int i = 0; i < propertiesPerClass; i++) {
+            xml.append("                <property name=\"").append(prefix).append(':').append(kind).append(index)
+                    .append("Property").append(i).append("\">\n");
+            xml.append("                    <type>").append(DATA_TYPES[random.nextInt(DATA_TYPES.length)])
+                    .append("</type>\n");
+            xml.append("                    <mandatory>").append(random.nextInt(4) == 0).append("</mandatory>\n");
+            xml.append("                    <multiple>").append(random.nextInt(4) == 0).append("</multiple>\n");
+            if (constraints > 0 && random.nextInt(5) == 0) {
+                xml.append("                    <constraints>\n");
+                xml.append("                        <constraint ref=\"").append(prefix).append(":constraint")
+                        .append(random.nextInt(constraints)).append("\"/>\n");
+                xml.append("                    </constraints>\n");
+            }
+            xml.append("                </property>\n");
+        }
+        xml.append("            </properties>\n");
+
+        if (!"aspect".equals(kind) && aspects > 0) {
+            xml.append("            <mandatory-aspects>\n");
+            xml.append("                <aspect>").append(prefix).append(":aspect").append(random.nextInt(aspects))
+                    .append("</aspect>\n");
+            xml.append("            </mandatory-aspects>\n");
+        }
+        xml.append("        </").append(kind).append(">\n");
+    }
+
+
+    public int getTypes() {
+        return types;
+    }
+
+    public void setTypes(int types) {
+        this.types = types;
+    }
+
+    public int getAspects() {
+        return aspects;
+    }
+
+    public void setAspects(int aspects) {
+        this.aspects = aspects;
+    }
+
+    public int getPropertiesPerClass() {
+        return propertiesPerClass;
+    }
+
+    public void setPropertiesPerClass(int propertiesPerClass) {
+        this.propertiesPerClass = propertiesPerClass;
+    }
+
+    public int getConstraints() {
+        return constraints;
+    }
+
+    public void setConstraints(int constraints) {
+        this.constraints = constraints;
+    }
+
+    public int getImports() {
+        return imports;
+    }
+
+    public void setImports(int imports) {
+        this.imports = imports;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,50 @@
+package lib.tartard.alfresco.lazymodel.benchmarks;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the compilation of the templates distributed with lazymodel, which the template cache of a
+ * {@link lib.tartard.alfresco.lazymodel.services.ModelConverter} performs once per template.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TemplateBenchmark {
+
+    @Param({"java.UTF-8.ftl", "properties.ISO-8859-1.ftl"})
+    public String template;
+
+    private Configuration configuration;
+
+    private String source;
+
+
+    @Setup
+    public void setup() throws IOException {
+        configuration = BenchmarkFixtures.newConfiguration();
+        try (InputStream in = BenchmarkFixtures.getTemplate(template)) {
+            source = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    @Benchmark
+    public Template compile() throws IOException {
+        return new Template(template, new StringReader(source), configuration);
+    }
+}
@@ -0,0 +1,85 @@
+package lib.tartard.alfresco.lazymodel.test.benchmarks;
+
+import lib.tartard.alfresco.lazymodel.benchmarks.SyntheticModelGenerator;
+import lib.tartard.alfresco.lazymodel.services.M2ModelCodec;
+import lib.tartard.alfresco.lazymodel.services.StaxModelReader;
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import org.alfresco.repo.dictionary.M2Model;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * SyntheticModelGenerator test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class SyntheticModelGeneratorTest {
+
+    /**
+     * The same settings should always generate the same model, which another seed changes.
+     */
+    @Test
+    public void testDeterministic() {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        String model = generator.generate("bench");
+        assertEquals(model, new SyntheticModelGenerator().generate("bench"));
+
+        generator.setSeed(SyntheticModelGenerator.DEFAULT_SEED + 1);
+        assertFalse(model.equals(generator.generate("bench")));
+    }
+
+    /**
+     * The generated model should be a valid model of the requested size, whose classes all resolve.
+     */
+    @Test
+    public void testGeneratedModel() {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        generator.setTypes(50);
+        generator.setAspects(5);
+        generator.setPropertiesPerClass(3);
+        generator.setConstraints(4);
+        generator.setImports(3);
+
+        M2Model model = M2Model.createModel(new ByteArrayInputStream(
+                generator.generate("bench").getBytes(StandardCharsets.UTF_8)));
+        ModelView view = new ModelView(model);
+        assertEquals(50, view.getTypes().size());
+        assertEquals(5, view.getAspects().size());
+        for (ClassView classView : view.getClasses()) {
+            assertEquals(3, classView.getProperties().size());
+        }
+        assertEquals(4, view.getConstraints().size());
+        assertEquals(4, view.getImports().size());
+        assertTrue(new ModelIndex(Collections.singletonList(view)).getUnresolvedNames().isEmpty());
+    }
+
+    /**
+     * The streaming reader should read the same synthetic models as the JiBX unmarshalling.
+     */
+    @Test
+    public void testStreamingReader() {
+        SyntheticModelGenerator generator = new SyntheticModelGenerator();
+        generator.setTypes(200);
+        generator.setAspects(20);
+        generator.setConstraints(10);
+        byte[] content = generator.generate("bench").getBytes(StandardCharsets.UTF_8);
+
+        M2Model model = M2Model.createModel(new ByteArrayInputStream(content));
+        M2Model streamed = new StaxModelReader().read(ByteBuffer.wrap(content));
+        assertEquals(200, streamed.getTypes().size());
+        assertTrue(M2ModelCodec.isLossless(model, streamed));
+    }
+}
@@ -0,0 +1,222 @@
+package lib.tartard.alfresco.lazymodel.maven;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates files from Alfresco models inside the Maven JVM, during the generate-sources phase.
+ *
+ * Every model is converted with every template of the templates folder, exactly as the command line program does.
+ * Generation is incremental : files whose model, template and content didn't change since the last build are left
+ * untouched. Parsed models are shared by the executions of the same build which read models the same way, so a model
+ * used by several modules of a reactor is parsed only once.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+
+    /**
+     * Models caches shared by the executions of the build, which may run in parallel, by reader and snapshots folder :
+     * a cache is never reconfigured, so that a model is only reused by the executions which would have parsed it the
+     * same way, and only stored in the snapshots folder of the executions which set it.
+     */
+    private static final Map<String, ModelCache> MODEL_CACHES = new HashMap<>();
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * Models to convert : paths of model files, folders, glob patterns or @manifest files, relative to the project
+     * folder.
+     */
+    @Parameter(required = true)
+    private List<String> models;
+
+    /**
+     * Models indexed along with each converted model, so that templates can resolve the classes it imports or
+     * inherits from : paths of model files, folders, glob patterns or @manifest files, relative to the project folder.
+     */
+    @Parameter
+    private List<String> dictionaryModels;
+
+    /**
+     * Whether each model is indexed along with the converted models defining the namespaces it imports.
+     */
+    @Parameter(property = "lazymodel.resolveImports", defaultValue = "false")
+    private boolean resolveImports;
+
+    /**
+     * Folder where parsed models are stored as binary snapshots, which later builds load instead of parsing the xml
+     * models again. Models are always parsed from their xml if not set.
+     */
+    @Parameter(property = "lazymodel.snapshotsFolder")
+    private File snapshotsFolder;
+
+    /**
+     * Whether models are read in a single pass by a StAX stream reader rather than by the JiBX unmarshalling of
+     * Alfresco, which is lighter on large models.
+     */
+    @Parameter(property = "lazymodel.streamingModelReader", defaultValue = "false")
+    private boolean streamingModelReader;
+
+    /**
+     * Folder where generated files are stored under the hash of their inputs, which later builds, possibly of other
+     * workspaces or agents, copy instead of generating the files again. Files are always generated if not set.
+     */
+    @Parameter(property = "lazymodel.outputCacheFolder")
+    private File outputCacheFolder;
+
+    /**
+     * Maximum size of the output cache folder, in megabytes. The least recently used files are evicted beyond it.
+     */
+    @Parameter(property = "lazymodel.outputCacheSize", defaultValue = "1024")
+    private long outputCacheSize;
+
+    /**
+     * JSON file where a summary of the generation is written : durations of the conversions per phase, per model and
+     * per template, bytes written and model cache hits. No report is written if not set.
+     */
+    @Parameter(property = "lazymodel.reportFile")
+    private File reportFile;
+
+    /**
+     * Folder of the Freemarker templates.
+     */
+    @Parameter(property = "lazymodel.templatesFolder", defaultValue = "${project.basedir}/src/main/lazymodel/templates")
+    private File templatesFolder;
+
+    /**
+     * Folder of the generated files.
+     */
+    @Parameter(property = "lazymodel.outputFolder",
+            defaultValue = "${project.build.directory}/generated-sources/lazymodel")
+    private File outputFolder;
+
+    /**
+     * Package of the classes generated by the {@code java} templates, whose files are then generated in the folder of
+     * this package under the output folder. If not set, the classes are in the unnamed package.
+     */
+    @Parameter(property = "lazymodel.javaPackage")
+    private String javaPackage;
+
+    /**
+     * Number of conversions performed in parallel. 0 means one per available processor.
+     */
+    @Parameter(property = "lazymodel.threads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * Whether the output folder is added to the compile source roots of the project.
+     */
+    @Parameter(property = "lazymodel.addSourceRoot", defaultValue = "true")
+    private boolean addSourceRoot;
+
+    /**
+     * Skip the generation.
+     */
+    @Parameter(property = "lazymodel.skip", defaultValue = "false")
+    private boolean skip;
+
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Generation is skipped.");
+            return;
+        }
+
+        List<ConversionResult> results;
+        try {
+            ModelConverter modelConverter = new ModelConverter(templatesFolder.getPath());
+            modelConverter.setModelCache(getModelCache());
+            if (outputCacheFolder != null) {
+                modelConverter.setOutputCache(new OutputCache(outputCacheFolder, outputCacheSize * 1024L * 1024L));
+            }
+            modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+            RunReport report = null;
+            if (reportFile != null) {
+                report = new RunReport();
+                modelConverter.addConversionListener(report);
+            }
+
+            ModelPathResolver pathResolver = new ModelPathResolver(project.getBasedir());
+            if (dictionaryModels != null) {
+                modelConverter.setDictionaryModels(pathResolver.resolve(dictionaryModels));
+            }
+            List<String> modelPaths = pathResolver.resolve(models);
+            List<ConversionConfig> configs = ConversionConfigs.forTemplatesFolder(modelPaths, templatesFolder,
+                    outputFolder.getPath(), javaPackage);
+            int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            BatchConverter batchConverter = new BatchConverter(modelConverter, poolSize);
+            batchConverter.setResolvingImports(resolveImports);
+            results = batchConverter.convert(configs);
+            if (report != null) {
+                writeReport(report, modelConverter);
+            }
+        } catch (ModelConversionException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+
+        int failures = 0;
+        for (ConversionResult result : results) {
+            if (result.isFailed()) {
+                getLog().error("Could not convert '" + result.getConfig().getAlfrescoModelPath() + "' with '"
+                        + result.getConfig().getFtlTemplatePath() + "' : " + result.getError().getMessage());
+                failures++;
+            }
+        }
+        getLog().info(results.size() + " file(s) processed : " + BatchConverter.countByStatus(results));
+        if (failures > 0) {
+            throw new MojoFailureException(failures + " of " + results.size() + " conversion(s) failed.");
+        }
+
+        if (addSourceRoot) {
+            project.addCompileSourceRoot(outputFolder.getAbsolutePath());
+        }
+    }
+
+
+    /**
+     * Get the models cache shared by the executions reading models with the same reader and snapshots folder, creating
+     * it if needed.
+     * @return
+     */
+    private ModelCache getModelCache() {
+        String key = (streamingModelReader ? "stax" : "jibx") + "|"
+                + (snapshotsFolder != null ? snapshotsFolder.getAbsolutePath() : "");
+        synchronized (MODEL_CACHES) {
+            ModelCache modelCache = MODEL_CACHES.get(key);
+            if (modelCache == null) {
+                modelCache = new ModelCache();
+                modelCache.setModelReader(streamingModelReader ? new StaxModelReader() : new JibxModelReader());
+                modelCache.setSnapshots(snapshotsFolder != null ? new ModelSnapshots(snapshotsFolder) : null);
+                MODEL_CACHES.put(key, modelCache);
+            }
+            return modelCache;
+        }
+    }
+
+
+    private void writeReport(RunReport report, ModelConverter modelConverter) {
+        try {
+            report.write(reportFile, modelConverter.getModelCache());
+            getLog().info("Report written to '" + reportFile + "'.");
+        } catch (IOException e) {
+            getLog().warn("Could not write report to '" + reportFile + "' : " + e.getMessage());
+        }
+    }
+}
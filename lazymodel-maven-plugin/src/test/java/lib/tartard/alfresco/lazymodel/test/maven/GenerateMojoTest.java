@@ -0,0 +1,198 @@
+package lib.tartard.alfresco.lazymodel.test.maven;
+
+import lib.tartard.alfresco.lazymodel.maven.GenerateMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * GenerateMojo test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class GenerateMojoTest {
+
+    private static final String MODEL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<model name=\"my:model\" xmlns=\"http://www.alfresco.org/model/dictionary/1.0\">\n"
+            + "    <imports>\n"
+            + "        <import uri=\"http://www.alfresco.org/model/dictionary/1.0\" prefix=\"d\"/>\n"
+            + "    </imports>\n"
+            + "    <namespaces>\n"
+            + "        <namespace uri=\"http://www.example.org/model/my/1.0\" prefix=\"my\"/>\n"
+            + "    </namespaces>\n"
+            + "    <types>\n"
+            + "        <type name=\"my:document\">\n"
+            + "            <properties>\n"
+            + "                <property name=\"my:reference\"><type>d:text</type></property>\n"
+            + "            </properties>\n"
+            + "        </type>\n"
+            + "    </types>\n"
+            + "</model>\n";
+
+    private static final String TEMPLATE = "<#list view.types as type>${type.name}</#list>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MavenProject project;
+
+    private File outputFolder;
+
+
+    @Before
+    public void setup() throws IOException {
+        File baseFolder = temporaryFolder.getRoot();
+        File modelsFolder = temporaryFolder.newFolder("src", "main", "models");
+        File templatesFolder = temporaryFolder.newFolder("src", "main", "lazymodel", "templates");
+        Files.write(new File(modelsFolder, "myModel.xml").toPath(), MODEL.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(templatesFolder, "txt.UTF-8.ftl").toPath(), TEMPLATE.getBytes(StandardCharsets.UTF_8));
+        outputFolder = new File(baseFolder, "target/generated-sources/lazymodel");
+
+        project = new MavenProject();
+        project.setFile(new File(baseFolder, "pom.xml"));
+    }
+
+
+    /**
+     * The mojo should generate the files of each model and template, and add the output folder to the source roots.
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        RecordingLog log = new RecordingLog();
+        newMojo(log).execute();
+
+        File outputFile = new File(outputFolder, "myModel.txt");
+        assertTrue(outputFile.isFile());
+        assertEquals("my:document", new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8));
+        assertTrue(log.contains("GENERATED=1"));
+        assertEquals(Collections.singletonList(outputFolder.getAbsolutePath()), project.getCompileSourceRoots());
+    }
+
+
+    /**
+     * A second build should leave the files of unchanged models and templates untouched.
+     */
+    @Test
+    public void testIncrementalSkip() throws Exception {
+        newMojo(new RecordingLog()).execute();
+        File outputFile = new File(outputFolder, "myModel.txt");
+        long lastModified = outputFile.lastModified() - 10000L;
+        assertTrue(outputFile.setLastModified(lastModified));
+
+        RecordingLog log = new RecordingLog();
+        newMojo(log).execute();
+        assertTrue(log.contains("UP_TO_DATE=1"));
+        assertFalse(log.contains("GENERATED"));
+        assertEquals(lastModified, outputFile.lastModified());
+    }
+
+
+    /**
+     * A failing conversion should fail the build, without adding the output folder to the source roots.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        Files.write(new File(temporaryFolder.getRoot(), "src/main/models/myModel.xml").toPath(),
+                "This is not a valid Alfresco model.".getBytes(StandardCharsets.UTF_8));
+        try {
+            newMojo(new RecordingLog()).execute();
+            fail("An invalid model should fail the build");
+        } catch (MojoFailureException | MojoExecutionException e) {
+            // Expected
+        }
+        assertTrue(project.getCompileSourceRoots().isEmpty());
+    }
+
+
+    /**
+     * An execution without snapshots should not store its models in the snapshots folder of a previous execution.
+     */
+    @Test
+    public void testSnapshotsFolderNotShared() throws Exception {
+        File snapshotsFolder = temporaryFolder.newFolder("snapshots");
+        GenerateMojo mojo = newMojo(new RecordingLog());
+        set(mojo, "snapshotsFolder", snapshotsFolder);
+        mojo.execute();
+        long snapshots = countFiles(snapshotsFolder);
+        assertTrue(snapshots > 0);
+
+        Files.write(new File(temporaryFolder.getRoot(), "src/main/models/myModel.xml").toPath(),
+                MODEL.replace("my:reference", "my:otherReference").getBytes(StandardCharsets.UTF_8));
+        newMojo(new RecordingLog()).execute();
+        assertEquals(snapshots, countFiles(snapshotsFolder));
+    }
+
+
+    private static long countFiles(File folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder.toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private GenerateMojo newMojo(RecordingLog log) throws ReflectiveOperationException {
+        GenerateMojo mojo = new GenerateMojo();
+        mojo.setLog(log);
+        // Set the parameters as Maven would, with their default values
+        set(mojo, "project", project);
+        set(mojo, "models", Collections.singletonList("src/main/models"));
+        set(mojo, "templatesFolder", new File(project.getBasedir(), "src/main/lazymodel/templates"));
+        set(mojo, "outputFolder", outputFolder);
+        set(mojo, "outputCacheSize", 1024L);
+        set(mojo, "threads", 2);
+        set(mojo, "addSourceRoot", true);
+        return mojo;
+    }
+
+    private static void set(Object object, String name, Object value) throws ReflectiveOperationException {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+
+    /**
+     * Log keeping the info messages of the mojo.
+     */
+    private static class RecordingLog extends SystemStreamLog {
+
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void info(CharSequence content) {
+            messages.add(content.toString());
+            super.info(content);
+        }
+
+        private boolean contains(String text) {
+            for (String message : messages) {
+                if (message.contains(text)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
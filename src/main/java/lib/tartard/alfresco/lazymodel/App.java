@@ -1,20 +1,23 @@
 package lib.tartard.alfresco.lazymodel;
 
-import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
-import lib.tartard.alfresco.lazymodel.services.ModelConversionException;
-import lib.tartard.alfresco.lazymodel.services.ModelConverter;
+import lib.tartard.alfresco.lazymodel.daemon.Daemon;
+import lib.tartard.alfresco.lazymodel.daemon.DaemonClient;
+import lib.tartard.alfresco.lazymodel.daemon.DaemonRegistry;
+import lib.tartard.alfresco.lazymodel.daemon.RunOutput;
+import lib.tartard.alfresco.lazymodel.services.*;
 import org.apache.commons.cli.*;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.lang.model.SourceVersion;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -23,14 +26,37 @@ import java.util.Map;
  *
  * Created on 13/10/2017
  */
-public class App {
+public class App implements Daemon.RequestHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
 
-    private static final String COMMAND = "java -jar lazymodel.jar <Model Path> [Options]";
+    private static final String COMMAND = "java -jar lazymodel.jar <Model Path>... [Options]";
 
     private static final String DEFAULT_TEMPLATE_FOLDER = "/templates";
 
+    /** Output folder standing for a tar archive written to the standard output. */
+    private static final String STANDARD_OUTPUT = "-";
+
+    /** Time a client waits for the daemon it started to answer, in milliseconds. */
+    private static final long DAEMON_START_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final String defaultTemplatesFolder;
+
+    /** Whether the process keeps running between runs, reusing its model converters and their caches. */
+    private final boolean resident;
+
+    private final Map<String, ModelConverter> modelConverters = new HashMap<>();
+
+    /**
+     * @param defaultTemplatesFolder templates folder used when none is given
+     * @param resident whether the model converters, along with their caches, are reused by the following runs
+     */
+    App(String defaultTemplatesFolder, boolean resident) {
+        this.defaultTemplatesFolder = defaultTemplatesFolder;
+        this.resident = resident;
+    }
+
+
     private static Options getOptions(String defaultTemplatesPath) {
         Options options = new Options();
 
@@ -45,12 +71,187 @@ public class App {
         Option outputFolder = Option.builder("o")
                 .argName("folder")
                 .hasArg()
-                .desc("Output folder path. Default is user's current folder.")
+                .desc("Output folder path, or .zip, .jar or .tar archive receiving all the generated files, or - for "
+                        + "a tar archive written to the standard output. Default is user's current folder.")
+                .build();
+
+        Option javaPackage = Option.builder()
+                .longOpt("java-package")
+                .argName("package")
+                .hasArg()
+                .desc("Package of the classes generated by the java templates, whose files are then generated in "
+                        + "the folder of this package. By default, classes are in the unnamed package.")
+                .build();
+
+        Option threads = Option.builder("j")
+                .argName("threads")
+                .hasArg()
+                .desc("Number of conversions performed in parallel. Default is the number of available processors.")
+                .build();
+
+        Option dictionary = Option.builder("d")
+                .argName("model")
+                .hasArg()
+                .desc("Model indexed along with each converted model, e.g. Alfresco's contentModel.xml, so that "
+                        + "templates can resolve the classes it imports or inherits from. Can be a file, a folder, a "
+                        + "glob pattern, an @manifest file, an archive or an entry of an archive, and can be "
+                        + "repeated.")
+                .build();
+
+        Option resolveImports = Option.builder()
+                .longOpt("resolve-imports")
+                .desc("Index each model along with the given models defining the namespaces it imports, converting "
+                        + "models after the models they import. Fails the models which import each other.")
+                .build();
+
+        Option snapshots = Option.builder()
+                .longOpt("snapshots")
+                .argName("folder")
+                .hasArg()
+                .desc("Folder where parsed models are stored as binary snapshots, which later runs load instead of "
+                        + "parsing the xml models again.")
+                .build();
+
+        Option modelReader = Option.builder()
+                .longOpt("model-reader")
+                .argName("jibx or stax")
+                .hasArg()
+                .desc("Reader parsing the xml models : jibx, the unmarshalling of Alfresco, or stax, a streaming "
+                        + "reader much lighter on large models, which falls back to jibx on the elements it doesn't "
+                        + "read. Default is jibx.")
+                .build();
+
+        Option outputCache = Option.builder()
+                .longOpt("output-cache")
+                .argName("folder")
+                .hasArg()
+                .desc("Folder where generated files are stored under the hash of their inputs, which later runs, "
+                        + "possibly from other workspaces, copy instead of generating the files again.")
+                .build();
+
+        Option report = Option.builder()
+                .longOpt("report")
+                .argName("file")
+                .hasArg()
+                .desc("JSON file where a summary of the run is written : durations of the conversions per phase, per "
+                        + "model and per template, bytes written and model cache hits.")
+                .build();
+
+        Option incremental = Option.builder()
+                .longOpt("incremental")
+                .desc("Only generate the files whose model, template or content changed since they were last generated.")
+                .build();
+
+        Option check = Option.builder()
+                .longOpt("check")
+                .desc("Only report the files which are not up to date, without generating anything. "
+                        + "Exits with a non-zero status if any file is stale.")
+                .build();
+
+        Option watch = Option.builder()
+                .longOpt("watch")
+                .desc("Keep running, and generate files again each time their model or template changes.")
+                .build();
+
+        Option daemon = Option.builder()
+                .longOpt("daemon")
+                .desc("Run as a resident daemon, keeping parsed models and compiled templates in memory between the "
+                        + "runs of its clients. It stops when idle.")
+                .build();
+
+        Option useDaemon = Option.builder()
+                .longOpt("use-daemon")
+                .desc("Perform the conversions in the daemon, starting it in the background if it isn't running. "
+                        + "Falls back to converting in this process if the daemon can't be reached.")
+                .build();
+
+        Option stopDaemon = Option.builder()
+                .longOpt("stop-daemon")
+                .desc("Stop the running daemon.")
+                .build();
+
+        Option daemonIdleTimeout = Option.builder()
+                .longOpt("daemon-idle-timeout")
+                .argName("minutes")
+                .hasArg()
+                .desc("Idle time after which the daemon stops. Default is "
+                        + TimeUnit.MILLISECONDS.toMinutes(Daemon.DEFAULT_IDLE_TIMEOUT) + " minutes.")
+                .build();
+
+        Option shard = Option.builder()
+                .longOpt("shard")
+                .argName("index/count")
+                .hasArg()
+                .desc("Only perform the conversions of the given shard, e.g. 2/4 for the second of four shards. "
+                        + "Model/template pairs are assigned to shards by their paths relative to the working "
+                        + "directory, balanced on their sizes or on the costs given by --shard-costs.")
+                .build();
+
+        Option shardCosts = Option.builder()
+                .longOpt("shard-costs")
+                .argName("file")
+                .hasArg()
+                .desc("Costs of the model/template pairs written by --cost-report, balancing the shards. "
+                        + "Ignored if the file doesn't exist.")
+                .build();
+
+        Option costReport = Option.builder()
+                .longOpt("cost-report")
+                .argName("file")
+                .hasArg()
+                .desc("Tab-separated file where the cost of each converted model/template pair is written, "
+                        + "to balance the shards of later runs.")
+                .build();
+
+        Option mergeShards = Option.builder()
+                .longOpt("merge-shards")
+                .argName("folders")
+                .hasArgs()
+                .valueSeparator(',')
+                .desc("Merge the output folders of the shards into the output folder instead of converting, "
+                        + "and check that their files and manifests are consistent and complete.")
+                .build();
+
+        Option compile = Option.builder()
+                .longOpt("compile")
+                .argName("jar or folder")
+                .hasArg()
+                .desc("Compile the generated Java sources within this process into the given jar, or classes folder. "
+                        + "Skipped when the sources didn't change since the previous compilation. Needs a JDK.")
+                .build();
+
+        Option compileClasspath = Option.builder()
+                .longOpt("compile-classpath")
+                .argName("path")
+                .hasArg()
+                .desc("Classpath the generated sources are compiled against. Default is the classpath of this "
+                        + "program, which holds the Alfresco data model.")
                 .build();
 
         options.addOption(help);
         options.addOption(outputFolder);
         options.addOption(templates);
+        options.addOption(javaPackage);
+        options.addOption(threads);
+        options.addOption(dictionary);
+        options.addOption(resolveImports);
+        options.addOption(snapshots);
+        options.addOption(modelReader);
+        options.addOption(outputCache);
+        options.addOption(report);
+        options.addOption(incremental);
+        options.addOption(check);
+        options.addOption(watch);
+        options.addOption(daemon);
+        options.addOption(useDaemon);
+        options.addOption(stopDaemon);
+        options.addOption(daemonIdleTimeout);
+        options.addOption(shard);
+        options.addOption(shardCosts);
+        options.addOption(costReport);
+        options.addOption(mergeShards);
+        options.addOption(compile);
+        options.addOption(compileClasspath);
 
         return options;
     }
@@ -69,9 +270,29 @@ public class App {
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd = parser.parse(options, args);
 
-        String[] pgArgs = cmd.getArgs();
-        String modelXmlFilePath = null;
-        if(cmd.hasOption("help") || (pgArgs == null || pgArgs.length < 1 || (StringUtils.isBlank(modelXmlFilePath = pgArgs[0])))) {
+        long idleTimeout;
+        try {
+            // Checked here, before any daemon is started with it
+            idleTimeout = getDaemonIdleTimeout(cmd);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            formatter.printHelp(COMMAND, options);
+            System.exit(1);
+            return;
+        }
+
+        DaemonRegistry registry = new DaemonRegistry(DaemonRegistry.getDefaultFolder(), ToolVersion.get());
+        if(cmd.hasOption("daemon")) {
+            runDaemon(registry, idleTimeout, defaultTemplatesFolder);
+            return;
+        }
+        if(cmd.hasOption("stop-daemon")) {
+            LOGGER.info(new DaemonClient(registry).stop() ? "Daemon stopped." : "No daemon running.");
+            return;
+        }
+
+        List<String> pgArgs = cmd.getArgList();
+        if(cmd.hasOption("help") || pgArgs.isEmpty() || StringUtils.isBlank(pgArgs.get(0))) {
             if(!cmd.hasOption("help")) {
                 LOGGER.error("Missing Alfresco model file path.");
             }
@@ -79,48 +300,632 @@ public class App {
             return;
         }
 
+        boolean toStandardOutput = STANDARD_OUTPUT.equals(cmd.getOptionValue("o"));
+        if(toStandardOutput) {
+            // The standard output only gets the archive, the log goes to the error output
+            System.setOut(System.err);
+        }
+
+        File workingDir = new File(System.getProperty("user.dir"));
+        Integer status = null;
+        if(cmd.hasOption("use-daemon")) {
+            if(toStandardOutput) {
+                LOGGER.warn("The daemon can't write to the standard output, converting in this process.");
+            } else if(cmd.hasOption("watch")) {
+                LOGGER.warn("The daemon doesn't watch models, converting in this process.");
+            } else {
+                status = runInDaemon(registry, cmd, args, workingDir);
+            }
+        }
+        if(status == null) {
+            status = new App(defaultTemplatesFolder, false).run(cmd, workingDir, new RunOutput(LOGGER));
+        }
+        if(status != 0) {
+            System.exit(status);
+        }
+    }
+
+
+    /**
+     * Convert the models designated by the given command line.
+     * @param cmd
+     * @param workingDir folder the relative paths of the command line are resolved against
+     * @param output messages for the user
+     * @return the exit status : non-zero if a conversion failed, or a file is stale.
+     */
+    int run(CommandLine cmd, File workingDir, RunOutput output) {
         String templatesFolderPath = cmd.hasOption("t") ?
-                cmd.getOptionValue("t") :
+                resolve(workingDir, cmd.getOptionValue("t")).getPath() :
                 defaultTemplatesFolder;
 
         String outputFolder = cmd.hasOption("o") ?
-                cmd.getOptionValue("o") :
-                System.getProperty("user.dir");
+                resolve(workingDir, cmd.getOptionValue("o")).getPath() :
+                workingDir.getPath();
+
+        int threads;
+        ModelConverter modelConverter;
+        List<ConversionConfig> configs;
+        Shard shard = null;
+        try {
+            threads = getThreads(cmd);
+            modelConverter = getModelConverter(cmd, templatesFolderPath, workingDir);
+            List<String> modelPaths = new ModelPathResolver(workingDir).resolve(cmd.getArgList());
+            configs = ConversionConfigs.forTemplatesFolder(modelPaths, new File(templatesFolderPath), outputFolder,
+                    getJavaPackage(cmd));
+            if(cmd.hasOption("shard")) {
+                shard = getShard(cmd, workingDir);
+            }
+        } catch (ModelConversionException | IllegalArgumentException e) {
+            LOGGER.debug(e.getMessage(), e);
+            output.error(e.getMessage());
+            return 1;
+        }
+
+        if(cmd.hasOption("merge-shards")) {
+            return mergeShards(cmd, workingDir, modelConverter, configs, new File(outputFolder), output);
+        }
+
+        String archive = cmd.getOptionValue("o");
+        OutputSink outputSink = null;
+        if(STANDARD_OUTPUT.equals(archive)
+                || (archive != null && ArchiveOutputSink.Format.of(new File(archive)) != null)) {
+            if(cmd.hasOption("incremental") || cmd.hasOption("check") || cmd.hasOption("watch")
+                    || cmd.hasOption("output-cache") || cmd.hasOption("compile")) {
+                output.error("--incremental, --check, --watch, --output-cache and --compile need an output folder, "
+                        + "not an archive.");
+                return 1;
+            }
+            try {
+                outputSink = STANDARD_OUTPUT.equals(archive) ?
+                        new ArchiveOutputSink(new FileOutputStream(FileDescriptor.out),
+                                ArchiveOutputSink.Format.TAR, new File(outputFolder)) :
+                        new ArchiveOutputSink(new File(outputFolder), new File(outputFolder));
+            } catch (IOException e) {
+                LOGGER.debug("Could not create archive '{}'.", outputFolder, e);
+                output.error("Could not create archive '" + outputFolder + "' : " + e.getMessage());
+                return 1;
+            }
+        }
+
+        // Runs sharing a resident model converter are serialized, so that their reports don't mix
+        List<ConversionResult> results;
+        synchronized (modelConverter) {
+            RunReport report = null;
+            if(cmd.hasOption("report") || cmd.hasOption("cost-report")) {
+                report = new RunReport();
+                modelConverter.addConversionListener(report);
+            }
+
+            BatchConverter batchConverter = new BatchConverter(modelConverter, threads);
+            batchConverter.setResolvingImports(cmd.hasOption("resolve-imports"));
+            batchConverter.setShard(shard);
+            if(outputSink != null) {
+                modelConverter.setOutputSink(outputSink);
+            }
+            try {
+                results = batchConverter.convert(configs);
+            } finally {
+                if(report != null) {
+                    modelConverter.removeConversionListener(report);
+                }
+                if(outputSink != null) {
+                    modelConverter.setOutputSink(new FileOutputSink());
+                }
+            }
+            if(outputSink != null && !closeArchive(outputSink, outputFolder, output)) {
+                return 1;
+            }
+            if(cmd.hasOption("report")) {
+                writeReport(report, resolve(workingDir, cmd.getOptionValue("report")), modelConverter, output);
+            }
+            if(cmd.hasOption("cost-report")) {
+                writeCosts(report, resolve(workingDir, cmd.getOptionValue("cost-report")), workingDir, output);
+            }
+            if(cmd.hasOption("watch")) {
+                return watch(modelConverter, batchConverter, configs,
+                        getConfigResolver(cmd, workingDir, templatesFolderPath, outputFolder));
+            }
+        }
 
+        if(resident) {
+            // The client doesn't see the log of the daemon
+            output.info(results.size() + " conversion(s) performed : " + BatchConverter.countByStatus(results));
+            for(ConversionResult result : results) {
+                if(result.isFailed()) {
+                    output.error("Conversion of '" + result.getConfig().getAlfrescoModelPath() + "' with '"
+                            + result.getConfig().getFtlTemplatePath() + "' failed : " + result.getError().getMessage());
+                }
+            }
+        }
+
+        int failures = BatchConverter.countFailures(results);
+        if(failures > 0) {
+            output.error(failures + " of " + results.size() + " conversion(s) failed.");
+            return 1;
+        }
+        if(reportStaleFiles(results, output) > 0) {
+            return 1;
+        }
+        if(cmd.hasOption("compile") && !cmd.hasOption("check")) {
+            return compile(cmd, workingDir, results, output);
+        }
+        return 0;
+    }
+
+
+    /**
+     * Handle a request of a client of the daemon.
+     * @param workingDir working directory of the client
+     * @param args command line arguments of the client
+     * @param output messages to send back to the client
+     * @return the exit status of the run
+     */
+    @Override
+    public int handle(File workingDir, List<String> args, RunOutput output) {
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(getOptions(defaultTemplatesFolder), args.toArray(new String[0]));
+        } catch (ParseException e) {
+            output.error(e.getMessage());
+            return 1;
+        }
+        if(cmd.hasOption("watch") || cmd.hasOption("daemon") || cmd.hasOption("stop-daemon")
+                || STANDARD_OUTPUT.equals(cmd.getOptionValue("o"))) {
+            output.error("The daemon doesn't support --watch, --daemon, --stop-daemon nor -o -.");
+            return 1;
+        }
+        LOGGER.info("Running {} in '{}'.", args, workingDir);
+        return run(cmd, workingDir, output);
+    }
+
+
+    /**
+     * Get the model converter of the given command line. A resident process reuses the converters of its previous
+     * runs, with their model caches and compiled templates, as long as they were configured the same way.
+     * @param cmd
+     * @param templatesFolderPath
+     * @param workingDir
+     * @return
+     * @throws ModelConversionException if the dictionary models can't be resolved or indexed
+     * @throws IllegalArgumentException if the model reader is unknown
+     */
+    private ModelConverter getModelConverter(CommandLine cmd, String templatesFolderPath, File workingDir) {
+        List<String> dictionaryModels = cmd.hasOption("d") ?
+                new ModelPathResolver(workingDir).resolve(Arrays.asList(cmd.getOptionValues("d"))) :
+                Collections.<String>emptyList();
+        File snapshotsFolder = cmd.hasOption("snapshots") ?
+                resolve(workingDir, cmd.getOptionValue("snapshots")).getAbsoluteFile() :
+                null;
+        String modelReader = cmd.getOptionValue("model-reader", "jibx");
+        if(!"jibx".equals(modelReader) && !"stax".equals(modelReader)) {
+            throw new IllegalArgumentException("Unknown model reader : '" + modelReader + "'. Expected jibx or stax.");
+        }
+        File outputCacheFolder = cmd.hasOption("output-cache") ?
+                resolve(workingDir, cmd.getOptionValue("output-cache")).getAbsoluteFile() :
+                null;
+        IncrementalMode incrementalMode = cmd.hasOption("check") ? IncrementalMode.CHECK :
+                cmd.hasOption("incremental") ? IncrementalMode.INCREMENTAL :
+                        null;
+
+        String key = new File(templatesFolderPath).getAbsolutePath() + "|" + snapshotsFolder + "|" + modelReader
+                + "|" + outputCacheFolder + "|" + incrementalMode + "|" + dictionaryModels;
+        synchronized (modelConverters) {
+            ModelConverter modelConverter = resident ? modelConverters.get(key) : null;
+            if(modelConverter == null) {
+                modelConverter = new ModelConverter(templatesFolderPath);
+                if(snapshotsFolder != null) {
+                    modelConverter.setSnapshotsFolder(snapshotsFolder);
+                }
+                if("stax".equals(modelReader)) {
+                    modelConverter.setModelReader(new StaxModelReader());
+                }
+                if(outputCacheFolder != null) {
+                    modelConverter.setOutputCache(new OutputCache(outputCacheFolder));
+                }
+                if(incrementalMode != null) {
+                    modelConverter.setIncrementalMode(incrementalMode);
+                }
+                if(!dictionaryModels.isEmpty()) {
+                    modelConverter.setDictionaryModels(dictionaryModels);
+                }
+                if(resident) {
+                    // Templates are checked for modifications on each conversion instead of being trusted for a while
+                    modelConverter.setTemplateUpdateDelay(0L);
+                    modelConverters.put(key, modelConverter);
+                }
+            }
+            return modelConverter;
+        }
+    }
+
+
+    /**
+     * Run the daemon until it stops.
+     * @param registry
+     * @param idleTimeout idle time after which the daemon stops, in milliseconds
+     * @param defaultTemplatesFolder
+     */
+    private static void runDaemon(DaemonRegistry registry, long idleTimeout, String defaultTemplatesFolder) {
+        try (Daemon daemon = new Daemon(registry, idleTimeout, new App(defaultTemplatesFolder, true))) {
+            daemon.run();
+        } catch (IOException e) {
+            LOGGER.error("Could not run daemon : {}", e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Perform the conversions in the daemon, starting it if it isn't running.
+     * @param registry
+     * @param cmd
+     * @param args command line arguments of this process
+     * @param workingDir
+     * @return the exit status of the run, or null if the daemon can't be reached.
+     */
+    private static Integer runInDaemon(DaemonRegistry registry, CommandLine cmd, String[] args, File workingDir) {
+        List<String> daemonArgs = new ArrayList<>(Arrays.asList(args));
+        daemonArgs.remove("--use-daemon");
+
+        DaemonClient client = new DaemonClient(registry);
+        RunOutput output = new RunOutput(null);
+        Integer status = client.run(workingDir, daemonArgs, output);
+        if(status == null && client.start(getDaemonCommand(cmd), DAEMON_START_TIMEOUT)) {
+            status = client.run(workingDir, daemonArgs, output);
+        }
+        if(status == null) {
+            LOGGER.warn("Daemon unavailable, converting in this process.");
+            return null;
+        }
+        output.replay(LOGGER);
+        return status;
+    }
+
+
+    /**
+     * @param cmd
+     * @return the command starting a daemon with the same java and classpath as this process.
+     */
+    private static List<String> getDaemonCommand(CommandLine cmd) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(App.class.getName());
+        command.add("--daemon");
+        if(cmd.hasOption("daemon-idle-timeout")) {
+            command.add("--daemon-idle-timeout");
+            command.add(cmd.getOptionValue("daemon-idle-timeout"));
+        }
+        return command;
+    }
+
+
+    /**
+     * Generate files again each time their model or template changes, or when models are added, until the program is
+     * stopped.
+     * @param modelConverter
+     * @param batchConverter
+     * @param configs
+     * @param configResolver resolver of the configurations of the command line
+     * @return the exit status
+     */
+    private static int watch(ModelConverter modelConverter, BatchConverter batchConverter,
+                             List<ConversionConfig> configs, ModelWatcher.ConfigResolver configResolver) {
+        // Templates are checked for modifications on each conversion instead of being trusted for a while
+        modelConverter.setTemplateUpdateDelay(0L);
+        try (ModelWatcher watcher = new ModelWatcher(modelConverter, batchConverter, configs,
+                ModelWatcher.DEFAULT_DEBOUNCE_DELAY)) {
+            watcher.setConfigResolver(configResolver);
+            watcher.run();
+        } catch (IOException e) {
+            LOGGER.error("Could not watch models and templates : {}", e.getMessage(), e);
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+
+    /**
+     * Get the number of conversions performed in parallel.
+     * @param cmd
+     * @return the value of the -j option, or the number of available processors.
+     * @throws IllegalArgumentException if the option isn't a positive number
+     */
+    private static int getThreads(CommandLine cmd) {
+        if(!cmd.hasOption("j")) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        String value = cmd.getOptionValue("j");
+        int threads;
+        try {
+            threads = Integer.parseInt(StringUtils.trimToEmpty(value));
+        } catch (NumberFormatException e) {
+            threads = 0;
+        }
+        if(threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads '" + value + "' : expected a positive "
+                    + "number, e.g. 4.");
+        }
+        return threads;
+    }
+
+    /**
+     * Get the idle time after which the daemon stops.
+     * @param cmd
+     * @return the value of the --daemon-idle-timeout option in milliseconds, or the default idle timeout.
+     * @throws IllegalArgumentException if the option isn't a positive number of minutes
+     */
+    private static long getDaemonIdleTimeout(CommandLine cmd) {
+        if(!cmd.hasOption("daemon-idle-timeout")) {
+            return Daemon.DEFAULT_IDLE_TIMEOUT;
+        }
+        String value = cmd.getOptionValue("daemon-idle-timeout");
+        long minutes;
+        try {
+            minutes = Long.parseLong(StringUtils.trimToEmpty(value));
+        } catch (NumberFormatException e) {
+            minutes = 0;
+        }
+        if(minutes < 1) {
+            throw new IllegalArgumentException("Invalid daemon idle timeout '" + value + "' : expected a positive "
+                    + "number of minutes, e.g. 30.");
+        }
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /**
+     * Get the package of the classes generated by the java templates.
+     * @param cmd
+     * @return the value of the --java-package option, or null if it is not set or empty.
+     * @throws IllegalArgumentException if the option isn't a package name
+     */
+    private static String getJavaPackage(CommandLine cmd) {
+        String value = StringUtils.trimToEmpty(cmd.getOptionValue("java-package"));
+        if(value.isEmpty()) {
+            return null;
+        }
+        for(String name : value.split("\\.", -1)) {
+            if(!SourceVersion.isIdentifier(name) || SourceVersion.isKeyword(name)) {
+                throw new IllegalArgumentException("Invalid java package '" + value + "' : expected a package "
+                        + "name, e.g. com.acme.model.");
+            }
+        }
+        return value;
+    }
 
 
-        ModelConverter modelConverter = new ModelConverter(templatesFolderPath);
+    /**
+     * Get a resolver of the configurations of the command line, resolving its model arguments again on each call.
+     * @param cmd
+     * @param workingDir folder the model arguments are resolved against
+     * @param templatesFolderPath
+     * @param outputFolder
+     * @return
+     */
+    private static ModelWatcher.ConfigResolver getConfigResolver(final CommandLine cmd, File workingDir,
+                                                                 final String templatesFolderPath,
+                                                                 final String outputFolder) {
+        final ModelPathResolver modelPathResolver = new ModelPathResolver(workingDir);
+        return new ModelWatcher.ConfigResolver() {
+            @Override
+            public List<ConversionConfig> resolve() {
+                return ConversionConfigs.forTemplatesFolder(modelPathResolver.resolve(cmd.getArgList()),
+                        new File(templatesFolderPath), outputFolder, getJavaPackage(cmd));
+            }
 
-        File templatesFolder = new File(templatesFolderPath);
-        List<ConversionConfig> configs = new ArrayList<>();
-        Map<String, Integer> names = new HashMap<>();
-        for(File child : templatesFolder.listFiles()) {
-            String[] ftlParts = child.getName().split("\\.");
-            String encoding = ftlParts.length >= 3 ? ftlParts[1] : "UTF-8";
-            String extension = ftlParts.length >= 2 ? ftlParts[0] : null;
-            String outputFileName = FilenameUtils.getBaseName(modelXmlFilePath) + FilenameUtils.EXTENSION_SEPARATOR
-                    + extension;
-            Integer index = names.get(outputFileName);
-            if(index != null) {
-                outputFileName += "(" + ++index + ")";
+            @Override
+            public Collection<File> getInputs() {
+                return modelPathResolver.getInputs(cmd.getArgList());
             }
+        };
+    }
+
+
+    /**
+     * Get the shard given on the command line, along with the costs balancing it.
+     * @param cmd
+     * @param workingDir folder the model/template pairs are keyed against
+     * @return
+     * @throws IllegalArgumentException if the shard is invalid
+     * @throws ModelConversionException if the costs can't be read
+     */
+    private static Shard getShard(CommandLine cmd, File workingDir) {
+        Shard shard = Shard.parse(cmd.getOptionValue("shard"));
+        shard.setBaseFolder(workingDir);
+        if(cmd.hasOption("shard-costs")) {
+            File costs = resolve(workingDir, cmd.getOptionValue("shard-costs"));
+            if(costs.isFile()) {
+                try {
+                    shard.setCosts(Shard.loadCosts(costs));
+                } catch (IOException e) {
+                    throw new ModelConversionException("Could not read shard costs '" + costs + "' : "
+                            + e.getMessage(), e);
+                }
+            }
+        }
+        return shard;
+    }
+
+
+    /**
+     * Merge the output folders of the shards into the output folder, then check that every configuration has its
+     * output.
+     * @param cmd
+     * @param workingDir
+     * @param modelConverter
+     * @param configs all the configurations of the batch
+     * @param outputFolder
+     * @param output
+     * @return the exit status : non-zero if any problem was found.
+     */
+    private static int mergeShards(CommandLine cmd, File workingDir, ModelConverter modelConverter,
+                                   List<ConversionConfig> configs, File outputFolder, RunOutput output) {
+        List<File> shardFolders = new ArrayList<>();
+        for(String shardFolder : cmd.getOptionValues("merge-shards")) {
+            shardFolders.add(resolve(workingDir, shardFolder));
+        }
+        List<String> problems;
+        try {
+            problems = new ShardMerger(outputFolder).merge(shardFolders);
+        } catch (IOException e) {
+            LOGGER.debug("Could not merge shards.", e);
+            output.error("Could not merge shards into '" + outputFolder + "' : " + e.getMessage());
+            return 1;
+        }
+        List<File> outputFiles = new ArrayList<>();
+        for(ConversionConfig config : configs) {
+            outputFiles.add(modelConverter.getOutputFile(config));
+        }
+        problems.addAll(ShardMerger.checkOutputs(outputFiles));
+
+        for(String problem : problems) {
+            output.error(problem);
+        }
+        if(!problems.isEmpty()) {
+            output.error(problems.size() + " problem(s) found while merging " + shardFolders.size() + " shard(s).");
+            return 1;
+        }
+        output.info(shardFolders.size() + " shard(s) merged into '" + outputFolder + "'.");
+        return 0;
+    }
+
+
+    /**
+     * Write the costs of the conversions of the run. Failing to write them doesn't fail the run.
+     * @param report
+     * @param file
+     * @param workingDir folder the model/template pairs are keyed against
+     * @param output
+     */
+    private static void writeCosts(RunReport report, File file, File workingDir, RunOutput output) {
+        try {
+            report.writeCosts(file, workingDir);
+            output.info("Costs written to '" + file + "'.");
+        } catch (IOException e) {
+            LOGGER.debug("Could not write costs to '{}'.", file, e);
+            output.error("Could not write costs to '" + file + "' : " + e.getMessage());
+        }
+    }
 
-            ConversionConfig config = new ConversionConfig(
-                    modelXmlFilePath,
-                    child.getName(),
-                    outputFolder + "/" + outputFileName,
-                    encoding
-            );
 
-            configs.add(config);
+    /**
+     * Compile the Java sources generated by the run.
+     * @param cmd
+     * @param workingDir
+     * @param results results of the conversions of the run
+     * @param output
+     * @return the exit status : non-zero if the sources could not be compiled.
+     */
+    private int compile(CommandLine cmd, File workingDir, List<ConversionResult> results, RunOutput output) {
+        Set<File> sources = new TreeSet<>();
+        for(ConversionResult result : results) {
+            File outputFile = result.getOutputFile();
+            File[] files = outputFile.isDirectory() ? outputFile.listFiles() : new File[]{outputFile};
+            for(File file : files != null ? files : new File[0]) {
+                if(file.isFile() && file.getName().endsWith(".java")) {
+                    sources.add(file);
+                }
+            }
+        }
+        if(sources.isEmpty()) {
+            output.info("No Java source generated, nothing to compile.");
+            return 0;
         }
+
+        JavaOutputCompiler compiler = new JavaOutputCompiler();
+        if(cmd.hasOption("compile-classpath")) {
+            List<String> classpath = new ArrayList<>();
+            for(String entry : StringUtils.split(cmd.getOptionValue("compile-classpath"), File.pathSeparator)) {
+                classpath.add(resolve(workingDir, entry).getPath());
+            }
+            compiler.setClasspath(classpath);
+        }
+        File classesOutput = resolve(workingDir, cmd.getOptionValue("compile"));
         try {
-            modelConverter.convert(configs);
+            boolean compiled = compiler.compile(sources, classesOutput);
+            if(resident) {
+                // The client doesn't see the log of the daemon
+                output.info(compiled ?
+                        sources.size() + " Java source(s) compiled into '" + classesOutput + "'." :
+                        "'" + classesOutput + "' is up to date.");
+            }
         } catch (ModelConversionException e) {
-            // Do nothing, exception is already logged by the service
-        } catch (Exception e) {
-            e.printStackTrace();
+            LOGGER.debug(e.getMessage(), e);
+            output.error(e.getMessage());
+            return 1;
         }
+        return 0;
     }
-}
 
+
+    /**
+     * Write the archive receiving the generated files.
+     * @param outputSink
+     * @param archive path of the archive
+     * @param output
+     * @return false if the archive could not be written.
+     */
+    private static boolean closeArchive(OutputSink outputSink, String archive, RunOutput output) {
+        try {
+            outputSink.close();
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Could not write archive '{}'.", archive, e);
+            output.error("Could not write archive '" + archive + "' : " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Write the report of the run. Failing to write it doesn't fail the run.
+     * @param report
+     * @param file
+     * @param modelConverter
+     * @param output
+     */
+    private static void writeReport(RunReport report, File file, ModelConverter modelConverter, RunOutput output) {
+        try {
+            report.write(file, modelConverter.getModelCache());
+            output.info("Report written to '" + file + "'.");
+        } catch (IOException e) {
+            LOGGER.debug("Could not write report to '{}'.", file, e);
+            output.error("Could not write report to '" + file + "' : " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Report the stale files found by a check.
+     * @param results
+     * @param output
+     * @return the number of stale files.
+     */
+    private static int reportStaleFiles(List<ConversionResult> results, RunOutput output) {
+        int staleFiles = 0;
+        for(ConversionResult result : results) {
+            if(result.getStatus() == ConversionResult.Status.STALE) {
+                output.error("Stale file : " + result.getOutputFile());
+                staleFiles++;
+            }
+        }
+        if(staleFiles > 0) {
+            output.error(staleFiles + " of " + results.size() + " file(s) are not up to date.");
+        }
+        return staleFiles;
+    }
+
+
+    /**
+     * @param workingDir
+     * @param path
+     * @return the given path, resolved against the working directory if it is relative.
+     */
+    private static File resolve(File workingDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(workingDir, path);
+    }
+}
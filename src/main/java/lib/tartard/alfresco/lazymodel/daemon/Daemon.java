@@ -0,0 +1,291 @@
+package lib.tartard.alfresco.lazymodel.daemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident process running conversions on behalf of clients, so that the JVM, the parsed models and the compiled
+ * templates stay warm between runs.
+ *
+ * The daemon listens on a loopback port only, and registers it with a random token in its {@link DaemonRegistry} :
+ * requests which don't hold the token, or come from a client of another version of the tool, are rejected. Each
+ * request is handled on its own thread by the {@link RequestHandler}. The daemon stops when a client asks it to, or
+ * when it has been idle for longer than its idle timeout.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class Daemon implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Daemon.class);
+
+    /** Idle time after which the daemon stops by default, in milliseconds : 3 hours. */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(3);
+
+    /** Interval at which the idle time is checked, in milliseconds. */
+    private static final int ACCEPT_TIMEOUT = 1000;
+
+    /** Time a client has to send its request, in milliseconds. */
+    private static final int READ_TIMEOUT = 10000;
+
+    private final DaemonRegistry registry;
+
+    private final long idleTimeout;
+
+    private final RequestHandler handler;
+
+    private final AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    private volatile boolean stopped;
+
+    private ServerSocket serverSocket;
+
+    private DaemonRegistry.Entry entry;
+
+    /**
+     * @param registry registry the daemon registers its address with
+     * @param idleTimeout idle time after which the daemon stops, in milliseconds
+     * @param handler handler of the conversion requests
+     */
+    public Daemon(DaemonRegistry registry, long idleTimeout, RequestHandler handler) {
+        this.registry = registry;
+        this.idleTimeout = idleTimeout;
+        this.handler = handler;
+    }
+
+
+    /**
+     * Bind the daemon to an ephemeral loopback port, and register it.
+     * @throws IOException if the port can't be bound or the registry can't be written
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Daemon already started.");
+        }
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+        entry = new DaemonRegistry.Entry(serverSocket.getLocalPort(), newToken());
+        registry.write(entry, ManagementFactory.getRuntimeMXBean().getName());
+        LOGGER.info("Daemon {} listening on port {}.", registry.getToolVersion(), entry.getPort());
+    }
+
+
+    /**
+     * Handle requests until the daemon is stopped, or idle for longer than its idle timeout. The daemon is started
+     * first if needed, and unregistered when this method returns.
+     * @throws IOException if the daemon can't be started
+     */
+    public void run() throws IOException {
+        if (serverSocket == null) {
+            start();
+        }
+        ExecutorService executor = Executors.newCachedThreadPool(new RequestThreadFactory());
+        try {
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    if (isIdle()) {
+                        LOGGER.info("Daemon idle for more than {} ms, stopping.", idleTimeout);
+                        stopped = true;
+                    }
+                    continue;
+                } catch (IOException e) {
+                    if (stopped) {
+                        break;
+                    }
+                    throw e;
+                }
+                lastActivity.set(System.currentTimeMillis());
+                executor.execute(new Connection(socket));
+            }
+        } finally {
+            close();
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * Stop accepting requests and unregister the daemon. Requests being handled are left to complete.
+     */
+    @Override
+    public synchronized void close() {
+        stopped = true;
+        if (entry != null) {
+            registry.delete(entry);
+        }
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close daemon socket : {}", e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * @return the port the daemon listens on, or -1 if it isn't started.
+     */
+    public synchronized int getPort() {
+        return entry != null ? entry.getPort() : -1;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+
+    private boolean isIdle() {
+        return activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity.get() > idleTimeout;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[24];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        return token.toString();
+    }
+
+
+    /**
+     * Handler of the conversion requests of the clients.
+     */
+    public interface RequestHandler {
+
+        /**
+         * Run the tool with the given arguments.
+         * @param workingDir working directory of the client, which relative paths are resolved against
+         * @param args command line arguments of the client
+         * @param output messages to send back to the client
+         * @return the exit status of the run
+         */
+        int handle(File workingDir, List<String> args, RunOutput output);
+    }
+
+
+    /**
+     * A single request.
+     */
+    private class Connection implements Runnable {
+
+        private final Socket socket;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            activeRequests.incrementAndGet();
+            try (Socket s = socket) {
+                s.setSoTimeout(READ_TIMEOUT);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                handle(in, out);
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.warn("Daemon request failed : {}", e.getMessage());
+            } finally {
+                lastActivity.set(System.currentTimeMillis());
+                activeRequests.decrementAndGet();
+            }
+        }
+
+        private void handle(DataInputStream in, DataOutputStream out) throws IOException {
+            if (in.readInt() != DaemonProtocol.MAGIC || in.readInt() != DaemonProtocol.PROTOCOL_VERSION) {
+                throw new IOException("Not a daemon request.");
+            }
+            String clientVersion = DaemonProtocol.readString(in);
+            String token = DaemonProtocol.readString(in);
+            byte command = in.readByte();
+
+            if (!entry.getToken().equals(token)) {
+                LOGGER.warn("Rejected daemon request with an invalid token.");
+                out.writeByte(DaemonProtocol.UNAUTHORIZED);
+                DaemonProtocol.writeString(out, registry.getToolVersion());
+                return;
+            }
+            if (!registry.getToolVersion().equals(clientVersion)) {
+                LOGGER.warn("Rejected daemon request of version {}.", clientVersion);
+                out.writeByte(DaemonProtocol.VERSION_MISMATCH);
+                DaemonProtocol.writeString(out, registry.getToolVersion());
+                return;
+            }
+
+            switch (command) {
+                case DaemonProtocol.PING:
+                    out.writeByte(DaemonProtocol.OK);
+                    DaemonProtocol.writeString(out, registry.getToolVersion());
+                    break;
+                case DaemonProtocol.STOP:
+                    LOGGER.info("Daemon stop requested.");
+                    close();
+                    out.writeByte(DaemonProtocol.OK);
+                    DaemonProtocol.writeString(out, registry.getToolVersion());
+                    break;
+                case DaemonProtocol.RUN:
+                    File workingDir = new File(DaemonProtocol.readString(in));
+                    List<String> args = DaemonProtocol.readStrings(in);
+                    // The conversions take as long as they take
+                    socket.setSoTimeout(0);
+                    RunOutput output = new RunOutput(LOGGER);
+                    int status;
+                    try {
+                        status = handler.handle(workingDir, args, output);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Daemon run failed.", e);
+                        output.add(new RunOutput.Message(true, "Daemon run failed : " + e));
+                        status = 1;
+                    }
+                    out.writeByte(DaemonProtocol.OK);
+                    DaemonProtocol.writeString(out, registry.getToolVersion());
+                    DaemonProtocol.writeMessages(out, output.getMessages());
+                    out.writeInt(status);
+                    break;
+                default:
+                    out.writeByte(DaemonProtocol.UNKNOWN_COMMAND);
+                    DaemonProtocol.writeString(out, registry.getToolVersion());
+            }
+        }
+    }
+
+
+    /**
+     * Names the request threads, which keep the JVM alive until the requests being handled when the daemon stops
+     * complete.
+     */
+    private static class RequestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "lazymodel-daemon-request-" + count.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
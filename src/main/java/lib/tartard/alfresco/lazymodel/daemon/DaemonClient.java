@@ -0,0 +1,178 @@
+package lib.tartard.alfresco.lazymodel.daemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Client of the daemon of its version of the tool, found through the {@link DaemonRegistry}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class DaemonClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaemonClient.class);
+
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    /** Interval at which the registry is polled while a daemon starts, in milliseconds. */
+    private static final long POLL_INTERVAL = 100;
+
+    private final DaemonRegistry registry;
+
+    public DaemonClient(DaemonRegistry registry) {
+        this.registry = registry;
+    }
+
+
+    /**
+     * Run the tool in the daemon.
+     * @param workingDir working directory which relative paths are resolved against
+     * @param args command line arguments
+     * @param output output the messages of the run are added to
+     * @return the exit status of the run, or null if no daemon of this version is reachable.
+     */
+    public Integer run(File workingDir, List<String> args, RunOutput output) {
+        DaemonRegistry.Entry entry = readEntry();
+        if (entry == null) {
+            return null;
+        }
+        try (Socket socket = connect(entry)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DaemonProtocol.writeHeader(out, registry.getToolVersion(), entry.getToken(), DaemonProtocol.RUN);
+            DaemonProtocol.writeString(out, workingDir.getAbsolutePath());
+            DaemonProtocol.writeStrings(out, args);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (!isAccepted(in)) {
+                return null;
+            }
+            DaemonProtocol.readMessages(in, output);
+            return in.readInt();
+        } catch (IOException e) {
+            LOGGER.debug("Daemon unreachable on port {} : {}", entry.getPort(), e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * @return true if a daemon of this version answers.
+     */
+    public boolean isRunning() {
+        return send(DaemonProtocol.PING);
+    }
+
+    /**
+     * Ask the daemon of this version to stop.
+     * @return true if a daemon was running.
+     */
+    public boolean stop() {
+        return send(DaemonProtocol.STOP);
+    }
+
+
+    /**
+     * Start a daemon in the background, and wait for it to answer.
+     * @param command command starting the daemon process
+     * @param timeout time to wait for the daemon to answer, in milliseconds
+     * @return true if the daemon answers in time.
+     */
+    public boolean start(List<String> command, long timeout) {
+        File logFile = registry.getLogFile();
+        try {
+            Files.createDirectories(logFile.getAbsoluteFile().getParentFile().toPath());
+            new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                    .redirectInput(ProcessBuilder.Redirect.from(new File(getNullDevice())))
+                    .start();
+        } catch (IOException e) {
+            LOGGER.warn("Could not start daemon : {}", e.getMessage());
+            return false;
+        }
+        LOGGER.info("Starting daemon, see '{}'.", logFile);
+
+        long deadline = System.currentTimeMillis() + timeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (isRunning()) {
+                return true;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        LOGGER.warn("Daemon didn't answer within {} ms, see '{}'.", timeout, logFile);
+        return false;
+    }
+
+
+    private boolean send(byte command) {
+        DaemonRegistry.Entry entry = readEntry();
+        if (entry == null) {
+            return false;
+        }
+        try (Socket socket = connect(entry)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DaemonProtocol.writeHeader(out, registry.getToolVersion(), entry.getToken(), command);
+            out.flush();
+            return isAccepted(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        } catch (IOException e) {
+            LOGGER.debug("Daemon unreachable on port {} : {}", entry.getPort(), e.getMessage());
+            return false;
+        }
+    }
+
+    private DaemonRegistry.Entry readEntry() {
+        try {
+            return registry.read();
+        } catch (IOException e) {
+            LOGGER.debug("Could not read daemon registry : {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Socket connect(DaemonRegistry.Entry entry) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), entry.getPort()), CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static boolean isAccepted(DataInputStream in) throws IOException {
+        byte status = in.readByte();
+        String daemonVersion = DaemonProtocol.readString(in);
+        switch (status) {
+            case DaemonProtocol.OK:
+                return true;
+            case DaemonProtocol.VERSION_MISMATCH:
+                LOGGER.warn("Daemon is of version {}, ignoring it.", daemonVersion);
+                return false;
+            case DaemonProtocol.UNAUTHORIZED:
+                LOGGER.warn("Daemon rejected the token of its registry.");
+                return false;
+            default:
+                LOGGER.warn("Daemon rejected the request with status {}.", status);
+                return false;
+        }
+    }
+
+    private static String getNullDevice() {
+        return File.separatorChar == '\\' ? "NUL" : "/dev/null";
+    }
+}
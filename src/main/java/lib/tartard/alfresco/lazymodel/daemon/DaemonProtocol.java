@@ -0,0 +1,111 @@
+package lib.tartard.alfresco.lazymodel.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages exchanged between the daemon and its clients.
+ *
+ * A request starts with a header holding the version of the tool of the client and the token of the daemon, followed
+ * by a command. The daemon answers with a status, its own version, and the outcome of the command. Strings are written
+ * as their UTF-8 length and bytes, so that long messages such as stack traces fit.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+final class DaemonProtocol {
+
+    /** "LZMD" */
+    static final int MAGIC = 0x4C5A4D44;
+
+    static final int PROTOCOL_VERSION = 1;
+
+    static final byte RUN = 1;
+
+    static final byte STOP = 2;
+
+    static final byte PING = 3;
+
+    static final byte OK = 0;
+
+    static final byte VERSION_MISMATCH = 1;
+
+    static final byte UNAUTHORIZED = 2;
+
+    static final byte UNKNOWN_COMMAND = 3;
+
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    private static final int MAX_LIST_SIZE = 64 * 1024;
+
+    private DaemonProtocol() {
+    }
+
+
+    static void writeHeader(DataOutputStream out, String toolVersion, String token, byte command)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(PROTOCOL_VERSION);
+        writeString(out, toolVersion);
+        writeString(out, token);
+        out.writeByte(command);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length + ".");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > MAX_LIST_SIZE) {
+            throw new IOException("Invalid list size " + size + ".");
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    static void writeMessages(DataOutputStream out, List<RunOutput.Message> messages) throws IOException {
+        out.writeInt(messages.size());
+        for (RunOutput.Message message : messages) {
+            out.writeBoolean(message.isError());
+            writeString(out, message.getText());
+        }
+    }
+
+    static void readMessages(DataInputStream in, RunOutput output) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > MAX_LIST_SIZE) {
+            throw new IOException("Invalid list size " + size + ".");
+        }
+        for (int i = 0; i < size; i++) {
+            boolean error = in.readBoolean();
+            output.add(new RunOutput.Message(error, readString(in)));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package lib.tartard.alfresco.lazymodel.daemon;
+
+import lib.tartard.alfresco.lazymodel.services.AtomicOutputFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * File through which clients find the daemon of their version of the tool : it holds the loopback port the daemon
+ * listens on, and the secret token clients must send. Each version of the tool has its own registry file, so that a
+ * client never talks to a daemon of another version.
+ *
+ * The file is readable by its owner only, where the file system supports it.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class DaemonRegistry {
+
+    private static final String PORT = "port";
+
+    private static final String TOKEN = "token";
+
+    private static final String PID = "pid";
+
+    private final File folder;
+
+    private final String toolVersion;
+
+    /**
+     * @param folder folder of the registry files
+     * @param toolVersion version of the tool of the daemon
+     */
+    public DaemonRegistry(File folder, String toolVersion) {
+        this.folder = folder;
+        this.toolVersion = toolVersion;
+    }
+
+
+    /**
+     * @return the default folder of the registry files, in the home folder of the user.
+     */
+    public static File getDefaultFolder() {
+        return new File(System.getProperty("user.home"), ".lazymodel" + File.separator + "daemon");
+    }
+
+
+    /**
+     * Read the address of the daemon.
+     * @return the address, or null if no daemon is registered.
+     * @throws IOException if the registry file can't be read.
+     */
+    public Entry read() throws IOException {
+        File file = getFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            return new Entry(Integer.parseInt(properties.getProperty(PORT)), properties.getProperty(TOKEN));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid daemon registry '" + file + "'.", e);
+        }
+    }
+
+
+    /**
+     * Register the daemon listening on the given port.
+     * @param entry
+     * @param pid description of the daemon process, for humans
+     * @throws IOException
+     */
+    public void write(Entry entry, String pid) throws IOException {
+        Files.createDirectories(folder.toPath());
+        // The token is only secret if other users can't list the folder while the file is being written
+        restrictToOwner(folder, "rwx------");
+        Properties properties = new Properties();
+        properties.setProperty(PORT, String.valueOf(entry.getPort()));
+        properties.setProperty(TOKEN, entry.getToken());
+        properties.setProperty(PID, pid);
+        File file = getFile();
+        try (AtomicOutputFile output = new AtomicOutputFile(file)) {
+            Writer writer = new OutputStreamWriter(output.getOutputStream(), StandardCharsets.UTF_8);
+            properties.store(writer, "lazymodel " + toolVersion + " daemon");
+            writer.flush();
+            output.commit();
+        }
+        restrictToOwner(file, "rw-------");
+    }
+
+
+    /**
+     * Unregister the daemon, if the registry file still designates it.
+     * @param entry
+     */
+    public void delete(Entry entry) {
+        try {
+            Entry registered = read();
+            if (registered != null && registered.getToken().equals(entry.getToken())) {
+                Files.deleteIfExists(getFile().toPath());
+            }
+        } catch (IOException e) {
+            // Clients find out by themselves that the daemon is gone
+        }
+    }
+
+
+    /**
+     * @return the registry file of the daemon of this version.
+     */
+    public File getFile() {
+        return new File(folder, "daemon-" + toolVersion + ".properties");
+    }
+
+    /**
+     * @return the file the output of a daemon of this version started by a client is written to.
+     */
+    public File getLogFile() {
+        return new File(folder, "daemon-" + toolVersion + ".log");
+    }
+
+    public String getToolVersion() {
+        return toolVersion;
+    }
+
+
+    private static void restrictToOwner(File file, String posixPermissions) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = PosixFilePermissions.fromString(posixPermissions);
+            Files.setPosixFilePermissions(file.toPath(), permissions);
+        } catch (UnsupportedOperationException e) {
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+    }
+
+
+    /**
+     * Address of a daemon.
+     */
+    public static class Entry {
+
+        private final int port;
+
+        private final String token;
+
+        public Entry(int port, String token) {
+            this.port = port;
+            this.token = token;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package lib.tartard.alfresco.lazymodel.daemon;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Messages of a run meant for the user who launched it, such as stale files or failures : they are logged where the
+ * run is performed, and recorded so that a daemon can send them back to its client.
+ *
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class RunOutput {
+
+    private final Logger logger;
+
+    private final List<Message> messages = new ArrayList<>();
+
+    /**
+     * @param logger logger the messages are logged to as they are recorded, or null to only record them
+     */
+    public RunOutput(Logger logger) {
+        this.logger = logger;
+    }
+
+
+    public void info(String message) {
+        add(new Message(false, message));
+    }
+
+    public void error(String message) {
+        add(new Message(true, message));
+    }
+
+    /**
+     * @return the messages recorded so far, in order.
+     */
+    public synchronized List<Message> getMessages() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    /**
+     * Log all the recorded messages to the given logger.
+     * @param target
+     */
+    public void replay(Logger target) {
+        for (Message message : getMessages()) {
+            if (message.isError()) {
+                target.error(message.getText());
+            } else {
+                target.info(message.getText());
+            }
+        }
+    }
+
+    synchronized void add(Message message) {
+        messages.add(message);
+        if (logger != null) {
+            if (message.isError()) {
+                logger.error(message.getText());
+            } else {
+                logger.info(message.getText());
+            }
+        }
+    }
+
+
+    /**
+     * A single message.
+     */
+    public static class Message {
+
+        private final boolean error;
+
+        private final String text;
+
+        Message(boolean error, String text) {
+            this.error = error;
+            this.text = text;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes all the generated files into a single ZIP, JAR or tar archive, instead of one file each on the file system :
+ * no folder is created, and nothing is written to disk but the archive itself, or nothing at all when the archive is
+ * streamed, e.g. to the standard output.
+ *
+ * Each file is stored under its path relative to a base folder, usually the folder the configurations generate their
+ * files in. The archive is reproducible : its entries are sorted by name, whatever the order in which the files were
+ * generated, and all carry the same date, {@link #ENTRY_TIME}, with no owner. Generating the same files thus always
+ * gives the same bytes. As the entries can only be sorted once all of them are known, each committed file is appended
+ * to a temporary spill file, next to the archive or in the temporary folder : only the names and positions of the
+ * entries stay in memory. Closing the sink writes the archive from the spill file, one entry at a time, and deletes
+ * it.
+ *
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ArchiveOutputSink implements OutputSink {
+
+    /** Modification date of every entry, in milliseconds since the epoch : 2010-01-01T00:00:00Z. */
+    public static final long ENTRY_TIME = 1262304000000L;
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private static final int TAR_NAME_SIZE = 100;
+
+    private static final int TAR_PREFIX_SIZE = 155;
+
+    /**
+     * Format of an archive.
+     */
+    public enum Format {
+        ZIP, TAR;
+
+        /**
+         * Get the format of the given archive file after its extension : {@code .tar}, or {@code .zip} and
+         * {@code .jar}.
+         * @param file
+         * @return the format, or null if the file isn't an archive.
+         */
+        public static Format of(File file) {
+            String extension = FilenameUtils.getExtension(file.getName()).toLowerCase(Locale.ROOT);
+            if ("tar".equals(extension)) {
+                return TAR;
+            }
+            return "zip".equals(extension) || "jar".equals(extension) ? ZIP : null;
+        }
+    }
+
+    private final Format format;
+
+    private final File baseFolder;
+
+    private final OutputStream outputStream;
+
+    private final AtomicOutputFile archiveFile;
+
+    private final File spillFolder;
+
+    private final Map<String, SpilledEntry> entries = new TreeMap<>();
+
+    private File spillFile;
+
+    private FileChannel spill;
+
+    private boolean closed;
+
+    /**
+     * Write the archive to the given stream, closed along with the sink.
+     * @param outputStream
+     * @param format
+     * @param baseFolder folder the names of the entries are relative to
+     */
+    public ArchiveOutputSink(OutputStream outputStream, Format format, File baseFolder) {
+        this.format = format;
+        this.baseFolder = baseFolder;
+        this.outputStream = outputStream;
+        this.archiveFile = null;
+        this.spillFolder = null;
+    }
+
+    /**
+     * Write the archive to the given file, in the format given by its extension. The file is replaced atomically when
+     * the sink is closed, and only if its content changed.
+     * @param archive
+     * @param baseFolder folder the names of the entries are relative to
+     * @throws IOException if the archive can't be created
+     * @throws IllegalArgumentException if the extension of the file isn't the one of an archive
+     */
+    public ArchiveOutputSink(File archive, File baseFolder) throws IOException {
+        this.format = Format.of(archive);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown archive format : '" + archive
+                    + "'. Expected a .zip, .jar or .tar file.");
+        }
+        this.baseFolder = baseFolder;
+        File parent = archive.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        this.archiveFile = new AtomicOutputFile(archive);
+        this.outputStream = archiveFile.getOutputStream();
+        this.spillFolder = parent;
+    }
+
+
+    @Override
+    public Output open(File outputFile) {
+        return new Entry(getEntryName(outputFile));
+    }
+
+    @Override
+    public boolean isWritingFiles() {
+        return false;
+    }
+
+
+    /**
+     * Write the archive, with all the files committed so far.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        Map<String, SpilledEntry> sortedEntries;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sortedEntries = new TreeMap<>(entries);
+            entries.clear();
+        }
+        try {
+            if (format == Format.ZIP) {
+                writeZip(sortedEntries);
+            } else {
+                writeTar(sortedEntries);
+            }
+            if (archiveFile != null) {
+                archiveFile.commit();
+            } else {
+                outputStream.close();
+            }
+        } finally {
+            try {
+                if (archiveFile != null) {
+                    archiveFile.close();
+                }
+            } finally {
+                deleteSpill();
+            }
+        }
+    }
+
+
+    /**
+     * Get the name of the entry of the given file : its path relative to the base folder, with '/' separators.
+     * @param outputFile
+     * @return
+     */
+    public String getEntryName(File outputFile) {
+        String base = baseFolder.getAbsoluteFile().toPath().normalize().toString();
+        String path = outputFile.getAbsoluteFile().toPath().normalize().toString();
+        if (path.startsWith(base + File.separator)) {
+            path = path.substring(base.length() + 1);
+        }
+        path = path.replace(File.separatorChar, '/');
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    /**
+     * @return the names of the files committed so far, sorted.
+     */
+    public synchronized Set<String> getEntryNames() {
+        return new TreeSet<>(entries.keySet());
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public File getBaseFolder() {
+        return baseFolder;
+    }
+
+
+    /**
+     * Append the content of a file to the spill file, replacing any previous file with the same name.
+     * @param name
+     * @param content
+     * @return true if the entry is new or its content changed.
+     * @throws IOException if the spill file can't be written
+     */
+    private synchronized boolean put(String name, byte[] content) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Archive already written, could not add '" + name + "'.");
+        }
+        String hash = ContentHash.of(content);
+        SpilledEntry previous = entries.get(name);
+        if (previous != null && previous.hash.equals(hash)) {
+            return false;
+        }
+        if (spill == null) {
+            spillFile = File.createTempFile(".lazymodel-archive-", ".spill", spillFolder);
+            spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long position = spill.size();
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            spill.write(buffer, position + buffer.position());
+        }
+        entries.put(name, new SpilledEntry(position, content.length, hash));
+        return true;
+    }
+
+    /**
+     * Read the content of an entry back from the spill file.
+     * @param entry
+     * @return
+     * @throws IOException
+     */
+    private byte[] read(SpilledEntry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (spill.read(buffer, entry.position + buffer.position()) < 0) {
+                throw new EOFException("Spill file '" + spillFile + "' is truncated.");
+            }
+        }
+        return buffer.array();
+    }
+
+    private synchronized void deleteSpill() throws IOException {
+        if (spill != null) {
+            try {
+                spill.close();
+            } finally {
+                Files.deleteIfExists(spillFile.toPath());
+                spill = null;
+            }
+        }
+    }
+
+    private void writeZip(Map<String, SpilledEntry> sortedEntries) throws IOException {
+        // ZipEntry converts its time to the local time zone : pick the instant giving the same local date everywhere
+        Calendar localTime = Calendar.getInstance();
+        localTime.clear();
+        localTime.set(2010, Calendar.JANUARY, 1, 0, 0, 0);
+        ZipOutputStream zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        for (Map.Entry<String, SpilledEntry> entry : sortedEntries.entrySet()) {
+            ZipEntry zipEntry = new ZipEntry(entry.getKey());
+            zipEntry.setTime(localTime.getTimeInMillis());
+            zip.putNextEntry(zipEntry);
+            zip.write(read(entry.getValue()));
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private void writeTar(Map<String, SpilledEntry> sortedEntries) throws IOException {
+        OutputStream tar = new BufferedOutputStream(outputStream);
+        for (Map.Entry<String, SpilledEntry> entry : sortedEntries.entrySet()) {
+            byte[] content = read(entry.getValue());
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            int split = getPrefixLength(name);
+            if (split < 0) {
+                // Too long for the ustar header : recorded in a pax extended header instead
+                byte[] record = getPaxRecord("path", entry.getKey());
+                writeTarEntry(tar, Arrays.copyOf(name, TAR_NAME_SIZE), new byte[0], 'x', record);
+                writeTarEntry(tar, Arrays.copyOf(name, TAR_NAME_SIZE), new byte[0], '0', content);
+            } else {
+                writeTarEntry(tar, Arrays.copyOfRange(name, split == 0 ? 0 : split + 1, name.length),
+                        Arrays.copyOf(name, split), '0', content);
+            }
+        }
+        tar.write(new byte[2 * TAR_BLOCK_SIZE]);
+        tar.flush();
+    }
+
+    /**
+     * Get where to split the given name between the prefix and name fields of a ustar header.
+     * @param name
+     * @return the length of the prefix, 0 if the name fits alone, -1 if it can't be split.
+     */
+    private static int getPrefixLength(byte[] name) {
+        if (name.length <= TAR_NAME_SIZE) {
+            return 0;
+        }
+        for (int i = Math.min(name.length - 1, TAR_PREFIX_SIZE); i > 0; i--) {
+            if (name[i] == '/' && name.length - i - 1 <= TAR_NAME_SIZE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] getPaxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        // The length of a record includes its own digits
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() != String.valueOf(length).length()) {
+            total++;
+        }
+        return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeTarEntry(OutputStream tar, byte[] name, byte[] prefix, char type, byte[] content)
+            throws IOException {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, TAR_NAME_SIZE));
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, content.length);
+        putOctal(header, 136, 12, ENTRY_TIME / 1000L);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefix, 0, header, 345, Math.min(prefix.length, TAR_PREFIX_SIZE));
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        tar.write(header);
+        tar.write(content);
+        int padding = (TAR_BLOCK_SIZE - content.length % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+        tar.write(new byte[padding]);
+    }
+
+    /**
+     * Write a number as a zero-padded octal field, terminated by a NUL.
+     */
+    private static void putOctal(byte[] header, int offset, int size, long value) {
+        String octal = Long.toOctalString(value);
+        while (octal.length() < size - 1) {
+            octal = "0" + octal;
+        }
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, size - 1);
+        header[offset + size - 1] = 0;
+    }
+
+
+    /**
+     * Position, length and content hash of a file in the spill file.
+     */
+    private static class SpilledEntry {
+
+        private final long position;
+
+        private final int length;
+
+        private final String hash;
+
+        private SpilledEntry(long position, int length, String hash) {
+            this.position = position;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+
+    /**
+     * Generated file, kept in memory until committed to the spill file.
+     */
+    private class Entry implements Output {
+
+        private final String name;
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return content;
+        }
+
+        @Override
+        public boolean commit() throws IOException {
+            return put(name, content.toByteArray());
+        }
+
+        @Override
+        public void close() {
+            // Nothing to discard but the content in memory
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Performs conversions asynchronously with a {@link ModelConverter}, for callers which can't block a thread per
+ * conversion, such as the request handlers of a server.
+ *
+ * Conversions run on an executor : by default, one virtual thread per conversion where the JDK supports them, or a
+ * pool of as many threads as available processors otherwise. At most {@code maxInFlight} conversions are submitted
+ * and not yet completed at the same time, so that a burst of requests never piles up thousands of parsed models in
+ * memory : submitting a single conversion blocks the caller until a place is free, while the conversions of a batch
+ * are submitted as places free up, without blocking anyone. Cancelling the future of a conversion which hasn't started
+ * yet prevents it from running, and frees its place at once.
+ *
+ * As with the {@link BatchConverter}, a failing conversion completes its future normally, with a
+ * {@link ConversionResult.Status#FAILED} result holding its exception. The manifests of the output folders are saved
+ * after each conversion.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class AsyncModelConverter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncModelConverter.class);
+
+    /** Default maximum number of conversions submitted and not yet completed : twice the number of processors. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final ModelConverter modelConverter;
+
+    private final Executor executor;
+
+    private final boolean ownedExecutor;
+
+    private final Semaphore inFlight;
+
+    /** Batches with conversions left to submit, waiting for a place. */
+    private final Queue<Batch> waitingBatches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Instantiate an AsyncModelConverter running conversions on its own executor, with at most
+     * {@link #DEFAULT_MAX_IN_FLIGHT} conversions in flight. The executor is shut down on {@link #close()}.
+     * @param modelConverter converter used to perform each conversion
+     */
+    public AsyncModelConverter(ModelConverter modelConverter) {
+        this(modelConverter, newDefaultExecutor(), true, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Instantiate an AsyncModelConverter running conversions on the given executor, which isn't shut down on
+     * {@link #close()}.
+     * @param modelConverter converter used to perform each conversion
+     * @param executor executor running the conversions
+     * @param maxInFlight maximum number of conversions submitted and not yet completed
+     */
+    public AsyncModelConverter(ModelConverter modelConverter, Executor executor, int maxInFlight) {
+        this(modelConverter, executor, false, maxInFlight);
+    }
+
+    private AsyncModelConverter(ModelConverter modelConverter, Executor executor, boolean ownedExecutor,
+                                int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The number of conversions in flight must be positive : "
+                    + maxInFlight);
+        }
+        this.modelConverter = modelConverter;
+        this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+
+    /**
+     * Submit the conversion specified by the given {@code config}, waiting for a place if the maximum number of
+     * conversions are in flight.
+     *
+     * @param config configuration to be used to generate a file.
+     * @return the future result of the conversion. It fails only if the conversion couldn't be submitted, e.g. because
+     * the calling thread was interrupted while waiting for a place.
+     */
+    public CompletableFuture<ConversionResult> convertAsync(ConversionConfig config) {
+        CompletableFuture<ConversionResult> future = new CompletableFuture<>();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        submit(config, future);
+        return future;
+    }
+
+
+    /**
+     * Submit the conversions specified by the given {@code configs}, passing their results to the given consumer as
+     * soon as each one completes. The conversions are submitted in order as places free up : this method doesn't wait
+     * for a place, and returns at once.
+     *
+     * @param configs list of configurations to be used to generate files.
+     * @param consumer consumer of the results, called on the thread completing each conversion. A failing consumer
+     *                 doesn't fail the other conversions.
+     * @return the future results of all the conversions, in the order of the given configurations. Cancelling it
+     * cancels the conversions which haven't started yet, and prevents the remaining ones from being submitted.
+     */
+    public CompletableFuture<List<ConversionResult>> convertAsync(List<ConversionConfig> configs,
+                                                                  final Consumer<ConversionResult> consumer) {
+        modelConverter.refreshDictionary();
+        final List<CompletableFuture<ConversionResult>> futures = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            CompletableFuture<ConversionResult> future = new CompletableFuture<>();
+            future.thenAccept(result -> {
+                try {
+                    consumer.accept(result);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Conversion result consumer failed : {}", e.getMessage(), e);
+                }
+            });
+            futures.add(future);
+        }
+
+        final CompletableFuture<List<ConversionResult>> all = new CompletableFuture<>();
+        all.whenComplete((results, error) -> {
+            if (all.isCancelled()) {
+                for (CompletableFuture<ConversionResult> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        });
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            if (error != null) {
+                all.completeExceptionally(error);
+                return;
+            }
+            List<ConversionResult> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<ConversionResult> future : futures) {
+                results.add(future.join());
+            }
+            LOGGER.info("{} conversion(s) performed : {}", results.size(), BatchConverter.countByStatus(results));
+            all.complete(results);
+        });
+
+        new Batch(configs, futures, all).pump();
+        return all;
+    }
+
+
+    /**
+     * @return the number of conversions which can still be submitted without waiting.
+     */
+    public int getAvailablePlaces() {
+        return inFlight.availablePermits();
+    }
+
+
+    /**
+     * Run the conversion specified by the given {@code config} on the executor, once a place was taken for it.
+     * @param config
+     * @param future future completed with the result of the conversion
+     */
+    private void submit(ConversionConfig config, final CompletableFuture<ConversionResult> future) {
+        final Conversion conversion = new Conversion(config, future);
+        // A conversion cancelled before it started gives its place back at once
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                conversion.abandon();
+            }
+        });
+        if (future.isDone()) {
+            return;
+        }
+        try {
+            executor.execute(conversion);
+        } catch (RejectedExecutionException e) {
+            conversion.abandon();
+            future.completeExceptionally(e);
+        }
+    }
+
+
+    /**
+     * Give a place back, and pass it on to the batches waiting for one.
+     */
+    private void releasePlace() {
+        inFlight.release();
+        Batch batch;
+        while (inFlight.availablePermits() > 0 && (batch = waitingBatches.poll()) != null) {
+            batch.pump();
+        }
+    }
+
+
+    /**
+     * Shut the executor down if it was created by this converter. The conversions already submitted are still
+     * performed.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+
+    /**
+     * Create an executor running each conversion on its own virtual thread if the JDK supports them, or a pool of as
+     * many threads as available processors otherwise.
+     * @return
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Virtual threads unavailable, converting on a thread pool.");
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new AsyncThreadFactory());
+        }
+    }
+
+
+    /**
+     * A single conversion, which holds a place until it completes, or is abandoned before it starts.
+     */
+    private class Conversion implements Runnable {
+
+        private final ConversionConfig config;
+
+        private final CompletableFuture<ConversionResult> future;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Conversion(ConversionConfig config, CompletableFuture<ConversionResult> future) {
+            this.config = config;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                // Abandoned, its place was already given back
+                return;
+            }
+            ConversionResult result;
+            try {
+                if (future.isDone()) {
+                    return;
+                }
+                result = modelConverter.generate(config);
+                modelConverter.saveManifests();
+            } catch (RuntimeException e) {
+                result = ConversionResult.failed(config, e);
+            } finally {
+                releasePlace();
+            }
+            future.complete(result);
+        }
+
+        /**
+         * Give the place of the conversion back and prevent it from running, unless it already started.
+         */
+        void abandon() {
+            if (started.compareAndSet(false, true)) {
+                releasePlace();
+            }
+        }
+    }
+
+
+    /**
+     * Conversions of a batch, submitted in order as places free up. Submissions are serialized : a thread asking to
+     * pump while another one is pumping leaves the work to it, so that a caller-runs executor never recurses.
+     */
+    private class Batch {
+
+        private final List<ConversionConfig> configs;
+
+        private final List<CompletableFuture<ConversionResult>> futures;
+
+        private final CompletableFuture<List<ConversionResult>> all;
+
+        private final AtomicInteger pumpRequests = new AtomicInteger();
+
+        /** Index of the next conversion to submit, only used while pumping. */
+        private int next;
+
+        Batch(List<ConversionConfig> configs, List<CompletableFuture<ConversionResult>> futures,
+              CompletableFuture<List<ConversionResult>> all) {
+            this.configs = configs;
+            this.futures = futures;
+            this.all = all;
+        }
+
+        /**
+         * Submit the next conversions while places are free, then wait for a place if some are left.
+         */
+        void pump() {
+            if (pumpRequests.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (next < configs.size() && !all.isDone()) {
+                    if (!inFlight.tryAcquire()) {
+                        waitingBatches.add(this);
+                        // A place freed up before the batch was queued would not be passed on
+                        if (inFlight.availablePermits() == 0) {
+                            break;
+                        }
+                        continue;
+                    }
+                    submit(configs.get(next), futures.get(next));
+                    next++;
+                }
+            } while (pumpRequests.decrementAndGet() != 0);
+        }
+    }
+
+
+    /**
+     * Creates named daemon threads, so that a forgotten pool never prevents the JVM from exiting.
+     */
+    private static class AsyncThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "lazymodel-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
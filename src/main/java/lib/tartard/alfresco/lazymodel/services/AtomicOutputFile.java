@@ -0,0 +1,128 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.UUID;
+
+/**
+ * Output file written through a temporary file.
+ *
+ * The content is written to a temporary file in the same folder as the target file. When committed, the temporary
+ * file is compared byte for byte with the target file : the target is atomically replaced only if the content differs,
+ * so that readers never see a half written file, and an unchanged file keeps its modification date.
+ * If the output is closed without being committed, e.g. because the generation failed, the target file is left
+ * untouched and the temporary file is deleted.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class AtomicOutputFile implements OutputSink.Output {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path target;
+
+    private final Path temporary;
+
+    private final OutputStream outputStream;
+
+    private boolean committed;
+
+    /**
+     * Open a temporary file to write the content of the given target file.
+     * @param target
+     * @throws IOException if the temporary file can't be created
+     */
+    public AtomicOutputFile(File target) throws IOException {
+        this.target = target.toPath().toAbsolutePath();
+        this.temporary = this.target.resolveSibling("." + this.target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        this.outputStream = new BufferedOutputStream(
+                Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                BUFFER_SIZE);
+    }
+
+
+    /**
+     * @return the stream to write the content of the file to. It doesn't need to be closed.
+     */
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+
+    /**
+     * Replace the target file with the written content, unless it already has the same content.
+     * @return true if the target file has been replaced, false if it was already up to date.
+     * @throws IOException if the target file can't be replaced
+     */
+    @Override
+    public boolean commit() throws IOException {
+        outputStream.close();
+        // Committed only once the temporary file is gone, so that a failed commit still deletes it when closed
+        if (hasSameContent(temporary, target)) {
+            Files.delete(temporary);
+            committed = true;
+            return false;
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        return true;
+    }
+
+
+    /**
+     * Delete the temporary file if the content wasn't committed.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                outputStream.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+
+    /**
+     * Compare the content of two files byte per byte.
+     * @param file
+     * @param other
+     * @return true if both files exist and have the same content
+     * @throws IOException
+     */
+    static boolean hasSameContent(Path file, Path other) throws IOException {
+        if (!Files.isRegularFile(other) || Files.size(file) != Files.size(other)) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+             InputStream otherIn = new BufferedInputStream(Files.newInputStream(other), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] otherBuffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int otherRead = 0;
+                while (otherRead < read) {
+                    int count = otherIn.read(otherBuffer, otherRead, read - otherRead);
+                    if (count < 0) {
+                        return false;
+                    }
+                    otherRead += count;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != otherBuffer[i]) {
+                        return false;
+                    }
+                }
+            }
+            return otherIn.read() < 0;
+        }
+    }
+}
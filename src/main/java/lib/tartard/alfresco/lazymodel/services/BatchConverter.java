@@ -0,0 +1,496 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs many conversions in parallel with a {@link ModelConverter}.
+ *
+ * Every configuration is converted on a bounded pool of worker threads, sized after the number of available cores by
+ * default. A failing conversion does not stop the other ones : its exception is kept in its {@link ConversionResult}.
+ * Results are always returned in the order of the given configurations, whatever the order in which the conversions
+ * actually completed. The manifests of the output folders are saved once all the conversions are performed.
+ *
+ * When resolving imports, each model is parsed once, then indexed along with the models defining the namespaces it
+ * imports, which are indexed first (see {@link ModelGraph}). The conversions of a model start as soon as it is
+ * indexed, while the models depending on it are indexed in turn. Models in a cycle of imports, and the models
+ * depending on them, can't be indexed : their conversions fail with a description of the cycle.
+ *
+ * A conversion rendering its template once per element of the model shares its elements with the idle workers : the
+ * worker performing the conversion renders elements itself until none is left, so that it never waits for a worker
+ * which could be waiting for it in turn. Each element is written to its file as it is rendered.
+ *
+ * When given a {@link Shard}, only the configurations assigned to this shard are converted. The models of the other
+ * configurations are still parsed when resolving imports, as the models of the shard may import them.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class BatchConverter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchConverter.class);
+
+    private final ModelConverter modelConverter;
+
+    private final int threads;
+
+    private volatile boolean resolvingImports;
+
+    private volatile Shard shard;
+
+    /**
+     * Instantiate a BatchConverter using as many worker threads as available processors.
+     * @param modelConverter converter used to perform each conversion
+     */
+    public BatchConverter(ModelConverter modelConverter) {
+        this(modelConverter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Instantiate a BatchConverter using at most {@code threads} worker threads.
+     * @param modelConverter converter used to perform each conversion
+     * @param threads maximum number of conversions performed at the same time
+     */
+    public BatchConverter(ModelConverter modelConverter, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive : " + threads);
+        }
+        this.modelConverter = modelConverter;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Performs all the given conversions in parallel.
+     *
+     * @param configs list of configurations to be used to generate files.
+     * @return one result per configuration, in the same order as {@code configs}. When sharded, one result per
+     * configuration of the shard only.
+     */
+    public List<ConversionResult> convert(List<ConversionConfig> configs) {
+        Shard currentShard = shard;
+        List<ConversionConfig> selected = currentShard != null ? currentShard.select(configs) : configs;
+        if (currentShard != null) {
+            LOGGER.info("Shard {} : {} of {} conversion(s)", currentShard, selected.size(), configs.size());
+        }
+        List<ConversionResult> results = new ArrayList<>(selected.size());
+        if (selected.isEmpty()) {
+            return results;
+        }
+        modelConverter.refreshDictionary();
+
+        // Conversions rendering their template per element may use all the workers, whatever the number of configs
+        int poolSize = threads;
+        if (!hasFanOut(selected)) {
+            poolSize = Math.min(threads, selected.size());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new WorkerThreadFactory());
+        try {
+            List<Future<ConversionResult>> futures;
+            if (resolvingImports) {
+                Set<ConversionConfig> selectedSet =
+                        Collections.newSetFromMap(new IdentityHashMap<ConversionConfig, Boolean>());
+                selectedSet.addAll(selected);
+                futures = submitInDependencyOrder(configs, selectedSet, executor);
+            } else {
+                futures = new ArrayList<>(selected.size());
+                for (ConversionConfig config : selected) {
+                    futures.add(executor.submit(new ConversionTask(config, null, null, executor)));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(getResult(selected.get(i), futures.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        modelConverter.saveManifests();
+
+        LOGGER.info("{} conversion(s) performed : {}", results.size(), countByStatus(results));
+        return results;
+    }
+
+
+    /**
+     * Whether models are indexed along with the models they import before being converted. Default is false.
+     * @return
+     */
+    public boolean isResolvingImports() {
+        return resolvingImports;
+    }
+
+
+    /**
+     * Set whether models are indexed along with the models they import before being converted.
+     * @param resolvingImports
+     */
+    public void setResolvingImports(boolean resolvingImports) {
+        this.resolvingImports = resolvingImports;
+    }
+
+
+    /**
+     * @return the shard whose configurations are converted, or null to convert all of them. Default is null.
+     */
+    public Shard getShard() {
+        return shard;
+    }
+
+
+    /**
+     * Set the shard whose configurations are converted.
+     * @param shard the shard, or null to convert all the configurations
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+
+
+    /**
+     * Count the results of each status.
+     * @param results
+     * @return
+     */
+    public static Map<ConversionResult.Status, Integer> countByStatus(List<ConversionResult> results) {
+        Map<ConversionResult.Status, Integer> counts = new EnumMap<>(ConversionResult.Status.class);
+        for (ConversionResult.Status status : ConversionResult.Status.values()) {
+            counts.put(status, 0);
+        }
+        for (ConversionResult result : results) {
+            counts.put(result.getStatus(), counts.get(result.getStatus()) + 1);
+        }
+        return counts;
+    }
+
+
+    /**
+     * Count the failed conversions among the given results.
+     * @param results
+     * @return
+     */
+    public static int countFailures(List<ConversionResult> results) {
+        int failures = 0;
+        for (ConversionResult result : results) {
+            if (result.isFailed()) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+
+    /**
+     * Whether any of the given configurations renders its template once per element of its model.
+     * @param configs
+     * @return
+     */
+    private boolean hasFanOut(List<ConversionConfig> configs) {
+        for (ConversionConfig config : configs) {
+            try {
+                if (modelConverter.getScope(config).isFanOut()) {
+                    return true;
+                }
+            } catch (RuntimeException e) {
+                // The conversion will fail with this error on its own
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Parse the models of the given configurations in parallel, then resolve them in the order of their imports, and
+     * submit the conversions of each model as soon as it is resolved.
+     * @param configs all the configurations, whose models may be imported
+     * @param selected the configurations to convert
+     * @param executor
+     * @return the conversions of the selected configurations, in the order of the configurations
+     */
+    private List<Future<ConversionResult>> submitInDependencyOrder(List<ConversionConfig> configs,
+                                                                   Set<ConversionConfig> selected,
+                                                                   ExecutorService executor) {
+        Map<String, List<Integer>> configsByModel = new LinkedHashMap<>();
+        for (int i = 0; i < configs.size(); i++) {
+            String modelPath = configs.get(i).getAlfrescoModelPath();
+            if (!configsByModel.containsKey(modelPath)) {
+                configsByModel.put(modelPath, new ArrayList<Integer>());
+            }
+            configsByModel.get(modelPath).add(i);
+        }
+
+        // Each model is parsed once, whatever the number of its conversions
+        Map<String, Future<ParsedModel>> parsing = new LinkedHashMap<>();
+        for (String modelPath : configsByModel.keySet()) {
+            parsing.put(modelPath, executor.submit(new ParsingTask(modelPath)));
+        }
+        Map<String, ParsedModel> parsedModels = new LinkedHashMap<>();
+        Map<String, Exception> failures = new HashMap<>();
+        for (Map.Entry<String, Future<ParsedModel>> parsingTask : parsing.entrySet()) {
+            try {
+                parsedModels.put(parsingTask.getKey(), parsingTask.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.put(parsingTask.getKey(), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failures.put(parsingTask.getKey(), cause instanceof Exception ? (Exception) cause : e);
+            }
+        }
+
+        ModelGraph graph = new ModelGraph(parsedModels);
+        for (List<String> cycle : graph.getCycles()) {
+            LOGGER.error("Cyclic imports between models : {}", ModelGraph.describe(cycle));
+        }
+
+        // Resolve the models once the models they import are resolved, and submit their conversions right away
+        Future<?>[] futures = new Future<?>[configs.size()];
+        Map<String, ResolvedModel> resolvedModels = new HashMap<>();
+        Map<String, Integer> remainingDependencies = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (String modelPath : graph.getModelPaths()) {
+            remainingDependencies.put(modelPath, graph.getDependencies(modelPath).size());
+            if (graph.getDependencies(modelPath).isEmpty()) {
+                ready.add(modelPath);
+            }
+        }
+        while (!ready.isEmpty()) {
+            String modelPath = ready.poll();
+            ResolvedModel resolvedModel = resolve(graph, modelPath, resolvedModels, failures);
+            if (resolvedModel != null) {
+                resolvedModels.put(modelPath, resolvedModel);
+                for (int i : configsByModel.get(modelPath)) {
+                    if (selected.contains(configs.get(i))) {
+                        futures[i] = executor.submit(new ConversionTask(configs.get(i), resolvedModel, null,
+                                executor));
+                    }
+                }
+            }
+            for (String dependent : graph.getDependents(modelPath)) {
+                int remaining = remainingDependencies.get(dependent) - 1;
+                remainingDependencies.put(dependent, remaining);
+                if (remaining == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        for (String modelPath : graph.getModelPaths()) {
+            if (!resolvedModels.containsKey(modelPath) && !failures.containsKey(modelPath)) {
+                failures.put(modelPath, new ModelConversionException(graph.getCyclicModels().contains(modelPath) ?
+                        "Model '" + modelPath + "' belongs to a cycle of imports." :
+                        "Model '" + modelPath + "' imports a model belonging to a cycle of imports."));
+            }
+        }
+        for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+            for (int i : configsByModel.get(failure.getKey())) {
+                if (selected.contains(configs.get(i))) {
+                    futures[i] = executor.submit(new ConversionTask(configs.get(i), null, failure.getValue(),
+                            executor));
+                }
+            }
+        }
+
+        List<Future<ConversionResult>> conversions = new ArrayList<>(selected.size());
+        for (Future<?> future : futures) {
+            if (future != null) {
+                @SuppressWarnings("unchecked")
+                Future<ConversionResult> conversion = (Future<ConversionResult>) future;
+                conversions.add(conversion);
+            }
+        }
+        return conversions;
+    }
+
+
+    /**
+     * Resolve the given model, whose dependencies are all resolved or failed.
+     * @param graph
+     * @param modelPath
+     * @param resolvedModels
+     * @param failures failures of the models, to which the failure of the given model is added
+     * @return the resolved model, or null if it failed.
+     */
+    private ResolvedModel resolve(ModelGraph graph, String modelPath, Map<String, ResolvedModel> resolvedModels,
+                                  Map<String, Exception> failures) {
+        List<ResolvedModel> dependencies = new ArrayList<>();
+        for (String dependency : graph.getDependencies(modelPath)) {
+            if (!resolvedModels.containsKey(dependency)) {
+                failures.put(modelPath, new ModelConversionException(
+                        "Model '" + modelPath + "' imports model '" + dependency + "', which could not be resolved."));
+                return null;
+            }
+            dependencies.add(resolvedModels.get(dependency));
+        }
+        try {
+            return modelConverter.resolve(graph.getModel(modelPath), dependencies);
+        } catch (ModelConversionException e) {
+            failures.put(modelPath, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Wait for the given conversion to complete and get its result.
+     * @param config
+     * @param future
+     * @return
+     */
+    private ConversionResult getResult(ConversionConfig config, Future<ConversionResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ConversionResult.failed(config, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return ConversionResult.failed(config, cause instanceof Exception ? (Exception) cause : e);
+        }
+    }
+
+
+    /**
+     * Conversion of a single configuration. Any exception is caught so that the other conversions go on.
+     */
+    private class ConversionTask implements Callable<ConversionResult> {
+
+        private final ConversionConfig config;
+
+        private final ResolvedModel resolvedModel;
+
+        private final Exception failure;
+
+        private final ExecutorService executor;
+
+        /**
+         * @param config
+         * @param resolvedModel model of the configuration, or null to get it from the model cache
+         * @param failure reason why the model of the configuration couldn't be resolved, or null
+         * @param executor executor on which the elements of the model may be shared
+         */
+        private ConversionTask(ConversionConfig config, ResolvedModel resolvedModel, Exception failure,
+                               ExecutorService executor) {
+            this.config = config;
+            this.resolvedModel = resolvedModel;
+            this.failure = failure;
+            this.executor = executor;
+        }
+
+        @Override
+        public ConversionResult call() {
+            if (failure != null) {
+                return ConversionResult.failed(config, failure);
+            }
+            try {
+                if (!modelConverter.getScope(config).isFanOut()) {
+                    return modelConverter.generate(config, resolvedModel);
+                }
+                ResolvedModel model = resolvedModel != null ? resolvedModel : modelConverter.resolve(config);
+                return new FanOut(config, model).perform(executor);
+            } catch (RuntimeException e) {
+                return ConversionResult.failed(config, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ConversionResult.failed(config, e);
+            }
+        }
+    }
+
+
+    /**
+     * Rendering of the elements of a single conversion, shared between the worker performing the conversion and the
+     * idle workers. Each element is claimed by exactly one worker.
+     */
+    private class FanOut implements Runnable {
+
+        private final ConversionConfig config;
+
+        private final ResolvedModel model;
+
+        private final List<String> elementNames;
+
+        private final ConversionResult[] results;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final CountDownLatch rendered;
+
+        private FanOut(ConversionConfig config, ResolvedModel model) {
+            this.config = config;
+            this.model = model;
+            this.elementNames = modelConverter.getElementNames(config, model);
+            this.results = new ConversionResult[elementNames.size()];
+            this.rendered = new CountDownLatch(elementNames.size());
+        }
+
+        /**
+         * Render all the elements, with the help of the idle workers of the given executor.
+         * @param executor
+         * @return the result of the whole conversion.
+         * @throws InterruptedException if interrupted while waiting for the elements rendered by other workers.
+         */
+        private ConversionResult perform(ExecutorService executor) throws InterruptedException {
+            LOGGER.info("Generating {} file(s) for {}", elementNames.size(), config);
+            int helpers = Math.min(threads, elementNames.size()) - 1;
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(this);
+            }
+            run();
+            // Only the elements claimed by the other workers may be left, and they are being rendered
+            rendered.await();
+            return modelConverter.completeElements(config, model, Arrays.asList(results));
+        }
+
+        @Override
+        public void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < elementNames.size()) {
+                try {
+                    results[i] = modelConverter.generate(config, model, elementNames.get(i));
+                } catch (RuntimeException e) {
+                    results[i] = ConversionResult.failed(config, e);
+                } finally {
+                    rendered.countDown();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Parsing of a single model, through the model cache of the converter.
+     */
+    private class ParsingTask implements Callable<ParsedModel> {
+
+        private final String modelPath;
+
+        private ParsingTask(String modelPath) {
+            this.modelPath = modelPath;
+        }
+
+        @Override
+        public ParsedModel call() {
+            return modelConverter.getModelCache().get(modelPath);
+        }
+    }
+
+
+    /**
+     * Creates named daemon threads, so that a forgotten pool never prevents the JVM from exiting.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "lazymodel-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
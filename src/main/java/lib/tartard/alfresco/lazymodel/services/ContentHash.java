@@ -0,0 +1,71 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the content hashes used to identify models, templates and generated files.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public final class ContentHash {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {}
+
+
+    /**
+     * Get a new digest for the hash algorithm.
+     * @return
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ALGORITHM + " is not supported.", e);
+        }
+    }
+
+
+    /**
+     * Get the hexadecimal hash of the given bytes.
+     * @param bytes
+     * @return
+     */
+    public static String of(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+
+    /**
+     * Get the hexadecimal hash of the remaining bytes of the given buffer, without changing its position.
+     * @param buffer
+     * @return
+     */
+    public static String of(ByteBuffer buffer) {
+        MessageDigest digest = newDigest();
+        digest.update(buffer.duplicate());
+        return toHex(digest.digest());
+    }
+
+
+    /**
+     * Get the hexadecimal representation of a digest.
+     * @param digest
+     * @return
+     */
+    public static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -2,7 +2,7 @@ package lib.tartard.alfresco.lazymodel.services;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
 /**
@@ -12,6 +12,9 @@ import org.apache.commons.lang.builder.ToStringStyle;
  * - The path of the freemarker template
  * - The path of the file to be created from the Alfresco model
  * - The encoding of the output file
+ * - The scope of the template : when the template is rendered once per element of the model rather than once for the
+ *   whole model, the output file is the folder of the files generated for the elements
+ * - The package of the Java classes generated by the template, if any
  *
  * @author Alexandre Hausherr
  * @version 1.0 18/03/2018
@@ -26,6 +29,10 @@ public class ConversionConfig {
 
     private String outputFile;
 
+    private TemplateScope scope;
+
+    private String javaPackage;
+
     public ConversionConfig() {}
 
     public ConversionConfig(String alfrescoModelPath, String ftlTemplatePath, String outputFile, String outputEncoding) {
@@ -59,6 +66,31 @@ public class ConversionConfig {
         this.alfrescoModelPath = alfrescoModelPath;
     }
 
+    /**
+     * Get the scope of the template.
+     * @return the scope, or null if it is given by the name of the template.
+     * @see TemplateName
+     */
+    public TemplateScope getScope() {
+        return scope;
+    }
+
+    public void setScope(TemplateScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Get the package of the Java classes generated by the template, given to the template as {@code javaPackage}.
+     * @return the package, or null if the classes are in the unnamed package.
+     */
+    public String getJavaPackage() {
+        return javaPackage;
+    }
+
+    public void setJavaPackage(String javaPackage) {
+        this.javaPackage = javaPackage;
+    }
+
     public String getOutputFile() {
         return outputFile;
     }
@@ -79,6 +111,14 @@ public class ConversionConfig {
 
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toString(this, ToStringStyle.MULTI_LINE_STYLE);
+        // Logged for every conversion : built without reflection
+        return new ToStringBuilder(this, ToStringStyle.MULTI_LINE_STYLE)
+                .append("ftlTemplatePath", ftlTemplatePath)
+                .append("outputEncoding", outputEncoding)
+                .append("alfrescoModelPath", alfrescoModelPath)
+                .append("outputFile", outputFile)
+                .append("scope", scope)
+                .append("javaPackage", javaPackage)
+                .toString();
     }
 }
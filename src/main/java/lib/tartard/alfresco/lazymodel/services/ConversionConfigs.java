@@ -0,0 +1,104 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import lib.tartard.alfresco.lazymodel.services.view.Names;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Builds the configurations of the conversions to perform from models and a templates folder.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public final class ConversionConfigs {
+
+    private static final String JAVA_EXTENSION = "java";
+
+    private ConversionConfigs() {}
+
+
+    /**
+     * Build the configurations to convert every given model with every template of the templates folder, the classes
+     * generated by the {@code java} templates being declared in the unnamed package.
+     * @see #forTemplatesFolder(List, File, String, String)
+     */
+    public static List<ConversionConfig> forTemplatesFolder(List<String> modelPaths, File templatesFolder, String outputFolder) {
+        return forTemplatesFolder(modelPaths, templatesFolder, outputFolder, null);
+    }
+
+    /**
+     * Build the configurations to convert every given model with every template of the templates folder.
+     * Configurations are sorted by model, then by template name, so that the same arguments always give the same
+     * conversions.
+     * The name of each template must match the pattern {output file extension}.{output file encoding}[.{scope}].ftl,
+     * the name of each output file being the name of the model with the extension given by the template. Templates
+     * rendered once per element of the model output their files in a folder named after the model.
+     * Given a package, the files of the {@code java} templates are laid out as {@code javac} expects them : the file
+     * of a class is named after it, in the folder of its package under the output folder. Their names are Java
+     * identifiers, and the classes generated per element of a model are in a sub package named after the model.
+     *
+     * @param modelPaths paths of the model files
+     * @param templatesFolder folder of the templates
+     * @param outputFolder folder of the files to generate
+     * @param javaPackage package of the classes generated by the {@code java} templates, or null to keep them in the
+     *                    unnamed package, their files being named like the others
+     * @return the configurations, one per model and template
+     */
+    public static List<ConversionConfig> forTemplatesFolder(List<String> modelPaths, File templatesFolder,
+                                                            String outputFolder, String javaPackage) {
+        File[] templateFiles = templatesFolder.listFiles();
+        if(templateFiles == null) {
+            throw new ModelConversionException("Could not list templates folder '" + templatesFolder + "'.");
+        }
+        Arrays.sort(templateFiles);
+
+        List<ConversionConfig> configs = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        for(String modelXmlFilePath : modelPaths) {
+            for(File child : templateFiles) {
+                if(!child.isFile()) {
+                    continue;
+                }
+                TemplateName templateName = TemplateName.parse(child.getName());
+                boolean java = javaPackage != null && JAVA_EXTENSION.equals(templateName.getExtension());
+                String outputName = FilenameUtils.getBaseName(modelXmlFilePath);
+                String outputFolderPath = outputFolder;
+                String configPackage = null;
+                if(java) {
+                    outputName = Names.getJavaIdentifier(outputName);
+                    configPackage = javaPackage;
+                    outputFolderPath += "/" + javaPackage.replace('.', '/');
+                }
+                // Templates rendered per element share the folder of the model, their outputs being told apart
+                // by their extension and elements
+                String key = outputFolderPath + "/" + (templateName.getScope().isFanOut() ?
+                        outputName + "/" + templateName.getExtension() + "." + templateName.getScope().getName() :
+                        outputName + FilenameUtils.EXTENSION_SEPARATOR + templateName.getExtension());
+                Integer index = names.get(key);
+                names.put(key, index == null ? 0 : index + 1);
+                if(index != null) {
+                    outputName += java ? "_" + ++index : "(" + ++index + ")";
+                }
+                if(java && templateName.getScope().isFanOut()) {
+                    configPackage += "." + outputName;
+                }
+
+                ConversionConfig config = new ConversionConfig(
+                        modelXmlFilePath,
+                        child.getName(),
+                        outputFolderPath + "/" + (templateName.getScope().isFanOut() ?
+                                outputName :
+                                outputName + FilenameUtils.EXTENSION_SEPARATOR + templateName.getExtension()),
+                        templateName.getEncoding()
+                );
+                config.setScope(templateName.getScope());
+                config.setJavaPackage(configPackage);
+
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+}
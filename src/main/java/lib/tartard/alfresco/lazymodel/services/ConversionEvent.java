@@ -0,0 +1,113 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Metrics of the conversion of a single output file, given to the {@link ConversionListener}s : its result, the time
+ * spent in each {@link ConversionPhase}, the number of bytes rendered, and the number of bytes allocated by the thread
+ * which performed it.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ConversionEvent {
+
+    private final ConversionConfig config;
+
+    private final String elementName;
+
+    private final File outputFile;
+
+    private final ConversionResult.Status status;
+
+    private final Exception error;
+
+    private final Map<ConversionPhase, Long> durations;
+
+    private final long duration;
+
+    private final long bytesWritten;
+
+    private final long allocatedBytes;
+
+    ConversionEvent(ConversionConfig config, String elementName, File outputFile, ConversionResult.Status status,
+                    Exception error, Map<ConversionPhase, Long> durations, long duration, long bytesWritten,
+                    long allocatedBytes) {
+        this.config = config;
+        this.elementName = elementName;
+        this.outputFile = outputFile;
+        this.status = status;
+        this.error = error;
+        this.durations = Collections.unmodifiableMap(new EnumMap<>(durations));
+        this.duration = duration;
+        this.bytesWritten = bytesWritten;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public ConversionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the name of the element the template was rendered for, or null if it was rendered for the whole model.
+     */
+    public String getElementName() {
+        return elementName;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public ConversionResult.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the cause of the failure of the conversion, or null if it didn't fail.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return the time spent in each phase the conversion went through, in nanoseconds.
+     */
+    public Map<ConversionPhase, Long> getDurations() {
+        return durations;
+    }
+
+    /**
+     * Get the time spent in the given phase.
+     * @param phase
+     * @return the time in nanoseconds, 0 if the conversion didn't go through this phase.
+     */
+    public long getDuration(ConversionPhase phase) {
+        Long phaseDuration = durations.get(phase);
+        return phaseDuration != null ? phaseDuration : 0L;
+    }
+
+    /**
+     * @return the whole time of the conversion, in nanoseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the number of bytes rendered, whether they replaced the output file or were identical to its content.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the number of bytes allocated by the thread during the conversion, or -1 if the JVM can't tell.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
@@ -0,0 +1,20 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+/**
+ * Listener notified by a {@link ModelConverter} each time it generated a file, checked it, or failed to.
+ *
+ * Listeners are called on the thread which performed the conversion, possibly by several threads at the same time :
+ * they must be thread safe, and fast, as they delay the conversions.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ * @see ModelConverter#addConversionListener(ConversionListener)
+ */
+public interface ConversionListener {
+
+    /**
+     * Called once per output file, after its conversion.
+     * @param event
+     */
+    void conversionPerformed(ConversionEvent event);
+}
@@ -0,0 +1,38 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+/**
+ * Phases of the generation of a file, timed by the {@link ModelConverter} for its {@link ConversionListener}s.
+ *
+ * Rendering streams the output to a temporary file : {@link #RENDER} includes the writes to this file, while
+ * {@link #WRITE} is the creation of the output folder and the replacement of the output file.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public enum ConversionPhase {
+
+    /** Loading of the model from the model cache, parsing it on a miss. */
+    PARSE,
+
+    /** Indexing of the model along with the dictionary models. */
+    INDEX,
+
+    /** Loading of the template from the template cache, compiling it on a miss. */
+    TEMPLATE,
+
+    /** Hashing of the inputs and of the existing output, to tell whether it is up to date. */
+    CHECK,
+
+    /** Processing of the template. */
+    RENDER,
+
+    /** Replacement of the output file. */
+    WRITE;
+
+    /**
+     * @return the name of the phase in reports, e.g. {@code render}.
+     */
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,80 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records the metrics of the conversion of a single output file, on the thread performing it.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+class ConversionRecorder {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** Whether the JVM counts the bytes allocated by each thread, as HotSpot does. */
+    private static final boolean ALLOCATIONS_SUPPORTED = isAllocationCountSupported();
+
+    private final Map<ConversionPhase, Long> durations = new EnumMap<>(ConversionPhase.class);
+
+    private final long start = System.nanoTime();
+
+    private final long allocatedAtStart = getAllocatedBytes();
+
+    private long bytesWritten;
+
+
+    /**
+     * Add the time elapsed since the given instant to the given phase.
+     * @param phase
+     * @param since value of {@link System#nanoTime()} when the phase started
+     * @return the current value of {@link System#nanoTime()}, at which the next phase starts.
+     */
+    long record(ConversionPhase phase, long since) {
+        long now = System.nanoTime();
+        Long previous = durations.get(phase);
+        durations.put(phase, (previous != null ? previous : 0L) + now - since);
+        return now;
+    }
+
+    void addBytesWritten(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    /**
+     * Build the event of the finished conversion.
+     * @param config
+     * @param elementName
+     * @param outputFile
+     * @param result
+     * @return
+     */
+    ConversionEvent toEvent(ConversionConfig config, String elementName, File outputFile, ConversionResult result) {
+        long allocated = allocatedAtStart >= 0 ? getAllocatedBytes() - allocatedAtStart : -1L;
+        return new ConversionEvent(config, elementName, outputFile, result.getStatus(), result.getError(), durations,
+                System.nanoTime() - start, bytesWritten, allocated);
+    }
+
+
+    private static long getAllocatedBytes() {
+        if (!ALLOCATIONS_SUPPORTED) {
+            return -1L;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isAllocationCountSupported() {
+        try {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM
+            return false;
+        }
+    }
+}
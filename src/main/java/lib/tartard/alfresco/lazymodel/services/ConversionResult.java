@@ -0,0 +1,155 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Outcome of one model/template conversion performed by a {@link ModelConverter}.
+ * A result either holds the output file, or the exception which made the conversion fail.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ConversionResult {
+
+    /**
+     * Status of a conversion.
+     */
+    public enum Status {
+        /** The output file has been generated. */
+        GENERATED,
+        /** The output file was already up to date, it has been left untouched. */
+        UP_TO_DATE,
+        /** The output file is not up to date, but has been left untouched as only a check was requested. */
+        STALE,
+        /** The output file of an element removed from the model has been deleted. */
+        DELETED,
+        /** The conversion failed, see {@link #getError()}. */
+        FAILED
+    }
+
+    private final ConversionConfig config;
+
+    private final File outputFile;
+
+    private final Status status;
+
+    private final Exception error;
+
+    private ConversionResult(ConversionConfig config, File outputFile, Status status, Exception error) {
+        this.config = config;
+        this.outputFile = outputFile;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * Creates the result of a successful conversion.
+     * @param config configuration of the conversion
+     * @param outputFile generated file
+     * @return a {@link Status#GENERATED} result
+     */
+    public static ConversionResult generated(ConversionConfig config, File outputFile) {
+        return new ConversionResult(config, outputFile, Status.GENERATED, null);
+    }
+
+    /**
+     * Creates the result of a conversion skipped because its output was already up to date.
+     * @param config configuration of the conversion
+     * @param outputFile up to date file
+     * @return a {@link Status#UP_TO_DATE} result
+     */
+    public static ConversionResult upToDate(ConversionConfig config, File outputFile) {
+        return new ConversionResult(config, outputFile, Status.UP_TO_DATE, null);
+    }
+
+    /**
+     * Creates the result of a check which found that the output is not up to date.
+     * @param config configuration of the conversion
+     * @param outputFile stale file, which may not exist
+     * @return a {@link Status#STALE} result
+     */
+    public static ConversionResult stale(ConversionConfig config, File outputFile) {
+        return new ConversionResult(config, outputFile, Status.STALE, null);
+    }
+
+    /**
+     * Creates the result of the deletion of the output file of an element removed from the model.
+     * @param config configuration of the conversion
+     * @param outputFile deleted file
+     * @return a {@link Status#DELETED} result
+     */
+    public static ConversionResult deleted(ConversionConfig config, File outputFile) {
+        return new ConversionResult(config, outputFile, Status.DELETED, null);
+    }
+
+    /**
+     * Creates the result of a failed conversion.
+     * @param config configuration of the conversion
+     * @param error cause of the failure
+     * @return a {@link Status#FAILED} result
+     */
+    public static ConversionResult failed(ConversionConfig config, Exception error) {
+        return new ConversionResult(config, null, Status.FAILED, error);
+    }
+
+    /**
+     * Creates the result of a conversion rendering its template once per element of the model, from the results of
+     * the elements : the conversion failed if any element failed, is stale if any element is stale, is generated if any
+     * element is generated, only deleted files if the others are up to date, and is up to date if every element is up
+     * to date.
+     * @param config configuration of the conversion
+     * @param outputFolder folder of the files generated for the elements
+     * @param elementResults results of the elements
+     * @return
+     */
+    public static ConversionResult ofElements(ConversionConfig config, File outputFolder,
+                                              List<ConversionResult> elementResults) {
+        Status status = Status.UP_TO_DATE;
+        for (ConversionResult elementResult : elementResults) {
+            if (elementResult.isFailed()) {
+                return failed(config, elementResult.getError());
+            }
+            if (elementResult.getStatus() == Status.STALE) {
+                status = Status.STALE;
+            } else if (elementResult.getStatus() == Status.GENERATED && status != Status.STALE) {
+                status = Status.GENERATED;
+            } else if (elementResult.getStatus() == Status.DELETED && status == Status.UP_TO_DATE) {
+                status = Status.DELETED;
+            }
+        }
+        return new ConversionResult(config, outputFolder, status, null);
+    }
+
+    public ConversionConfig getConfig() {
+        return config;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return status == Status.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("model", config.getAlfrescoModelPath())
+                .append("template", config.getFtlTemplatePath())
+                .append("status", status)
+                .toString();
+    }
+}
@@ -0,0 +1,149 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the content hash of files along with their last modification date and size, so that the content of a
+ * file is read and hashed again only when one of them changed.
+ *
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class FileHashes {
+
+    private final Map<String, Stamp> stamps = new HashMap<>();
+
+
+    /**
+     * Get the hash of the given file, reading it only if it changed since its hash was last computed.
+     * @param file
+     * @return the hash of the file content
+     * @throws IOException if the file can't be read
+     */
+    public String getHash(File file) throws IOException {
+        String hash = getKnownHash(file);
+        if (hash == null) {
+            long lastModified = file.lastModified();
+            long length = file.length();
+            hash = record(file, lastModified, length, FileUtils.readFileToByteArray(file));
+        }
+        return hash;
+    }
+
+
+    /**
+     * Get the hash of the given file if it didn't change since it was last computed.
+     * @param file
+     * @return the hash of the file content, or null if it is unknown or outdated
+     */
+    public String getKnownHash(File file) {
+        return getKnownHash(file, null);
+    }
+
+
+    /**
+     * Get the hash of the given entry of an archive if the archive didn't change since it was last computed.
+     * @param file the archive
+     * @param entryName name of the entry, or null for the hash of the file itself
+     * @return the hash of the entry content, or null if it is unknown or outdated
+     */
+    public String getKnownHash(File file, String entryName) {
+        Stamp current = new Stamp(file.lastModified(), file.length(), null);
+        synchronized (stamps) {
+            Stamp known = stamps.get(getKey(file, entryName));
+            return known != null && known.matches(current) ? known.hash : null;
+        }
+    }
+
+
+    /**
+     * Compute and remember the hash of the given file content.
+     * @param file
+     * @param lastModified last modification date of the file, taken before reading its content
+     * @param length size of the file, taken before reading its content
+     * @param content content of the file
+     * @return the hash of the content
+     */
+    public String record(File file, long lastModified, long length, byte[] content) {
+        return record(file, lastModified, length, ByteBuffer.wrap(content));
+    }
+
+
+    /**
+     * Compute and remember the hash of the given file content.
+     * @param file
+     * @param lastModified last modification date of the file, taken before reading its content
+     * @param length size of the file, taken before reading its content
+     * @param content content of the file, e.g. the file mapped in memory
+     * @return the hash of the content
+     */
+    public String record(File file, long lastModified, long length, ByteBuffer content) {
+        return record(file, null, lastModified, length, content);
+    }
+
+
+    /**
+     * Compute and remember the hash of the given content of an entry of an archive.
+     * @param file the archive
+     * @param entryName name of the entry, or null for the content of the file itself
+     * @param lastModified last modification date of the archive, taken before reading the entry
+     * @param length size of the archive, taken before reading the entry
+     * @param content content of the entry
+     * @return the hash of the content
+     */
+    public String record(File file, String entryName, long lastModified, long length, ByteBuffer content) {
+        String hash = ContentHash.of(content);
+        synchronized (stamps) {
+            stamps.put(getKey(file, entryName), new Stamp(lastModified, length, hash));
+        }
+        return hash;
+    }
+
+
+    /**
+     * Forget all the known hashes.
+     */
+    public void clear() {
+        synchronized (stamps) {
+            stamps.clear();
+        }
+    }
+
+
+    private static String getKey(File file, String entryName) {
+        return entryName == null ?
+                file.getAbsolutePath() :
+                ModelArchives.getEntryPath(file.getAbsoluteFile(), entryName);
+    }
+
+
+    /**
+     * Last modification date and size of a file, and hash of its content.
+     */
+    private static class Stamp {
+
+        private final long lastModified;
+
+        private final long length;
+
+        private final String hash;
+
+        private Stamp(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        private boolean matches(Stamp other) {
+            return lastModified != 0L && lastModified == other.lastModified && length == other.length;
+        }
+    }
+}
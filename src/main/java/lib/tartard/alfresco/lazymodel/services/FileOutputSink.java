@@ -0,0 +1,34 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Writes each generated file at its path, through an {@link AtomicOutputFile}, creating its folder if needed.
+ * This is the default sink of a {@link ModelConverter}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class FileOutputSink implements OutputSink {
+
+    @Override
+    public Output open(File outputFile) throws IOException {
+        File parent = outputFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        return new AtomicOutputFile(outputFile);
+    }
+
+    @Override
+    public boolean isWritingFiles() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // Every file is published when committed
+    }
+}
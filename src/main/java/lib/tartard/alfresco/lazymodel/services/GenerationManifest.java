@@ -0,0 +1,211 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of the files generated in an output folder, stored in the file {@value #FILE_NAME} of this folder.
+ *
+ * For each generated file, the manifest holds the hashes of the model and template it was generated from, its
+ * encoding, the version of the tool which generated it and the hash of its content. An output whose inputs and content
+ * still match its entry is up to date and doesn't need to be generated again.
+ *
+ * The manifest is a text file with one tab-separated line per output, sorted by output name.
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class GenerationManifest {
+
+    /** Name of the manifest file in the output folder. */
+    public static final String FILE_NAME = ".lazymodel-manifest";
+
+    private static final String HEADER = "# lazymodel generation manifest v1";
+
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private boolean dirty;
+
+    private GenerationManifest(File file) {
+        this.file = file;
+    }
+
+
+    /**
+     * Load the manifest of the given output folder. The manifest is empty if the folder has none yet.
+     * @param folder
+     * @return
+     * @throws IOException if an existing manifest can't be read
+     */
+    public static GenerationManifest load(File folder) throws IOException {
+        GenerationManifest manifest = new GenerationManifest(new File(folder, FILE_NAME));
+        if (manifest.file.isFile()) {
+            List<String> lines = Files.readAllLines(manifest.file.toPath(), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (line.startsWith("#") || fields.length != 6) {
+                    continue;
+                }
+                manifest.entries.put(fields[0], new Entry(fields[1], fields[2], fields[3], fields[4], fields[5]));
+            }
+        }
+        return manifest;
+    }
+
+
+    /**
+     * @return the manifest file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Get the entry of the given output.
+     * @param outputName name of the output file in the folder
+     * @return the entry, or null if the output isn't recorded
+     */
+    public synchronized Entry get(String outputName) {
+        return entries.get(outputName);
+    }
+
+
+    /**
+     * Record the given output.
+     * @param outputName name of the output file in the folder
+     * @param entry
+     */
+    public synchronized void put(String outputName, Entry entry) {
+        if (!entry.equals(entries.put(outputName, entry))) {
+            dirty = true;
+        }
+    }
+
+
+    /**
+     * Forget the given output.
+     * @param outputName name of the output file in the folder
+     */
+    public synchronized void remove(String outputName) {
+        if (entries.remove(outputName) != null) {
+            dirty = true;
+        }
+    }
+
+
+    /**
+     * @return a copy of all the entries, sorted by output name.
+     */
+    public synchronized Map<String, Entry> getEntries() {
+        return new TreeMap<>(entries);
+    }
+
+
+    /**
+     * Write the manifest to its file if it has been modified since it was loaded or last saved.
+     * The file is replaced atomically, so that it is never seen half written.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        File folder = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(folder.toPath());
+        File tmp = File.createTempFile(FILE_NAME, ".tmp", folder);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(StringUtils.join(new String[]{entry.getKey(), value.modelHash, value.templateHash,
+                        value.encoding, value.toolVersion, value.outputHash}, SEPARATOR));
+                writer.write('\n');
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+
+    /**
+     * Inputs and content of a generated file.
+     */
+    public static class Entry {
+
+        private final String modelHash;
+
+        private final String templateHash;
+
+        private final String encoding;
+
+        private final String toolVersion;
+
+        private final String outputHash;
+
+        public Entry(String modelHash, String templateHash, String encoding, String toolVersion, String outputHash) {
+            this.modelHash = modelHash;
+            this.templateHash = templateHash;
+            this.encoding = StringUtils.defaultString(encoding);
+            this.toolVersion = toolVersion;
+            this.outputHash = outputHash;
+        }
+
+        public String getModelHash() {
+            return modelHash;
+        }
+
+        public String getTemplateHash() {
+            return templateHash;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public String getToolVersion() {
+            return toolVersion;
+        }
+
+        public String getOutputHash() {
+            return outputHash;
+        }
+
+        /**
+         * Tells whether this entry was generated from the same inputs as the given one.
+         * @param other
+         * @return
+         */
+        public boolean hasSameInputs(Entry other) {
+            return other != null
+                    && modelHash.equals(other.modelHash)
+                    && templateHash.equals(other.templateHash)
+                    && encoding.equals(other.encoding)
+                    && toolVersion.equals(other.toolVersion);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && hasSameInputs((Entry) other)
+                    && outputHash.equals(((Entry) other).outputHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return modelHash.hashCode();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+/**
+ * How a {@link ModelConverter} deals with outputs which are already up to date.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public enum IncrementalMode {
+
+    /** Every output is generated, whatever its state. */
+    OFF,
+
+    /**
+     * Outputs whose model, template, encoding and tool version didn't change since they were generated, and which
+     * weren't modified since, are skipped. Generated outputs are recorded in a {@link GenerationManifest}.
+     */
+    INCREMENTAL,
+
+    /** Nothing is generated : outputs are only checked, and reported as stale if they are not up to date. */
+    CHECK
+}
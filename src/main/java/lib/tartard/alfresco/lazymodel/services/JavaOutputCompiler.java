@@ -0,0 +1,367 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Compiles generated Java sources, e.g. the QName constants classes of the {@code java.UTF-8.ftl} template, within
+ * this process through the {@link JavaCompiler} of the running JDK, instead of forking {@code javac} per module.
+ *
+ * All the sources are compiled in a single invocation of the compiler, read from and written to memory : the compiled
+ * classes are then written either into a jar, when the output ends with {@code .jar}, or into a classes folder. Jars
+ * are written by an {@link ArchiveOutputSink}, so that the same classes always give the same jar. Unlike {@code javac},
+ * the compiler doesn't require a public class to be declared in a file of the same name, so that sources generated
+ * by other templates than the bundled one compile too.
+ *
+ * The hash of the sources, of the classpath and of the options is stored next to the output : when none of them
+ * changed since the previous compilation and the output still exists, the compilation is skipped. The classes written
+ * into a classes folder are listed next to it too, so that the classes of removed models or elements are deleted by
+ * the next compilation, other files of the folder being left alone.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class JavaOutputCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JavaOutputCompiler.class);
+
+    private static final String STAMP_SUFFIX = ".lazymodel-compile";
+
+    private static final String CLASSES_SUFFIX = ".lazymodel-classes";
+
+    private List<String> classpath = Arrays.asList(StringUtils.split(System.getProperty("java.class.path", ""),
+            File.pathSeparatorChar));
+
+    private List<String> options = Collections.emptyList();
+
+
+    /**
+     * Compile the given sources into the given jar or classes folder, unless they were already compiled there.
+     * @param sources generated Java source files
+     * @param output jar file, or classes folder
+     * @return false if the compilation was skipped, the sources being the same as the previous time.
+     * @throws ModelConversionException if no compiler is available, or the sources don't compile.
+     */
+    public boolean compile(Collection<File> sources, File output) {
+        Map<String, byte[]> sourceContents = new TreeMap<>();
+        for (File source : sources) {
+            try {
+                sourceContents.put(source.getAbsolutePath(), Files.readAllBytes(source.toPath()));
+            } catch (IOException e) {
+                throw getException("Could not read generated source '" + source + "' :", e);
+            }
+        }
+
+        File stampFile = new File(output.getAbsoluteFile().getParentFile(), "." + output.getName() + STAMP_SUFFIX);
+        String stamp = getStamp(sourceContents);
+        if (output.exists() && stamp.equals(readStamp(stampFile))) {
+            LOGGER.info("{} generated source(s) unchanged, '{}' is up to date.", sources.size(), output);
+            return false;
+        }
+
+        Map<String, byte[]> classes = compile(sourceContents);
+        try {
+            if (isJar(output)) {
+                writeClasses(classes, output);
+            } else {
+                File classesFile = new File(stampFile.getParentFile(), "." + output.getName() + CLASSES_SUFFIX);
+                deleteClasses(readLines(classesFile), classes.keySet(), output);
+                writeClasses(classes, output);
+                writeLines(classesFile, classes.keySet());
+            }
+            Files.createDirectories(stampFile.getParentFile().toPath());
+            try (AtomicOutputFile stampOutput = new AtomicOutputFile(stampFile)) {
+                stampOutput.getOutputStream().write(stamp.getBytes(StandardCharsets.UTF_8));
+                stampOutput.commit();
+            }
+        } catch (IOException e) {
+            throw getException("Could not write compiled classes to '" + output + "' :", e);
+        }
+        LOGGER.info("{} generated source(s) compiled into {} class(es) in '{}'.", sources.size(), classes.size(),
+                output);
+        return true;
+    }
+
+
+    /**
+     * @return the classpath the sources are compiled against. Default is the classpath of this process, which holds
+     * the Alfresco data model.
+     */
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    public void setClasspath(List<String> classpath) {
+        this.classpath = new ArrayList<>(classpath);
+    }
+
+    /**
+     * @return the options given to the compiler, e.g. {@code -g} or {@code --release 8}. Default is none.
+     */
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public void setOptions(List<String> options) {
+        this.options = new ArrayList<>(options);
+    }
+
+
+    /**
+     * Compile the given sources in memory.
+     * @param sourceContents content of each source, by path
+     * @return the content of each class file, by path in the output, e.g. {@code com/acme/Model.class}.
+     */
+    private Map<String, byte[]> compile(Map<String, byte[]> sourceContents) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw getException("No Java compiler available : run this tool with a JDK rather than a JRE.");
+        }
+
+        List<JavaFileObject> compilationUnits = new ArrayList<>();
+        for (Map.Entry<String, byte[]> source : sourceContents.entrySet()) {
+            compilationUnits.add(new SourceFile(source.getKey(), source.getValue()));
+        }
+        List<String> compilerOptions = new ArrayList<>(Arrays.asList("-proc:none", "-encoding", "UTF-8"));
+        compilerOptions.addAll(options);
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT,
+                StandardCharsets.UTF_8);
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+        try {
+            List<File> classpathFiles = new ArrayList<>();
+            for (String entry : classpath) {
+                classpathFiles.add(new File(entry));
+            }
+            standardFileManager.setLocation(StandardLocation.CLASS_PATH, classpathFiles);
+            boolean compiled = compiler.getTask(null, fileManager, diagnostics, compilerOptions, null,
+                    compilationUnits).call();
+            if (!compiled) {
+                StringBuilder errors = new StringBuilder();
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        errors.append('\n').append(diagnostic.getSource() != null ?
+                                diagnostic.getSource().getName() + ":" + diagnostic.getLineNumber() + " " : "")
+                                .append(diagnostic.getMessage(Locale.ROOT));
+                    }
+                }
+                throw getException("Generated sources don't compile :" + errors);
+            }
+        } catch (IOException e) {
+            throw getException("Could not compile generated sources due to nested Exception :", e);
+        } finally {
+            try {
+                fileManager.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close the file manager : {}", e.getMessage());
+            }
+        }
+        return fileManager.getClasses();
+    }
+
+    /**
+     * Write the given classes into a jar, or a classes folder.
+     * @param classes
+     * @param output
+     * @throws IOException
+     */
+    private static void writeClasses(Map<String, byte[]> classes, File output) throws IOException {
+        try (OutputSink sink = isJar(output) ? new ArchiveOutputSink(output, output) : new FileOutputSink()) {
+            for (Map.Entry<String, byte[]> compiledClass : classes.entrySet()) {
+                try (OutputSink.Output classOutput = sink.open(new File(output, compiledClass.getKey()))) {
+                    classOutput.getOutputStream().write(compiledClass.getValue());
+                    classOutput.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the classes previously written into the given classes folder which aren't written again, along with the
+     * folders they leave empty.
+     * @param previousClasses paths of the classes previously written, relative to the folder
+     * @param classes paths of the classes about to be written
+     * @param folder classes folder
+     * @throws IOException
+     */
+    private static void deleteClasses(List<String> previousClasses, Set<String> classes, File folder)
+            throws IOException {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+        for (String previousClass : previousClasses) {
+            Path classFile = root.resolve(previousClass).normalize();
+            if (classes.contains(previousClass) || !classFile.startsWith(root) || classFile.equals(root)
+                    || !Files.deleteIfExists(classFile)) {
+                continue;
+            }
+            LOGGER.debug("Deleted stale class '{}'.", classFile);
+            for (Path parent = classFile.getParent(); !parent.equals(root); parent = parent.getParent()) {
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(parent)) {
+                    if (children.iterator().hasNext()) {
+                        break;
+                    }
+                }
+                Files.delete(parent);
+            }
+        }
+    }
+
+    private static boolean isJar(File output) {
+        return output.getName().endsWith(".jar");
+    }
+
+    /**
+     * Get the hash identifying a compilation : its sources, classpath and options, and the version of this tool.
+     * @param sourceContents
+     * @return
+     */
+    private String getStamp(Map<String, byte[]> sourceContents) {
+        MessageDigest digest = ContentHash.newDigest();
+        List<String> inputs = new ArrayList<>();
+        inputs.add(ToolVersion.get());
+        inputs.add(System.getProperty("java.version"));
+        inputs.addAll(classpath);
+        inputs.addAll(options);
+        for (Map.Entry<String, byte[]> source : sourceContents.entrySet()) {
+            inputs.add(source.getKey());
+            inputs.add(ContentHash.of(source.getValue()));
+        }
+        for (String input : inputs) {
+            digest.update((input.length() + ":" + input).getBytes(StandardCharsets.UTF_8));
+        }
+        return ContentHash.toHex(digest.digest());
+    }
+
+    private static String readStamp(File stampFile) {
+        try {
+            return new String(Files.readAllBytes(stampFile.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        return file.isFile() ? Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) :
+                Collections.<String>emptyList();
+    }
+
+    private static void writeLines(File file, Collection<String> lines) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (AtomicOutputFile output = new AtomicOutputFile(file)) {
+            Writer writer = new OutputStreamWriter(output.getOutputStream(), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+            output.commit();
+        }
+    }
+
+    /**
+     * Create an exception with the given message, and log it as an error.
+     * @param msg
+     * @return
+     */
+    private ModelConversionException getException(String msg) {
+        LOGGER.error(msg);
+        return new ModelConversionException(msg);
+    }
+
+    /**
+     * Create an exception with the given message and the given cause, and log the message as an error.
+     * @param msg
+     * @param cause
+     * @return
+     */
+    private ModelConversionException getException(String msg, Exception cause) {
+        LOGGER.error("{} {}", msg, cause.getMessage());
+        return new ModelConversionException(msg, cause);
+    }
+
+
+    /**
+     * Generated source, read from memory.
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final byte[] content;
+
+        private SourceFile(String path, byte[] content) {
+            super(new File(path).toURI(), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, Kind kind) {
+            // Whatever the name of the file, as templates may name their class otherwise
+            return kind == Kind.SOURCE;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    /**
+     * Compiled class, written to memory.
+     */
+    private static class ClassFile extends SimpleJavaFileObject {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return content;
+        }
+    }
+
+
+    /**
+     * Keeps the compiled classes in memory, leaving the lookup of the classpath to the standard file manager.
+     */
+    private static class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, ClassFile> classFiles = new TreeMap<>();
+
+        private InMemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            ClassFile classFile = new ClassFile(className);
+            classFiles.put(className.replace('.', '/') + JavaFileObject.Kind.CLASS.extension, classFile);
+            return classFile;
+        }
+
+        private Map<String, byte[]> getClasses() {
+            Map<String, byte[]> classes = new TreeMap<>();
+            for (Map.Entry<String, ClassFile> classFile : classFiles.entrySet()) {
+                classes.put(classFile.getKey(), classFile.getValue().content.toByteArray());
+            }
+            return classes;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Listener committing a {@code lib.tartard.alfresco.lazymodel.Conversion} Java Flight Recorder event for each
+ * conversion, with the same metrics as the {@link ConversionEvent}, so that slow conversions show up in a recording
+ * next to the GC and I/O events of the JVM.
+ *
+ * Only the nested event class links to {@code jdk.jfr}, which older JVMs don't have : the listener must be created
+ * through {@link #newInstance()}, which checks that it is available first. The {@link ModelConverter} calls it by
+ * reflection, as this class isn't built with Java 8.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+final class JfrConversionListener implements ConversionListener {
+
+    private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+
+    private JfrConversionListener() {
+    }
+
+
+    /**
+     * Create a JFR listener if the JVM supports JFR events.
+     * @return the listener, or null if {@code jdk.jfr} isn't available.
+     */
+    static ConversionListener newInstance() {
+        try {
+            Class.forName(JFR_EVENT_CLASS, false, JfrConversionListener.class.getClassLoader());
+            return new JfrConversionListener();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+
+    @Override
+    public void conversionPerformed(ConversionEvent event) {
+        Conversion conversion = new Conversion();
+        if (!conversion.isEnabled()) {
+            return;
+        }
+        conversion.model = event.getConfig().getAlfrescoModelPath();
+        conversion.template = event.getConfig().getFtlTemplatePath();
+        conversion.element = event.getElementName();
+        conversion.outputFile = event.getOutputFile() != null ? event.getOutputFile().getPath() : null;
+        conversion.status = event.getStatus().name();
+        conversion.parse = event.getDuration(ConversionPhase.PARSE);
+        conversion.index = event.getDuration(ConversionPhase.INDEX);
+        conversion.templateLoading = event.getDuration(ConversionPhase.TEMPLATE);
+        conversion.check = event.getDuration(ConversionPhase.CHECK);
+        conversion.render = event.getDuration(ConversionPhase.RENDER);
+        conversion.write = event.getDuration(ConversionPhase.WRITE);
+        conversion.conversionDuration = event.getDuration();
+        conversion.bytesWritten = event.getBytesWritten();
+        conversion.allocatedBytes = event.getAllocatedBytes();
+        conversion.commit();
+    }
+
+
+    /**
+     * JFR event of a conversion. Committed once the conversion is over, it has no duration of its own : the duration
+     * of the conversion and of its phases are fields.
+     */
+    @Name("lib.tartard.alfresco.lazymodel.Conversion")
+    @Label("Model Conversion")
+    @Description("Generation of a file from an Alfresco model and a template")
+    @Category("LazyModel")
+    @StackTrace(false)
+    static final class Conversion extends Event {
+
+        @Label("Model")
+        String model;
+
+        @Label("Template")
+        String template;
+
+        @Label("Element")
+        String element;
+
+        @Label("Output File")
+        String outputFile;
+
+        @Label("Status")
+        String status;
+
+        @Label("Parse")
+        @Timespan(Timespan.NANOSECONDS)
+        long parse;
+
+        @Label("Index")
+        @Timespan(Timespan.NANOSECONDS)
+        long index;
+
+        @Label("Template Loading")
+        @Timespan(Timespan.NANOSECONDS)
+        long templateLoading;
+
+        @Label("Check")
+        @Timespan(Timespan.NANOSECONDS)
+        long check;
+
+        @Label("Render")
+        @Timespan(Timespan.NANOSECONDS)
+        long render;
+
+        @Label("Write")
+        @Timespan(Timespan.NANOSECONDS)
+        long write;
+
+        @Label("Conversion Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long conversionDuration;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Allocated Bytes")
+        @DataAmount
+        long allocatedBytes;
+    }
+}
@@ -0,0 +1,20 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.M2Model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads models through {@link M2Model#createModel(java.io.InputStream)}, the JiBX unmarshalling of Alfresco. This is
+ * the default reader of a {@link ModelCache}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class JibxModelReader implements ModelReader {
+
+    @Override
+    public M2Model read(ByteBuffer content) {
+        return M2Model.createModel(new ByteBufferInputStream(content));
+    }
+}
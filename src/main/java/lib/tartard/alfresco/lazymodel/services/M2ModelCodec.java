@@ -0,0 +1,424 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of an M2Model, which is decoded without any xml parsing nor JiBX unmarshalling.
+ *
+ * Only the definitions described in the model xml schema and exposed by the M2 classes are encoded : the model
+ * description, namespaces, imports, data types, constraints, types and aspects along with their properties,
+ * associations and mandatory aspects. Property overrides aren't. Use {@link #isLossless(M2Model, M2Model)} to check
+ * that a decoded model is the same as the encoded one.
+ *
+ * Any change of the encoding must come with a new {@link #FORMAT_VERSION}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public final class M2ModelCodec {
+
+    /** Version of the encoding. */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte NULL_BOOLEAN = -1;
+
+    private static final byte ASSOCIATION = 0;
+
+    private static final byte CHILD_ASSOCIATION = 1;
+
+    private M2ModelCodec() {}
+
+
+    /**
+     * Encode the given model.
+     * @param model
+     * @param out
+     * @throws IOException
+     */
+    public static void write(M2Model model, DataOutput out) throws IOException {
+        writeString(out, model.getName());
+        writeString(out, model.getDescription());
+        writeString(out, model.getAuthor());
+        Date published = model.getPublishedDate();
+        out.writeBoolean(published != null);
+        if (published != null) {
+            out.writeLong(published.getTime());
+        }
+        writeString(out, model.getVersion());
+
+        writeNamespaces(out, model.getImports());
+        writeNamespaces(out, model.getNamespaces());
+
+        List<M2DataType> dataTypes = nonNull(model.getPropertyTypes());
+        out.writeInt(dataTypes.size());
+        for (M2DataType dataType : dataTypes) {
+            writeString(out, dataType.getName());
+            writeString(out, dataType.getTitle());
+            writeString(out, dataType.getDescription());
+            writeString(out, dataType.getAnalyserClassName());
+            writeString(out, dataType.getJavaClassName());
+        }
+
+        writeConstraints(out, nonNull(model.getConstraints()));
+        writeClasses(out, nonNull(model.getTypes()));
+        writeClasses(out, nonNull(model.getAspects()));
+    }
+
+
+    /**
+     * Decode a model encoded by {@link #write(M2Model, DataOutput)}.
+     * @param in
+     * @return
+     * @throws IOException if the input can't be read or doesn't hold an encoded model.
+     */
+    public static M2Model read(DataInput in) throws IOException {
+        M2Model model = M2Model.createModel(readString(in));
+        model.setDescription(readString(in));
+        model.setAuthor(readString(in));
+        if (in.readBoolean()) {
+            model.setPublishedDate(new Date(in.readLong()));
+        }
+        model.setVersion(readString(in));
+
+        for (int i = readCount(in); i > 0; i--) {
+            model.createImport(readString(in), readString(in));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            model.createNamespace(readString(in), readString(in));
+        }
+
+        for (int i = readCount(in); i > 0; i--) {
+            M2DataType dataType = model.createPropertyType(readString(in));
+            dataType.setTitle(readString(in));
+            dataType.setDescription(readString(in));
+            dataType.setAnalyserClassName(readString(in));
+            dataType.setJavaClassName(readString(in));
+        }
+
+        for (int i = readCount(in); i > 0; i--) {
+            readConstraint(in, model.createConstraint(readString(in), readString(in)));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            readClass(in, model.createType(readString(in)));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            readClass(in, model.createAspect(readString(in)));
+        }
+        return model;
+    }
+
+
+    /**
+     * Check that a decoded model is the same as the encoded one, by comparing their xml representations.
+     * @param model encoded model
+     * @param decoded decoded model
+     * @return true if no definition was lost by the encoding.
+     */
+    public static boolean isLossless(M2Model model, M2Model decoded) {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        model.toXML(expected);
+        decoded.toXML(actual);
+        return Arrays.equals(expected.toByteArray(), actual.toByteArray());
+    }
+
+
+    private static void writeNamespaces(DataOutput out, List<M2Namespace> namespaces) throws IOException {
+        List<M2Namespace> list = nonNull(namespaces);
+        out.writeInt(list.size());
+        for (M2Namespace namespace : list) {
+            writeString(out, namespace.getUri());
+            writeString(out, namespace.getPrefix());
+        }
+    }
+
+    private static void writeConstraints(DataOutput out, List<M2Constraint> constraints) throws IOException {
+        out.writeInt(constraints.size());
+        for (M2Constraint constraint : constraints) {
+            writeString(out, constraint.getName());
+            writeString(out, constraint.getType());
+            writeConstraint(out, constraint);
+        }
+    }
+
+    private static void writeConstraint(DataOutput out, M2Constraint constraint) throws IOException {
+        writeString(out, constraint.getRef());
+        writeString(out, constraint.getTitle());
+        writeString(out, constraint.getDescription());
+        List<M2NamedValue> parameters = nonNull(constraint.getParameters());
+        out.writeInt(parameters.size());
+        for (M2NamedValue parameter : parameters) {
+            writeString(out, parameter.getName());
+            out.writeBoolean(parameter.hasListValue());
+            if (parameter.hasListValue()) {
+                writeStrings(out, parameter.getListValue());
+            } else {
+                writeString(out, parameter.getSimpleValue());
+            }
+        }
+    }
+
+    private static void readConstraint(DataInput in, M2Constraint constraint) throws IOException {
+        constraint.setRef(readString(in));
+        constraint.setTitle(readString(in));
+        constraint.setDescription(readString(in));
+        for (int i = readCount(in); i > 0; i--) {
+            String name = readString(in);
+            if (in.readBoolean()) {
+                constraint.createParameter(name, readStrings(in));
+            } else {
+                constraint.createParameter(name, readString(in));
+            }
+        }
+    }
+
+    private static void writeClasses(DataOutput out, List<? extends M2Class> classes) throws IOException {
+        out.writeInt(classes.size());
+        for (M2Class m2Class : classes) {
+            writeString(out, m2Class.getName());
+            writeString(out, m2Class.getTitle());
+            writeString(out, m2Class.getDescription());
+            writeString(out, m2Class.getParentName());
+            writeBoolean(out, m2Class.getArchive());
+            writeBoolean(out, m2Class.getIncludedInSuperTypeQuery());
+
+            List<M2Property> properties = nonNull(m2Class.getProperties());
+            out.writeInt(properties.size());
+            for (M2Property property : properties) {
+                writeProperty(out, property);
+            }
+
+            List<M2ClassAssociation> associations = nonNull(m2Class.getAssociations());
+            out.writeInt(associations.size());
+            for (M2ClassAssociation association : associations) {
+                writeAssociation(out, association);
+            }
+
+            writeStrings(out, nonNull(m2Class.getMandatoryAspects()));
+        }
+    }
+
+    private static void readClass(DataInput in, M2Class m2Class) throws IOException {
+        m2Class.setTitle(readString(in));
+        m2Class.setDescription(readString(in));
+        m2Class.setParentName(readString(in));
+        Boolean archive = readBoolean(in);
+        if (archive != null) {
+            m2Class.setArchive(archive);
+        }
+        Boolean includedInSuperTypeQuery = readBoolean(in);
+        if (includedInSuperTypeQuery != null) {
+            m2Class.setIncludedInSuperTypeQuery(includedInSuperTypeQuery);
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            readProperty(in, m2Class.createProperty(readString(in)));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            readAssociation(in, m2Class);
+        }
+        for (String aspect : readStrings(in)) {
+            m2Class.addMandatoryAspect(aspect);
+        }
+    }
+
+    private static void writeProperty(DataOutput out, M2Property property) throws IOException {
+        writeString(out, property.getName());
+        writeString(out, property.getTitle());
+        writeString(out, property.getDescription());
+        writeString(out, property.getType());
+        out.writeBoolean(property.isProtected());
+        out.writeBoolean(property.isMandatory());
+        out.writeBoolean(property.isMandatoryEnforced());
+        out.writeBoolean(property.isMultiValued());
+        writeString(out, property.getDefaultValue());
+        writeBoolean(out, property.isIndexed());
+        writeBoolean(out, property.isIndexedAtomically());
+        writeBoolean(out, property.isStoredInIndex());
+        IndexTokenisationMode tokenisationMode = property.getIndexTokenisationMode();
+        writeString(out, tokenisationMode != null ? tokenisationMode.name() : null);
+        Facetable facetable = property.getFacetable();
+        writeString(out, facetable != null ? facetable.name() : null);
+
+        List<M2Constraint> constraints = nonNull(property.getConstraints());
+        out.writeInt(constraints.size());
+        for (M2Constraint constraint : constraints) {
+            writeString(out, constraint.getName());
+            writeString(out, constraint.getType());
+            writeConstraint(out, constraint);
+        }
+    }
+
+    private static void readProperty(DataInput in, M2Property property) throws IOException {
+        property.setTitle(readString(in));
+        property.setDescription(readString(in));
+        property.setType(readString(in));
+        property.setProtected(in.readBoolean());
+        property.setMandatory(in.readBoolean());
+        property.setMandatoryEnforced(in.readBoolean());
+        property.setMultiValued(in.readBoolean());
+        property.setDefaultValue(readString(in));
+        Boolean indexed = readBoolean(in);
+        if (indexed != null) {
+            property.setIndexed(indexed);
+        }
+        Boolean indexedAtomically = readBoolean(in);
+        if (indexedAtomically != null) {
+            property.setIndexedAtomically(indexedAtomically);
+        }
+        Boolean storedInIndex = readBoolean(in);
+        if (storedInIndex != null) {
+            property.setStoredInIndex(storedInIndex);
+        }
+        String tokenisationMode = readString(in);
+        if (tokenisationMode != null) {
+            property.setIndexTokenisationMode(IndexTokenisationMode.valueOf(tokenisationMode));
+        }
+        String facetable = readString(in);
+        if (facetable != null) {
+            property.setFacetable(Facetable.valueOf(facetable));
+        }
+
+        for (int i = readCount(in); i > 0; i--) {
+            String name = readString(in);
+            String type = readString(in);
+            // M2Property only creates constraints by reference : inline constraints are completed afterwards
+            M2Constraint constraint = property.addConstraintRef(null);
+            constraint.setName(name);
+            constraint.setType(type);
+            readConstraint(in, constraint);
+        }
+    }
+
+    private static void writeAssociation(DataOutput out, M2ClassAssociation association) throws IOException {
+        boolean child = association instanceof M2ChildAssociation;
+        out.writeByte(child ? CHILD_ASSOCIATION : ASSOCIATION);
+        writeString(out, association.getName());
+        writeString(out, association.getTitle());
+        writeString(out, association.getDescription());
+        out.writeBoolean(association.isProtected());
+        writeString(out, association.getSourceRoleName());
+        out.writeBoolean(association.isSourceMandatory());
+        out.writeBoolean(association.isSourceMany());
+        writeString(out, association.getTargetClassName());
+        writeString(out, association.getTargetRoleName());
+        out.writeBoolean(association.isTargetMandatory());
+        out.writeBoolean(association.isTargetMandatoryEnforced());
+        out.writeBoolean(association.isTargetMany());
+        if (child) {
+            M2ChildAssociation childAssociation = (M2ChildAssociation) association;
+            writeString(out, childAssociation.getRequiredChildName());
+            writeBoolean(out, childAssociation.allowDuplicateChildName());
+            writeBoolean(out, childAssociation.isPropagateTimestamps());
+        }
+    }
+
+    private static void readAssociation(DataInput in, M2Class m2Class) throws IOException {
+        byte kind = in.readByte();
+        if (kind != ASSOCIATION && kind != CHILD_ASSOCIATION) {
+            throw new IOException("Unknown association kind : " + kind);
+        }
+        String name = readString(in);
+        M2ClassAssociation association = kind == CHILD_ASSOCIATION ?
+                m2Class.createChildAssociation(name) :
+                m2Class.createAssociation(name);
+        association.setTitle(readString(in));
+        association.setDescription(readString(in));
+        association.setProtected(in.readBoolean());
+        association.setSourceRoleName(readString(in));
+        association.setSourceMandatory(in.readBoolean());
+        association.setSourceMany(in.readBoolean());
+        association.setTargetClassName(readString(in));
+        association.setTargetRoleName(readString(in));
+        association.setTargetMandatory(in.readBoolean());
+        association.setTargetMandatoryEnforced(in.readBoolean());
+        association.setTargetMany(in.readBoolean());
+        if (kind == CHILD_ASSOCIATION) {
+            M2ChildAssociation childAssociation = (M2ChildAssociation) association;
+            childAssociation.setRequiredChildName(readString(in));
+            Boolean allowDuplicateChildName = readBoolean(in);
+            if (allowDuplicateChildName != null) {
+                childAssociation.setAllowDuplicateChildName(allowDuplicateChildName);
+            }
+            Boolean propagateTimestamps = readBoolean(in);
+            if (propagateTimestamps != null) {
+                childAssociation.setPropagateTimestamps(propagateTimestamps);
+            }
+        }
+    }
+
+
+    /**
+     * Write a string of any length, or null, as its length followed by its UTF-8 bytes.
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid string length : " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int count = readCount(in);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeBoolean(DataOutput out, Boolean value) throws IOException {
+        out.writeByte(value == null ? NULL_BOOLEAN : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInput in) throws IOException {
+        byte value = in.readByte();
+        return value == NULL_BOOLEAN ? null : value != 0;
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count : " + count);
+        }
+        return count;
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list != null ? list : Collections.<T>emptyList();
+    }
+}
@@ -0,0 +1,262 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Reads models straight from the AMP, JAR and ZIP archives holding them, through the zip file system of NIO : no
+ * entry is ever extracted to disk.
+ *
+ * A model inside an archive is designated by the path of the archive and the name of its entry, separated by
+ * {@link #ENTRY_SEPARATOR}, e.g. {@code my-module.amp!/config/alfresco/module/my-module/model/myModel.xml}.
+ *
+ * Each archive is opened once, the first time one of its models is read, and stays open for the models it holds,
+ * until it changes or this object is closed : the central directory of an archive holding many models is only read
+ * once. An archive which changed, or which is open when this object is closed, is only closed once the reads and
+ * listings in progress on it are over. This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelArchives implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelArchives.class);
+
+    /** Separator of the path of an archive and the name of one of its entries. */
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    /**
+     * Pattern of the models of an archive designated as a whole : the xml files of the model folders of its modules,
+     * under {@code config} in an AMP, or at the root of a JAR.
+     */
+    public static final String DEFAULT_MODELS_GLOB = "{alfresco,**/alfresco}/module/*/model/*.xml";
+
+    private static final List<String> ARCHIVE_EXTENSIONS = Arrays.asList("amp", "jar", "zip");
+
+    private final Map<String, OpenArchive> archives = new HashMap<>();
+
+
+    /**
+     * @param modelPath
+     * @return true if the given path designates an entry of an archive.
+     */
+    public static boolean isEntryPath(String modelPath) {
+        return modelPath.contains(ENTRY_SEPARATOR);
+    }
+
+    /**
+     * @param file
+     * @return true if the given file is an AMP, JAR or ZIP archive, after its extension.
+     */
+    public static boolean isArchive(File file) {
+        return ARCHIVE_EXTENSIONS.contains(FilenameUtils.getExtension(file.getName()).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get the file holding the given model : the archive for an entry of an archive, the model file otherwise.
+     * @param modelPath
+     * @return
+     */
+    public static File getFile(String modelPath) {
+        return isEntryPath(modelPath) ?
+                new File(modelPath.substring(0, modelPath.indexOf(ENTRY_SEPARATOR))) :
+                new File(modelPath);
+    }
+
+    /**
+     * @param modelPath
+     * @return the name of the entry designated by the given path, or null if it isn't an entry of an archive.
+     */
+    public static String getEntryName(String modelPath) {
+        return isEntryPath(modelPath) ?
+                modelPath.substring(modelPath.indexOf(ENTRY_SEPARATOR) + ENTRY_SEPARATOR.length()) :
+                null;
+    }
+
+    /**
+     * @param archive
+     * @param entryName
+     * @return the path designating the given entry of the given archive.
+     */
+    public static String getEntryPath(File archive, String entryName) {
+        return archive.getPath() + ENTRY_SEPARATOR + entryName;
+    }
+
+
+    /**
+     * Read the content of the given entry.
+     * @param entryPath path of the archive and name of the entry
+     * @return
+     * @throws NoSuchFileException if the archive or the entry doesn't exist
+     * @throws IOException if the archive can't be read
+     */
+    public ByteBuffer read(String entryPath) throws IOException {
+        OpenArchive open = acquire(getFile(entryPath));
+        try {
+            Path entry = open.fileSystem.getPath(getEntryName(entryPath));
+            return ByteBuffer.wrap(Files.readAllBytes(entry));
+        } finally {
+            release(open);
+        }
+    }
+
+    /**
+     * List the entries of the given archive matching the given glob pattern, in lexicographical order.
+     * @param archive
+     * @param glob pattern of the names of the entries, e.g. {@link #DEFAULT_MODELS_GLOB}
+     * @return the paths of the matching entries
+     * @throws NoSuchFileException if the archive doesn't exist
+     * @throws IOException if the archive can't be read
+     */
+    public List<String> list(File archive, String glob) throws IOException {
+        final List<String> entryNames = new ArrayList<>();
+        OpenArchive open = acquire(archive);
+        try {
+            final Path root = open.fileSystem.getPath("/");
+            final PathMatcher matcher = open.fileSystem.getPathMatcher("glob:" + glob);
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path name = root.relativize(file);
+                    if (attrs.isRegularFile() && matcher.matches(name)) {
+                        entryNames.add(name.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            release(open);
+        }
+        Collections.sort(entryNames);
+        List<String> entryPaths = new ArrayList<>(entryNames.size());
+        for (String entryName : entryNames) {
+            entryPaths.add(getEntryPath(archive, entryName));
+        }
+        return entryPaths;
+    }
+
+
+    /**
+     * Close all the open archives, once the reads in progress on them are over. Archives are opened again if needed.
+     */
+    @Override
+    public void close() {
+        List<OpenArchive> closed = new ArrayList<>();
+        synchronized (archives) {
+            for (OpenArchive archive : archives.values()) {
+                if (archive.retire()) {
+                    closed.add(archive);
+                }
+            }
+            archives.clear();
+        }
+        for (OpenArchive archive : closed) {
+            archive.close();
+        }
+    }
+
+
+    /**
+     * Get the open given archive, opening it if it isn't open yet or changed since it was opened. The archive stays
+     * open until it is {@link #release(OpenArchive) released}.
+     * @param archive
+     * @return
+     * @throws IOException
+     */
+    private OpenArchive acquire(File archive) throws IOException {
+        String key = archive.getAbsolutePath();
+        long lastModified = archive.lastModified();
+        long length = archive.length();
+        OpenArchive open;
+        boolean closePrevious;
+        OpenArchive previous;
+        synchronized (archives) {
+            open = archives.get(key);
+            if (open != null && open.lastModified == lastModified && open.length == length) {
+                open.users++;
+                return open;
+            }
+            if (!archive.isFile()) {
+                throw new NoSuchFileException(archive.getPath());
+            }
+            LOGGER.debug("Opening models archive '{}'.", archive);
+            open = new OpenArchive(FileSystems.newFileSystem(archive.toPath(), (ClassLoader) null), lastModified,
+                    length);
+            open.users++;
+            previous = archives.put(key, open);
+            // The archive changed : its models are read from the new one, the previous one being closed once the
+            // reads in progress on it are over
+            closePrevious = previous != null && previous.retire();
+        }
+        if (closePrevious) {
+            previous.close();
+        }
+        return open;
+    }
+
+    /**
+     * Release an archive got from {@link #acquire(File)}, closing it if it was replaced and no longer used.
+     * @param open
+     */
+    private void release(OpenArchive open) {
+        boolean close;
+        synchronized (archives) {
+            open.users--;
+            close = open.retired && open.users == 0;
+        }
+        if (close) {
+            open.close();
+        }
+    }
+
+
+    /**
+     * File system of an archive, along with the last modification date and size of the archive when it was opened,
+     * and the number of reads in progress on it, guarded by the map of the archives.
+     */
+    private static class OpenArchive {
+
+        private final FileSystem fileSystem;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private int users;
+
+        /** Whether the archive is no longer in the map of the archives, and is closed once it isn't used anymore. */
+        private boolean retired;
+
+        private OpenArchive(FileSystem fileSystem, long lastModified, long length) {
+            this.fileSystem = fileSystem;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        /**
+         * Mark the archive as replaced, or removed.
+         * @return true if the archive should be closed at once, as it isn't used.
+         */
+        private boolean retire() {
+            retired = true;
+            return users == 0;
+        }
+
+        private void close() {
+            try {
+                fileSystem.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close models archive : {}", e.getMessage());
+            }
+        }
+    }
+}
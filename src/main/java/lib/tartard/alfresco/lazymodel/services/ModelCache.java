@@ -0,0 +1,403 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.M2Model;
+import org.alfresco.service.cmr.dictionary.DictionaryException;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.ProviderNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed Alfresco models.
+ *
+ * Models are identified by the hash of their xml content, so the same model found under two paths is parsed only
+ * once. The last modification date and size of each model file are remembered along with its hash by a
+ * {@link FileHashes} : as long as they don't change, the file isn't even read again.
+ *
+ * The cache holds at most {@code maxSize} parsed models, the least recently used ones being evicted first. It is
+ * thread safe, and concurrent requests for the same model wait for a single parsing.
+ *
+ * With {@link ModelSnapshots}, models are parsed once for all runs : a model missing from the cache is loaded from its
+ * binary snapshot if there is one, and its snapshot is written after it is parsed otherwise.
+ *
+ * Models can also be read from the AMP, JAR or ZIP archives holding them, without extracting them, by paths such as
+ * {@code my-module.amp!/alfresco/module/my-module/model/myModel.xml} : see {@link ModelArchives}.
+ *
+ * Models are parsed by a {@link ModelReader}, the JiBX unmarshalling of Alfresco by default. With the
+ * {@link StaxModelReader}, which streams the model in a single pass, model files of at least
+ * {@link #MAPPED_FILE_MIN_SIZE} bytes are mapped in memory rather than copied to the heap, then hashed and parsed
+ * straight from the mapping. Accessing a mapping fails with an {@link InternalError} once its file is truncated :
+ * the file is then read again into the heap. On Windows, a mapped file can't be replaced until its mapping is garbage
+ * collected.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelCache.class);
+
+    /** Default maximum number of parsed models kept in a cache. */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /** Size from which model files are mapped in memory rather than read, when parsed by a StAX reader. */
+    public static final long MAPPED_FILE_MIN_SIZE = 256L * 1024L;
+
+    private final int maxSize;
+
+    private final FileHashes hashes = new FileHashes();
+
+    private final Map<String, FutureTask<ParsedModel>> models;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile ModelSnapshots snapshots;
+
+    private volatile ModelReader modelReader = new JibxModelReader();
+
+    private final ModelArchives archives = new ModelArchives();
+
+    /**
+     * Instantiate a cache holding at most {@link #DEFAULT_MAX_SIZE} models.
+     */
+    public ModelCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Instantiate a cache holding at most {@code maxSize} models.
+     * @param maxSize maximum number of parsed models kept in the cache
+     */
+    public ModelCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The size of the cache must be positive : " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.models = new LinkedHashMap<String, FutureTask<ParsedModel>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<ParsedModel>> eldest) {
+                return size() > ModelCache.this.maxSize;
+            }
+        };
+    }
+
+
+    /**
+     * Get the model parsed from the xml file located at the given path. The file is parsed only if no model with
+     * the same content is already in the cache.
+     *
+     * @param modelPath path of the xml model file, or of an entry of an archive
+     * @return the parsed model
+     * @throws ModelConversionException if the file can't be read or isn't a valid Alfresco model.
+     */
+    public ParsedModel get(String modelPath) {
+        File modelFile = ModelArchives.getFile(modelPath);
+        String entryName = ModelArchives.getEntryName(modelPath);
+        ByteBuffer content = null;
+        String hash = hashes.getKnownHash(modelFile, entryName);
+        if (hash == null) {
+            long lastModified = modelFile.lastModified();
+            long length = modelFile.length();
+            content = read(modelPath);
+            try {
+                hash = hashes.record(modelFile, entryName, lastModified, length, content);
+            } catch (InternalError e) {
+                content = readAgain(modelPath, content, e);
+                hash = hashes.record(modelFile, entryName, lastModified, length, content);
+            }
+        }
+        return get(hash, content, modelPath);
+    }
+
+
+    /**
+     * Get the model parsed from the given xml content, without touching the file system. The content is parsed only if
+     * no model with the same content is already in the cache.
+     *
+     * @param content xml content of the model
+     * @return the parsed model
+     * @throws ModelConversionException if the content isn't a valid Alfresco model.
+     */
+    public ParsedModel get(byte[] content) {
+        return get(ContentHash.of(content), ByteBuffer.wrap(content), null);
+    }
+
+
+    /**
+     * Get the hash of the content of the xml file located at the given path, without parsing it.
+     *
+     * @param modelPath path of the xml model file, or of an entry of an archive
+     * @return the hash of the model content
+     * @throws ModelConversionException if the file can't be read.
+     */
+    public String getHash(String modelPath) {
+        File modelFile = ModelArchives.getFile(modelPath);
+        String entryName = ModelArchives.getEntryName(modelPath);
+        String hash = hashes.getKnownHash(modelFile, entryName);
+        if (hash == null) {
+            long lastModified = modelFile.lastModified();
+            long length = modelFile.length();
+            ByteBuffer content = read(modelPath);
+            try {
+                hash = hashes.record(modelFile, entryName, lastModified, length, content);
+            } catch (InternalError e) {
+                hash = hashes.record(modelFile, entryName, lastModified, length, readAgain(modelPath, content, e));
+            }
+        }
+        return hash;
+    }
+
+
+    /**
+     * @return the number of requests served without parsing.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests which required parsing a model.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the snapshots of the models parsed by this cache.
+     * @return the snapshots, or null if models are always parsed from their xml.
+     */
+    public ModelSnapshots getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Set the snapshots the models are loaded from before being parsed, and written to after being parsed.
+     * @param snapshots the snapshots, or null to always parse models from their xml
+     */
+    public void setSnapshots(ModelSnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @return the reader parsing the xml of the models.
+     */
+    public ModelReader getModelReader() {
+        return modelReader;
+    }
+
+    /**
+     * Set the reader parsing the xml of the models, e.g. a {@link StaxModelReader}.
+     * @param modelReader
+     */
+    public void setModelReader(ModelReader modelReader) {
+        this.modelReader = modelReader;
+    }
+
+    /**
+     * @return the number of parsed models currently in the cache.
+     */
+    public int size() {
+        synchronized (models) {
+            return models.size();
+        }
+    }
+
+    /**
+     * Remove all the parsed models from the cache, and close the archives they were read from.
+     */
+    public void clear() {
+        synchronized (models) {
+            models.clear();
+        }
+        hashes.clear();
+        archives.close();
+    }
+
+
+    /**
+     * Get the parsed model with the given hash, parsing it if needed.
+     * @param hash
+     * @param content content of the model file if already read, null otherwise
+     * @param modelPath path of the model, or null if the model has no file
+     * @return
+     */
+    private ParsedModel get(final String hash, final ByteBuffer content, final String modelPath) {
+        FutureTask<ParsedModel> task;
+        boolean owner = false;
+        synchronized (models) {
+            task = models.get(hash);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<ParsedModel>() {
+                    @Override
+                    public ParsedModel call() {
+                        return load(hash, content, modelPath);
+                    }
+                });
+                models.put(hash, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            misses.incrementAndGet();
+            task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelConversionException("Interrupted while waiting for model '" + getName(hash, modelPath)
+                    + "'.", e);
+        } catch (ExecutionException e) {
+            synchronized (models) {
+                if (models.get(hash) == task) {
+                    models.remove(hash);
+                }
+            }
+            if (e.getCause() instanceof ModelConversionException) {
+                throw (ModelConversionException) e.getCause();
+            }
+            throw new ModelConversionException("Failed to create M2Model due to nested Exception :", e.getCause());
+        }
+    }
+
+
+    /**
+     * Read the whole content of the given model file, or map it in memory if it is large and parsed by a StAX reader :
+     * JiBX builds a whole document, which the mapping doesn't spare.
+     * @param modelPath path of the model file, or of an entry of an archive
+     * @return
+     */
+    private ByteBuffer read(String modelPath) {
+        return read(modelPath, modelReader instanceof StaxModelReader);
+    }
+
+    /**
+     * Read again into the heap the content of the given model file, which could not be accessed.
+     * @param modelPath path of the model file
+     * @param content content of the model file, as previously read
+     * @param fault error raised when accessing the content
+     * @return
+     * @throws InternalError the given fault, if the content wasn't mapped in memory
+     */
+    private ByteBuffer readAgain(String modelPath, ByteBuffer content, InternalError fault) {
+        if (!(content instanceof MappedByteBuffer)) {
+            throw fault;
+        }
+        LOGGER.warn("Could not access model '{}' mapped in memory, e.g. as it was truncated, reading it again : {}",
+                modelPath, fault.getMessage());
+        return read(modelPath, false);
+    }
+
+    /**
+     * Read the whole content of the given model file.
+     * @param modelPath path of the model file, or of an entry of an archive
+     * @param mapping whether the file is mapped in memory if it is large
+     * @return
+     */
+    private ByteBuffer read(String modelPath, boolean mapping) {
+        if (ModelArchives.isEntryPath(modelPath)) {
+            try {
+                return archives.read(modelPath);
+            } catch (NoSuchFileException e) {
+                throw getException("There is no xml model at the given location '" + modelPath + "'.", e);
+            } catch (IOException | ProviderNotFoundException e) {
+                throw getException("Could not read xml model at '" + modelPath + "' :", e);
+            }
+        }
+        try (FileInputStream modelStream = new FileInputStream(modelPath)) {
+            FileChannel channel = modelStream.getChannel();
+            long size = channel.size();
+            if (mapping && size >= MAPPED_FILE_MIN_SIZE) {
+                // The mapping remains valid once the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            }
+            return ByteBuffer.wrap(IOUtils.toByteArray(modelStream));
+        } catch (FileNotFoundException e) {
+            throw getException("There is no xml model at the given location '" + modelPath + "'.", e);
+        } catch (IOException e) {
+            throw getException("Could not read xml model at '" + modelPath + "' :", e);
+        }
+    }
+
+
+    /**
+     * Load the model with the given hash from its snapshot, or parse it from its xml and write its snapshot.
+     * @param hash
+     * @param content content of the model file if already read, null otherwise
+     * @param modelPath
+     * @return
+     */
+    private ParsedModel load(String hash, ByteBuffer content, String modelPath) {
+        ModelSnapshots modelSnapshots = snapshots;
+        if (modelSnapshots == null) {
+            return parse(hash, content != null ? content : read(modelPath), modelPath);
+        }
+
+        M2Model model = modelSnapshots.load(hash);
+        if (model != null) {
+            LOGGER.trace("Loaded M2Model '{}' from its snapshot.", getName(hash, modelPath));
+            return new ParsedModel(hash, model);
+        }
+        ParsedModel parsedModel = parse(hash, content != null ? content : read(modelPath), modelPath);
+        modelSnapshots.store(hash, parsedModel.getModel());
+        return parsedModel;
+    }
+
+
+    /**
+     * Parse the given model content.
+     * @param hash
+     * @param content
+     * @param modelPath
+     * @return
+     */
+    private ParsedModel parse(String hash, ByteBuffer content, String modelPath) {
+        LOGGER.trace("Parsing M2Model '{}'.", getName(hash, modelPath));
+        try {
+            return new ParsedModel(hash, modelReader.read(content));
+        } catch (DictionaryException e) {
+            throw getException("Failed to create M2Model due to nested Exception :", e);
+        } catch (InternalError e) {
+            ByteBuffer heapContent = readAgain(modelPath, content, e);
+            if (!hash.equals(ContentHash.of(heapContent))) {
+                LOGGER.error("Model '{}' changed while it was parsed.", modelPath);
+                throw new ModelConversionException("Model '" + modelPath + "' changed while it was parsed.");
+            }
+            return parse(hash, heapContent, modelPath);
+        }
+    }
+
+
+    /**
+     * @param hash
+     * @param modelPath
+     * @return the path of the given model, or the hash of the model if it has no file.
+     */
+    private static String getName(String hash, String modelPath) {
+        return modelPath != null ? modelPath : hash;
+    }
+
+
+    private ModelConversionException getException(String msg, Exception cause) {
+        LOGGER.error("{} {}", msg, cause.getMessage());
+        return new ModelConversionException(msg, cause);
+    }
+}
@@ -1,26 +1,66 @@
 package lib.tartard.alfresco.lazymodel.services;
 
+import freemarker.cache.CacheStorage;
+import freemarker.core.Environment;
+import freemarker.cache.MruCacheStorage;
 import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateExceptionHandler;
 import org.alfresco.repo.dictionary.M2Model;
-import org.alfresco.service.cmr.dictionary.DictionaryException;
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import lib.tartard.alfresco.lazymodel.services.view.NamedView;
+import lib.tartard.alfresco.lazymodel.services.view.Names;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class allows to generate files from an Alfresco xml model.
  *
  * The file generation simply unmarshalls the given Alfreco model into a M2 model object using Alfresco's libraries.
- * Then this M2Model object is injected in the specified Freemarker template, and a new file is generated from this
- * template.
+ * Then this M2Model object is injected in the specified Freemarker template, along with its precomputed
+ * {@link lib.tartard.alfresco.lazymodel.services.view.ModelView}, and a new file is generated from this template.
+ *
+ * Models referenced by the converted models, such as Alfresco's contentModel.xml, can be given as dictionary models :
+ * templates then also get a {@link ModelIndex} resolving imports and inheritance across the converted model and the
+ * dictionary models. The index of the dictionary models is built once, and rebuilt only when one of them changes.
+ *
+ * A template named with a {@link TemplateScope}, such as {@code java.UTF-8.type.ftl}, is rendered once per element
+ * of that kind instead of once for the whole model : each element is given to the template as {@code element}, and
+ * gets its own file in a folder named after the model.
+ *
+ * Templates are loaded through a single {@link TemplateFolderLoader}, whatever folder they come from, and are parsed
+ * only once thanks to the Freemarker template cache. Once configured, a ModelConverter can be used by several threads
+ * at the same time.
+ *
+ * Models and templates can also be given in memory, and rendered to a writer, a stream or an array of bytes with the
+ * {@code render} methods : nothing is read from or written to the file system, apart from the dictionary models and
+ * the templates looked up by name.
+ *
+ * Generated files are written through an {@link OutputSink} : each one at its path by default, or all of them into a
+ * single archive with an {@link ArchiveOutputSink}.
  *
  * @author Alexandre Hausherr
  * @version 1.0 18/03/2018
@@ -29,20 +69,70 @@ public class ModelConverter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ModelConverter.class);
 
-    private Configuration freemarkerConfig;
+    /** Default number of compiled templates strongly referenced by the template cache. */
+    public static final int DEFAULT_TEMPLATE_CACHE_STRONG_SIZE = 64;
+
+    /** Default number of compiled templates softly referenced by the template cache. */
+    public static final int DEFAULT_TEMPLATE_CACHE_SOFT_SIZE = 256;
+
+    /** Created on the first template lookup, so that runs which don't render anything don't initialize Freemarker. */
+    private volatile Configuration freemarkerConfig;
+
+    private CacheStorage templateCacheStorage;
+
+    private Long templateUpdateDelay;
+
+    private final TemplateFolderLoader templateLoader = new TemplateFolderLoader();
+
+    private ModelCache modelCache = new ModelCache();
+
+    private volatile OutputCache outputCache;
+
+    private volatile OutputSink outputSink = new FileOutputSink();
+
+    private final FileHashes templateHashes = new FileHashes();
+
+    /** Hashes of the templates along with the templates they include, by template path, for the current batch. */
+    private final ConcurrentMap<String, String> batchTemplateHashes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<File, GenerationManifest> manifests = new ConcurrentHashMap<>();
 
+    private volatile IncrementalMode incrementalMode = IncrementalMode.OFF;
+
+    private volatile List<String> dictionaryModelPaths = Collections.emptyList();
+
+    private volatile boolean dictionaryChecked;
+
+    private String dictionaryHash;
+
+    private ModelIndex dictionaryIndex;
+
+    private final List<ConversionListener> listeners = new CopyOnWriteArrayList<>();
+
+
+    /** Version of the tool when it doesn't run from a packaged jar. */
+    public static final String DEVELOPMENT_VERSION = ToolVersion.DEVELOPMENT_VERSION;
 
     private static final String LOG_MESSAGE_GENERATING_FILE = "Generating file from the following configuration :\n{}";
 
+    private static final String TEMPLATE_EXTENSION = ".ftl";
+
+    /**
+     * Include and import directives, in angle or square bracket syntax, with the name of the template when it is a
+     * string literal.
+     */
+    private static final Pattern INCLUDE_PATTERN =
+            Pattern.compile("[<\\[]#(?:include|import)\\s+(?:\"([^\"]*)\"|'([^']*)')?");
+
+    private static final String JFR_LISTENER_CLASS = "lib.tartard.alfresco.lazymodel.services.JfrConversionListener";
+
+    /** Listener committing JFR events, or null if the JVM doesn't support them. Shared as it is stateless. */
+    private static final ConversionListener JFR_LISTENER = newJfrListener();
+
     /**
      * Instantiate a ModelConverter with a preset Freemarker configuration.
      */
     public ModelConverter() {
-        freemarkerConfig = new Configuration(Configuration.VERSION_2_3_23);
-        freemarkerConfig.setWhitespaceStripping(true);
-        freemarkerConfig.setDefaultEncoding("UTF-8");
-        freemarkerConfig.setLocale(Locale.US);
-        freemarkerConfig.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
     }
 
 
@@ -68,161 +158,1352 @@ public class ModelConverter {
      * @see ConversionConfig
      */
     public File convert(ConversionConfig config) {
-        LOGGER.info(LOG_MESSAGE_GENERATING_FILE, config);
-        return convert(getM2Model(config.getAlfrescoModelPath()), config);
+        refreshDictionary();
+        File outputFile = generate(config).getOutputFile();
+        saveManifests();
+        return outputFile;
     }
 
 
     /**
      * Generates files from the Alfresco models, with the Freemarker templates, with the encoding and at the paths
      * specified by the given {@code configs}.
-     * Performs the same thing as {@see convert} with several configurations.
+     * Performs the same thing as {@see convert} with several configurations, one after the other on the calling
+     * thread. Use a {@link BatchConverter} to perform them in parallel.
      *
      * @param configs list of configurations to be used to generate a file.
      * @return a list of files geenrated after the given configurations and Alfresco models.
      * @see ConversionConfig
      */
     public List<File> convert(List<ConversionConfig> configs) {
-        M2Model model = null;
-        String modelPath = null;
         List<File> outputFiles = new ArrayList<>(configs.size());
+        refreshDictionary();
         for (ConversionConfig config : configs) {
-            LOGGER.info(LOG_MESSAGE_GENERATING_FILE, config);
-            if (modelPath == null) {
-                modelPath = config.getAlfrescoModelPath();
-            }
-            if (model == null || !modelPath.equals(config.getAlfrescoModelPath())) {
-                model = getM2Model(modelPath);
-            }
             try {
-                outputFiles.add(convert(model, config));
+                outputFiles.add(generate(config).getOutputFile());
             } catch (ModelConversionException e) {
                 // As we want the other conversions to be performed, we only print the stackTrace.
                 e.printStackTrace();
             }
         }
+        saveManifests();
         return outputFiles;
     }
 
 
     /**
-     * Set a default path to Freemarker templates.
-     * Once this default path set, it is possible to specify only the template name in the configuration, instead of the
-     * whole template file path.
-     * @param templatesFolder
+     * Performs the conversion specified by the given {@code config}, according to the incremental mode of this
+     * converter. Unlike {@link #convert(ConversionConfig)}, the manifests of the output folders are not saved : call
+     * {@link #saveManifests()} once all the conversions are performed.
+     *
+     * @param config configuration to be used to generate a file.
+     * @return the result of the conversion, which is never {@link ConversionResult.Status#FAILED}.
+     * @throws ModelConversionException if the conversion failed.
+     * @see IncrementalMode
      */
-    public void setFreemarkerTemplatesFolder(String templatesFolder) {
+    public ConversionResult generate(ConversionConfig config) {
+        return generate(config, null);
+    }
+
+
+    /**
+     * Performs the conversion specified by the given {@code config} with a model already resolved along with the
+     * models it imports. When the template is rendered once per element of the model, the elements are rendered one
+     * after the other on the calling thread : use a {@link BatchConverter} to render them in parallel.
+     *
+     * @param config configuration to be used to generate a file.
+     * @param resolvedModel the model of the configuration, or null to get it from the model cache
+     * @return the result of the conversion, which is never {@link ConversionResult.Status#FAILED}.
+     * @throws ModelConversionException if the conversion failed.
+     * @see #resolve(ParsedModel, List)
+     */
+    public ConversionResult generate(ConversionConfig config, ResolvedModel resolvedModel) {
+        LOGGER.info(LOG_MESSAGE_GENERATING_FILE, config);
+        if (!getScope(config).isFanOut()) {
+            return generateFile(config, resolvedModel, null, getOutputFile(config));
+        }
+
+        ResolvedModel model = resolvedModel != null ? resolvedModel : resolve(config);
+        List<ConversionResult> elementResults = new ArrayList<>();
+        for (String elementName : getElementNames(config, model)) {
+            elementResults.add(generate(config, model, elementName));
+        }
+        return completeElements(config, model, elementResults);
+    }
+
+
+    /**
+     * Complete a conversion rendering its template once per element of the model, once all its elements are
+     * rendered : the files of the elements removed from the model since the previous conversion are deleted, and the
+     * structure of the model is stored next to the files for the next conversion. Nothing is deleted nor stored when
+     * checking outputs, when an element failed, or when the files aren't written on the file system.
+     *
+     * @param config configuration of the conversion
+     * @param resolvedModel the model of the configuration
+     * @param elementResults results of the elements
+     * @return the result of the whole conversion.
+     * @see ModelStructure
+     */
+    public ConversionResult completeElements(ConversionConfig config, ResolvedModel resolvedModel,
+                                             List<ConversionResult> elementResults) {
+        File outputFolder = getOutputFile(config);
+        if (!outputSink.isWritingFiles()) {
+            // No previous files to compare with, nor to delete
+            return ConversionResult.ofElements(config, outputFolder, elementResults);
+        }
+        File structureFile = ModelStructure.getFile(outputFolder, config.getFtlTemplatePath());
+        ModelStructure structure = resolvedModel.getStructure();
+        ModelStructure previous = null;
         try {
-            freemarkerConfig.setDirectoryForTemplateLoading(new File(templatesFolder));
+            previous = ModelStructure.load(structureFile);
         } catch (IOException e) {
-            throw getException("Could not load templates folder '" + templatesFolder + "' due to nested Exceptions :", e);
+            LOGGER.warn("Could not read model structure '{}' : {}", structureFile, e.getMessage());
+        }
+        if (previous == null) {
+            LOGGER.debug("No previous structure of model '{}' in '{}'.", config.getAlfrescoModelPath(), outputFolder);
+        } else {
+            ModelDiff diff = structure.diff(previous);
+            if (!diff.isEmpty()) {
+                LOGGER.info("Model '{}' changed since its previous conversion : {}", config.getAlfrescoModelPath(),
+                        diff);
+                LOGGER.debug("Changes of model '{}' : {}", config.getAlfrescoModelPath(), diff.getChanges());
+            }
+        }
+
+        List<ConversionResult> results = new ArrayList<>(elementResults);
+        for (ConversionResult result : elementResults) {
+            if (result.isFailed()) {
+                return ConversionResult.ofElements(config, outputFolder, results);
+            }
+        }
+
+        // Files of the removed elements, or of the elements whose prefixed name changed
+        List<File> removedOutputs = new ArrayList<>();
+        if (previous != null) {
+            TemplateScope scope = getScope(config);
+            Set<String> outputNames = getElementOutputNames(config, structure.getNames(scope));
+            for (String outputName : getElementOutputNames(config, previous.getNames(scope))) {
+                File removedOutput = new File(outputFolder, outputName);
+                if (!outputNames.contains(outputName) && removedOutput.isFile()) {
+                    removedOutputs.add(removedOutput);
+                }
+            }
+        }
+
+        if (incrementalMode == IncrementalMode.CHECK) {
+            if (!removedOutputs.isEmpty()) {
+                LOGGER.debug("Output files of removed elements {} are stale.", removedOutputs);
+                results.add(ConversionResult.stale(config, outputFolder));
+            }
+            return ConversionResult.ofElements(config, outputFolder, results);
+        }
+
+        for (File removedOutput : removedOutputs) {
+            LOGGER.info("Deleting output file '{}' of a removed element.", removedOutput);
+            try {
+                Files.delete(removedOutput.toPath());
+            } catch (IOException e) {
+                throw getException("Could not delete output file '" + removedOutput + "' :", e);
+            }
+            if (incrementalMode != IncrementalMode.OFF) {
+                getManifest(outputFolder.getAbsoluteFile()).remove(removedOutput.getName());
+            }
+            results.add(ConversionResult.deleted(config, removedOutput));
+        }
+        try {
+            structure.save(structureFile);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write model structure '{}' : {}", structureFile, e.getMessage());
         }
+        return ConversionResult.ofElements(config, outputFolder, results);
     }
 
 
     /**
-     * Get the Freemarker template specified by the given configuration.
+     * Generates the file of a single element of the model, for a configuration whose template is rendered once per
+     * element. The file is named after the element, with the extension given by the template, in the output folder
+     * of the configuration.
+     *
+     * @param config configuration to be used to generate a file.
+     * @param resolvedModel the model of the configuration
+     * @param elementName name of the element, as given by {@link #getElementNames}
+     * @return the result of the conversion of the element, which is never {@link ConversionResult.Status#FAILED}.
+     * @throws ModelConversionException if the conversion failed.
+     * @see TemplateScope
+     */
+    public ConversionResult generate(ConversionConfig config, ResolvedModel resolvedModel, String elementName) {
+        TemplateScope scope = getScope(config);
+        NamedView element = scope.getElement(resolvedModel.getParsedModel().getView(), elementName);
+        if (element == null) {
+            throw getException("Model '" + config.getAlfrescoModelPath() + "' has no " + scope.getName() + " named '"
+                    + elementName + "'.");
+        }
+        File outputFile = new File(getOutputFile(config), getElementOutputName(config, elementName));
+        LOGGER.debug("Generating file '{}' for {} '{}'.", outputFile, scope.getName(), elementName);
+        return generateFile(config, resolvedModel, element, outputFile);
+    }
+
+
+    /**
+     * Get the names of the elements of the model the template of the given configuration is rendered for.
+     * @param config
+     * @param resolvedModel the model of the configuration
+     * @return the names of the elements, empty if the template is rendered once for the whole model.
+     * @throws ModelConversionException if the files of two elements would have the same name.
+     */
+    public List<String> getElementNames(ConversionConfig config, ResolvedModel resolvedModel) {
+        List<String> elementNames = getScope(config).getElementNames(resolvedModel.getParsedModel().getView());
+        // Names differing only by their case collide on case insensitive file systems
+        Map<String, String> elementsByOutputName = new HashMap<>();
+        for (String elementName : elementNames) {
+            String outputName = getElementOutputName(config, elementName);
+            String other = elementsByOutputName.put(outputName.toLowerCase(Locale.ROOT), elementName);
+            if (other != null) {
+                throw getException("Elements '" + other + "' and '" + elementName + "' of model '"
+                        + config.getAlfrescoModelPath() + "' would both be generated into file '" + outputName + "'.");
+            }
+        }
+        return elementNames;
+    }
+
+
+    /**
+     * Get the model of the given configuration from the model cache, indexed on top of the dictionary models.
      * @param config
      * @return
+     * @throws ModelConversionException if the model can't be parsed or indexed.
      */
-    private Template getTemplate(ConversionConfig config) {
-        String templatePath = config.getFtlTemplatePath();
-        LOGGER.trace("Getting ftl template from file '{}'.", templatePath);
+    public ResolvedModel resolve(ConversionConfig config) {
+        ParsedModel parsedModel = getParsedModel(config.getAlfrescoModelPath());
+        return new ResolvedModel(parsedModel, getIndex(parsedModel), getModelHash(config.getAlfrescoModelPath()));
+    }
 
-        if(StringUtils.isBlank(templatePath)) {
-            throw getException("No template file path provided. Cannot convert model.");
+
+    /**
+     * Get the names of the files generated for the given elements.
+     * @param config
+     * @param elementNames prefixed names of the elements
+     * @return
+     */
+    private Set<String> getElementOutputNames(ConversionConfig config, Collection<String> elementNames) {
+        Set<String> outputNames = new LinkedHashSet<>();
+        for (String elementName : elementNames) {
+            outputNames.add(getElementOutputName(config, elementName));
         }
+        return outputNames;
+    }
 
-        File templateFile = new File(templatePath);
-        File parentDir = templateFile.getParentFile();
+    /**
+     * Get the name of the file generated for the given element.
+     * @param config
+     * @param elementName prefixed name of the element
+     * @return
+     */
+    private String getElementOutputName(ConversionConfig config, String elementName) {
+        String extension = TemplateName.parse(config.getFtlTemplatePath()).getExtension();
+        return Names.getJavaIdentifier(elementName)
+                + (extension != null ? FilenameUtils.EXTENSION_SEPARATOR + extension : "");
+    }
 
-        if(parentDir != null) {
-            try {
-                freemarkerConfig.setDirectoryForTemplateLoading(parentDir);
-            } catch (IOException e) {
-                throw getException("Could not find template at '" + templatePath + "' due to nested Exception :", e);
-            }
+
+    /**
+     * Get the name of the Java class declared by the given output file, so that the file compiles where {@code javac}
+     * looks for the class : the name of the file without its extension.
+     * @param outputFile
+     * @return
+     */
+    private static String getJavaClassName(File outputFile) {
+        return Names.getJavaIdentifier(FilenameUtils.getBaseName(outputFile.getName()));
+    }
+
+    /**
+     * Get the name of the Java class declared by the given output file, prefixed with the package of the given
+     * configuration.
+     * @param config
+     * @param outputFile
+     * @return the qualified name, or null if the configuration has no package.
+     */
+    private static String getQualifiedJavaClassName(ConversionConfig config, File outputFile) {
+        return config.getJavaPackage() != null ?
+                config.getJavaPackage() + "." + getJavaClassName(outputFile) :
+                null;
+    }
+
+
+    /**
+     * Get the scope of the template of the given configuration.
+     * @param config
+     * @return the scope of the configuration, or the one given by the name of its template.
+     */
+    public TemplateScope getScope(ConversionConfig config) {
+        if (config.getScope() != null) {
+            return config.getScope();
         }
+        return StringUtils.isBlank(config.getFtlTemplatePath()) ?
+                TemplateScope.MODEL :
+                TemplateName.parse(config.getFtlTemplatePath()).getScope();
+    }
 
+
+    /**
+     * Generates the given output file, according to the incremental mode of this converter.
+     * @param config
+     * @param resolvedModel the model of the configuration, or null to get it from the model cache
+     * @param element element the template is rendered for, or null if it is rendered for the whole model
+     * @param outputFile
+     * @return
+     */
+    private ConversionResult generateFile(ConversionConfig config, ResolvedModel resolvedModel, NamedView element,
+                                          File outputFile) {
+        ConversionRecorder recorder = new ConversionRecorder();
+        String elementName = element != null ? element.getName() : null;
+        ConversionResult result;
         try {
-            return freemarkerConfig.getTemplate(templateFile.getName(), config.getOutputEncoding());
-        } catch (IOException e) {
-            throw getException("No template found at the specified path '" + templatePath + "' :", e);
+            result = generateFile(config, resolvedModel, element, outputFile, recorder);
+        } catch (RuntimeException e) {
+            fireConversionPerformed(recorder.toEvent(config, elementName, outputFile, ConversionResult.failed(config, e)));
+            throw e;
         }
+        fireConversionPerformed(recorder.toEvent(config, elementName, outputFile, result));
+        return result;
     }
 
 
     /**
-     * Generates a file from the given M2Model and configuration.
-     * @param m2Model
+     * Generates the given output file, recording the metrics of the generation.
      * @param config
+     * @param resolvedModel
+     * @param element
+     * @param outputFile
+     * @param recorder
      * @return
      */
-    private File convert(M2Model m2Model, ConversionConfig config) {
-        Template template = getTemplate(config);
-        Map<String, Object> ftlModel = getFtlModel(m2Model, config);
-        String outputFilePath = config.getOutputFile();
-        if(StringUtils.isBlank(outputFilePath)) {
-            throw getException("No output file path provided. Cannot perform model conversion.");
+    private ConversionResult generateFile(ConversionConfig config, ResolvedModel resolvedModel, NamedView element,
+                                          File outputFile, ConversionRecorder recorder) {
+        if (incrementalMode == IncrementalMode.OFF) {
+            return ConversionResult.generated(config, generateOutput(resolvedModel, element, config, outputFile,
+                    recorder));
+        }
+        if (!outputSink.isWritingFiles()) {
+            throw getException("Incremental mode " + incrementalMode
+                    + " needs the generated files on the file system.");
         }
-        File outPutFile = new File(outputFilePath);
 
-        // Create the output directory if it doesn't exist.
-        File parent = outPutFile.getParentFile();
-        if(parent != null) {
-            try {
-                Files.createDirectories(Paths.get(parent.toURI()));
-            } catch (IOException e) {
-                throw getException("Could not create output directory :", e);
-            }
+        long start = System.nanoTime();
+
+        // The file of an element only depends on the element and on the elements it inherits from
+        String modelHash;
+        if (element != null) {
+            modelHash = resolvedModel.getStructure().getEffectiveFingerprint(element.getQName());
+        } else if (resolvedModel != null) {
+            modelHash = resolvedModel.getHash();
+        } else {
+            modelHash = getModelHash(config.getAlfrescoModelPath());
         }
+        GenerationManifest.Entry inputs = new GenerationManifest.Entry(modelHash,
+                getTemplateHash(config), config.getOutputEncoding(), ToolVersion.getBuildId(), null);
+        GenerationManifest manifest = getManifest(outputFile.getAbsoluteFile().getParentFile());
+        GenerationManifest.Entry recorded = manifest.get(outputFile.getName());
 
-        // Process the template with the m2model
-        try (Writer fileWriter = new FileWriter(outPutFile)) {
-            template.process(ftlModel, fileWriter);
-        } catch (TemplateException e) {
-            throw getException("Could not process template due to nested Exception :", e);
-        } catch (IOException e) {
-            throw getException("Could not write to output file due to nested Exception :", e);
+        boolean upToDate = inputs.hasSameInputs(recorded) && outputFile.isFile()
+                && recorded.getOutputHash().equals(getOutputHash(outputFile));
+        recorder.record(ConversionPhase.CHECK, start);
+        if (upToDate) {
+            LOGGER.debug("Output file '{}' is up to date.", outputFile);
+            return ConversionResult.upToDate(config, outputFile);
         }
-        return outPutFile;
+        if (incrementalMode == IncrementalMode.CHECK) {
+            LOGGER.debug("Output file '{}' is stale.", outputFile);
+            return ConversionResult.stale(config, outputFile);
+        }
+
+        File generated = generateOutput(resolvedModel, element, config, outputFile, recorder);
+        start = System.nanoTime();
+        manifest.put(generated.getName(), new GenerationManifest.Entry(inputs.getModelHash(), inputs.getTemplateHash(),
+                inputs.getEncoding(), inputs.getToolVersion(), getOutputHash(generated)));
+        recorder.record(ConversionPhase.CHECK, start);
+        return ConversionResult.generated(config, generated);
     }
 
 
     /**
-     * Build the model for the ftl template with the given M2 model and config.
-     * @param m2Model
+     * Generates the given output file, restoring it from the output cache if it holds a file generated from the same
+     * inputs, and storing it in the cache otherwise.
+     * @param resolvedModel the model of the configuration, or null to get it from the model cache
+     * @param element element the template is rendered for, or null if it is rendered for the whole model
      * @param config
+     * @param outputFile
+     * @param recorder recorder of the time spent in each phase
      * @return
      */
-    private Map<String, Object> getFtlModel(M2Model m2Model, ConversionConfig config) {
-        Map<String, Object> ftlModel = new HashMap<>();
-        ftlModel.put("model", m2Model);
-        return ftlModel;
+    private File generateOutput(ResolvedModel resolvedModel, NamedView element, ConversionConfig config,
+                                File outputFile, ConversionRecorder recorder) {
+        OutputCache cache = outputCache;
+        if (cache == null || !outputSink.isWritingFiles()) {
+            return convert(resolvedModel, element, config, outputFile, recorder);
+        }
+
+        long start = System.nanoTime();
+        // Templates may read any part of the model and of its index, not only the element they are rendered for
+        String modelHash = resolvedModel != null ?
+                resolvedModel.getHash() :
+                getModelHash(config.getAlfrescoModelPath());
+        String key = OutputCache.getKey(modelHash, getTemplateHash(config), config.getOutputEncoding(),
+                ToolVersion.getBuildId(), element != null ? element.getName() : null,
+                getQualifiedJavaClassName(config, outputFile));
+        boolean restored = cache.restore(key, outputFile);
+        start = recorder.record(ConversionPhase.CHECK, start);
+        if (restored) {
+            LOGGER.debug("Output file '{}' restored from the output cache.", outputFile);
+            return outputFile;
+        }
+
+        File generated = convert(resolvedModel, element, config, outputFile, recorder);
+        start = System.nanoTime();
+        cache.store(key, generated);
+        recorder.record(ConversionPhase.WRITE, start);
+        return generated;
     }
 
 
     /**
-     * Get the M2 model object from the xml model file located at the given path.
-     * @param modelPath path of the xml model file
-     * @return the M2 model built from the given file
+     * Index the given model on top of the indexes of the given models it imports, and of the dictionary models. The
+     * models it imports must be resolved first.
+     *
+     * @param parsedModel
+     * @param dependencies the resolved models defining the namespaces imported by the model
+     * @return the resolved model
+     * @throws ModelConversionException if a class of the model inherits from itself, or is one of its own mandatory
+     * aspects.
      */
-    private M2Model getM2Model(String modelPath) {
-        LOGGER.trace("Getting M2Model from file '{}'.", modelPath);
-        InputStream modelStream = null;
-        if(StringUtils.isBlank(modelPath)) {
-            throw getException("No model path provided. Cannot convert model.");
+    public ResolvedModel resolve(ParsedModel parsedModel, List<ResolvedModel> dependencies) {
+        List<ModelIndex> parents = new ArrayList<>(dependencies.size() + 1);
+        List<String> hashes = new ArrayList<>(dependencies.size() + 1);
+        for (ResolvedModel dependency : dependencies) {
+            parents.add(dependency.getIndex());
+            hashes.add(dependency.getHash());
+        }
+        ModelIndex dictionary = getDictionaryIndex();
+        if (dictionary != null) {
+            parents.add(dictionary);
+            hashes.add(getDictionaryHash());
+        }
+        // The order of the dependencies doesn't matter to the generated files
+        Collections.sort(hashes);
+
+        MessageDigest digest = ContentHash.newDigest();
+        digest.update(parsedModel.getHash().getBytes(StandardCharsets.UTF_8));
+        for (String hash : hashes) {
+            digest.update(hash.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return new ResolvedModel(parsedModel, new ModelIndex(Collections.singletonList(parsedModel.getView()),
+                    parents), ContentHash.toHex(digest.digest()));
+        } catch (IllegalArgumentException e) {
+            throw getException("Could not index model due to nested Exception :", e);
+        }
+    }
+
+
+    /**
+     * Parse the given xml model, and index it on top of the dictionary models. Models with the same content are parsed
+     * only once, thanks to the model cache.
+     * @param modelContent xml content of the model
+     * @return the resolved model
+     * @throws ModelConversionException if the content isn't a valid Alfresco model.
+     */
+    public ResolvedModel resolve(byte[] modelContent) {
+        return resolve(modelCache.get(modelContent), Collections.<ResolvedModel>emptyList());
+    }
+
+    /**
+     * Read and parse the given xml model, and index it on top of the dictionary models. The stream is read until its
+     * end, but not closed.
+     * @param modelStream xml content of the model
+     * @return the resolved model
+     * @throws ModelConversionException if the stream can't be read or isn't a valid Alfresco model.
+     */
+    public ResolvedModel resolve(InputStream modelStream) {
+        byte[] modelContent;
+        try {
+            modelContent = IOUtils.toByteArray(modelStream);
+        } catch (IOException e) {
+            throw getException("Could not read xml model due to nested Exception :", e);
+        }
+        return resolve(modelContent);
+    }
+
+    /**
+     * Index the given model on top of the dictionary models. The model is not copied : it must not be modified while
+     * it is rendered. As it has no xml content, its hash only identifies this call.
+     * @param model
+     * @return the resolved model
+     */
+    public ResolvedModel resolve(M2Model model) {
+        ParsedModel parsedModel = new ParsedModel("m2model-" + UUID.randomUUID(), model);
+        return resolve(parsedModel, Collections.<ResolvedModel>emptyList());
+    }
+
+
+    /**
+     * Get a template from the templates folder, compiling it only if it isn't in the template cache yet.
+     * @param templatePath path of the template file, or its name in the templates folder
+     * @return the compiled template
+     * @throws ModelConversionException if there is no such template, or it isn't valid.
+     */
+    public Template getTemplate(String templatePath) {
+        return getTemplate(templatePath, null);
+    }
+
+    /**
+     * Compile a template read from the given reader, with the configuration of this converter. The template isn't
+     * cached : keep it to render it several times.
+     * @param templateName name of the template, e.g. {@code java.UTF-8.type.ftl}. Its scope is given by its name, as
+     *                     for template files
+     * @param reader source of the template, which is not closed
+     * @return the compiled template
+     * @throws ModelConversionException if the template can't be read or isn't valid.
+     */
+    public Template createTemplate(String templateName, Reader reader) {
+        try {
+            return new Template(templateName, reader, getFreemarkerConfig());
+        } catch (IOException e) {
+            throw getException("Could not compile template '" + templateName + "' due to nested Exception :", e);
+        }
+    }
+
+
+    /**
+     * Render the given template with the given model to the given writer, which is flushed but not closed.
+     * @param resolvedModel
+     * @param template
+     * @param elementName name of the element to render the template for, as given by {@link TemplateScope}, or null
+     *                    if the template is rendered for the whole model
+     * @param writer
+     * @throws ModelConversionException if the model has no such element, or the template can't be rendered.
+     */
+    public void render(ResolvedModel resolvedModel, Template template, String elementName, Writer writer) {
+        render(resolvedModel, template, elementName, writer, null);
+    }
+
+    /**
+     * Render the given template with the given model to the given stream, which is flushed but not closed.
+     * @param resolvedModel
+     * @param template
+     * @param elementName name of the element to render the template for, or null if it is rendered for the whole model
+     * @param outputStream
+     * @param charset encoding of the rendered content
+     * @throws ModelConversionException if the model has no such element, or the template can't be rendered.
+     */
+    public void render(ResolvedModel resolvedModel, Template template, String elementName,
+                       OutputStream outputStream, Charset charset) {
+        render(resolvedModel, template, elementName, new BufferedWriter(new OutputStreamWriter(outputStream, charset)),
+                charset);
+    }
+
+    /**
+     * Render the given template with the given model.
+     * @param resolvedModel
+     * @param template
+     * @param elementName name of the element to render the template for, or null if it is rendered for the whole model
+     * @param charset encoding of the rendered content
+     * @return the rendered content
+     * @throws ModelConversionException if the model has no such element, or the template can't be rendered.
+     */
+    public byte[] renderToBytes(ResolvedModel resolvedModel, Template template, String elementName, Charset charset) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        render(resolvedModel, template, elementName, content, charset);
+        return content.toByteArray();
+    }
+
+
+    private void render(ResolvedModel resolvedModel, Template template, String elementName, Writer writer,
+                        Charset charset) {
+        Map<String, Object> ftlModel = getFtlModel(resolvedModel.getParsedModel(), resolvedModel.getIndex());
+        if (elementName != null) {
+            TemplateScope scope = TemplateName.parse(template.getName()).getScope();
+            NamedView element = scope.getElement(resolvedModel.getParsedModel().getView(), elementName);
+            if (element == null) {
+                throw getException("Model has no " + scope.getName() + " named '" + elementName + "'.");
+            }
+            ftlModel.put("element", element);
         }
         try {
-            modelStream = new FileInputStream(new File(modelPath));
-        } catch (FileNotFoundException e) {
-            throw getException("There is no xml model at the given location '" + modelPath + "'.", e);
+            process(template, ftlModel, writer, charset);
+        } catch (TemplateException e) {
+            throw getException("Could not process template due to nested Exception :", e);
+        } catch (IOException e) {
+            throw getException("Could not write rendered template due to nested Exception :", e);
+        }
+    }
+
+
+    /**
+     * Write the manifests of the output folders modified by the incremental conversions performed so far.
+     */
+    public void saveManifests() {
+        for (GenerationManifest manifest : manifests.values()) {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                throw getException("Could not save manifest '" + manifest.getFile() + "' due to nested Exception :", e);
+            }
+        }
+    }
+
+
+    /**
+     * Get the template file specified by the given configuration.
+     * @param config
+     * @return the template file
+     * @throws ModelConversionException if the configuration specifies no existing template file.
+     */
+    public File getTemplateFile(ConversionConfig config) {
+        String templatePath = config.getFtlTemplatePath();
+        if(StringUtils.isBlank(templatePath)) {
+            throw getException("No template file path provided. Cannot convert model.");
         }
         try {
-            return M2Model.createModel(modelStream);
-        } catch (DictionaryException e) {
-            throw getException("Failed to create M2Model due to nested Exception :", e);
+            File templateFile = templateLoader.getTemplateFile(templateLoader.getTemplateName(new File(templatePath)));
+            if (templateFile == null) {
+                throw new FileNotFoundException("Template '" + templatePath + "' does not exist.");
+            }
+            return templateFile;
+        } catch (IOException e) {
+            throw getException("No template found at the specified path '" + templatePath + "' :", e);
+        }
+    }
+
+
+    /**
+     * Register a listener notified of the metrics of each conversion.
+     * @param listener
+     */
+    public void addConversionListener(ConversionListener listener) {
+        listeners.add(listener);
+    }
+
+
+    /**
+     * Unregister a listener registered by {@link #addConversionListener(ConversionListener)}.
+     * @param listener
+     */
+    public void removeConversionListener(ConversionListener listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Get the incremental mode of this converter. Default is {@link IncrementalMode#OFF}.
+     * @return
+     */
+    public IncrementalMode getIncrementalMode() {
+        return incrementalMode;
+    }
+
+
+    /**
+     * Set the incremental mode of this converter.
+     * @param incrementalMode
+     */
+    public void setIncrementalMode(IncrementalMode incrementalMode) {
+        this.incrementalMode = incrementalMode;
+    }
+
+
+    /**
+     * Get the paths of the dictionary models of this converter.
+     * @return
+     */
+    public List<String> getDictionaryModels() {
+        return dictionaryModelPaths;
+    }
+
+
+    /**
+     * Set the paths of the models indexed along with each converted model, so that templates can resolve the classes
+     * it imports or inherits from. A converted model may be one of the dictionary models too.
+     * @param modelPaths paths of xml model files
+     */
+    public synchronized void setDictionaryModels(List<String> modelPaths) {
+        dictionaryModelPaths = Collections.unmodifiableList(new ArrayList<>(modelPaths));
+        dictionaryHash = null;
+        dictionaryIndex = null;
+        dictionaryChecked = false;
+    }
+
+
+    /**
+     * Check the dictionary models, and the templates, for modifications on their next use. They are checked only once
+     * by batch of conversions, the first time they are used after this call : {@link #convert(ConversionConfig)},
+     * {@link #convert(List)} and the {@link BatchConverter} call it before converting.
+     */
+    public void refreshDictionary() {
+        dictionaryChecked = false;
+        batchTemplateHashes.clear();
+    }
+
+
+    /**
+     * Get the version of this tool, as written in the manifest of its jar.
+     * @return the version, or {@value #DEVELOPMENT_VERSION} when not running from a jar.
+     */
+    public static String getToolVersion() {
+        return ToolVersion.get();
+    }
+
+
+    /**
+     * Get the cache holding the models parsed by this converter.
+     * @return
+     */
+    public ModelCache getModelCache() {
+        return modelCache;
+    }
+
+
+    /**
+     * Set the cache holding the models parsed by this converter. The same cache can be shared by several converters.
+     * @param modelCache
+     */
+    public void setModelCache(ModelCache modelCache) {
+        this.modelCache = modelCache;
+    }
+
+
+    /**
+     * Set the folder where the models parsed by this converter are stored as binary snapshots, so that later runs
+     * load them instead of parsing their xml again.
+     * @param snapshotsFolder the folder, or null to always parse models from their xml
+     * @see ModelSnapshots
+     */
+    public void setSnapshotsFolder(File snapshotsFolder) {
+        modelCache.setSnapshots(snapshotsFolder != null ? new ModelSnapshots(snapshotsFolder) : null);
+    }
+
+
+    /**
+     * Set the reader parsing the xml of the models of this converter, e.g. a {@link StaxModelReader} rather than the
+     * default JiBX unmarshalling.
+     * @param modelReader
+     * @see ModelCache#setModelReader(ModelReader)
+     */
+    public void setModelReader(ModelReader modelReader) {
+        modelCache.setModelReader(modelReader);
+    }
+
+
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    /**
+     * Set the cache of generated files shared by the conversions with the same inputs, e.g. by several workspaces or
+     * build agents.
+     * @param outputCache the cache, or null to always render the files
+     * @see OutputCache
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    /**
+     * Set where the generated files are written. Default is a {@link FileOutputSink}, writing each file at its path.
+     * A sink which doesn't write files on the file system, e.g. an {@link ArchiveOutputSink}, bypasses the output
+     * cache, and can't be used in incremental mode. The sink isn't closed by this converter.
+     * @param outputSink
+     */
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+
+    /**
+     * Set a default path to Freemarker templates.
+     * Once this default path set, it is possible to specify only the template name in the configuration, instead of the
+     * whole template file path.
+     * @param templatesFolder
+     */
+    public void setFreemarkerTemplatesFolder(String templatesFolder) {
+        try {
+            templateLoader.setDefaultFolder(new File(templatesFolder));
+        } catch (IOException e) {
+            throw getException("Could not load templates folder '" + templatesFolder + "' due to nested Exceptions :", e);
+        }
+        Configuration config = freemarkerConfig;
+        if (config != null) {
+            config.clearTemplateCache();
+        }
+    }
+
+
+    /**
+     * Set the storage of the compiled templates cache. Default is a {@link MruCacheStorage} keeping at most
+     * {@link #DEFAULT_TEMPLATE_CACHE_STRONG_SIZE} templates strongly referenced, and
+     * {@link #DEFAULT_TEMPLATE_CACHE_SOFT_SIZE} softly referenced.
+     * @param cacheStorage
+     */
+    public synchronized void setTemplateCacheStorage(CacheStorage cacheStorage) {
+        templateCacheStorage = cacheStorage;
+        if (freemarkerConfig != null) {
+            freemarkerConfig.setCacheStorage(cacheStorage);
+        }
+    }
+
+
+    /**
+     * Set the minimum delay between two checks of a cached template for modifications. Default is Freemarker's default,
+     * 5 seconds.
+     * @param delay delay in milliseconds. 0 checks the template file on each conversion.
+     */
+    public synchronized void setTemplateUpdateDelay(long delay) {
+        templateUpdateDelay = delay;
+        if (freemarkerConfig != null) {
+            freemarkerConfig.setTemplateUpdateDelayMilliseconds(delay);
+        }
+    }
+
+
+    /**
+     * Get the Freemarker configuration, creating it on first use.
+     * @return
+     */
+    private Configuration getFreemarkerConfig() {
+        Configuration config = freemarkerConfig;
+        if (config == null) {
+            synchronized (this) {
+                config = freemarkerConfig;
+                if (config == null) {
+                    config = createFreemarkerConfig();
+                    freemarkerConfig = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    private Configuration createFreemarkerConfig() {
+        Configuration config = new Configuration(Configuration.VERSION_2_3_23);
+        config.setWhitespaceStripping(true);
+        config.setDefaultEncoding("UTF-8");
+        config.setLocale(Locale.US);
+        config.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        config.setLocalizedLookup(false);
+        // Views are template models, which the wrapper returns as is. Other collections are adapted, not copied.
+        DefaultObjectWrapperBuilder wrapperBuilder = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_23);
+        wrapperBuilder.setUseAdaptersForContainers(true);
+        wrapperBuilder.setExposeFields(false);
+        config.setObjectWrapper(wrapperBuilder.build());
+        config.setTemplateLoader(templateLoader);
+        config.setCacheStorage(templateCacheStorage != null ? templateCacheStorage :
+                new MruCacheStorage(DEFAULT_TEMPLATE_CACHE_STRONG_SIZE, DEFAULT_TEMPLATE_CACHE_SOFT_SIZE));
+        if (templateUpdateDelay != null) {
+            config.setTemplateUpdateDelayMilliseconds(templateUpdateDelay);
+        }
+        return config;
+    }
+
+
+    /**
+     * Get the Freemarker template specified by the given configuration.
+     * @param config
+     * @return
+     */
+    private Template getTemplate(ConversionConfig config) {
+        return getTemplate(config.getFtlTemplatePath(), config.getOutputEncoding());
+    }
+
+    /**
+     * Get the Freemarker template at the given path.
+     * @param templatePath
+     * @param encoding encoding of the output, or null for the default encoding
+     * @return
+     */
+    private Template getTemplate(String templatePath, String encoding) {
+        LOGGER.trace("Getting ftl template from file '{}'.", templatePath);
+
+        if(StringUtils.isBlank(templatePath)) {
+            throw getException("No template file path provided. Cannot convert model.");
+        }
+
+        File templateFile = new File(templatePath);
+        String templateName;
+        try {
+            templateName = templateLoader.getTemplateName(templateFile);
+        } catch (IOException e) {
+            throw getException("Could not find template at '" + templatePath + "' due to nested Exception :", e);
+        }
+
+        try {
+            return getFreemarkerConfig().getTemplate(templateName, encoding);
+        } catch (IOException e) {
+            throw getException("No template found at the specified path '" + templatePath + "' :", e);
+        }
+    }
+
+
+    /**
+     * Generates a file from the given model and configuration.
+     * @param resolvedModel the model of the configuration, or null to get it from the model cache
+     * @param element element the template is rendered for, or null if it is rendered for the whole model
+     * @param config
+     * @param outPutFile
+     * @param recorder recorder of the time spent in each phase
+     * @return
+     */
+    private File convert(ResolvedModel resolvedModel, NamedView element, ConversionConfig config, File outPutFile,
+                         ConversionRecorder recorder) {
+        long start = System.nanoTime();
+        Template template = getTemplate(config);
+        start = recorder.record(ConversionPhase.TEMPLATE, start);
+
+        Map<String, Object> ftlModel;
+        if (resolvedModel != null) {
+            ftlModel = getFtlModel(resolvedModel.getParsedModel(), resolvedModel.getIndex());
+        } else {
+            ParsedModel parsedModel = getParsedModel(config.getAlfrescoModelPath());
+            start = recorder.record(ConversionPhase.PARSE, start);
+            ModelIndex index = getIndex(parsedModel);
+            start = recorder.record(ConversionPhase.INDEX, start);
+            ftlModel = getFtlModel(parsedModel, index);
+        }
+        if (element != null) {
+            ftlModel.put("element", element);
+        }
+        if (config.getJavaPackage() != null) {
+            ftlModel.put("javaClassName", getJavaClassName(outPutFile));
+            ftlModel.put("javaPackage", config.getJavaPackage());
+        }
+
+        Charset charset = getOutputCharset(config);
+
+        // Process the template with the m2model into the output of the sink, e.g. a temporary file which replaces the
+        // output file only if the content changed.
+        try (OutputSink.Output output = outputSink.open(outPutFile)) {
+            CountingOutputStream counter = new CountingOutputStream(output.getOutputStream());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(counter, charset));
+            start = recorder.record(ConversionPhase.WRITE, start);
+            process(template, ftlModel, writer, charset);
+            recorder.addBytesWritten(counter.getByteCount());
+            start = recorder.record(ConversionPhase.RENDER, start);
+            boolean replaced = output.commit();
+            recorder.record(ConversionPhase.WRITE, start);
+            if(!replaced) {
+                LOGGER.debug("Output file '{}' is unchanged.", outPutFile);
+            }
+        } catch (TemplateException e) {
+            throw getException("Could not process template due to nested Exception :", e);
+        } catch (IOException e) {
+            throw getException("Could not write to output file due to nested Exception :", e);
+        }
+        return outPutFile;
+    }
+
+
+    /**
+     * Render the given template with the given template model to the given writer, and flush it.
+     * @param template
+     * @param ftlModel
+     * @param writer
+     * @param charset encoding of the output, if known
+     * @throws TemplateException
+     * @throws IOException
+     */
+    private static void process(Template template, Map<String, Object> ftlModel, Writer writer, Charset charset)
+            throws TemplateException, IOException {
+        Environment environment = template.createProcessingEnvironment(ftlModel, writer);
+        if (charset != null) {
+            environment.setOutputEncoding(charset.name());
+        }
+        environment.process();
+        writer.flush();
+    }
+
+
+    /**
+     * Notify the listeners of a conversion, log its phases, and commit its JFR event. A failing listener doesn't fail
+     * the conversion.
+     * @param event
+     */
+    private void fireConversionPerformed(ConversionEvent event) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Conversion of '{}' {} in {} ms : {} (ns), {} bytes written.", event.getOutputFile(),
+                    event.getStatus(), event.getDuration() / 1000000, event.getDurations(), event.getBytesWritten());
+        }
+        if (JFR_LISTENER != null) {
+            JFR_LISTENER.conversionPerformed(event);
+        }
+        for (ConversionListener listener : listeners) {
+            try {
+                listener.conversionPerformed(event);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Conversion listener {} failed : {}", listener, e.getMessage(), e);
+            }
+        }
+    }
+
+
+    /**
+     * Create the listener committing JFR events. It is loaded by reflection as it isn't built with Java 8.
+     * @return the listener, or null if it wasn't built, or if the JVM doesn't support JFR events.
+     */
+    private static ConversionListener newJfrListener() {
+        try {
+            return (ConversionListener) Class.forName(JFR_LISTENER_CLASS).getDeclaredMethod("newInstance")
+                    .invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.debug("JFR events are not available : {}", e.toString());
+            return null;
+        }
+    }
+
+
+    /**
+     * Get the charset of the output file specified by the given configuration. Default is UTF-8.
+     * @param config
+     * @return
+     */
+    private Charset getOutputCharset(ConversionConfig config) {
+        String encoding = config.getOutputEncoding();
+        if(StringUtils.isBlank(encoding)) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw getException("Unsupported output encoding '" + encoding + "' :", e);
+        }
+    }
+
+
+    /**
+     * Get the output file specified by the given configuration, which is the output folder of the elements when its
+     * template is rendered once per element.
+     * @param config
+     * @return
+     */
+    public File getOutputFile(ConversionConfig config) {
+        String outputFilePath = config.getOutputFile();
+        if(StringUtils.isBlank(outputFilePath)) {
+            throw getException("No output file path provided. Cannot perform model conversion.");
+        }
+        return new File(outputFilePath);
+    }
+
+
+    /**
+     * Get the manifest of the given output folder, loading it the first time.
+     * @param folder
+     * @return
+     */
+    private GenerationManifest getManifest(File folder) {
+        GenerationManifest manifest = manifests.get(folder);
+        if (manifest == null) {
+            try {
+                manifest = GenerationManifest.load(folder);
+            } catch (IOException e) {
+                throw getException("Could not read manifest of folder '" + folder + "' due to nested Exception :", e);
+            }
+            GenerationManifest existing = manifests.putIfAbsent(folder, manifest);
+            if (existing != null) {
+                manifest = existing;
+            }
+        }
+        return manifest;
+    }
+
+
+    /**
+     * Get the hash of the model file located at the given path. When there are dictionary models, the hash covers them
+     * too, as the index given to the templates depends on them.
+     * @param modelPath
+     * @return
+     */
+    private String getModelHash(String modelPath) {
+        if(StringUtils.isBlank(modelPath)) {
+            throw getException("No model path provided. Cannot convert model.");
+        }
+        String modelHash = modelCache.getHash(modelPath);
+        String dictionaryHash = getDictionaryHash();
+        return dictionaryHash != null ?
+                ContentHash.of((modelHash + dictionaryHash).getBytes(StandardCharsets.UTF_8)) :
+                modelHash;
+    }
+
+
+    /**
+     * Get the hash of the contents of the dictionary models, checking them for modifications if they weren't since
+     * the last call to {@link #refreshDictionary()}. Their index is dropped if any of them changed.
+     * @return the hash, or null if there is no dictionary model.
+     */
+    private synchronized String getDictionaryHash() {
+        if (dictionaryModelPaths.isEmpty()) {
+            return null;
+        }
+        if (!dictionaryChecked) {
+            MessageDigest digest = ContentHash.newDigest();
+            for (String modelPath : dictionaryModelPaths) {
+                digest.update(modelCache.getHash(modelPath).getBytes(StandardCharsets.UTF_8));
+            }
+            String hash = ContentHash.toHex(digest.digest());
+            if (!hash.equals(dictionaryHash)) {
+                LOGGER.debug("Dictionary models changed, their index will be built again.");
+                dictionaryHash = hash;
+                dictionaryIndex = null;
+            }
+            dictionaryChecked = true;
+        }
+        return dictionaryHash;
+    }
+
+
+    /**
+     * Get the index of the dictionary models, building it if needed.
+     * @return the index, or null if there is no dictionary model.
+     */
+    private synchronized ModelIndex getDictionaryIndex() {
+        if (getDictionaryHash() == null) {
+            return null;
+        }
+        if (dictionaryIndex == null) {
+            List<ModelView> views = new ArrayList<>(dictionaryModelPaths.size());
+            for (String modelPath : dictionaryModelPaths) {
+                views.add(getParsedModel(modelPath).getView());
+            }
+            try {
+                dictionaryIndex = new ModelIndex(views);
+            } catch (IllegalArgumentException e) {
+                throw getException("Could not index dictionary models due to nested Exception :", e);
+            }
+            LOGGER.debug("Indexed {} dictionary model(s).", views.size());
+        }
+        return dictionaryIndex;
+    }
+
+
+    /**
+     * Get the index of the given model on top of the index of the dictionary models.
+     * @param parsedModel
+     * @return
+     */
+    private ModelIndex getIndex(ParsedModel parsedModel) {
+        try {
+            return new ModelIndex(Collections.singletonList(parsedModel.getView()), getDictionaryIndex());
+        } catch (IllegalArgumentException e) {
+            throw getException("Could not index model due to nested Exception :", e);
+        }
+    }
+
+
+    /**
+     * Get the hash of the template specified by the given configuration, and of the templates it includes or imports.
+     * It is computed once per batch of conversions, i.e. until the next call to {@link #refreshDictionary()}.
+     * @param config
+     * @return
+     */
+    private String getTemplateHash(ConversionConfig config) {
+        File templateFile = getTemplateFile(config);
+        String key = templateFile.getAbsolutePath();
+        String hash = batchTemplateHashes.get(key);
+        if (hash == null) {
+            hash = computeTemplateHash(templateFile);
+            batchTemplateHashes.putIfAbsent(key, hash);
+        }
+        return hash;
+    }
+
+
+    /**
+     * Compute the hash of the given template and of the templates it includes or imports, directly or not. A template
+     * including a template whose name isn't a plain string literal may include any template : the ftl files of its
+     * folder and of the default templates folder are hashed instead.
+     * @param templateFile
+     * @return
+     */
+    private String computeTemplateHash(File templateFile) {
+        MessageDigest digest = ContentHash.newDigest();
+        digest.update(templateFile.getName().getBytes(StandardCharsets.UTF_8));
+        try {
+            File folder = templateFile.getAbsoluteFile().getParentFile().getCanonicalFile();
+            Set<File> templates = new TreeSet<>();
+            if (collectTemplates(templateFile.getCanonicalFile(), templates)) {
+                for (File template : templates) {
+                    digestTemplate(folder.toPath().relativize(template.toPath()).toString(), template, digest);
+                }
+            } else {
+                for (File templatesFolder : getTemplateFolders(folder)) {
+                    digestFolder(templatesFolder, digest);
+                }
+            }
+        } catch (IOException e) {
+            throw getException("Could not read the templates of '" + templateFile + "' due to nested Exception :", e);
+        }
+        return ContentHash.toHex(digest.digest());
+    }
+
+
+    /**
+     * Collect the given template along with the templates it includes or imports, directly or not.
+     * @param templateFile canonical template file
+     * @param templates collected templates
+     * @return false if a template includes a template whose name is an expression, or goes up its folders, so that
+     * the included templates can't be known without rendering it.
+     * @throws IOException if a template can't be read
+     */
+    private boolean collectTemplates(File templateFile, Set<File> templates) throws IOException {
+        if (!templates.add(templateFile) || !templateFile.isFile()) {
+            // A missing template fails the rendering, and is hashed as missing
+            return true;
+        }
+        String content = new String(Files.readAllBytes(templateFile.toPath()), StandardCharsets.UTF_8);
+        Matcher matcher = INCLUDE_PATTERN.matcher(content);
+        while (matcher.find()) {
+            String name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            if (name == null || name.contains("${") || name.contains("*") || name.contains("..")) {
+                return false;
+            }
+            File included;
+            if (name.startsWith("/")) {
+                // Absolute names designate templates of the default folder
+                File defaultFolder = templateLoader.getDefaultFolder();
+                if (defaultFolder == null) {
+                    return false;
+                }
+                included = new File(defaultFolder, name.substring(1));
+            } else {
+                included = new File(templateFile.getParentFile(), name);
+            }
+            if (!collectTemplates(included.getCanonicalFile(), templates)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Get the folders holding the templates a template of the given folder may use : its own folder, and the default
+     * templates folder, which absolute template names designate. A folder inside the other one is left out.
+     * @param folder canonical folder of the template
+     * @return
+     */
+    List<File> getTemplateFolders(File folder) {
+        File defaultFolder = templateLoader.getDefaultFolder();
+        if (defaultFolder == null || isInFolder(defaultFolder, folder)) {
+            return Collections.singletonList(folder);
+        }
+        if (isInFolder(folder, defaultFolder)) {
+            return Collections.singletonList(defaultFolder);
+        }
+        return Arrays.asList(folder, defaultFolder);
+    }
+
+    private static boolean isInFolder(File folder, File file) {
+        for (File parent = file; parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(folder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Add the paths and contents of the ftl files of the given folder and of its subfolders to the digest, in path
+     * order. Other files, such as generated ones, hidden files and folders, and symbolic links to folders are skipped.
+     * @param folder
+     * @param digest
+     * @throws IOException if a file can't be read
+     */
+    private void digestFolder(File folder, MessageDigest digest) throws IOException {
+        final Path root = folder.toPath();
+        final Map<String, File> templates = new TreeMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(root) && dir.getFileName().toString().startsWith(".") ?
+                        FileVisitResult.SKIP_SUBTREE :
+                        FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && !name.startsWith(".") && name.endsWith(TEMPLATE_EXTENSION)) {
+                    templates.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Map.Entry<String, File> template : templates.entrySet()) {
+            digestTemplate(template.getKey(), template.getValue(), digest);
+        }
+    }
+
+
+    /**
+     * Add the path and content of the given template to the digest.
+     * @param path path of the template relative to the hashed folder
+     * @param templateFile
+     * @param digest
+     * @throws IOException if the template can't be read
+     */
+    private void digestTemplate(String path, File templateFile, MessageDigest digest) throws IOException {
+        digest.update(path.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+        digest.update(templateFile.isFile() ?
+                templateHashes.getHash(templateFile).getBytes(StandardCharsets.UTF_8) :
+                new byte[]{'-'});
+    }
+
+
+    /**
+     * Get the hash of the content of the given output file.
+     * @param outputFile
+     * @return
+     */
+    private String getOutputHash(File outputFile) {
+        try {
+            return ContentHash.of(Files.readAllBytes(outputFile.toPath()));
+        } catch (IOException e) {
+            throw getException("Could not read output file '" + outputFile + "' due to nested Exception :", e);
+        }
+    }
+
+
+    /**
+     * Build the model for the ftl template with the given parsed model and index : the raw M2Model as
+     * {@code model}, its precomputed view as {@code view}, and its index along with the dictionary models as
+     * {@code index}.
+     * @param parsedModel
+     * @param index
+     * @return
+     */
+    private Map<String, Object> getFtlModel(ParsedModel parsedModel, ModelIndex index) {
+        Map<String, Object> ftlModel = new HashMap<>();
+        ftlModel.put("model", parsedModel.getModel());
+        ftlModel.put("view", parsedModel.getView());
+        ftlModel.put("index", index);
+        return ftlModel;
+    }
+
+
+    /**
+     * Get the parsed model from the xml model file located at the given path.
+     * The model is parsed only if it isn't already in the model cache.
+     * @param modelPath path of the xml model file
+     * @return the model built from the given file
+     */
+    private ParsedModel getParsedModel(String modelPath) {
+        LOGGER.trace("Getting M2Model from file '{}'.", modelPath);
+        if(StringUtils.isBlank(modelPath)) {
+            throw getException("No model path provided. Cannot convert model.");
         }
+        return modelCache.get(modelPath);
     }
 
 
@@ -0,0 +1,117 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structural differences between two versions of a model, element by element : types, aspects, properties,
+ * associations and constraints are matched by kind and qualified name, as computed by
+ * {@link ModelStructure#diff(ModelStructure)}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelDiff {
+
+    /**
+     * How an element differs between the two versions of the model.
+     */
+    public enum ChangeType {
+        ADDED, REMOVED, CHANGED
+    }
+
+    private final List<Change> changes;
+
+    ModelDiff(List<Change> changes) {
+        this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+
+
+    /**
+     * @return the changes, sorted by kind and qualified name of their element.
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the changes of the given type.
+     * @param type
+     * @return
+     */
+    public List<Change> getChanges(ChangeType type) {
+        List<Change> changesOfType = new ArrayList<>();
+        for (Change change : changes) {
+            if (change.getType() == type) {
+                changesOfType.add(change);
+            }
+        }
+        return changesOfType;
+    }
+
+    /**
+     * @return true if the two versions of the model have the same structure.
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * @return a summary of the changes, e.g. {@code 1 added, 2 changed, 0 removed}.
+     */
+    @Override
+    public String toString() {
+        return getChanges(ChangeType.ADDED).size() + " added, " + getChanges(ChangeType.CHANGED).size()
+                + " changed, " + getChanges(ChangeType.REMOVED).size() + " removed";
+    }
+
+
+    /**
+     * Change of a single element of the model.
+     */
+    public static class Change {
+
+        private final ChangeType type;
+
+        private final String kind;
+
+        private final String qName;
+
+        private final String name;
+
+        Change(ChangeType type, String kind, String qName, String name) {
+            this.type = type;
+            this.kind = kind;
+            this.qName = qName;
+            this.name = name;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return the kind of the element, e.g. {@value ModelStructure#PROPERTY_KIND}.
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        public String getQName() {
+            return qName;
+        }
+
+        /**
+         * @return the prefixed name of the element, in the new version of the model unless it was removed.
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return type.name().toLowerCase() + " " + kind + " " + name;
+        }
+    }
+}
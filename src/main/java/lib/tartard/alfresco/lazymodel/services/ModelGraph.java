@@ -0,0 +1,202 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import lib.tartard.alfresco.lazymodel.services.view.NamespaceView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Dependency graph of a set of Alfresco models : a model depends on the models defining the namespaces it imports.
+ *
+ * Imported namespaces defined by none of the models, such as the dictionary namespace, are not dependencies. Cycles
+ * of imports are detected when the graph is built : the models of a cycle, and the models depending on them, can't be
+ * ordered, and are reported by {@link #getCycles()} and {@link #getCyclicModels()}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelGraph {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelGraph.class);
+
+    private final Map<String, ParsedModel> models;
+
+    private final Map<String, List<String>> dependencies = new HashMap<>();
+
+    private final Map<String, List<String>> dependents = new HashMap<>();
+
+    private final List<List<String>> cycles = new ArrayList<>();
+
+    private final Set<String> cyclicModels = new HashSet<>();
+
+    /**
+     * Build the dependency graph of the given models.
+     * @param models parsed models by path, in the order of the conversions
+     */
+    public ModelGraph(Map<String, ParsedModel> models) {
+        this.models = Collections.unmodifiableMap(new LinkedHashMap<>(models));
+
+        Map<String, String> definingModels = new HashMap<>();
+        for (Map.Entry<String, ParsedModel> model : this.models.entrySet()) {
+            dependencies.put(model.getKey(), new ArrayList<String>());
+            dependents.put(model.getKey(), new ArrayList<String>());
+            for (NamespaceView namespace : model.getValue().getView().getNamespaces()) {
+                String definingModel = definingModels.get(namespace.getUri());
+                if (definingModel == null) {
+                    definingModels.put(namespace.getUri(), model.getKey());
+                } else if (!definingModel.equals(model.getKey())) {
+                    LOGGER.warn("Namespace '{}' is defined by both '{}' and '{}', the first one is used.",
+                            namespace.getUri(), definingModel, model.getKey());
+                }
+            }
+        }
+        for (Map.Entry<String, ParsedModel> model : this.models.entrySet()) {
+            for (NamespaceView namespace : model.getValue().getView().getImports()) {
+                String definingModel = definingModels.get(namespace.getUri());
+                List<String> modelDependencies = dependencies.get(model.getKey());
+                if (definingModel != null && !definingModel.equals(model.getKey())
+                        && !modelDependencies.contains(definingModel)) {
+                    modelDependencies.add(definingModel);
+                    dependents.get(definingModel).add(model.getKey());
+                }
+            }
+        }
+        findCycles();
+    }
+
+
+    /**
+     * @return the paths of the models of the graph, in the order they were given.
+     */
+    public Set<String> getModelPaths() {
+        return models.keySet();
+    }
+
+    /**
+     * @param modelPath
+     * @return the parsed model located at the given path.
+     */
+    public ParsedModel getModel(String modelPath) {
+        return models.get(modelPath);
+    }
+
+    /**
+     * @param modelPath
+     * @return the paths of the models defining the namespaces imported by the given model.
+     */
+    public List<String> getDependencies(String modelPath) {
+        return Collections.unmodifiableList(dependencies.get(modelPath));
+    }
+
+    /**
+     * @param modelPath
+     * @return the paths of the models importing a namespace defined by the given model.
+     */
+    public List<String> getDependents(String modelPath) {
+        return Collections.unmodifiableList(dependents.get(modelPath));
+    }
+
+    /**
+     * @return the cycles of imports, each one as the paths of its models, the first one being repeated at the end.
+     */
+    public List<List<String>> getCycles() {
+        return Collections.unmodifiableList(cycles);
+    }
+
+    /**
+     * @return the paths of the models belonging to a cycle of imports.
+     */
+    public Set<String> getCyclicModels() {
+        return Collections.unmodifiableSet(cyclicModels);
+    }
+
+    /**
+     * Get a readable description of a cycle of imports, e.g. {@code a.xml -> b.xml -> a.xml}.
+     * @param cycle
+     * @return
+     */
+    public static String describe(List<String> cycle) {
+        StringBuilder description = new StringBuilder();
+        for (String modelPath : cycle) {
+            if (description.length() > 0) {
+                description.append(" -> ");
+            }
+            description.append(modelPath);
+        }
+        return description.toString();
+    }
+
+
+    /**
+     * Find the strongly connected components of the graph with Tarjan's algorithm, and record a cycle for each one of
+     * them containing more than one model. Linear in the number of models and imports.
+     */
+    private void findCycles() {
+        Map<String, Integer> indexes = new HashMap<>();
+        Map<String, Integer> lowLinks = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        for (String modelPath : models.keySet()) {
+            if (!indexes.containsKey(modelPath)) {
+                connect(modelPath, indexes, lowLinks, stack, onStack);
+            }
+        }
+    }
+
+    private void connect(String modelPath, Map<String, Integer> indexes, Map<String, Integer> lowLinks,
+                         Deque<String> stack, Set<String> onStack) {
+        indexes.put(modelPath, indexes.size());
+        lowLinks.put(modelPath, indexes.get(modelPath));
+        stack.push(modelPath);
+        onStack.add(modelPath);
+
+        for (String dependency : dependencies.get(modelPath)) {
+            if (!indexes.containsKey(dependency)) {
+                connect(dependency, indexes, lowLinks, stack, onStack);
+                lowLinks.put(modelPath, Math.min(lowLinks.get(modelPath), lowLinks.get(dependency)));
+            } else if (onStack.contains(dependency)) {
+                lowLinks.put(modelPath, Math.min(lowLinks.get(modelPath), indexes.get(dependency)));
+            }
+        }
+
+        if (lowLinks.get(modelPath).equals(indexes.get(modelPath))) {
+            Set<String> component = new HashSet<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(modelPath));
+            if (component.size() > 1) {
+                cyclicModels.addAll(component);
+                cycles.add(getCycle(modelPath, component));
+            }
+        }
+    }
+
+    /**
+     * Get a cycle going through the given model, following the imports inside its strongly connected component.
+     * @param start
+     * @param component
+     * @return
+     */
+    private List<String> getCycle(String start, Set<String> component) {
+        List<String> cycle = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        String current = start;
+        while (visited.add(current)) {
+            cycle.add(current);
+            for (String dependency : dependencies.get(current)) {
+                if (component.contains(dependency)) {
+                    current = dependency;
+                    break;
+                }
+            }
+        }
+        // The walk may enter the cycle after a few models : keep only the cycle itself
+        List<String> loop = new ArrayList<>(cycle.subList(cycle.indexOf(current), cycle.size()));
+        loop.add(current);
+        return loop;
+    }
+}
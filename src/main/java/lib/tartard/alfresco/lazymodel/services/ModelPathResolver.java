@@ -0,0 +1,294 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Resolves the Alfresco model files designated by command line arguments.
+ *
+ * An argument can be :
+ * - The path of a model file, kept as is
+ * - The path of a folder, which designates all the xml files it contains, recursively
+ * - A glob pattern, such as {@code models/**}{@code /*Model.xml}, which designates all the matching files
+ * - The path of a manifest file prefixed with {@code @}, such as {@code @models.txt}. Each line of the manifest is
+ *   itself resolved as an argument, relatively to the manifest folder. Blank lines and lines starting with {@code #}
+ *   are ignored.
+ * - The path of an AMP, JAR or ZIP archive, which designates the xml files of the model folders of its modules, e.g.
+ *   {@code alfresco/module/my-module/model/myModel.xml}. Archives matched by a glob pattern are resolved the same way.
+ * - The path of an entry of an archive, such as {@code my-module.amp!/alfresco/module/my-module/model/myModel.xml},
+ *   or a glob pattern of entries, such as {@code my-module.amp!/**}{@code /*.xml}. See {@link ModelArchives}.
+ *
+ * Folders and patterns are resolved in lexicographical order and duplicates are removed, so that the same arguments
+ * always give the same list of models.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelPathResolver {
+
+    private static final String MANIFEST_PREFIX = "@";
+
+    private static final String MANIFEST_COMMENT = "#";
+
+    private static final String MODEL_EXTENSION = ".xml";
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final File baseFolder;
+
+    /**
+     * Instantiate a resolver of arguments relative to the current folder.
+     */
+    public ModelPathResolver() {
+        this(null);
+    }
+
+    /**
+     * Instantiate a resolver of arguments relative to the given folder.
+     * @param baseFolder folder relative arguments are resolved against, or null for the current folder
+     */
+    public ModelPathResolver(File baseFolder) {
+        this.baseFolder = baseFolder;
+    }
+
+
+    /**
+     * Resolve all the given arguments into model file paths.
+     * @param arguments model paths, folders, glob patterns or manifests
+     * @return the paths of the designated model files, without duplicates
+     */
+    public List<String> resolve(List<String> arguments) {
+        Set<String> modelPaths = new LinkedHashSet<>();
+        try (ModelArchives archives = new ModelArchives()) {
+            for (String argument : arguments) {
+                resolve(argument, baseFolder, modelPaths, archives);
+            }
+        }
+        return new ArrayList<>(modelPaths);
+    }
+
+
+    /**
+     * Get the files and folders the resolution of the given arguments depends on, besides the models themselves : the
+     * folders and the roots of the glob patterns, whose subfolders may get new models, the manifests and the archives.
+     * @param arguments model paths, folders, glob patterns or manifests
+     * @return the files and folders, without duplicates
+     */
+    public Set<File> getInputs(List<String> arguments) {
+        Set<File> inputs = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            collectInputs(argument, baseFolder, inputs);
+        }
+        return inputs;
+    }
+
+
+    /**
+     * Resolve a single argument, relatively to the given folder if the argument is a relative path.
+     * @param argument
+     * @param baseFolder folder the argument is relative to, or null for the current folder
+     * @param modelPaths resolved paths
+     * @param archives archives listed by the arguments
+     */
+    private void resolve(String argument, File baseFolder, Set<String> modelPaths, ModelArchives archives) {
+        if (StringUtils.isBlank(argument)) {
+            return;
+        }
+        argument = argument.trim();
+
+        if (argument.startsWith(MANIFEST_PREFIX)) {
+            resolveManifest(resolveFile(argument.substring(MANIFEST_PREFIX.length()), baseFolder), modelPaths,
+                    archives);
+        } else if (ModelArchives.isEntryPath(argument)) {
+            resolveEntries(argument, baseFolder, modelPaths, archives);
+        } else if (StringUtils.containsAny(argument, GLOB_CHARACTERS)) {
+            resolveGlob(argument, baseFolder, modelPaths, archives);
+        } else {
+            File file = resolveFile(argument, baseFolder);
+            if (file.isDirectory()) {
+                collect(file.toPath(), "**" + MODEL_EXTENSION, modelPaths, archives);
+            } else {
+                add(file, modelPaths, archives);
+            }
+        }
+    }
+
+
+    /**
+     * Collect the inputs of a single argument, and of the lines of the manifest it designates, if any.
+     * @param argument
+     * @param baseFolder folder the argument is relative to, or null for the current folder
+     * @param inputs collected files and folders
+     */
+    private void collectInputs(String argument, File baseFolder, Set<File> inputs) {
+        if (StringUtils.isBlank(argument)) {
+            return;
+        }
+        argument = argument.trim();
+
+        if (argument.startsWith(MANIFEST_PREFIX)) {
+            File manifest = resolveFile(argument.substring(MANIFEST_PREFIX.length()), baseFolder);
+            inputs.add(manifest);
+            if (manifest.isFile()) {
+                for (String line : readManifest(manifest)) {
+                    if (!line.trim().startsWith(MANIFEST_COMMENT)) {
+                        collectInputs(line, manifest.getAbsoluteFile().getParentFile(), inputs);
+                    }
+                }
+            }
+        } else if (ModelArchives.isEntryPath(argument)) {
+            inputs.add(resolveFile(ModelArchives.getFile(argument).getPath(), baseFolder));
+        } else if (StringUtils.containsAny(argument, GLOB_CHARACTERS)) {
+            inputs.add(resolveFile(getGlobRoot(argument.replace('\\', '/')), baseFolder));
+        } else {
+            File file = resolveFile(argument, baseFolder);
+            if (file.isDirectory() || ModelArchives.isArchive(file)) {
+                inputs.add(file);
+            }
+        }
+    }
+
+
+    /**
+     * Resolve each line of the given manifest file.
+     * @param manifest
+     * @param modelPaths
+     * @param archives
+     */
+    private void resolveManifest(File manifest, Set<String> modelPaths, ModelArchives archives) {
+        for (String line : readManifest(manifest)) {
+            if (!line.trim().startsWith(MANIFEST_COMMENT)) {
+                resolve(line, manifest.getAbsoluteFile().getParentFile(), modelPaths, archives);
+            }
+        }
+    }
+
+
+    private static List<String> readManifest(File manifest) {
+        try {
+            return Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ModelConversionException("Could not read models manifest '" + manifest + "' :", e);
+        }
+    }
+
+
+    /**
+     * Resolve the given entry of an archive, or the entries matching the given glob pattern.
+     * @param argument path of the archive and name or pattern of the entries
+     * @param baseFolder
+     * @param modelPaths
+     * @param archives
+     */
+    private void resolveEntries(String argument, File baseFolder, Set<String> modelPaths, ModelArchives archives) {
+        File archive = resolveFile(ModelArchives.getFile(argument).getPath(), baseFolder);
+        String entryName = ModelArchives.getEntryName(argument);
+        if (StringUtils.containsAny(entryName, GLOB_CHARACTERS)) {
+            modelPaths.addAll(list(archive, entryName, archives));
+        } else {
+            modelPaths.add(ModelArchives.getEntryPath(archive, entryName));
+        }
+    }
+
+
+    /**
+     * Resolve the given glob pattern. Walking starts from the deepest folder without any glob character.
+     * @param pattern
+     * @param baseFolder
+     * @param modelPaths
+     * @param archives
+     */
+    private void resolveGlob(String pattern, File baseFolder, Set<String> modelPaths, ModelArchives archives) {
+        String normalized = pattern.replace('\\', '/');
+        String root = getGlobRoot(normalized);
+        String glob = root.equals(".") ? normalized : normalized.substring(root.length());
+        collect(resolveFile(root, baseFolder).toPath(), glob, modelPaths, archives);
+    }
+
+
+    /**
+     * Get the deepest folder of the given glob pattern without any glob character.
+     * @param pattern glob pattern, with / separators
+     * @return the folder, ending with a separator, or "." if the pattern starts with a glob character.
+     */
+    private static String getGlobRoot(String pattern) {
+        int firstGlob = pattern.length();
+        for (char c : GLOB_CHARACTERS.toCharArray()) {
+            int index = pattern.indexOf(c);
+            if (index >= 0 && index < firstGlob) {
+                firstGlob = index;
+            }
+        }
+        int lastSeparator = pattern.lastIndexOf('/', firstGlob);
+        return lastSeparator < 0 ? "." : pattern.substring(0, lastSeparator + 1);
+    }
+
+
+    /**
+     * Collect, in lexicographical order, the files under {@code root} whose relative path matches {@code glob}.
+     * @param root
+     * @param glob
+     * @param modelPaths
+     * @param archives
+     */
+    private void collect(final Path root, String glob, Set<String> modelPaths, ModelArchives archives) {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        final PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+        final List<String> matches = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && matcher.matches(root.relativize(file))) {
+                        matches.add(file.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new ModelConversionException("Could not list models under '" + root + "' :", e);
+        }
+        Collections.sort(matches);
+        for (String match : matches) {
+            add(new File(match), modelPaths, archives);
+        }
+    }
+
+
+    /**
+     * Add the given model file, or the models of the given archive.
+     * @param file
+     * @param modelPaths
+     * @param archives
+     */
+    private void add(File file, Set<String> modelPaths, ModelArchives archives) {
+        if (ModelArchives.isArchive(file) && file.isFile()) {
+            modelPaths.addAll(list(file, ModelArchives.DEFAULT_MODELS_GLOB, archives));
+        } else {
+            modelPaths.add(file.getPath());
+        }
+    }
+
+
+    private List<String> list(File archive, String glob, ModelArchives archives) {
+        try {
+            return archives.list(archive, glob);
+        } catch (IOException | ProviderNotFoundException e) {
+            throw new ModelConversionException("Could not list models of archive '" + archive + "' :", e);
+        }
+    }
+
+
+    private File resolveFile(String path, File baseFolder) {
+        File file = new File(path);
+        return file.isAbsolute() || baseFolder == null ? file : new File(baseFolder, path);
+    }
+}
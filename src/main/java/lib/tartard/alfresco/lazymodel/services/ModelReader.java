@@ -0,0 +1,26 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.M2Model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an Alfresco model from its xml content : through the JiBX unmarshalling of Alfresco, or a streaming reader.
+ *
+ * The same reader parses the models of concurrent conversions, so implementations must be thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ * @see ModelCache#setModelReader(ModelReader)
+ */
+public interface ModelReader {
+
+    /**
+     * Read a model from the given xml content.
+     * @param content xml content of the model, from its position to its limit. The buffer is left unchanged, and may
+     *                be a file mapped in memory.
+     * @return a new model
+     * @throws org.alfresco.service.cmr.dictionary.DictionaryException if the content isn't a valid Alfresco model.
+     */
+    M2Model read(ByteBuffer content);
+}
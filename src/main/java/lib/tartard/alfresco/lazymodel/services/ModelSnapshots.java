@@ -0,0 +1,185 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.M2Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Folder of binary snapshots of parsed models, which later runs load instead of parsing the xml models again.
+ *
+ * A snapshot is identified by the hash of the xml content of its model, and encoded with the {@link M2ModelCodec}.
+ * It records the version of the codec, of this tool and of the Alfresco data model : a snapshot written by another
+ * version is ignored, and replaced. A model which the codec can't encode without loss is recorded as such, so that it
+ * is always parsed from its xml, without trying to encode it again.
+ *
+ * Snapshots are written atomically, so several processes can share the same folder. Any snapshot which can't be read
+ * or written is ignored : the model is parsed from its xml instead.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelSnapshots {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelSnapshots.class);
+
+    /** Version of the Alfresco data model when it wasn't recorded by the build. */
+    public static final String UNKNOWN_VERSION = "unknown";
+
+    private static final String EXTENSION = ".snapshot";
+
+    /** "LZMS" */
+    private static final int MAGIC = 0x4C5A4D53;
+
+    private static final byte ENCODED = 1;
+
+    private static final byte NOT_ENCODABLE = 0;
+
+    private final File folder;
+
+    private final String toolVersion;
+
+    private final String alfrescoVersion;
+
+    private final Set<String> notEncodable = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Instantiate a folder of snapshots for the current versions of this tool and of the Alfresco data model.
+     * @param folder folder of the snapshots, created when the first snapshot is written
+     */
+    public ModelSnapshots(File folder) {
+        this(folder, ModelConverter.getToolVersion(), getAlfrescoVersion());
+    }
+
+    /**
+     * Instantiate a folder of snapshots for the given versions.
+     * @param folder folder of the snapshots, created when the first snapshot is written
+     * @param toolVersion
+     * @param alfrescoVersion
+     */
+    public ModelSnapshots(File folder, String toolVersion, String alfrescoVersion) {
+        this.folder = folder;
+        this.toolVersion = toolVersion;
+        this.alfrescoVersion = alfrescoVersion;
+    }
+
+
+    /**
+     * Load the snapshot of the model with the given hash.
+     * @param hash hash of the xml content of the model
+     * @return the model, or null if there is no usable snapshot of this model.
+     */
+    public M2Model load(String hash) {
+        byte[] snapshot;
+        try {
+            snapshot = Files.readAllBytes(getFile(hash).toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("Could not read snapshot of model {} : {}", hash, e.getMessage());
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            if (!hasCurrentHeader(in)) {
+                LOGGER.debug("Snapshot of model {} was written by another version.", hash);
+                return null;
+            }
+            if (in.readByte() == NOT_ENCODABLE) {
+                notEncodable.add(hash);
+                return null;
+            }
+            return M2ModelCodec.read(in);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Snapshot of model {} is invalid : {}", hash, e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Write the snapshot of the given model, unless it is already known that the model can't be encoded. Errors are
+     * only logged, as snapshots are only an optimization.
+     * @param hash hash of the xml content of the model
+     * @param model model parsed from this content
+     */
+    public void store(String hash, M2Model model) {
+        if (notEncodable.contains(hash)) {
+            return;
+        }
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(snapshot);
+            writeHeader(out);
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            M2ModelCodec.write(model, new DataOutputStream(encoded));
+            M2Model decoded = M2ModelCodec.read(new DataInputStream(new ByteArrayInputStream(encoded.toByteArray())));
+            if (M2ModelCodec.isLossless(model, decoded)) {
+                out.writeByte(ENCODED);
+                encoded.writeTo(out);
+            } else {
+                LOGGER.debug("Model {} can't be encoded without loss, it will always be parsed.", hash);
+                notEncodable.add(hash);
+                out.writeByte(NOT_ENCODABLE);
+            }
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not encode model {} : {}", hash, e.getMessage());
+            return;
+        }
+
+        try {
+            Files.createDirectories(folder.toPath());
+            try (AtomicOutputFile output = new AtomicOutputFile(getFile(hash))) {
+                snapshot.writeTo(output.getOutputStream());
+                output.commit();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write snapshot of model {} to '{}' : {}", hash, folder, e.getMessage());
+        }
+    }
+
+
+    public File getFolder() {
+        return folder;
+    }
+
+
+    /**
+     * Get the version of the Alfresco data model this tool is built with, as recorded by the build. The manifest of
+     * the data model jar can't tell it, as it is merged into the one of this tool by the shaded jar.
+     * @return the version, or {@value #UNKNOWN_VERSION} if it wasn't recorded.
+     */
+    public static String getAlfrescoVersion() {
+        String version = ToolVersion.getBuildProperty("alfresco.version");
+        return version != null ? version : UNKNOWN_VERSION;
+    }
+
+
+    private File getFile(String hash) {
+        return new File(folder, hash + EXTENSION);
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(M2ModelCodec.FORMAT_VERSION);
+        out.writeUTF(toolVersion);
+        out.writeUTF(alfrescoVersion);
+    }
+
+    private boolean hasCurrentHeader(DataInputStream in) throws IOException {
+        return in.readInt() == MAGIC
+                && in.readInt() == M2ModelCodec.FORMAT_VERSION
+                && in.readUTF().equals(toolVersion)
+                && in.readUTF().equals(alfrescoVersion);
+    }
+}
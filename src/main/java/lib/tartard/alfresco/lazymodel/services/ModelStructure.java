@@ -0,0 +1,388 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import freemarker.template.*;
+import lib.tartard.alfresco.lazymodel.services.view.*;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Structure of a model : the fingerprint of each of its types, aspects, properties, associations and constraints, by
+ * qualified name. Comparing the structures of two versions of a model tells which elements changed.
+ *
+ * The fingerprint of an element covers everything its view exposes to the templates. The effective fingerprint of a
+ * class also covers its ancestors, its mandatory aspects, the constraints of its properties and the header of the
+ * model (name, description, namespaces...), wherever they are defined : a file generated for a single class is
+ * generated again only when its effective fingerprint changes.
+ *
+ * A structure is stored as a text file with one tab-separated line per element, sorted by kind and qualified name.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelStructure {
+
+    /** Prefix of the name of the structure files, stored next to the files generated for the elements. */
+    public static final String FILE_PREFIX = ".lazymodel-structure";
+
+    /** Kind of the property elements. */
+    public static final String PROPERTY_KIND = "property";
+
+    /** Kind of the association elements. */
+    public static final String ASSOCIATION_KIND = "association";
+
+    /** Kind of the constraint elements. */
+    public static final String CONSTRAINT_KIND = "constraint";
+
+    private static final String MODEL_KIND = "model";
+
+    private static final String HEADER = "# lazymodel model structure v1";
+
+    private static final String SEPARATOR = "\t";
+
+    /** Attributes of the view of a model making its header. */
+    private static final String[] HEADER_ATTRIBUTES = {"name", "description", "author", "version", "namespaces",
+            "imports"};
+
+    private final Map<String, Element> elements = new TreeMap<>();
+
+    private final Map<String, String> effectiveFingerprints = new HashMap<>();
+
+    private ModelStructure() {}
+
+
+    /**
+     * Compute the structure of the given model.
+     * @param view view of the model
+     * @param index index of the model, resolving its ancestors, mandatory aspects and constraints
+     * @return
+     */
+    public static ModelStructure of(ModelView view, ModelIndex index) {
+        ModelStructure structure = new ModelStructure();
+        Map<TemplateModel, String> fingerprints = new IdentityHashMap<>();
+
+        MessageDigest header = ContentHash.newDigest();
+        for (String attribute : HEADER_ATTRIBUTES) {
+            update(header, attribute);
+            digest(view.get(attribute), header);
+        }
+        String headerFingerprint = ContentHash.toHex(header.digest());
+        structure.add(new Element(MODEL_KIND, view.getName(), view.getName(), headerFingerprint));
+
+        for (ClassView classView : view.getClasses()) {
+            structure.add(new Element(classView.isAspect() ? ClassView.ASPECT_KIND : ClassView.TYPE_KIND,
+                    classView.getQName(), classView.getName(), getFingerprint(classView, fingerprints)));
+            for (PropertyView property : classView.getProperties()) {
+                structure.add(new Element(PROPERTY_KIND, property.getQName(), property.getName(),
+                        getFingerprint(property, fingerprints)));
+            }
+            for (AssociationView association : classView.getAssociations()) {
+                structure.add(new Element(ASSOCIATION_KIND, association.getQName(), association.getName(),
+                        getFingerprint(association, fingerprints)));
+            }
+            structure.effectiveFingerprints.put(classView.getQName(),
+                    getEffectiveFingerprint(classView, index, headerFingerprint, fingerprints));
+        }
+        for (ConstraintView constraint : view.getConstraints()) {
+            String fingerprint = getFingerprint(constraint, fingerprints);
+            structure.add(new Element(CONSTRAINT_KIND, constraint.getQName(), constraint.getName(), fingerprint));
+            MessageDigest effective = ContentHash.newDigest();
+            update(effective, headerFingerprint);
+            update(effective, fingerprint);
+            structure.effectiveFingerprints.put(constraint.getQName(), ContentHash.toHex(effective.digest()));
+        }
+        return structure;
+    }
+
+
+    /**
+     * Load the structure stored in the given file.
+     * @param file
+     * @return the structure, or null if the file doesn't exist.
+     * @throws IOException if the file can't be read.
+     */
+    public static ModelStructure load(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        ModelStructure structure = new ModelStructure();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (line.startsWith("#") || fields.length != 4) {
+                continue;
+            }
+            structure.add(new Element(fields[0], fields[1], fields[2], fields[3]));
+        }
+        return structure;
+    }
+
+
+    /**
+     * Write this structure to the given file, atomically.
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (AtomicOutputFile output = new AtomicOutputFile(file)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output.getOutputStream(), StandardCharsets.UTF_8));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Element element : elements.values()) {
+                writer.write(StringUtils.join(new String[]{element.kind, element.qName, element.name,
+                        element.fingerprint}, SEPARATOR));
+                writer.write('\n');
+            }
+            writer.flush();
+            output.commit();
+        }
+    }
+
+
+    /**
+     * Get the file storing the structure of the model whose elements are generated in the given folder with the
+     * given template. Several templates may generate their files in the same folder.
+     * @param outputFolder
+     * @param templatePath
+     * @return
+     */
+    public static File getFile(File outputFolder, String templatePath) {
+        TemplateName templateName = TemplateName.parse(templatePath);
+        String suffix = templateName.getExtension() != null ?
+                "." + templateName.getExtension() + "." + templateName.getScope().getName() :
+                "." + templateName.getScope().getName();
+        return new File(outputFolder, FILE_PREFIX + suffix);
+    }
+
+
+    /**
+     * Compare this structure with the structure of a previous version of the same model.
+     * @param previous the previous structure, or null if it is unknown
+     * @return the changes from the previous structure to this one, every element being added if it is unknown.
+     */
+    public ModelDiff diff(ModelStructure previous) {
+        Map<String, Element> previousElements = previous != null ?
+                previous.elements :
+                Collections.<String, Element>emptyMap();
+        List<ModelDiff.Change> changes = new ArrayList<>();
+        for (Map.Entry<String, Element> entry : elements.entrySet()) {
+            Element element = entry.getValue();
+            Element previousElement = previousElements.get(entry.getKey());
+            if (previousElement == null) {
+                changes.add(new ModelDiff.Change(ModelDiff.ChangeType.ADDED, element.kind, element.qName,
+                        element.name));
+            } else if (!previousElement.fingerprint.equals(element.fingerprint)
+                    || !previousElement.name.equals(element.name)) {
+                changes.add(new ModelDiff.Change(ModelDiff.ChangeType.CHANGED, element.kind, element.qName,
+                        element.name));
+            }
+        }
+        for (Map.Entry<String, Element> entry : previousElements.entrySet()) {
+            if (!elements.containsKey(entry.getKey())) {
+                Element element = entry.getValue();
+                changes.add(new ModelDiff.Change(ModelDiff.ChangeType.REMOVED, element.kind, element.qName,
+                        element.name));
+            }
+        }
+        Collections.sort(changes, new Comparator<ModelDiff.Change>() {
+            @Override
+            public int compare(ModelDiff.Change first, ModelDiff.Change second) {
+                return getKey(first.getKind(), first.getQName()).compareTo(getKey(second.getKind(), second.getQName()));
+            }
+        });
+        return new ModelDiff(changes);
+    }
+
+
+    /**
+     * Get the effective fingerprint of a class or constraint of the model.
+     * @param qName qualified name of the element
+     * @return the fingerprint, or null if the model has no such class or constraint, or if this structure was loaded
+     * from a file.
+     */
+    public String getEffectiveFingerprint(String qName) {
+        return effectiveFingerprints.get(qName);
+    }
+
+
+    /**
+     * Get the prefixed names of the elements a template of the given scope is rendered for.
+     * @param scope
+     * @return
+     */
+    public Set<String> getNames(TemplateScope scope) {
+        Set<String> names = new TreeSet<>();
+        for (Element element : elements.values()) {
+            if (isInScope(element.kind, scope)) {
+                names.add(element.name);
+            }
+        }
+        return names;
+    }
+
+
+    private void add(Element element) {
+        elements.put(getKey(element.kind, element.qName), element);
+    }
+
+    private static String getKey(String kind, String qName) {
+        return kind + SEPARATOR + qName;
+    }
+
+    private static boolean isInScope(String kind, TemplateScope scope) {
+        switch (scope) {
+            case TYPE:
+                return ClassView.TYPE_KIND.equals(kind);
+            case ASPECT:
+                return ClassView.ASPECT_KIND.equals(kind);
+            case CLASS:
+                return ClassView.TYPE_KIND.equals(kind) || ClassView.ASPECT_KIND.equals(kind);
+            case CONSTRAINT:
+                return CONSTRAINT_KIND.equals(kind);
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Get the effective fingerprint of a class : its own fingerprint, along with the ones of the model header, of its
+     * ancestors, of its effective mandatory aspects, of the constraints of its effective properties, and of the target
+     * classes of its effective associations. Other reads of templates through the index are not tracked.
+     * @param classView
+     * @param index
+     * @param headerFingerprint
+     * @param fingerprints fingerprints already computed, by view
+     * @return
+     */
+    private static String getEffectiveFingerprint(ClassView classView, ModelIndex index, String headerFingerprint,
+                                                  Map<TemplateModel, String> fingerprints) {
+        MessageDigest digest = ContentHash.newDigest();
+        update(digest, headerFingerprint);
+        update(digest, getFingerprint(classView, fingerprints));
+
+        List<ClassView> related = new ArrayList<>();
+        List<ClassView> ancestors = index != null ? index.getAncestors(classView.getQName()) : null;
+        List<ClassView> aspects = index != null ? index.getEffectiveMandatoryAspects(classView.getQName()) : null;
+        if (ancestors != null) {
+            related.addAll(ancestors);
+        }
+        if (aspects != null) {
+            related.addAll(aspects);
+        }
+        for (ClassView relatedClass : related) {
+            update(digest, relatedClass.getQName());
+            update(digest, getFingerprint(relatedClass, fingerprints));
+        }
+
+        List<PropertyView> properties = index != null ? index.getEffectiveProperties(classView.getQName()) : null;
+        for (PropertyView property : properties != null ? properties : classView.getProperties()) {
+            for (String constraintName : property.getConstraintNames()) {
+                ConstraintView constraint = index != null ? index.getConstraint(constraintName) : null;
+                if (constraint != null) {
+                    update(digest, constraint.getQName());
+                    update(digest, getFingerprint(constraint, fingerprints));
+                }
+            }
+        }
+
+        related.add(0, classView);
+        for (ClassView relatedClass : related) {
+            for (AssociationView association : relatedClass.getAssociations()) {
+                ClassView target = index != null ? index.getClassByName(association.getTargetClassName()) : null;
+                if (target != null) {
+                    update(digest, target.getQName());
+                    update(digest, getFingerprint(target, fingerprints));
+                }
+            }
+        }
+        return ContentHash.toHex(digest.digest());
+    }
+
+    private static String getFingerprint(TemplateView view, Map<TemplateModel, String> fingerprints) {
+        String fingerprint = fingerprints.get(view);
+        if (fingerprint == null) {
+            MessageDigest digest = ContentHash.newDigest();
+            digest(view, digest);
+            fingerprint = ContentHash.toHex(digest.digest());
+            fingerprints.put(view, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Add the given template model to the digest, along with the type of each value so that different values never
+     * give the same bytes.
+     * @param model
+     * @param digest
+     */
+    private static void digest(TemplateModel model, MessageDigest digest) {
+        try {
+            if (model == null) {
+                update(digest, "n");
+            } else if (model instanceof TemplateScalarModel) {
+                update(digest, "s");
+                update(digest, ((TemplateScalarModel) model).getAsString());
+            } else if (model instanceof TemplateBooleanModel) {
+                update(digest, ((TemplateBooleanModel) model).getAsBoolean() ? "t" : "f");
+            } else if (model instanceof TemplateNumberModel) {
+                update(digest, "#");
+                update(digest, String.valueOf(((TemplateNumberModel) model).getAsNumber()));
+            } else if (model instanceof TemplateSequenceModel) {
+                TemplateSequenceModel sequence = (TemplateSequenceModel) model;
+                update(digest, "l" + sequence.size());
+                for (int i = 0; i < sequence.size(); i++) {
+                    digest(sequence.get(i), digest);
+                }
+            } else if (model instanceof TemplateHashModelEx) {
+                TemplateHashModelEx hash = (TemplateHashModelEx) model;
+                update(digest, "h" + hash.size());
+                TemplateModelIterator keys = hash.keys().iterator();
+                while (keys.hasNext()) {
+                    String key = ((TemplateScalarModel) keys.next()).getAsString();
+                    update(digest, key);
+                    digest(hash.get(key), digest);
+                }
+            } else {
+                update(digest, "?");
+                update(digest, model.toString());
+            }
+        } catch (TemplateModelException e) {
+            // Views are built once and never fail to be read
+            throw new IllegalStateException("Could not read view : " + e.getMessage(), e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(bytes);
+    }
+
+
+    /**
+     * Fingerprint of a single element.
+     */
+    private static class Element {
+
+        private final String kind;
+
+        private final String qName;
+
+        private final String name;
+
+        private final String fingerprint;
+
+        private Element(String kind, String qName, String name, String fingerprint) {
+            this.kind = kind;
+            this.qName = qName;
+            this.name = name;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the model and template files of a set of conversions, and performs again the conversions whose model or
+ * template changed. Every conversion is performed again when a dictionary model of the converter changes, or when any
+ * model changes if the batch converter resolves imports, as models may depend on each other. The folders templates
+ * are looked up in are watched too, so that a change of a template included by another one converts again the
+ * models of that other one.
+ *
+ * Given a {@link ConfigResolver}, the folders the models are searched in are watched along with their subfolders :
+ * when a file is created in them, or when a manifest or an archive changes, the configurations are resolved again
+ * and the new ones are converted.
+ *
+ * Events are debounced : conversions are performed once no file changed for {@code debounceDelay} milliseconds, so
+ * that an editor saving several files, or saving a file in several steps, triggers a single regeneration. Only the
+ * affected conversions are performed, with the same {@link BatchConverter}, so parsed models and compiled templates
+ * which didn't change are reused.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelWatcher.class);
+
+    /** Default quiet period, in milliseconds, before changed files are converted. */
+    public static final long DEFAULT_DEBOUNCE_DELAY = 100L;
+
+    private static final String TEMPLATE_EXTENSION = ".ftl";
+
+    private static final String MODEL_EXTENSION = ".xml";
+
+    private static final String HIDDEN_PREFIX = ".";
+
+    private final ModelConverter modelConverter;
+
+    private final BatchConverter batchConverter;
+
+    private final long debounceDelay;
+
+    private final WatchService watchService;
+
+    private List<ConversionConfig> configs;
+
+    private final Map<Path, List<ConversionConfig>> configsByInput = new HashMap<>();
+
+    private final Map<Path, List<ConversionConfig>> configsByTemplateFolder = new HashMap<>();
+
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+
+    // Folders watched along with their subfolders
+    private final Set<Path> trees = new HashSet<>();
+
+    private ConfigResolver configResolver;
+
+    // Manifests and archives the configurations are resolved from
+    private final Set<Path> resolverInputs = new HashSet<>();
+
+    private boolean resolving;
+
+
+    /**
+     * Instantiate a watcher of the models and templates of the given configurations.
+     * @param modelConverter converter resolving the template files
+     * @param batchConverter converter performing the conversions
+     * @param configs configurations to watch
+     * @param debounceDelay quiet period, in milliseconds, before changed files are converted
+     * @throws IOException if the folders can't be watched
+     */
+    public ModelWatcher(ModelConverter modelConverter, BatchConverter batchConverter, List<ConversionConfig> configs,
+                        long debounceDelay) throws IOException {
+        this.modelConverter = modelConverter;
+        this.batchConverter = batchConverter;
+        this.debounceDelay = debounceDelay;
+        this.configs = new ArrayList<>(configs);
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        register(configs);
+    }
+
+
+    /**
+     * Resolve the configurations again with the given resolver whenever models may have been added, and convert the
+     * new ones. To be called before {@link #run()}.
+     * @param configResolver
+     * @throws IOException if the folders the models are searched in can't be watched
+     */
+    public void setConfigResolver(ConfigResolver configResolver) throws IOException {
+        this.configResolver = configResolver;
+        registerInputs();
+    }
+
+
+    /**
+     * Watch the files until the current thread is interrupted or this watcher is closed.
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void run() throws InterruptedException {
+        LOGGER.info("Watching {} file(s) in {} folder(s) for changes.", configsByInput.size(), folders.size());
+        try {
+            while (true) {
+                Set<Path> changedFiles = new HashSet<>();
+                collectChanges(watchService.take(), changedFiles);
+                WatchKey key;
+                while ((key = watchService.poll(debounceDelay, TimeUnit.MILLISECONDS)) != null) {
+                    collectChanges(key, changedFiles);
+                }
+                convert(changedFiles, resolving ? resolve() : Collections.<ConversionConfig>emptySet());
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOGGER.debug("Watch service closed.");
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+
+    /**
+     * Resolve the configurations again, and watch their files.
+     * @return the configurations which weren't watched yet.
+     */
+    private Set<ConversionConfig> resolve() {
+        resolving = false;
+        List<ConversionConfig> resolved;
+        try {
+            resolved = configResolver.resolve();
+        } catch (ModelConversionException e) {
+            LOGGER.error("Could not resolve models : {}", e.getMessage());
+            return Collections.emptySet();
+        }
+        Set<ConversionConfig> added = new LinkedHashSet<>(resolved);
+        added.removeAll(configs);
+
+        configs = new ArrayList<>(resolved);
+        configsByInput.clear();
+        configsByTemplateFolder.clear();
+        try {
+            register(configs);
+            registerInputs();
+        } catch (IOException | ModelConversionException e) {
+            LOGGER.error("Could not watch models and templates : {}", e.getMessage());
+        }
+        if (!added.isEmpty()) {
+            LOGGER.info("Found {} new conversion(s).", added.size());
+        }
+        return added;
+    }
+
+
+    /**
+     * Perform the conversions depending on the given files, along with the given ones.
+     * @param changedFiles
+     * @param addedConfigs configurations which were never performed by this watcher
+     */
+    private void convert(Set<Path> changedFiles, Set<ConversionConfig> addedConfigs) {
+        Set<ConversionConfig> configs = new LinkedHashSet<>();
+        for (Path changedFile : changedFiles) {
+            List<ConversionConfig> dependents = configsByInput.get(changedFile);
+            if (dependents != null) {
+                configs.addAll(dependents);
+            }
+            for (Map.Entry<Path, List<ConversionConfig>> templateFolder : configsByTemplateFolder.entrySet()) {
+                // A folder is changed when some of its events were lost
+                if (changedFile.startsWith(templateFolder.getKey())
+                        && (isTemplate(changedFile) || trees.contains(changedFile))) {
+                    configs.addAll(templateFolder.getValue());
+                }
+            }
+        }
+        configs.addAll(addedConfigs);
+        if (configs.isEmpty()) {
+            return;
+        }
+        if (batchConverter.isResolvingImports()) {
+            configs.addAll(this.configs);
+        }
+
+        long start = System.nanoTime();
+        List<ConversionResult> results = batchConverter.convert(new ArrayList<>(configs));
+        for (ConversionResult result : results) {
+            if (result.isFailed()) {
+                LOGGER.error("Conversion of '{}' with '{}' failed : {}", result.getConfig().getAlfrescoModelPath(),
+                        result.getConfig().getFtlTemplatePath(), result.getError().getMessage());
+            }
+        }
+        LOGGER.info("Regenerated {} file(s) in {} ms.", results.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+
+    /**
+     * Add the files of the events of the given key to the changed files, and reset the key.
+     * @param key
+     * @param changedFiles
+     */
+    private void collectChanges(WatchKey key, Set<Path> changedFiles) {
+        Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // Some events were lost : consider every watched file of the folder changed
+                for (Path input : configsByInput.keySet()) {
+                    if (input.getParent().equals(folder)) {
+                        changedFiles.add(input);
+                    }
+                }
+                if (folder != null && trees.contains(folder)) {
+                    changedFiles.add(folder);
+                    resolving = configResolver != null;
+                }
+            } else if (folder != null) {
+                Path path = folder.resolve((Path) event.context());
+                changedFiles.add(path);
+                if (event.kind() == ENTRY_CREATE && trees.contains(folder)) {
+                    created(path);
+                }
+                if (resolverInputs.contains(path)) {
+                    resolving = configResolver != null;
+                }
+            }
+        }
+        key.reset();
+    }
+
+
+    /**
+     * Watch the given path if it is a folder created in a watched tree, and resolve the configurations again if it
+     * may hold models or templates.
+     * @param path
+     */
+    private void created(Path path) {
+        boolean folder = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+        if (folder) {
+            try {
+                registerTree(path);
+            } catch (IOException e) {
+                LOGGER.warn("Could not watch folder '{}' : {}", path, e.getMessage());
+            }
+        }
+        String name = path.getFileName().toString();
+        // Editors often save files by replacing them : known files don't need resolving again
+        if (configResolver != null && !name.startsWith(HIDDEN_PREFIX) && !configsByInput.containsKey(path)
+                && (folder || isTemplate(path) || name.endsWith(MODEL_EXTENSION)
+                || ModelArchives.isArchive(path.toFile()))) {
+            resolving = true;
+        }
+    }
+
+
+    private static boolean isTemplate(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(TEMPLATE_EXTENSION);
+    }
+
+
+    /**
+     * Watch the files of the given configurations.
+     * @param configs
+     * @throws IOException if the folders can't be watched
+     */
+    private void register(List<ConversionConfig> configs) throws IOException {
+        for (ConversionConfig config : configs) {
+            // Models read from an archive are converted again when the archive changes
+            register(ModelArchives.getFile(config.getAlfrescoModelPath()), config);
+            File templateFile = modelConverter.getTemplateFile(config);
+            register(templateFile, config);
+            // Templates include templates of their own folder and of the default templates folder
+            File templateFolder = templateFile.getAbsoluteFile().getParentFile().getCanonicalFile();
+            for (File folder : modelConverter.getTemplateFolders(templateFolder)) {
+                Path path = folder.toPath();
+                List<ConversionConfig> dependents = configsByTemplateFolder.get(path);
+                if (dependents == null) {
+                    dependents = new ArrayList<>();
+                    configsByTemplateFolder.put(path, dependents);
+                }
+                dependents.add(config);
+                registerTree(path);
+            }
+            for (String dictionaryModelPath : modelConverter.getDictionaryModels()) {
+                register(ModelArchives.getFile(dictionaryModelPath), config);
+            }
+        }
+    }
+
+
+    /**
+     * Watch the folders of the configuration resolver along with their subfolders, and its manifests and archives.
+     * @throws IOException if the folders can't be watched
+     */
+    private void registerInputs() throws IOException {
+        if (configResolver == null) {
+            return;
+        }
+        resolverInputs.clear();
+        for (File input : configResolver.getInputs()) {
+            Path path = input.toPath().toAbsolutePath().normalize();
+            if (Files.isDirectory(path)) {
+                registerTree(path);
+            } else {
+                resolverInputs.add(path);
+                if (Files.isDirectory(path.getParent())) {
+                    registerFolder(path.getParent());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Watch the folder of the given input file, and remember that the given configuration depends on this file.
+     * @param input
+     * @param config
+     * @throws IOException
+     */
+    private void register(File input, ConversionConfig config) throws IOException {
+        Path path = input.toPath().toAbsolutePath().normalize();
+        List<ConversionConfig> dependents = configsByInput.get(path);
+        if (dependents == null) {
+            dependents = new ArrayList<>();
+            configsByInput.put(path, dependents);
+        }
+        dependents.add(config);
+
+        registerFolder(path.getParent());
+    }
+
+
+    /**
+     * Watch the given folder and its subfolders, hidden folders and symbolic links to folders excepted.
+     * @param root
+     * @throws IOException
+     */
+    private void registerTree(final Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (trees.contains(dir)
+                        || (!dir.equals(root) && dir.getFileName().toString().startsWith(HIDDEN_PREFIX))) {
+                    // Folders created in a watched tree are registered on their creation
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                registerFolder(dir);
+                trees.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOGGER.debug("Could not watch '{}' : {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    /**
+     * Watch the given folder.
+     * @param folder
+     * @throws IOException
+     */
+    private void registerFolder(Path folder) throws IOException {
+        if (!folders.containsValue(folder)) {
+            // Editors often save files by replacing them, which is seen as a creation
+            folders.put(folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), folder);
+        }
+    }
+
+
+    /**
+     * Resolves the configurations of the models designated by a set of files and folders, so that the models added to
+     * them are converted too.
+     */
+    public interface ConfigResolver {
+
+        /**
+         * @return the configurations of the models currently designated
+         * @throws ModelConversionException if the models can't be resolved
+         */
+        List<ConversionConfig> resolve();
+
+        /**
+         * @return the files and folders the models are designated by, see {@link ModelPathResolver#getInputs(List)}
+         */
+        Collection<File> getInputs();
+    }
+}
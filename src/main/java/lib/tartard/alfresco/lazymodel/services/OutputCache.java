@@ -0,0 +1,337 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed folder of generated files, shared by the workspaces and build agents generating the same files
+ * from the same inputs : a file is stored under the hash of the model it was generated from, along with the models it
+ * depends on, of its template, of its encoding, of the version of this tool and of the element it was rendered for.
+ * A later conversion with the same inputs copies the stored file, or links to it, instead of rendering it again.
+ *
+ * Files are published atomically, so several processes can share the same folder, e.g. over NFS or a mounted volume.
+ * When the folder grows beyond its maximum size, the least recently used files are evicted. Any file which can't be
+ * read or written is ignored : the file is rendered instead.
+ *
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class OutputCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputCache.class);
+
+    /** Default maximum size of the cache folder, in bytes : 1 GB. */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /** Eviction removes files until the folder is back under this ratio of its maximum size. */
+    private static final double EVICTION_RATIO = 0.9;
+
+    private static final String TEMPORARY_PREFIX = ".";
+
+    private final File folder;
+
+    private final long maxSize;
+
+    private volatile boolean linking;
+
+    /** Estimated size of the folder, or -1 until it is first measured. */
+    private long size = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Instantiate a cache of at most {@link #DEFAULT_MAX_SIZE} bytes.
+     * @param folder folder of the cache, created when the first file is stored
+     */
+    public OutputCache(File folder) {
+        this(folder, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param folder folder of the cache, created when the first file is stored
+     * @param maxSize maximum size of the folder, in bytes
+     */
+    public OutputCache(File folder, long maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The size of the cache must be positive : " + maxSize);
+        }
+        this.folder = folder;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Compute the key of a generated file from its inputs.
+     * @param modelHash hash of the model along with the models it depends on
+     * @param templateHash hash of the template
+     * @param encoding encoding of the file, or null for the default encoding
+     * @param toolVersion version of this tool
+     * @param elementName name of the element the template is rendered for, or null if it is rendered for the model
+     * @param javaClassName qualified name of the Java class the template declares in the file
+     * @return
+     */
+    public static String getKey(String modelHash, String templateHash, String encoding, String toolVersion,
+                                String elementName, String javaClassName) {
+        MessageDigest digest = ContentHash.newDigest();
+        for (String input : new String[]{modelHash, templateHash, encoding, toolVersion, elementName, javaClassName}) {
+            // Separates the inputs, so that no two sets of inputs hash the same bytes
+            digest.update((input != null ? input.length() + ":" + input : "-").getBytes(StandardCharsets.UTF_8));
+        }
+        return ContentHash.toHex(digest.digest());
+    }
+
+
+    /**
+     * Restore the file stored with the given key to the target file. The target is replaced atomically, and only if
+     * its content differs, so that an unchanged file keeps its modification date.
+     * @param key
+     * @param target
+     * @return true if the file was restored, false if the cache holds no such file.
+     */
+    public boolean restore(String key, File target) {
+        Path entry = getEntry(key);
+        if (!Files.isRegularFile(entry)) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        Path targetPath = target.toPath().toAbsolutePath();
+        Path temporary = targetPath.resolveSibling(TEMPORARY_PREFIX + targetPath.getFileName() + "."
+                + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(targetPath.getParent());
+            if (!linking || !link(entry, temporary)) {
+                Files.copy(entry, temporary);
+            }
+            if (AtomicOutputFile.hasSameContent(temporary, targetPath)) {
+                Files.delete(temporary);
+            } else {
+                try {
+                    Files.move(temporary, targetPath, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, targetPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            touch(entry);
+        } catch (IOException e) {
+            // Evicted by another process in the meantime, or unreadable : the file is rendered instead
+            LOGGER.debug("Could not restore '{}' from the output cache : {}", target, e.getMessage());
+            deleteQuietly(temporary);
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * Store the given generated file with the given key, unless the cache already holds it. Errors are only logged,
+     * as the cache is only an optimization.
+     * @param key
+     * @param file
+     */
+    public void store(String key, File file) {
+        Path entry = getEntry(key);
+        if (Files.isRegularFile(entry)) {
+            touch(entry);
+            return;
+        }
+
+        long length;
+        try {
+            Files.createDirectories(entry.getParent());
+            try (AtomicOutputFile output = new AtomicOutputFile(entry.toFile())) {
+                Files.copy(file.toPath(), output.getOutputStream());
+                output.commit();
+            }
+            length = Files.size(entry);
+        } catch (IOException e) {
+            LOGGER.warn("Could not store '{}' in the output cache '{}' : {}", file, folder, e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (size < 0) {
+                size = measure();
+            } else {
+                size += length;
+            }
+            if (size > maxSize) {
+                evict();
+            }
+        }
+    }
+
+
+    /**
+     * Whether restored files are hard links to the files of the cache, instead of copies. Links save space and time,
+     * but a restored file must then never be modified in place. Default is false.
+     * @return
+     */
+    public boolean isLinking() {
+        return linking;
+    }
+
+    public void setLinking(boolean linking) {
+        this.linking = linking;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of files restored from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of files the cache didn't hold.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+
+    /**
+     * Remove the least recently used files until the folder is back under its eviction size. The files of the other
+     * processes sharing the folder are counted and evicted too.
+     */
+    private synchronized void evict() {
+        List<Path> entries = new ArrayList<>();
+        final List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = list(entries, attributes);
+
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+
+        long target = (long) (maxSize * EVICTION_RATIO);
+        int evicted = 0;
+        for (int i = 0; i < order.size() && total > target; i++) {
+            int index = order.get(i);
+            try {
+                if (Files.deleteIfExists(entries.get(index))) {
+                    evicted++;
+                }
+                total -= attributes.get(index).size();
+            } catch (IOException e) {
+                LOGGER.debug("Could not evict '{}' : {}", entries.get(index), e.getMessage());
+            }
+        }
+        size = total;
+        LOGGER.debug("Evicted {} file(s) from the output cache '{}'.", evicted, folder);
+    }
+
+    /**
+     * @return the total size of the files of the cache.
+     */
+    private long measure() {
+        return list(new ArrayList<Path>(), new ArrayList<BasicFileAttributes>());
+    }
+
+    /**
+     * List the files of the cache, along with their attributes.
+     * @param entries
+     * @param attributes
+     * @return the total size of the files
+     */
+    private long list(final List<Path> entries, final List<BasicFileAttributes> attributes) {
+        final long[] total = {0};
+        try {
+            Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !file.getFileName().toString().startsWith(TEMPORARY_PREFIX)) {
+                        entries.add(file);
+                        attributes.add(attrs);
+                        total[0] += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Evicted by another process in the meantime
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Could not list the output cache '{}' : {}", folder, e.getMessage());
+        }
+        return total[0];
+    }
+
+
+    /**
+     * @param key
+     * @return the file of the given key, in a sub folder named after the first characters of the key so that no folder
+     * holds too many files.
+     */
+    private Path getEntry(String key) {
+        return folder.toPath().resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Mark the given file as recently used.
+     * @param entry
+     */
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOGGER.debug("Could not touch '{}' : {}", entry, e.getMessage());
+        }
+    }
+
+    private static boolean link(Path entry, Path link) {
+        try {
+            Files.createLink(link, entry);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Could not link '{}' : {}", entry, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug("Could not delete '{}' : {}", file, e.getMessage());
+        }
+    }
+}
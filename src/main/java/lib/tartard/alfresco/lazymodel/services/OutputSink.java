@@ -0,0 +1,54 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination of the files generated by a {@link ModelConverter} : the file system, or a single archive.
+ *
+ * Each generated file is written to an {@link Output} opened for its path, and only published once committed : an
+ * output closed without being committed, e.g. because the rendering failed, is discarded. Outputs may be opened by
+ * several threads at the same time. The sink is closed once all the conversions are performed.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ * @see ModelConverter#setOutputSink(OutputSink)
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * Open the output of a generated file.
+     * @param outputFile path of the file, as given by the configuration of its conversion
+     * @return
+     * @throws IOException
+     */
+    Output open(File outputFile) throws IOException;
+
+    /**
+     * Whether the generated files are written at their path on the file system. Incremental conversions, the output
+     * cache and the removal of the files of removed elements need to read the previous files there.
+     * @return
+     */
+    boolean isWritingFiles();
+
+
+    /**
+     * Content of a single generated file.
+     */
+    interface Output extends Closeable {
+
+        /**
+         * @return the stream to write the content of the file to. It doesn't need to be closed.
+         */
+        OutputStream getOutputStream();
+
+        /**
+         * Publish the written content.
+         * @return true if the file has been replaced, false if it already had the same content.
+         * @throws IOException
+         */
+        boolean commit() throws IOException;
+    }
+}
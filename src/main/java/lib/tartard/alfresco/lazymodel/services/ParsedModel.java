@@ -0,0 +1,55 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import org.alfresco.repo.dictionary.M2Model;
+
+/**
+ * An Alfresco model parsed by the {@link ModelCache}, along with the hash of the xml it was parsed from and its
+ * template view.
+ *
+ * The M2Model is shared by every conversion using the same model, so it must never be modified.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ParsedModel {
+
+    private final String hash;
+
+    private final M2Model model;
+
+    private volatile ModelView view;
+
+    public ParsedModel(String hash, M2Model model) {
+        this.hash = hash;
+        this.model = model;
+    }
+
+    /**
+     * @return the hash of the xml content of the model.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public M2Model getModel() {
+        return model;
+    }
+
+    /**
+     * Get the template view of the model, built the first time it is requested.
+     * @return
+     */
+    public ModelView getView() {
+        ModelView result = view;
+        if (result == null) {
+            synchronized (this) {
+                result = view;
+                if (result == null) {
+                    view = result = new ModelView(model);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+
+/**
+ * A parsed model indexed along with the models it imports, as built by {@link ModelConverter#resolve}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ResolvedModel {
+
+    private final ParsedModel parsedModel;
+
+    private final ModelIndex index;
+
+    private final String hash;
+
+    private ModelStructure structure;
+
+    ResolvedModel(ParsedModel parsedModel, ModelIndex index, String hash) {
+        this.parsedModel = parsedModel;
+        this.index = index;
+        this.hash = hash;
+    }
+
+    public ParsedModel getParsedModel() {
+        return parsedModel;
+    }
+
+    /**
+     * @return the index of the model on top of the indexes of the models it imports and of the dictionary models.
+     */
+    public ModelIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the hash of the model along with the models it imports, directly or not, and the dictionary models.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the structure of the model, computed the first time it is needed.
+     */
+    public synchronized ModelStructure getStructure() {
+        if (structure == null) {
+            structure = ModelStructure.of(parsedModel.getView(), index);
+        }
+        return structure;
+    }
+}
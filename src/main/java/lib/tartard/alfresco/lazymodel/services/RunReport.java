@@ -0,0 +1,256 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Summary of the conversions performed by a {@link ModelConverter} during a run, written as JSON.
+ *
+ * The report gives the number of conversions of each status, the hits and misses of the model cache, the bytes
+ * written and allocated, and the percentiles of the durations of the conversions : per phase, per model and per
+ * template. Durations are given in milliseconds, percentiles being computed with the nearest-rank method.
+ *
+ * Register the report as a listener of the converter before the conversions. This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class RunReport implements ConversionListener {
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final long start = System.nanoTime();
+
+    private final List<ConversionEvent> events = new ArrayList<>();
+
+
+    @Override
+    public synchronized void conversionPerformed(ConversionEvent event) {
+        events.add(event);
+    }
+
+
+    /**
+     * @return a copy of the events recorded so far.
+     */
+    public synchronized List<ConversionEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+
+    /**
+     * Write the report to the given file, replacing it atomically.
+     * @param file
+     * @param modelCache the model cache of the converter, whose hits and misses are reported
+     * @throws IOException
+     */
+    public void write(File file, ModelCache modelCache) throws IOException {
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null) {
+            Files.createDirectories(folder.toPath());
+        }
+        try (AtomicOutputFile output = new AtomicOutputFile(file)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output.getOutputStream(), StandardCharsets.UTF_8));
+            writer.write(toJson(modelCache));
+            writer.flush();
+            output.commit();
+        }
+    }
+
+
+    /**
+     * Write the cost of each model/template pair converted during the run, i.e. the total duration of its conversion,
+     * so that later runs balance their {@link Shard shards} on it.
+     * @param file
+     * @param baseFolder folder the keys of the pairs are relative to
+     * @throws IOException
+     */
+    public void writeCosts(File file, File baseFolder) throws IOException {
+        Map<String, Long> costs = new HashMap<>();
+        for (ConversionEvent event : getEvents()) {
+            String key = Shard.getKey(event.getConfig(), baseFolder);
+            Long cost = costs.get(key);
+            costs.put(key, (cost != null ? cost : 0L) + event.getDuration());
+        }
+        Shard.writeCosts(file, costs);
+    }
+
+
+    /**
+     * Get the report as JSON.
+     * @param modelCache the model cache of the converter, whose hits and misses are reported
+     * @return
+     */
+    public String toJson(ModelCache modelCache) {
+        List<ConversionEvent> snapshot = getEvents();
+        long bytesWritten = 0L;
+        long allocatedBytes = 0L;
+        Map<ConversionResult.Status, Integer> statuses = new EnumMap<>(ConversionResult.Status.class);
+        for (ConversionResult.Status status : ConversionResult.Status.values()) {
+            statuses.put(status, 0);
+        }
+        Map<ConversionPhase, List<Long>> phaseDurations = new EnumMap<>(ConversionPhase.class);
+        Map<String, List<ConversionEvent>> byModel = new TreeMap<>();
+        Map<String, List<ConversionEvent>> byTemplate = new TreeMap<>();
+        for (ConversionEvent event : snapshot) {
+            statuses.put(event.getStatus(), statuses.get(event.getStatus()) + 1);
+            bytesWritten += event.getBytesWritten();
+            allocatedBytes = allocatedBytes >= 0 && event.getAllocatedBytes() >= 0 ?
+                    allocatedBytes + event.getAllocatedBytes() :
+                    -1L;
+            for (Map.Entry<ConversionPhase, Long> phase : event.getDurations().entrySet()) {
+                if (!phaseDurations.containsKey(phase.getKey())) {
+                    phaseDurations.put(phase.getKey(), new ArrayList<Long>());
+                }
+                phaseDurations.get(phase.getKey()).add(phase.getValue());
+            }
+            group(byModel, event.getConfig().getAlfrescoModelPath(), event);
+            group(byTemplate, event.getConfig().getFtlTemplatePath(), event);
+        }
+
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        json.append("  \"toolVersion\": ").append(quote(ModelConverter.getToolVersion())).append(",\n");
+        json.append("  \"durationMillis\": ").append(toMillis(System.nanoTime() - start)).append(",\n");
+        json.append("  \"conversions\": ").append(snapshot.size()).append(",\n");
+        json.append("  \"statuses\": {");
+        String separator = "";
+        for (Map.Entry<ConversionResult.Status, Integer> status : statuses.entrySet()) {
+            json.append(separator).append(quote(status.getKey().name())).append(": ").append(status.getValue());
+            separator = ", ";
+        }
+        json.append("},\n");
+        json.append("  \"modelCache\": {\"hits\": ").append(modelCache != null ? modelCache.getHitCount() : 0)
+                .append(", \"misses\": ").append(modelCache != null ? modelCache.getMissCount() : 0).append("},\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten).append(",\n");
+        json.append("  \"allocatedBytes\": ").append(snapshot.isEmpty() ? 0 : allocatedBytes).append(",\n");
+
+        json.append("  \"phases\": {");
+        separator = "\n";
+        for (Map.Entry<ConversionPhase, List<Long>> phase : phaseDurations.entrySet()) {
+            json.append(separator).append("    ").append(quote(phase.getKey().getName())).append(": ");
+            appendDurations(json, phase.getValue());
+            separator = ",\n";
+        }
+        json.append(phaseDurations.isEmpty() ? "},\n" : "\n  },\n");
+
+        json.append("  \"models\": ");
+        appendGroups(json, "model", byModel);
+        json.append(",\n");
+        json.append("  \"templates\": ");
+        appendGroups(json, "template", byTemplate);
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+
+    private static void group(Map<String, List<ConversionEvent>> groups, String key, ConversionEvent event) {
+        String groupKey = key != null ? key : "";
+        if (!groups.containsKey(groupKey)) {
+            groups.put(groupKey, new ArrayList<ConversionEvent>());
+        }
+        groups.get(groupKey).add(event);
+    }
+
+    private static void appendGroups(StringBuilder json, String keyName, Map<String, List<ConversionEvent>> groups) {
+        if (groups.isEmpty()) {
+            json.append("[]");
+            return;
+        }
+        json.append("[");
+        String separator = "\n";
+        for (Map.Entry<String, List<ConversionEvent>> group : groups.entrySet()) {
+            List<Long> durations = new ArrayList<>(group.getValue().size());
+            long bytesWritten = 0L;
+            int failures = 0;
+            for (ConversionEvent event : group.getValue()) {
+                durations.add(event.getDuration());
+                bytesWritten += event.getBytesWritten();
+                if (event.getStatus() == ConversionResult.Status.FAILED) {
+                    failures++;
+                }
+            }
+            json.append(separator).append("    {").append(quote(keyName)).append(": ").append(quote(group.getKey()))
+                    .append(", \"conversions\": ").append(group.getValue().size())
+                    .append(", \"failures\": ").append(failures)
+                    .append(", \"bytesWritten\": ").append(bytesWritten)
+                    .append(", \"durationMillis\": ");
+            appendDurations(json, durations);
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ]");
+    }
+
+    /**
+     * Append the total, the percentiles and the maximum of the given durations.
+     * @param json
+     * @param durations in nanoseconds
+     */
+    private static void appendDurations(StringBuilder json, List<Long> durations) {
+        List<Long> sorted = new ArrayList<>(durations);
+        Collections.sort(sorted);
+        long total = 0L;
+        for (long duration : sorted) {
+            total += duration;
+        }
+        json.append("{\"total\": ").append(toMillis(total));
+        for (double percentile : PERCENTILES) {
+            json.append(", \"p").append((int) percentile).append("\": ").append(toMillis(percentile(sorted, percentile)));
+        }
+        json.append(", \"max\": ").append(toMillis(sorted.isEmpty() ? 0L : sorted.get(sorted.size() - 1)))
+                .append("}");
+    }
+
+    /**
+     * Get a percentile of sorted values, with the nearest-rank method.
+     * @param sorted
+     * @param percentile
+     * @return
+     */
+    static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0L;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,281 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * One of the shards between which the conversions of a batch are split, so that several machines or processes each
+ * perform a part of them. Shards are numbered from 1 to their count, e.g. {@code 2/4} for the second of four shards.
+ *
+ * Every shard computes the same assignment on its own, without any coordination : each model/template pair is
+ * identified by a key made of their paths relative to a base folder, and weighted by its recorded cost, or by the size
+ * of its model and template when no cost was recorded. Sizes are converted to costs with the median cost per byte of
+ * the pairs whose cost was recorded, so that both weights are in nanoseconds. The heaviest pairs are assigned first,
+ * each one to the lightest shard so far, ties being broken by a stable hash of the keys. All the shards must thus be
+ * given the same configurations, files and costs.
+ *
+ * Costs are read from a tab-separated file with one line per pair : its key and its cost in nanoseconds, as written by
+ * {@link RunReport#writeCosts(File, File)}. The outputs of the shards are merged with a {@link ShardMerger}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class Shard {
+
+    private static final String COSTS_HEADER = "# lazymodel conversion costs v1";
+
+    private static final String SEPARATOR = "\t";
+
+    private final int index;
+
+    private final int count;
+
+    private File baseFolder = new File("");
+
+    private Map<String, Long> costs = Collections.emptyMap();
+
+    /**
+     * @param index number of this shard, from 1 to {@code count}
+     * @param count number of shards
+     */
+    public Shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count
+                    + " : shards are numbered from 1 to their count.");
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+
+    /**
+     * Parse a shard written as {@code <index>/<count>}, e.g. {@code 2/4}.
+     * @param value
+     * @return
+     * @throws IllegalArgumentException if the value isn't a valid shard
+     */
+    public static Shard parse(String value) {
+        String[] parts = StringUtils.split(StringUtils.trimToEmpty(value), '/');
+        if (parts.length != 2 || !StringUtils.isNumeric(parts[0]) || !StringUtils.isNumeric(parts[1])) {
+            throw new IllegalArgumentException("Invalid shard '" + value + "' : expected <index>/<count>, e.g. 2/4.");
+        }
+        return new Shard(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+
+    /**
+     * Get the configurations assigned to this shard.
+     * @param configs all the configurations of the batch, in the same order for every shard
+     * @return the configurations of this shard, in their original order.
+     */
+    public List<ConversionConfig> select(List<ConversionConfig> configs) {
+        int[] shards = assign(configs);
+        List<ConversionConfig> selected = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            if (shards[i] == index) {
+                selected.add(configs.get(i));
+            }
+        }
+        return selected;
+    }
+
+
+    /**
+     * Assign each configuration to a shard.
+     * @param configs all the configurations of the batch
+     * @return the number of the shard of each configuration, in the order of {@code configs}.
+     */
+    public int[] assign(List<ConversionConfig> configs) {
+        final String[] keys = new String[configs.size()];
+        final String[] hashes = new String[configs.size()];
+        final long[] weights = new long[configs.size()];
+        long[] sizes = new long[configs.size()];
+        List<Double> costsPerByte = new ArrayList<>();
+        List<Integer> order = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            keys[i] = getKey(configs.get(i), baseFolder);
+            hashes[i] = ContentHash.of(keys[i].getBytes(StandardCharsets.UTF_8));
+            sizes[i] = getSize(configs.get(i));
+            Long cost = costs.get(keys[i]);
+            if (cost != null) {
+                costsPerByte.add((double) cost / sizes[i]);
+            }
+            order.add(i);
+        }
+        double costPerByte = getMedian(costsPerByte);
+        for (int i = 0; i < configs.size(); i++) {
+            Long cost = costs.get(keys[i]);
+            weights[i] = Math.max(1L, cost != null ? cost : Math.round(sizes[i] * costPerByte));
+        }
+        // Heaviest first, so that the lightest pairs even out the shards at the end
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int byWeight = Long.compare(weights[second], weights[first]);
+                if (byWeight != 0) {
+                    return byWeight;
+                }
+                int byHash = hashes[first].compareTo(hashes[second]);
+                return byHash != 0 ? byHash : keys[first].compareTo(keys[second]);
+            }
+        });
+
+        int[] shards = new int[configs.size()];
+        long[] loads = new long[count];
+        for (int i : order) {
+            int lightest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (loads[shard] < loads[lightest]) {
+                    lightest = shard;
+                }
+            }
+            loads[lightest] += weights[i];
+            shards[i] = lightest + 1;
+        }
+        return shards;
+    }
+
+
+    /**
+     * Get the key identifying the model/template pair of the given configuration, the same on every machine whatever
+     * the location of the checkout. Files outside the base folder are only identified by their name.
+     * @param config
+     * @param baseFolder folder the paths of the model and template are relative to
+     * @return
+     */
+    public static String getKey(ConversionConfig config, File baseFolder) {
+        return getRelativePath(config.getAlfrescoModelPath(), baseFolder) + "|"
+                + getRelativePath(config.getFtlTemplatePath(), baseFolder);
+    }
+
+
+    /**
+     * Read the costs of the model/template pairs. Lines of several files may simply be concatenated : the highest cost
+     * of a pair is kept.
+     * @param file
+     * @return the cost of each pair, by key.
+     * @throws IOException
+     */
+    public static Map<String, Long> loadCosts(File file) throws IOException {
+        Map<String, Long> costs = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (line.startsWith("#") || fields.length != 2 || !StringUtils.isNumeric(fields[1])
+                    || fields[1].isEmpty()) {
+                continue;
+            }
+            long cost = Long.parseLong(fields[1]);
+            Long known = costs.get(fields[0]);
+            if (known == null || known < cost) {
+                costs.put(fields[0], cost);
+            }
+        }
+        return costs;
+    }
+
+
+    /**
+     * Write the costs of the model/template pairs, sorted by key.
+     * @param file
+     * @param costs the cost of each pair, by key
+     * @throws IOException
+     */
+    static void writeCosts(File file, Map<String, Long> costs) throws IOException {
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null) {
+            Files.createDirectories(folder.toPath());
+        }
+        try (AtomicOutputFile output = new AtomicOutputFile(file)) {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(output.getOutputStream(), StandardCharsets.UTF_8));
+            writer.write(COSTS_HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> cost : new TreeMap<>(costs).entrySet()) {
+                writer.write(cost.getKey() + SEPARATOR + cost.getValue());
+                writer.write('\n');
+            }
+            writer.flush();
+            output.commit();
+        }
+    }
+
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the folder the keys of the model/template pairs are relative to. Default is the current folder.
+     */
+    public File getBaseFolder() {
+        return baseFolder;
+    }
+
+    public void setBaseFolder(File baseFolder) {
+        this.baseFolder = baseFolder;
+    }
+
+    /**
+     * @return the recorded cost of the model/template pairs, by key.
+     */
+    public Map<String, Long> getCosts() {
+        return costs;
+    }
+
+    public void setCosts(Map<String, Long> costs) {
+        this.costs = costs;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+
+    /**
+     * Get the size of a configuration : the size of its model and template.
+     * @param config
+     * @return a positive size, in bytes.
+     */
+    private static long getSize(ConversionConfig config) {
+        return 1L + new File(config.getAlfrescoModelPath()).length() + new File(config.getFtlTemplatePath()).length();
+    }
+
+    /**
+     * @param values
+     * @return the median of the given values, or 1 if there is none, so that sizes are weights of their own.
+     */
+    private static double getMedian(List<Double> values) {
+        if (values.isEmpty()) {
+            return 1.0;
+        }
+        Collections.sort(values);
+        int middle = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+    }
+
+    private static String getRelativePath(String path, File baseFolder) {
+        if (path == null) {
+            return "";
+        }
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            return path.replace(File.separatorChar, '/');
+        }
+        String base = baseFolder.getAbsoluteFile().toPath().normalize().toString();
+        String absolute = file.toPath().normalize().toString();
+        if (absolute.startsWith(base + File.separator)) {
+            return absolute.substring(base.length() + 1).replace(File.separatorChar, '/');
+        }
+        // e.g. the default templates, installed along with the tool wherever each machine put it
+        return file.getName();
+    }
+}
@@ -0,0 +1,177 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Merges the output folders of the {@link Shard shards} of a batch into a single output folder, and validates the
+ * result.
+ *
+ * The files of every shard are copied to the same relative path in the output folder, and the manifests of their
+ * folders are merged into the manifests of the output folder. The merge reports, as problems :
+ * - a file generated by several shards with different contents,
+ * - an output recorded by several shards with different entries,
+ * - a merged manifest entry whose file is missing, or whose content doesn't match its hash.
+ * Files are only replaced when their content changed, so that a merge into an up to date folder doesn't touch it.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ShardMerger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardMerger.class);
+
+    private final File outputFolder;
+
+    /**
+     * @param outputFolder folder the outputs of the shards are merged into
+     */
+    public ShardMerger(File outputFolder) {
+        this.outputFolder = outputFolder;
+    }
+
+
+    /**
+     * Merge the output folders of the given shards into the output folder.
+     * @param shardFolders output folders of the shards
+     * @return the problems found, empty if the merged outputs are consistent.
+     * @throws IOException if a file can't be read or written
+     */
+    public List<String> merge(List<File> shardFolders) throws IOException {
+        List<String> problems = new ArrayList<>();
+        // Shard which provided each merged file, and each merged manifest entry
+        Map<Path, File> fileOrigins = new HashMap<>();
+        Map<Path, File> entryOrigins = new HashMap<>();
+        Map<Path, GenerationManifest> manifests = new TreeMap<>();
+
+        Path target = outputFolder.toPath().toAbsolutePath().normalize();
+        for (File shardFolder : shardFolders) {
+            Path source = shardFolder.toPath().toAbsolutePath().normalize();
+            for (Path file : listFiles(source)) {
+                Path relative = source.relativize(file);
+                if (GenerationManifest.FILE_NAME.equals(file.getFileName().toString())) {
+                    mergeManifest(shardFolder, file, target.resolve(relative).getParent(), manifests, entryOrigins,
+                            problems);
+                    continue;
+                }
+                File origin = fileOrigins.get(relative);
+                if (origin == null) {
+                    copy(file, target.resolve(relative));
+                    fileOrigins.put(relative, shardFolder);
+                } else if (!AtomicOutputFile.hasSameContent(file, target.resolve(relative))) {
+                    problems.add("Shards '" + origin + "' and '" + shardFolder + "' both generated '" + relative
+                            + "' with different contents.");
+                }
+            }
+        }
+
+        for (Map.Entry<Path, GenerationManifest> manifest : manifests.entrySet()) {
+            validate(manifest.getKey(), manifest.getValue(), entryOrigins, problems);
+            manifest.getValue().save();
+        }
+        LOGGER.info("{} file(s) of {} shard(s) merged into '{}' : {} problem(s)", fileOrigins.size(),
+                shardFolders.size(), outputFolder, problems.size());
+        return problems;
+    }
+
+
+    /**
+     * Check that the given files exist, e.g. the outputs of all the configurations of the batch.
+     * @param outputFiles
+     * @return the problems found, empty if all the files exist.
+     */
+    public static List<String> checkOutputs(Collection<File> outputFiles) {
+        List<String> problems = new ArrayList<>();
+        for (File outputFile : outputFiles) {
+            if (!outputFile.exists()) {
+                problems.add("Missing output '" + outputFile + "'.");
+            }
+        }
+        return problems;
+    }
+
+
+    public File getOutputFolder() {
+        return outputFolder;
+    }
+
+
+    /**
+     * Merge the entries of the manifest of a shard into the manifest of the matching output folder.
+     */
+    private void mergeManifest(File shardFolder, Path manifestFile, Path targetFolder,
+                               Map<Path, GenerationManifest> manifests, Map<Path, File> entryOrigins,
+                               List<String> problems) throws IOException {
+        GenerationManifest manifest = manifests.get(targetFolder);
+        if (manifest == null) {
+            manifest = GenerationManifest.load(targetFolder.toFile());
+            manifests.put(targetFolder, manifest);
+        }
+        GenerationManifest shardManifest = GenerationManifest.load(manifestFile.getParent().toFile());
+        for (Map.Entry<String, GenerationManifest.Entry> entry : shardManifest.getEntries().entrySet()) {
+            Path output = targetFolder.resolve(entry.getKey());
+            File origin = entryOrigins.get(output);
+            if (origin == null) {
+                manifest.put(entry.getKey(), entry.getValue());
+                entryOrigins.put(output, shardFolder);
+            } else if (!entry.getValue().equals(manifest.get(entry.getKey()))) {
+                problems.add("Shards '" + origin + "' and '" + shardFolder + "' recorded different entries for '"
+                        + output + "'.");
+            }
+        }
+    }
+
+    /**
+     * Check that the files of the entries merged into the given manifest match their hash.
+     */
+    private void validate(Path folder, GenerationManifest manifest, Map<Path, File> entryOrigins,
+                          List<String> problems) throws IOException {
+        for (Map.Entry<String, GenerationManifest.Entry> entry : manifest.getEntries().entrySet()) {
+            Path output = folder.resolve(entry.getKey());
+            if (!entryOrigins.containsKey(output)) {
+                continue;
+            }
+            if (!Files.isRegularFile(output)) {
+                problems.add("Output '" + output + "' is recorded in its manifest but missing.");
+            } else if (!ContentHash.of(Files.readAllBytes(output)).equals(entry.getValue().getOutputHash())) {
+                problems.add("Output '" + output + "' doesn't match the hash recorded in its manifest.");
+            }
+        }
+    }
+
+    /**
+     * Copy a file, only replacing the target if its content changed.
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (AtomicOutputFile output = new AtomicOutputFile(target.toFile())) {
+            Files.copy(source, output.getOutputStream());
+            output.commit();
+        }
+    }
+
+    /**
+     * List the files of a shard folder, sorted, leaving out the temporary files of interrupted writes.
+     */
+    private static List<Path> listFiles(Path folder) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString();
+                if (attributes.isRegularFile() && !(name.startsWith(".") && name.endsWith(".tmp"))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,488 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import org.alfresco.repo.dictionary.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads models in a single pass over their xml with a StAX stream reader, filling the M2Model through its own
+ * factory methods and setters, as the {@link M2ModelCodec} does : no JiBX binding nor intermediate tree is involved,
+ * which makes parsing faster and much lighter on allocation for large models.
+ *
+ * Only the definitions encoded by the {@link M2ModelCodec} are read. A model holding any other element, e.g. property
+ * overrides, or which isn't well-formed, is read again by a {@link JibxModelReader}, which then gives the same model
+ * or the same error as the default reader. Unlike the JiBX binding, the order of the elements isn't checked.
+ *
+ * This class is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class StaxModelReader implements ModelReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaxModelReader.class);
+
+    /** Namespace of the elements of a model. */
+    public static final String DICTIONARY_URI = "http://www.alfresco.org/model/dictionary/1.0";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final ModelReader fallback = new JibxModelReader();
+
+
+    @Override
+    public M2Model read(ByteBuffer content) {
+        try {
+            return readModel(content);
+        } catch (XMLStreamException | UnsupportedElementException | IllegalArgumentException e) {
+            LOGGER.debug("Model read through JiBX, as the streaming reader could not read it : {}", e.getMessage());
+            return fallback.read(content);
+        }
+    }
+
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        // Models never need a DTD, nor any external entity
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static M2Model readModel(ByteBuffer content) throws XMLStreamException, UnsupportedElementException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(new ByteBufferInputStream(content));
+        try {
+            reader.nextTag();
+            if (!"model".equals(getName(reader))) {
+                throw new UnsupportedElementException(reader);
+            }
+            M2Model model = M2Model.createModel(reader.getAttributeValue(null, "name"));
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (getName(reader)) {
+                    case "description":
+                        model.setDescription(reader.getElementText());
+                        break;
+                    case "author":
+                        model.setAuthor(reader.getElementText());
+                        break;
+                    case "published":
+                        model.setPublishedDate(M2XML.deserialiseDate(reader.getElementText()));
+                        break;
+                    case "version":
+                        model.setVersion(reader.getElementText());
+                        break;
+                    case "imports":
+                        while (nextChild(reader, "import")) {
+                            model.createImport(reader.getAttributeValue(null, "uri"),
+                                    reader.getAttributeValue(null, "prefix"));
+                            skipEmpty(reader);
+                        }
+                        break;
+                    case "namespaces":
+                        while (nextChild(reader, "namespace")) {
+                            model.createNamespace(reader.getAttributeValue(null, "uri"),
+                                    reader.getAttributeValue(null, "prefix"));
+                            skipEmpty(reader);
+                        }
+                        break;
+                    case "data-types":
+                        while (nextChild(reader, "data-type")) {
+                            readDataType(reader, model.createPropertyType(reader.getAttributeValue(null, "name")));
+                        }
+                        break;
+                    case "constraints":
+                        while (nextChild(reader, "constraint")) {
+                            M2Constraint constraint = model.createConstraint(reader.getAttributeValue(null, "name"),
+                                    reader.getAttributeValue(null, "type"));
+                            constraint.setRef(reader.getAttributeValue(null, "ref"));
+                            readConstraint(reader, constraint);
+                        }
+                        break;
+                    case "types":
+                        while (nextChild(reader, "type")) {
+                            readClass(reader, model.createType(reader.getAttributeValue(null, "name")));
+                        }
+                        break;
+                    case "aspects":
+                        while (nextChild(reader, "aspect")) {
+                            readClass(reader, model.createAspect(reader.getAttributeValue(null, "name")));
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedElementException(reader);
+                }
+            }
+            return model;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void readDataType(XMLStreamReader reader, M2DataType dataType)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "title":
+                    dataType.setTitle(reader.getElementText());
+                    break;
+                case "description":
+                    dataType.setDescription(reader.getElementText());
+                    break;
+                case "java-class":
+                    dataType.setJavaClassName(reader.getElementText());
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readConstraint(XMLStreamReader reader, M2Constraint constraint)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "title":
+                    constraint.setTitle(reader.getElementText());
+                    break;
+                case "description":
+                    constraint.setDescription(reader.getElementText());
+                    break;
+                case "parameter":
+                    readParameter(reader, constraint);
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readParameter(XMLStreamReader reader, M2Constraint constraint)
+            throws XMLStreamException, UnsupportedElementException {
+        String name = reader.getAttributeValue(null, "name");
+        if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+            throw new UnsupportedElementException(reader);
+        }
+        switch (getName(reader)) {
+            case "value":
+                constraint.createParameter(name, reader.getElementText());
+                break;
+            case "list":
+                List<String> values = new ArrayList<>();
+                while (nextChild(reader, "value")) {
+                    values.add(reader.getElementText());
+                }
+                constraint.createParameter(name, values);
+                break;
+            default:
+                throw new UnsupportedElementException(reader);
+        }
+        skipEmpty(reader);
+    }
+
+    private static void readClass(XMLStreamReader reader, M2Class m2Class)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "title":
+                    m2Class.setTitle(reader.getElementText());
+                    break;
+                case "description":
+                    m2Class.setDescription(reader.getElementText());
+                    break;
+                case "parent":
+                    m2Class.setParentName(reader.getElementText());
+                    break;
+                case "archive":
+                    m2Class.setArchive(parseBoolean(reader));
+                    break;
+                case "includedInSuperTypeQuery":
+                    m2Class.setIncludedInSuperTypeQuery(parseBoolean(reader));
+                    break;
+                case "properties":
+                    while (nextChild(reader, "property")) {
+                        readProperty(reader, m2Class.createProperty(reader.getAttributeValue(null, "name")));
+                    }
+                    break;
+                case "associations":
+                    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getAttributeValue(null, "name");
+                        switch (getName(reader)) {
+                            case "association":
+                                readAssociation(reader, m2Class.createAssociation(name));
+                                break;
+                            case "child-association":
+                                readAssociation(reader, m2Class.createChildAssociation(name));
+                                break;
+                            default:
+                                throw new UnsupportedElementException(reader);
+                        }
+                    }
+                    break;
+                case "mandatory-aspects":
+                    while (nextChild(reader, "aspect")) {
+                        m2Class.addMandatoryAspect(reader.getElementText());
+                    }
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readProperty(XMLStreamReader reader, M2Property property)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "title":
+                    property.setTitle(reader.getElementText());
+                    break;
+                case "description":
+                    property.setDescription(reader.getElementText());
+                    break;
+                case "type":
+                    property.setType(reader.getElementText());
+                    break;
+                case "protected":
+                    property.setProtected(parseBoolean(reader));
+                    break;
+                case "default":
+                    property.setDefaultValue(reader.getElementText());
+                    break;
+                case "mandatory":
+                    String enforced = reader.getAttributeValue(null, "enforced");
+                    if (enforced != null) {
+                        property.setMandatoryEnforced(parseBoolean(reader, enforced));
+                    }
+                    property.setMandatory(parseBoolean(reader));
+                    break;
+                case "multiple":
+                    property.setMultiValued(parseBoolean(reader));
+                    break;
+                case "index":
+                    readIndex(reader, property);
+                    break;
+                case "constraints":
+                    while (nextChild(reader, "constraint")) {
+                        // Inline constraints are created as references, then completed
+                        M2Constraint constraint = property.addConstraintRef(null);
+                        constraint.setName(reader.getAttributeValue(null, "name"));
+                        constraint.setType(reader.getAttributeValue(null, "type"));
+                        constraint.setRef(reader.getAttributeValue(null, "ref"));
+                        readConstraint(reader, constraint);
+                    }
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readIndex(XMLStreamReader reader, M2Property property)
+            throws XMLStreamException, UnsupportedElementException {
+        String enabled = reader.getAttributeValue(null, "enabled");
+        if (enabled != null) {
+            property.setIndexed(parseBoolean(reader, enabled));
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "atomic":
+                    property.setIndexedAtomically(parseBoolean(reader));
+                    break;
+                case "stored":
+                    property.setStoredInIndex(parseBoolean(reader));
+                    break;
+                case "tokenised":
+                    property.setIndexTokenisationMode(IndexTokenisationMode.valueOf(
+                            reader.getElementText().trim().toUpperCase(Locale.ROOT)));
+                    break;
+                case "facetable":
+                    property.setFacetable(Facetable.valueOf(reader.getElementText().trim().toUpperCase(Locale.ROOT)));
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readAssociation(XMLStreamReader reader, M2ClassAssociation association)
+            throws XMLStreamException, UnsupportedElementException {
+        boolean child = association instanceof M2ChildAssociation;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = getName(reader);
+            switch (name) {
+                case "title":
+                    association.setTitle(reader.getElementText());
+                    break;
+                case "description":
+                    association.setDescription(reader.getElementText());
+                    break;
+                case "protected":
+                    association.setProtected(parseBoolean(reader));
+                    break;
+                case "source":
+                    readSource(reader, association);
+                    break;
+                case "target":
+                    readTarget(reader, association);
+                    break;
+                default:
+                    if (!child) {
+                        throw new UnsupportedElementException(reader);
+                    }
+                    readChildAssociation(reader, (M2ChildAssociation) association, name);
+            }
+        }
+    }
+
+    private static void readChildAssociation(XMLStreamReader reader, M2ChildAssociation association, String name)
+            throws XMLStreamException, UnsupportedElementException {
+        switch (name) {
+            case "child-name":
+                association.setRequiredChildName(reader.getElementText());
+                break;
+            case "duplicate":
+                association.setAllowDuplicateChildName(parseBoolean(reader));
+                break;
+            case "propagateTimestamps":
+                association.setPropagateTimestamps(parseBoolean(reader));
+                break;
+            default:
+                throw new UnsupportedElementException(reader);
+        }
+    }
+
+    private static void readSource(XMLStreamReader reader, M2ClassAssociation association)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "role":
+                    association.setSourceRoleName(reader.getElementText());
+                    break;
+                case "mandatory":
+                    association.setSourceMandatory(parseBoolean(reader));
+                    break;
+                case "many":
+                    association.setSourceMany(parseBoolean(reader));
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+    private static void readTarget(XMLStreamReader reader, M2ClassAssociation association)
+            throws XMLStreamException, UnsupportedElementException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (getName(reader)) {
+                case "class":
+                    association.setTargetClassName(reader.getElementText());
+                    break;
+                case "role":
+                    association.setTargetRoleName(reader.getElementText());
+                    break;
+                case "mandatory":
+                    String enforced = reader.getAttributeValue(null, "enforced");
+                    if (enforced != null) {
+                        association.setTargetMandatoryEnforced(parseBoolean(reader, enforced));
+                    }
+                    association.setTargetMandatory(parseBoolean(reader));
+                    break;
+                case "many":
+                    association.setTargetMany(parseBoolean(reader));
+                    break;
+                default:
+                    throw new UnsupportedElementException(reader);
+            }
+        }
+    }
+
+
+    /**
+     * Get the local name of the current element, which must belong to the dictionary namespace.
+     * @param reader
+     * @return
+     * @throws UnsupportedElementException if the element belongs to another namespace
+     */
+    private static String getName(XMLStreamReader reader) throws UnsupportedElementException {
+        if (!DICTIONARY_URI.equals(reader.getNamespaceURI())) {
+            throw new UnsupportedElementException(reader);
+        }
+        return reader.getLocalName();
+    }
+
+    /**
+     * Move to the next child element of the current list element.
+     * @param reader
+     * @param name expected name of the child
+     * @return false if the list has no more child.
+     * @throws UnsupportedElementException if the child has another name
+     */
+    private static boolean nextChild(XMLStreamReader reader, String name)
+            throws XMLStreamException, UnsupportedElementException {
+        if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+            return false;
+        }
+        if (!name.equals(getName(reader))) {
+            throw new UnsupportedElementException(reader);
+        }
+        return true;
+    }
+
+    /**
+     * Move to the end of the current element, which must have no other child.
+     * @param reader
+     */
+    private static void skipEmpty(XMLStreamReader reader) throws XMLStreamException, UnsupportedElementException {
+        if (reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+            throw new UnsupportedElementException(reader);
+        }
+    }
+
+    private static boolean parseBoolean(XMLStreamReader reader)
+            throws XMLStreamException, UnsupportedElementException {
+        return parseBoolean(reader, reader.getElementText());
+    }
+
+    /**
+     * Parse a boolean the way JiBX does : {@code true} or {@code 1}, {@code false} or {@code 0}.
+     * @param reader
+     * @param value
+     * @return
+     * @throws UnsupportedElementException if the value is none of them
+     */
+    private static boolean parseBoolean(XMLStreamReader reader, String value) throws UnsupportedElementException {
+        switch (value.trim()) {
+            case "true":
+            case "1":
+                return true;
+            case "false":
+            case "0":
+                return false;
+            default:
+                throw new UnsupportedElementException(reader);
+        }
+    }
+
+
+    /**
+     * Thrown when the model holds an element the streaming reader doesn't read.
+     */
+    private static class UnsupportedElementException extends Exception {
+
+        private UnsupportedElementException(XMLStreamReader reader) {
+            super("Unsupported element '" + (reader.hasName() ? reader.getName() : reader.getEventType()) + "' at "
+                    + reader.getLocation().getLineNumber() + ":" + reader.getLocation().getColumnNumber());
+        }
+    }
+}
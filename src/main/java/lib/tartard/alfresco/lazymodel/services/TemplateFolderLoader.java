@@ -0,0 +1,128 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import freemarker.cache.TemplateLoader;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Freemarker template loader reading templates from any number of folders.
+ *
+ * Templates of the default folder are designated by their path relative to this folder. Every other folder is
+ * registered once and given a unique name prefix, so that templates from all folders can live in the same Freemarker
+ * template cache without ever replacing the loader.
+ *
+ * This loader is thread safe.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class TemplateFolderLoader implements TemplateLoader {
+
+    private static final String FOLDER_PREFIX = "lazymodel-folder-";
+
+    private volatile File defaultFolder;
+
+    private final ConcurrentMap<String, String> prefixesByFolder = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, File> foldersByPrefix = new ConcurrentHashMap<>();
+
+    private final AtomicInteger folderCount = new AtomicInteger();
+
+
+    /**
+     * Set the folder of the templates designated by a name without any folder.
+     * @param defaultFolder
+     * @throws IOException if the folder doesn't exist.
+     */
+    public void setDefaultFolder(File defaultFolder) throws IOException {
+        this.defaultFolder = checkFolder(defaultFolder);
+    }
+
+
+    /**
+     * @return the folder of the templates designated by a name without any folder, or null if it wasn't set.
+     */
+    public File getDefaultFolder() {
+        return defaultFolder;
+    }
+
+
+    /**
+     * Get the name under which the given template file can be loaded with this loader.
+     * The folder of the template file is registered if it wasn't already.
+     * @param templateFile template file, either a simple name from the default folder or a path.
+     * @return the template name to give to Freemarker.
+     * @throws IOException if the folder of the template doesn't exist.
+     */
+    public String getTemplateName(File templateFile) throws IOException {
+        File parent = templateFile.getParentFile();
+        if (parent == null) {
+            return templateFile.getName();
+        }
+        String folderPath = parent.getCanonicalPath();
+        String prefix = prefixesByFolder.get(folderPath);
+        if (prefix == null) {
+            final File folder = checkFolder(new File(folderPath));
+            // The folder is registered before its prefix is published, so that any thread getting the prefix can
+            // load its templates
+            prefix = prefixesByFolder.computeIfAbsent(folderPath, path -> {
+                String newPrefix = FOLDER_PREFIX + folderCount.incrementAndGet();
+                foldersByPrefix.put(newPrefix, folder);
+                return newPrefix;
+            });
+        }
+        return prefix + "/" + templateFile.getName();
+    }
+
+
+    /**
+     * Get the file of the template with the given name.
+     * @param name template name, as returned by {@link #getTemplateName(File)}.
+     * @return the template file, or null if the name designates no existing file.
+     */
+    public File getTemplateFile(String name) {
+        File file;
+        int separator = name.indexOf('/');
+        File folder = separator > 0 ? foldersByPrefix.get(name.substring(0, separator)) : null;
+        if (folder != null) {
+            file = new File(folder, name.substring(separator + 1));
+        } else if (defaultFolder != null) {
+            file = new File(defaultFolder, name);
+        } else {
+            return null;
+        }
+        return file.isFile() ? file : null;
+    }
+
+
+    @Override
+    public Object findTemplateSource(String name) {
+        return getTemplateFile(name);
+    }
+
+    @Override
+    public long getLastModified(Object templateSource) {
+        return ((File) templateSource).lastModified();
+    }
+
+    @Override
+    public Reader getReader(Object templateSource, String encoding) throws IOException {
+        return new InputStreamReader(new FileInputStream((File) templateSource), encoding);
+    }
+
+    @Override
+    public void closeTemplateSource(Object templateSource) {
+        // Nothing to close, readers are closed by Freemarker.
+    }
+
+
+    private File checkFolder(File folder) throws IOException {
+        if (!folder.isDirectory()) {
+            throw new FileNotFoundException("Templates folder '" + folder + "' does not exist.");
+        }
+        return folder.getCanonicalFile();
+    }
+}
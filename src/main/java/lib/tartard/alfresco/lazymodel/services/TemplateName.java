@@ -0,0 +1,61 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.File;
+
+/**
+ * Parts of the name of a template : {output file extension}.{output file encoding}[.{scope}].ftl, e.g.
+ * {@code properties.ISO-8859-1.ftl} or {@code java.UTF-8.type.ftl}.
+ *
+ * The encoding defaults to {@value #DEFAULT_ENCODING} when the name has fewer parts, and the scope to
+ * {@link TemplateScope#MODEL} when the name has none or an unknown one.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class TemplateName {
+
+    /** Encoding of the output files of templates whose name gives none. */
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
+    private final String extension;
+
+    private final String encoding;
+
+    private final TemplateScope scope;
+
+    private TemplateName(String extension, String encoding, TemplateScope scope) {
+        this.extension = extension;
+        this.encoding = encoding;
+        this.scope = scope;
+    }
+
+
+    /**
+     * Parse the name of the given template.
+     * @param templatePath path or name of the template file
+     * @return
+     */
+    public static TemplateName parse(String templatePath) {
+        String[] ftlParts = new File(templatePath).getName().split("\\.");
+        String encoding = ftlParts.length >= 3 ? ftlParts[1] : DEFAULT_ENCODING;
+        String extension = ftlParts.length >= 2 ? ftlParts[0] : null;
+        TemplateScope scope = ftlParts.length >= 4 ? TemplateScope.fromName(ftlParts[2]) : null;
+        return new TemplateName(extension, encoding, scope != null ? scope : TemplateScope.MODEL);
+    }
+
+
+    /**
+     * @return the extension of the output files, or null if the name has none.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public TemplateScope getScope() {
+        return scope;
+    }
+}
@@ -0,0 +1,124 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import lib.tartard.alfresco.lazymodel.services.view.NamedView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a template is rendered for : the whole model, giving one output file per model, or each element of a kind,
+ * giving one output file per element, e.g. one Java class per type.
+ *
+ * The scope of a template is given by its name, e.g. {@code java.UTF-8.type.ftl} (see {@link TemplateName}). A
+ * template rendered for each element gets the view of the element as {@code ${element}}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public enum TemplateScope {
+
+    /** The template is rendered once for the whole model. */
+    MODEL,
+
+    /** The template is rendered once per type of the model. */
+    TYPE,
+
+    /** The template is rendered once per aspect of the model. */
+    ASPECT,
+
+    /** The template is rendered once per type and aspect of the model. */
+    CLASS,
+
+    /** The template is rendered once per constraint of the model. */
+    CONSTRAINT;
+
+
+    /**
+     * Get the scope with the given name, as written in template names.
+     * @param name e.g. {@code type}
+     * @return the scope, or null if no scope has this name.
+     */
+    public static TemplateScope fromName(String name) {
+        for (TemplateScope scope : values()) {
+            if (scope.getName().equals(name)) {
+                return scope;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return the name of the scope as written in template names, e.g. {@code type}.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.US);
+    }
+
+
+    /**
+     * @return true if the template is rendered once per element rather than once per model.
+     */
+    public boolean isFanOut() {
+        return this != MODEL;
+    }
+
+
+    /**
+     * Get the names of the elements the template is rendered for.
+     * @param view view of the model
+     * @return the names of the elements, empty for {@link #MODEL}.
+     */
+    public List<String> getElementNames(ModelView view) {
+        switch (this) {
+            case TYPE:
+                return getNames(view.getTypes());
+            case ASPECT:
+                return getNames(view.getAspects());
+            case CLASS:
+                return getNames(view.getClasses());
+            case CONSTRAINT:
+                return getNames(view.getConstraints());
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * Get the view of an element the template is rendered for.
+     * @param view view of the model
+     * @param name name of the element
+     * @return the view of the element, or null if the model has no such element in this scope.
+     */
+    public NamedView getElement(ModelView view, String name) {
+        switch (this) {
+            case TYPE:
+            case ASPECT:
+            case CLASS:
+                ClassView classView = view.getClassByName(name);
+                if (classView == null || (this == TYPE && classView.isAspect())
+                        || (this == ASPECT && !classView.isAspect())) {
+                    return null;
+                }
+                return classView;
+            case CONSTRAINT:
+                return view.getConstraint(name);
+            default:
+                return null;
+        }
+    }
+
+
+    private static List<String> getNames(Collection<? extends NamedView> views) {
+        List<String> names = new ArrayList<>(views.size());
+        for (NamedView namedView : views) {
+            names.add(namedView.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,80 @@
+package lib.tartard.alfresco.lazymodel.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Version of this tool. It is kept apart from the {@link ModelConverter} so that reading it, e.g. to find the daemon
+ * of the right version, doesn't load Freemarker nor the Alfresco data model.
+ *
+ * The build also records, in {@value #BUILD_PROPERTIES}, the versions of the libraries the tool is built with, which
+ * the manifests of the shaded jar don't tell apart.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public final class ToolVersion {
+
+    /** Version of the tool when it doesn't run from a packaged jar. */
+    public static final String DEVELOPMENT_VERSION = "dev";
+
+    /** Resource holding the properties written by the build. */
+    public static final String BUILD_PROPERTIES = "/lazymodel-build.properties";
+
+    private static final String PLACEHOLDER_START = "${";
+
+    private static Properties buildProperties;
+
+    private ToolVersion() {
+    }
+
+
+    /**
+     * Get the version of this tool, as written in the manifest of its jar.
+     * @return the version, or {@value #DEVELOPMENT_VERSION} when not running from a jar.
+     */
+    public static String get() {
+        Package pkg = ToolVersion.class.getPackage();
+        String version = pkg != null ? pkg.getImplementationVersion() : null;
+        return version != null ? version : DEVELOPMENT_VERSION;
+    }
+
+
+    /**
+     * Get the identity of the build of this tool : its version along with the time it was built, so that two builds of
+     * a snapshot version never share the files generated by each other.
+     * @return the version and build time, or the version alone when the build time wasn't written.
+     */
+    public static String getBuildId() {
+        String timestamp = getBuildProperty("build.timestamp");
+        return timestamp != null ? get() + "+" + timestamp : get();
+    }
+
+
+    /**
+     * Get a property written by the build, e.g. {@code alfresco.version}.
+     * @param name
+     * @return the value of the property, or null if it wasn't written, e.g. when running from sources which weren't
+     * built by Maven.
+     */
+    public static String getBuildProperty(String name) {
+        String value = getBuildProperties().getProperty(name);
+        return value != null && !value.startsWith(PLACEHOLDER_START) ? value : null;
+    }
+
+
+    private static synchronized Properties getBuildProperties() {
+        if (buildProperties == null) {
+            buildProperties = new Properties();
+            try (InputStream in = ToolVersion.class.getResourceAsStream(BUILD_PROPERTIES)) {
+                if (in != null) {
+                    buildProperties.load(in);
+                }
+            } catch (IOException e) {
+                // Same as no build properties
+            }
+        }
+        return buildProperties;
+    }
+}
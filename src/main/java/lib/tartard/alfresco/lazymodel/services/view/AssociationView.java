@@ -0,0 +1,56 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import org.alfresco.repo.dictionary.M2ChildAssociation;
+import org.alfresco.repo.dictionary.M2ClassAssociation;
+
+import java.util.Map;
+
+/**
+ * View of an association of an Alfresco class.
+ *
+ * Template attributes, besides the ones of {@link NamedView} : {@code child} (true for child associations),
+ * {@code targetClassName}, {@code sourceMandatory}, {@code sourceMany}, {@code targetMandatory}, {@code targetMany},
+ * {@code protected} and {@code className} (name of the class defining the association).
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class AssociationView extends NamedView {
+
+    private final boolean child;
+
+    private final String targetClassName;
+
+    private final String className;
+
+    public AssociationView(M2ClassAssociation association, String className, Map<String, String> namespaces) {
+        super(association.getName(), namespaces.get(Names.getPrefix(association.getName())), association.getTitle(),
+                association.getDescription());
+        this.child = association instanceof M2ChildAssociation;
+        this.targetClassName = association.getTargetClassName();
+        this.className = className;
+        put("child", child);
+        put("targetClassName", targetClassName);
+        put("className", className);
+        put("sourceMandatory", association.isSourceMandatory());
+        put("sourceMany", association.isSourceMany());
+        put("targetMandatory", association.isTargetMandatory());
+        put("targetMany", association.isTargetMany());
+        put("protected", association.isProtected());
+    }
+
+    public boolean isChild() {
+        return child;
+    }
+
+    public String getTargetClassName() {
+        return targetClassName;
+    }
+
+    /**
+     * @return the name of the class defining this association.
+     */
+    public String getClassName() {
+        return className;
+    }
+}
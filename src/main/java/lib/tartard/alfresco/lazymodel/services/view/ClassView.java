@@ -0,0 +1,103 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import org.alfresco.repo.dictionary.M2Aspect;
+import org.alfresco.repo.dictionary.M2Class;
+import org.alfresco.repo.dictionary.M2ClassAssociation;
+import org.alfresco.repo.dictionary.M2Property;
+
+import java.util.*;
+
+/**
+ * View of a type or an aspect of an Alfresco model.
+ *
+ * Template attributes, besides the ones of {@link NamedView} : {@code kind} ("type" or "aspect"), {@code aspect},
+ * {@code parentName}, {@code mandatoryAspects} (names), {@code properties}, {@code associations} and
+ * {@code childAssociations} (views).
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ClassView extends NamedView {
+
+    /** Kind of the type views. */
+    public static final String TYPE_KIND = "type";
+
+    /** Kind of the aspect views. */
+    public static final String ASPECT_KIND = "aspect";
+
+    private final boolean aspect;
+
+    private final String parentName;
+
+    private final List<String> mandatoryAspects;
+
+    private final List<PropertyView> properties;
+
+    private final List<AssociationView> associations;
+
+    public ClassView(M2Class m2Class, Map<String, String> namespaces) {
+        super(m2Class.getName(), namespaces.get(Names.getPrefix(m2Class.getName())), m2Class.getTitle(),
+                m2Class.getDescription());
+        this.aspect = m2Class instanceof M2Aspect;
+        this.parentName = m2Class.getParentName();
+        this.mandatoryAspects = Collections.unmodifiableList(new ArrayList<>(nonNull(m2Class.getMandatoryAspects())));
+
+        List<PropertyView> propertyViews = new ArrayList<>();
+        for (M2Property property : nonNull(m2Class.getProperties())) {
+            propertyViews.add(new PropertyView(property, getName(), namespaces));
+        }
+        this.properties = Collections.unmodifiableList(propertyViews);
+
+        List<AssociationView> associationViews = new ArrayList<>();
+        List<AssociationView> childAssociationViews = new ArrayList<>();
+        for (M2ClassAssociation association : nonNull(m2Class.getAssociations())) {
+            AssociationView view = new AssociationView(association, getName(), namespaces);
+            associationViews.add(view);
+            if (view.isChild()) {
+                childAssociationViews.add(view);
+            }
+        }
+        this.associations = Collections.unmodifiableList(associationViews);
+
+        put("kind", aspect ? ASPECT_KIND : TYPE_KIND);
+        put("aspect", aspect);
+        put("parentName", parentName);
+        put("mandatoryAspects", toScalars(mandatoryAspects));
+        put("properties", properties);
+        put("associations", associations);
+        put("childAssociations", childAssociationViews);
+    }
+
+    public boolean isAspect() {
+        return aspect;
+    }
+
+    /**
+     * @return the name of the parent class, or null if this class has none.
+     */
+    public String getParentName() {
+        return parentName;
+    }
+
+    public List<String> getMandatoryAspects() {
+        return mandatoryAspects;
+    }
+
+    /**
+     * @return the properties defined by this class, not the inherited ones.
+     */
+    public List<PropertyView> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the associations defined by this class, not the inherited ones.
+     */
+    public List<AssociationView> getAssociations() {
+        return associations;
+    }
+
+    static <T> List<T> nonNull(List<T> list) {
+        return list != null ? list : Collections.<T>emptyList();
+    }
+}
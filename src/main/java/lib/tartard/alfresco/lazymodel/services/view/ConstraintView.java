@@ -0,0 +1,69 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateModel;
+import org.alfresco.repo.dictionary.M2Constraint;
+import org.alfresco.repo.dictionary.M2NamedValue;
+
+import java.util.*;
+
+/**
+ * View of a constraint of an Alfresco model.
+ *
+ * Template attributes, besides the ones of {@link NamedView} : {@code type} (e.g. LIST), {@code ref},
+ * {@code parameters} (hash of the parameters, whose values are strings or lists of strings) and
+ * {@code allowedValues} (values of a LIST constraint, empty for other constraints).
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ConstraintView extends NamedView {
+
+    /** Type of the list constraints. */
+    public static final String LIST_TYPE = "LIST";
+
+    private static final String ALLOWED_VALUES_PARAMETER = "allowedValues";
+
+    private final String type;
+
+    private final List<String> allowedValues;
+
+    public ConstraintView(M2Constraint constraint, Map<String, String> namespaces) {
+        super(constraint.getName(), namespaces.get(Names.getPrefix(constraint.getName())), constraint.getTitle(),
+                constraint.getDescription());
+        this.type = constraint.getType();
+
+        List<String> values = Collections.emptyList();
+        Map<String, TemplateModel> parameters = new LinkedHashMap<>();
+        if (constraint.getParameters() != null) {
+            for (M2NamedValue parameter : constraint.getParameters()) {
+                if (parameter.hasListValue()) {
+                    parameters.put(parameter.getName(), new ViewSequence(toScalars(parameter.getListValue())));
+                    if (ALLOWED_VALUES_PARAMETER.equals(parameter.getName())) {
+                        values = parameter.getListValue();
+                    }
+                } else if (parameter.getSimpleValue() != null) {
+                    parameters.put(parameter.getName(), new SimpleScalar(parameter.getSimpleValue()));
+                }
+            }
+        }
+        this.allowedValues = Collections.unmodifiableList(new ArrayList<>(values));
+
+        put("type", type);
+        put("ref", constraint.getRef());
+        put("parameters", new ViewHash(parameters));
+        put("allowedValues", toScalars(allowedValues));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isList() {
+        return LIST_TYPE.equals(type);
+    }
+
+    public List<String> getAllowedValues() {
+        return allowedValues;
+    }
+}
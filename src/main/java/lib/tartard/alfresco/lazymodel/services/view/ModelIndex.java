@@ -0,0 +1,515 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary index built over a set of Alfresco models, given to the templates as {@code ${index}}.
+ *
+ * Unlike a {@link ModelView}, which only knows the definitions of its own model, the index resolves the imports and
+ * the parent chains of the classes across all its models, e.g. a custom type inheriting the properties of
+ * {@code cm:content} defined in contentModel.xml. Names are resolved once, when the index is built, to names
+ * qualified by their namespace uri : a class is found whatever the prefix its model imports it with, and every
+ * qualified name is stored once however many models reference it. The effective properties and mandatory aspects of
+ * every class are computed when the index is built too, each class being visited once.
+ *
+ * An index can be built on top of parent indexes, e.g. the index of the model being converted on top of the indexes of
+ * the models it imports and of the dictionary models : lookups fall back to the parent indexes, in order, which are
+ * built once and shared. The result of each fallback, found or not, is kept by the index, so that a name is looked up
+ * in the parents once, even when several parents share the same ancestors, e.g. the dictionary.
+ *
+ * Names can be given either prefixed (e.g. {@code cm:content}) or qualified (e.g.
+ * {@code {http://www.alfresco.org/model/content/1.0}content}). Template attributes :
+ * - {@code models} : list of the {@link ModelView} of the models of this index, not the ones of its parents
+ * - {@code namespaces} : namespaces by prefix or uri
+ * - {@code classes}, {@code properties} and {@code constraints} : elements by name
+ * - {@code ancestors} : parent classes of a class by name, its parent first
+ * - {@code effectiveProperties} : defined and inherited properties of a class by name, the inherited ones first
+ * - {@code mandatoryAspects} : defined and inherited mandatory aspects of a class by name
+ * - {@code unresolvedNames} : parents and mandatory aspects which are defined in none of the models
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelIndex extends TemplateView {
+
+    private final List<ModelIndex> parents;
+
+    private final List<ModelView> models;
+
+    private final Map<String, NamespaceView> namespacesByPrefix = new HashMap<>();
+
+    private final Map<String, NamespaceView> namespacesByUri = new HashMap<>();
+
+    private final Map<String, ClassEntry> classes = new HashMap<>();
+
+    private final Map<String, PropertyView> properties = new HashMap<>();
+
+    private final Map<String, ConstraintView> constraints = new HashMap<>();
+
+    private final Set<String> unresolvedNames = new TreeSet<>();
+
+    private final Map<String, String> qNames = new HashMap<>();
+
+    private final ParentLookup<NamespaceView> parentNamespaces = new ParentLookup<NamespaceView>() {
+        @Override
+        protected NamespaceView find(ModelIndex parent, String prefixOrUri) {
+            return parent.getNamespace(prefixOrUri);
+        }
+    };
+
+    private final ParentLookup<ClassEntry> parentClasses = new ParentLookup<ClassEntry>() {
+        @Override
+        protected ClassEntry find(ModelIndex parent, String qName) {
+            return parent.getClassEntry(qName);
+        }
+    };
+
+    private final ParentLookup<PropertyView> parentProperties = new ParentLookup<PropertyView>() {
+        @Override
+        protected PropertyView find(ModelIndex parent, String qName) {
+            return parent.getProperty(qName);
+        }
+    };
+
+    private final ParentLookup<ConstraintView> parentConstraints = new ParentLookup<ConstraintView>() {
+        @Override
+        protected ConstraintView find(ModelIndex parent, String qName) {
+            return parent.getConstraint(qName);
+        }
+    };
+
+    /**
+     * Build the index of the given models.
+     * @param models
+     * @throws IllegalArgumentException if a class inherits from itself, or is one of its own mandatory aspects.
+     */
+    public ModelIndex(List<ModelView> models) {
+        this(models, Collections.<ModelIndex>emptyList());
+    }
+
+    /**
+     * Build the index of the given models, on top of the given parent index.
+     * @param models
+     * @param parent parent index, or null
+     * @throws IllegalArgumentException if a class inherits from itself, or is one of its own mandatory aspects.
+     */
+    public ModelIndex(List<ModelView> models, ModelIndex parent) {
+        this(models, parent != null ? Collections.singletonList(parent) : Collections.<ModelIndex>emptyList());
+    }
+
+    /**
+     * Build the index of the given models, on top of the given parent indexes. Definitions of the given models hide
+     * the ones of the parent indexes with the same name, and definitions of a parent index hide the ones of the
+     * following parent indexes.
+     * @param models
+     * @param parents parent indexes
+     * @throws IllegalArgumentException if a class inherits from itself, or is one of its own mandatory aspects.
+     */
+    public ModelIndex(List<ModelView> models, List<ModelIndex> parents) {
+        this.parents = Collections.unmodifiableList(new ArrayList<>(parents));
+        this.models = Collections.unmodifiableList(new ArrayList<>(models));
+
+        for (ModelView model : models) {
+            for (NamespaceView namespace : model.getNamespaces()) {
+                putIfAbsent(namespacesByPrefix, namespace.getPrefix(), namespace);
+                putIfAbsent(namespacesByUri, namespace.getUri(), namespace);
+            }
+        }
+        for (ModelView model : models) {
+            for (ClassView view : model.getClasses()) {
+                List<String> aspectNames = new ArrayList<>(view.getMandatoryAspects().size());
+                for (String aspectName : view.getMandatoryAspects()) {
+                    aspectNames.add(resolve(aspectName, model));
+                }
+                putIfAbsent(classes, intern(view.getQName()),
+                        new ClassEntry(view, resolve(view.getParentName(), model), aspectNames));
+                for (PropertyView property : view.getProperties()) {
+                    putIfAbsent(properties, intern(property.getQName()), property);
+                }
+            }
+            for (ConstraintView constraint : model.getConstraints()) {
+                putIfAbsent(constraints, intern(constraint.getQName()), constraint);
+            }
+        }
+        for (ClassEntry entry : classes.values()) {
+            resolveInheritance(entry, new LinkedHashMap<String, Boolean>(), false);
+        }
+
+        put("models", this.models);
+        put("namespaces", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return getNamespace(name);
+            }
+        });
+        put("classes", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return getClassByName(name);
+            }
+        });
+        put("properties", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return getProperty(name);
+            }
+        });
+        put("constraints", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return getConstraint(name);
+            }
+        });
+        put("ancestors", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return toSequence(getAncestors(name));
+            }
+        });
+        put("effectiveProperties", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return toSequence(getEffectiveProperties(name));
+            }
+        });
+        put("mandatoryAspects", new Lookup() {
+            @Override
+            protected TemplateModel lookup(String name) {
+                return toSequence(getEffectiveMandatoryAspects(name));
+            }
+        });
+        put("unresolvedNames", toScalars(getUnresolvedNames()));
+    }
+
+
+    /**
+     * @return the parent indexes of this index.
+     */
+    public List<ModelIndex> getParents() {
+        return parents;
+    }
+
+    /**
+     * @return the models of this index, not the ones of its parents.
+     */
+    public List<ModelView> getModels() {
+        return models;
+    }
+
+    /**
+     * Get a namespace defined by a model of this index or of its parents.
+     * @param prefixOrUri prefix or uri of the namespace
+     * @return the namespace, or null if no model defines it.
+     */
+    public NamespaceView getNamespace(String prefixOrUri) {
+        NamespaceView namespace = namespacesByPrefix.get(prefixOrUri);
+        if (namespace == null) {
+            namespace = namespacesByUri.get(prefixOrUri);
+        }
+        return namespace != null ? namespace : parentNamespaces.get(prefixOrUri);
+    }
+
+    /**
+     * Get a type or an aspect defined by a model of this index or of its parents.
+     * @param name prefixed or qualified name of the class
+     * @return the class, or null if no model defines it.
+     */
+    public ClassView getClassByName(String name) {
+        ClassEntry entry = getClassEntry(toQName(name));
+        return entry != null ? entry.view : null;
+    }
+
+    /**
+     * Get a property defined by a model of this index or of its parents.
+     * @param name prefixed or qualified name of the property
+     * @return the property, or null if no model defines it.
+     */
+    public PropertyView getProperty(String name) {
+        String qName = toQName(name);
+        PropertyView property = properties.get(qName);
+        return property != null ? property : parentProperties.get(qName);
+    }
+
+    /**
+     * Get a constraint defined by a model of this index or of its parents.
+     * @param name prefixed or qualified name of the constraint
+     * @return the constraint, or null if no model defines it.
+     */
+    public ConstraintView getConstraint(String name) {
+        String qName = toQName(name);
+        ConstraintView constraint = constraints.get(qName);
+        return constraint != null ? constraint : parentConstraints.get(qName);
+    }
+
+    /**
+     * Get the parent classes of a class, up to the first one which has no parent or whose parent is defined in no
+     * model.
+     * @param name prefixed or qualified name of the class
+     * @return the parent classes, its parent first, or null if no model defines the class.
+     */
+    public List<ClassView> getAncestors(String name) {
+        ClassEntry entry = getClassEntry(toQName(name));
+        if (entry == null) {
+            return null;
+        }
+        List<ClassView> ancestors = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        while (entry.parentName != null && visited.add(entry.parentName)
+                && (entry = getClassEntry(entry.parentName)) != null) {
+            ancestors.add(entry.view);
+        }
+        return ancestors;
+    }
+
+    /**
+     * Get the properties defined by a class, by its ancestors, and by their mandatory aspects.
+     * @param name prefixed or qualified name of the class
+     * @return the properties, the inherited ones first, or null if no model defines the class.
+     */
+    public List<PropertyView> getEffectiveProperties(String name) {
+        ClassEntry entry = getClassEntry(toQName(name));
+        return entry != null ? entry.effectiveProperties : null;
+    }
+
+    /**
+     * Get the mandatory aspects of a class and of its ancestors, along with the mandatory aspects of these aspects.
+     * Aspects defined in no model are left out.
+     * @param name prefixed or qualified name of the class
+     * @return the aspects, or null if no model defines the class.
+     */
+    public List<ClassView> getEffectiveMandatoryAspects(String name) {
+        ClassEntry entry = getClassEntry(toQName(name));
+        return entry != null ? entry.effectiveAspects : null;
+    }
+
+    /**
+     * @return the qualified names of the parents and mandatory aspects which are defined in none of the models of
+     * this index or of its parents.
+     */
+    public Set<String> getUnresolvedNames() {
+        return Collections.unmodifiableSet(unresolvedNames);
+    }
+
+
+    /**
+     * Get the qualified name of the given name, resolving its prefix with the namespaces of the index.
+     * @param name prefixed or qualified name
+     * @return the qualified name, or the given name if its prefix isn't defined.
+     */
+    private String toQName(String name) {
+        if (Names.isQName(name)) {
+            return name;
+        }
+        NamespaceView namespace = getNamespace(Names.getPrefix(name));
+        return Names.getQName(namespace != null ? namespace.getUri() : null, name);
+    }
+
+    /**
+     * Get the interned qualified name of a name referenced by the given model, resolving its prefix with the
+     * namespaces defined or imported by the model first.
+     * @param name prefixed name, or null
+     * @param model
+     * @return
+     */
+    private String resolve(String name, ModelView model) {
+        if (name == null) {
+            return null;
+        }
+        NamespaceView namespace = model.getNamespace(Names.getPrefix(name));
+        return intern(namespace != null ? Names.getQName(namespace.getUri(), name) : toQName(name));
+    }
+
+    private String intern(String qName) {
+        String interned = qNames.get(qName);
+        if (interned == null) {
+            qNames.put(qName, qName);
+            interned = qName;
+        }
+        return interned;
+    }
+
+    private ClassEntry getClassEntry(String qName) {
+        ClassEntry entry = classes.get(qName);
+        return entry != null ? entry : getParentClassEntry(qName);
+    }
+
+    private ClassEntry getParentClassEntry(String qName) {
+        return parentClasses.get(qName);
+    }
+
+
+    /**
+     * Compute the effective properties and mandatory aspects of the given class, computing the ones of its parent and
+     * mandatory aspects first if needed.
+     * @param entry
+     * @param visiting classes whose computation is in progress, in the order they were reached, along with whether
+     *                 they were reached as a mandatory aspect
+     * @param asAspect whether the class is reached as a mandatory aspect
+     */
+    private void resolveInheritance(ClassEntry entry, Map<String, Boolean> visiting, boolean asAspect) {
+        if (entry.effectiveProperties != null) {
+            return;
+        }
+        if (visiting.containsKey(entry.view.getQName())) {
+            throw getCycleException(entry, visiting, asAspect);
+        }
+        visiting.put(entry.view.getQName(), asAspect);
+
+        Map<String, PropertyView> effectiveProperties = new LinkedHashMap<>();
+        Map<String, ClassView> effectiveAspects = new LinkedHashMap<>();
+        ClassEntry parentEntry = getInheritedEntry(entry.parentName, visiting, false);
+        if (parentEntry != null) {
+            putAll(effectiveProperties, parentEntry.effectiveProperties);
+            putAll(effectiveAspects, parentEntry.effectiveAspects);
+        }
+        for (String aspectName : entry.aspectNames) {
+            ClassEntry aspectEntry = getInheritedEntry(aspectName, visiting, true);
+            if (aspectEntry != null) {
+                putAll(effectiveProperties, aspectEntry.effectiveProperties);
+                putAll(effectiveAspects, aspectEntry.effectiveAspects);
+                effectiveAspects.put(aspectEntry.view.getQName(), aspectEntry.view);
+            }
+        }
+        putAll(effectiveProperties, entry.view.getProperties());
+
+        entry.effectiveProperties = Collections.unmodifiableList(new ArrayList<>(effectiveProperties.values()));
+        entry.effectiveAspects = Collections.unmodifiableList(new ArrayList<>(effectiveAspects.values()));
+        visiting.remove(entry.view.getQName());
+    }
+
+    /**
+     * Get the exception reporting a class reached again while its inheritance is being computed.
+     * @param entry
+     * @param visiting classes whose computation is in progress
+     * @param asAspect whether the class is reached again as a mandatory aspect
+     * @return
+     */
+    private static IllegalArgumentException getCycleException(ClassEntry entry, Map<String, Boolean> visiting,
+                                                              boolean asAspect) {
+        boolean throughAspect = asAspect;
+        boolean inCycle = false;
+        for (Map.Entry<String, Boolean> visited : visiting.entrySet()) {
+            if (inCycle) {
+                throughAspect |= visited.getValue();
+            } else {
+                inCycle = visited.getKey().equals(entry.view.getQName());
+            }
+        }
+        return new IllegalArgumentException(throughAspect ?
+                "Class '" + entry.view.getName() + "' is one of its own mandatory aspects." :
+                "Class '" + entry.view.getName() + "' inherits from itself.");
+    }
+
+    /**
+     * Get the class a class inherits from, with its inheritance resolved.
+     * @param qName qualified name of the inherited class, or null
+     * @param visiting classes whose computation is in progress
+     * @param asAspect whether the class is inherited as a mandatory aspect
+     * @return the class, or null if it is defined in no model.
+     */
+    private ClassEntry getInheritedEntry(String qName, Map<String, Boolean> visiting, boolean asAspect) {
+        if (qName == null) {
+            return null;
+        }
+        ClassEntry entry = classes.get(qName);
+        if (entry != null) {
+            resolveInheritance(entry, visiting, asAspect);
+            return entry;
+        }
+        entry = getParentClassEntry(qName);
+        if (entry == null) {
+            unresolvedNames.add(qName);
+        }
+        return entry;
+    }
+
+    private static <V extends NamedView> void putAll(Map<String, V> map, List<V> views) {
+        for (V view : views) {
+            map.put(view.getQName(), view);
+        }
+    }
+
+    private static <V> void putIfAbsent(Map<String, V> map, String key, V value) {
+        if (!map.containsKey(key)) {
+            map.put(key, value);
+        }
+    }
+
+    private static TemplateModel toSequence(List<? extends TemplateModel> items) {
+        return items != null ? new ViewSequence(items) : null;
+    }
+
+
+    /**
+     * A class of the index, along with the resolved names it references and its computed inheritance.
+     */
+    private static class ClassEntry {
+
+        private final ClassView view;
+
+        private final String parentName;
+
+        private final List<String> aspectNames;
+
+        private List<PropertyView> effectiveProperties;
+
+        private List<ClassView> effectiveAspects;
+
+        private ClassEntry(ClassView view, String parentName, List<String> aspectNames) {
+            this.view = view;
+            this.parentName = parentName;
+            this.aspectNames = aspectNames;
+        }
+    }
+
+
+    /**
+     * Lookup of a definition in the parent indexes, in order, keeping its result, found or not. Templates rendering
+     * the elements of a model in parallel share its index : lookups are thread safe.
+     * @param <V> type of the definition
+     */
+    private abstract class ParentLookup<V> {
+
+        private final ConcurrentMap<String, Object> results = new ConcurrentHashMap<>();
+
+        private final Object notFound = new Object();
+
+        protected abstract V find(ModelIndex parent, String name);
+
+        @SuppressWarnings("unchecked")
+        private V get(String name) {
+            Object result = results.get(name);
+            if (result == null) {
+                for (int i = 0; result == null && i < parents.size(); i++) {
+                    result = find(parents.get(i), name);
+                }
+                results.putIfAbsent(name, result != null ? result : notFound);
+            }
+            return result != notFound ? (V) result : null;
+        }
+    }
+
+
+    /**
+     * Freemarker hash computing its values from the index on each lookup, instead of copying the index.
+     */
+    private abstract static class Lookup implements TemplateHashModel {
+
+        protected abstract TemplateModel lookup(String name);
+
+        @Override
+        public TemplateModel get(String key) {
+            return lookup(key);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+    }
+}
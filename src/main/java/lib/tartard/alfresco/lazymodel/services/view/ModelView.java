@@ -0,0 +1,189 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import org.alfresco.repo.dictionary.*;
+
+import java.util.*;
+
+import static lib.tartard.alfresco.lazymodel.services.view.ClassView.nonNull;
+
+/**
+ * Immutable, pre-indexed view of an Alfresco model, given to the templates as {@code ${view}} alongside the raw
+ * M2Model.
+ *
+ * Prefixed names are resolved, and Java constant names computed, once per model instead of once per use in the
+ * templates. Template attributes :
+ * - {@code name}, {@code javaName} (e.g. cm_contentmodel), {@code description}, {@code author}, {@code version}
+ * - {@code namespaces} and {@code imports} : lists of {@link NamespaceView}, and {@code namespacesByPrefix}
+ * - {@code types}, {@code aspects} and {@code classes} (types then aspects) : lists of {@link ClassView}, and
+ *   {@code classesByName}
+ * - {@code properties} and {@code associations} : lists of all the properties and associations of all the classes
+ * - {@code constraints} and {@code listConstraints} : lists of {@link ConstraintView}, and {@code constraintsByName}
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ModelView extends TemplateView {
+
+    private final String name;
+
+    private final List<NamespaceView> namespaces;
+
+    private final List<NamespaceView> imports;
+
+    private final Map<String, NamespaceView> namespacesByPrefix;
+
+    private final List<ClassView> types;
+
+    private final List<ClassView> aspects;
+
+    private final Map<String, ClassView> classesByName;
+
+    private final List<ConstraintView> constraints;
+
+    private final Map<String, ConstraintView> constraintsByName;
+
+    /**
+     * Build the view of the given model.
+     * @param model
+     */
+    public ModelView(M2Model model) {
+        this.name = model.getName();
+
+        List<NamespaceView> namespaceViews = new ArrayList<>();
+        List<NamespaceView> importViews = new ArrayList<>();
+        Map<String, NamespaceView> byPrefix = new LinkedHashMap<>();
+        Map<String, String> uris = new HashMap<>();
+        for (M2Namespace m2Import : nonNull(model.getImports())) {
+            NamespaceView view = new NamespaceView(m2Import.getPrefix(), m2Import.getUri(), true);
+            importViews.add(view);
+            byPrefix.put(view.getPrefix(), view);
+            uris.put(view.getPrefix(), view.getUri());
+        }
+        for (M2Namespace m2Namespace : nonNull(model.getNamespaces())) {
+            NamespaceView view = new NamespaceView(m2Namespace.getPrefix(), m2Namespace.getUri(), false);
+            namespaceViews.add(view);
+            byPrefix.put(view.getPrefix(), view);
+            uris.put(view.getPrefix(), view.getUri());
+        }
+        this.namespaces = Collections.unmodifiableList(namespaceViews);
+        this.imports = Collections.unmodifiableList(importViews);
+        this.namespacesByPrefix = Collections.unmodifiableMap(byPrefix);
+
+        Map<String, ClassView> classes = new LinkedHashMap<>();
+        List<PropertyView> properties = new ArrayList<>();
+        List<AssociationView> associations = new ArrayList<>();
+        this.types = Collections.unmodifiableList(buildClasses(nonNull(model.getTypes()), uris, classes, properties,
+                associations));
+        this.aspects = Collections.unmodifiableList(buildClasses(nonNull(model.getAspects()), uris, classes,
+                properties, associations));
+        this.classesByName = Collections.unmodifiableMap(classes);
+
+        List<ConstraintView> constraintViews = new ArrayList<>();
+        List<ConstraintView> listConstraints = new ArrayList<>();
+        Map<String, ConstraintView> constraintViewsByName = new LinkedHashMap<>();
+        for (M2Constraint constraint : nonNull(model.getConstraints())) {
+            ConstraintView view = new ConstraintView(constraint, uris);
+            constraintViews.add(view);
+            constraintViewsByName.put(view.getName(), view);
+            if (view.isList()) {
+                listConstraints.add(view);
+            }
+        }
+        this.constraints = Collections.unmodifiableList(constraintViews);
+        this.constraintsByName = Collections.unmodifiableMap(constraintViewsByName);
+
+        List<ClassView> allClasses = new ArrayList<>(types);
+        allClasses.addAll(aspects);
+
+        put("name", name);
+        put("javaName", Names.getJavaIdentifier(name));
+        put("description", model.getDescription());
+        put("author", model.getAuthor());
+        put("version", model.getVersion());
+        put("namespaces", namespaces);
+        put("imports", imports);
+        put("namespacesByPrefix", new ViewHash(namespacesByPrefix));
+        put("types", types);
+        put("aspects", aspects);
+        put("classes", allClasses);
+        put("classesByName", new ViewHash(classesByName));
+        put("properties", properties);
+        put("associations", associations);
+        put("constraints", constraints);
+        put("listConstraints", listConstraints);
+        put("constraintsByName", new ViewHash(constraintsByName));
+    }
+
+
+    private static List<ClassView> buildClasses(List<? extends M2Class> m2Classes, Map<String, String> uris,
+                                                Map<String, ClassView> classes, List<PropertyView> properties,
+                                                List<AssociationView> associations) {
+        List<ClassView> views = new ArrayList<>(m2Classes.size());
+        for (M2Class m2Class : m2Classes) {
+            ClassView view = new ClassView(m2Class, uris);
+            views.add(view);
+            classes.put(view.getName(), view);
+            properties.addAll(view.getProperties());
+            associations.addAll(view.getAssociations());
+        }
+        return views;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<NamespaceView> getNamespaces() {
+        return namespaces;
+    }
+
+    public List<NamespaceView> getImports() {
+        return imports;
+    }
+
+    /**
+     * Get a namespace defined or imported by the model.
+     * @param prefix
+     * @return the namespace, or null if the model has no namespace with this prefix.
+     */
+    public NamespaceView getNamespace(String prefix) {
+        return namespacesByPrefix.get(prefix);
+    }
+
+    public List<ClassView> getTypes() {
+        return types;
+    }
+
+    public List<ClassView> getAspects() {
+        return aspects;
+    }
+
+    /**
+     * @return the types, then the aspects of the model.
+     */
+    public Collection<ClassView> getClasses() {
+        return classesByName.values();
+    }
+
+    /**
+     * Get a type or an aspect of the model.
+     * @param name prefixed name of the class
+     * @return the class, or null if the model defines no class with this name.
+     */
+    public ClassView getClassByName(String name) {
+        return classesByName.get(name);
+    }
+
+    public List<ConstraintView> getConstraints() {
+        return constraints;
+    }
+
+    /**
+     * Get a constraint of the model.
+     * @param name prefixed name of the constraint
+     * @return the constraint, or null if the model defines no constraint with this name.
+     */
+    public ConstraintView getConstraint(String name) {
+        return constraintsByName.get(name);
+    }
+}
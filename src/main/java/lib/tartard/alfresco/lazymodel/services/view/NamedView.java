@@ -0,0 +1,92 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+/**
+ * View of a named element of an Alfresco model : class, property, association or constraint.
+ *
+ * The prefixed name of the element is resolved once. Template attributes : {@code name} (e.g. cm:versionLabel),
+ * {@code prefix}, {@code localName}, {@code namespaceUri}, {@code qname} (e.g.
+ * {http://www.alfresco.org/model/content/1.0}versionLabel), {@code uriConstant} (e.g. CM_MODEL_URI),
+ * {@code constantName} (e.g. VERSION_LABEL), {@code javaName} (e.g. cm_versionLabel), {@code title} and
+ * {@code description}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public abstract class NamedView extends TemplateView {
+
+    private final String name;
+
+    private final String prefix;
+
+    private final String localName;
+
+    private final String namespaceUri;
+
+    private final String qName;
+
+    private final String constantName;
+
+    private final String title;
+
+    private final String description;
+
+    protected NamedView(String name, String namespaceUri, String title, String description) {
+        this.name = name;
+        this.prefix = Names.getPrefix(name);
+        this.localName = Names.getLocalName(name);
+        this.namespaceUri = namespaceUri;
+        this.qName = Names.getQName(namespaceUri, name);
+        this.constantName = Names.getConstantName(localName);
+        this.title = title;
+        this.description = description;
+        put("name", name);
+        put("prefix", prefix);
+        put("localName", localName);
+        put("namespaceUri", namespaceUri);
+        put("qname", qName);
+        put("uriConstant", Names.getUriConstant(prefix));
+        put("constantName", constantName);
+        put("javaName", Names.getJavaIdentifier(name));
+        put("title", title);
+        put("description", description);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return the uri of the namespace of this element, or null if its prefix isn't declared.
+     */
+    public String getNamespaceUri() {
+        return namespaceUri;
+    }
+
+    /**
+     * @return the name of this element qualified by its namespace uri, which is the same in every model, or its prefixed
+     * name if its prefix isn't declared.
+     */
+    public String getQName() {
+        return qName;
+    }
+
+    public String getConstantName() {
+        return constantName;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
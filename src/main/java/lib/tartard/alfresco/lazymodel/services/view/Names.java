@@ -0,0 +1,131 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import java.util.Locale;
+
+/**
+ * Name conversions shared by the views.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public final class Names {
+
+    private static final String PREFIX_SEPARATOR = ":";
+
+    private static final char QNAME_START = '{';
+
+    private static final char QNAME_END = '}';
+
+    private Names() {}
+
+
+    /**
+     * Get the prefix of a prefixed name such as {@code cm:content}.
+     * @param prefixedName
+     * @return the prefix, or an empty string if the name has none
+     */
+    public static String getPrefix(String prefixedName) {
+        int index = prefixedName.indexOf(PREFIX_SEPARATOR);
+        return index < 0 ? "" : prefixedName.substring(0, index);
+    }
+
+
+    /**
+     * Get the local part of a prefixed name such as {@code cm:content}.
+     * @param prefixedName
+     * @return
+     */
+    public static String getLocalName(String prefixedName) {
+        int index = prefixedName.indexOf(PREFIX_SEPARATOR);
+        return index < 0 ? prefixedName : prefixedName.substring(index + 1);
+    }
+
+
+    /**
+     * Get the name qualified by its namespace uri of the given prefixed name, e.g.
+     * {@code {http://www.alfresco.org/model/content/1.0}content} for {@code cm:content}.
+     * @param namespaceUri uri of the namespace of the name, or null if unknown
+     * @param prefixedName
+     * @return the qualified name, or the prefixed name if the uri is unknown.
+     */
+    public static String getQName(String namespaceUri, String prefixedName) {
+        if (namespaceUri == null) {
+            return prefixedName;
+        }
+        String localName = getLocalName(prefixedName);
+        return new StringBuilder(namespaceUri.length() + localName.length() + 2)
+                .append(QNAME_START).append(namespaceUri).append(QNAME_END).append(localName).toString();
+    }
+
+
+    /**
+     * Check whether the given name is qualified by a namespace uri, such as
+     * {@code {http://www.alfresco.org/model/content/1.0}content}.
+     * @param name
+     * @return
+     */
+    public static boolean isQName(String name) {
+        return name.length() > 0 && name.charAt(0) == QNAME_START;
+    }
+
+
+    /**
+     * Get the name of the Java constant of the given local name : words in camel case are separated with underscores,
+     * and the whole name is upper cased, e.g. {@code versionLabel} becomes {@code VERSION_LABEL}.
+     * Characters which can't be used in a Java identifier are replaced with underscores.
+     * @param localName
+     * @return
+     */
+    public static String getConstantName(String localName) {
+        StringBuilder constant = new StringBuilder(localName.length() + 8);
+        for (int i = 0; i < localName.length(); i++) {
+            char c = localName.charAt(i);
+            if (i > 0 && c >= 'A' && c <= 'Z') {
+                constant.append('_');
+            }
+            constant.append(c);
+        }
+        return getJavaIdentifier(constant.toString().toUpperCase(Locale.US));
+    }
+
+
+    /**
+     * Get a Java identifier from the given name, replacing the characters which can't be used in a Java identifier
+     * with underscores, e.g. {@code cm:contentmodel} becomes {@code cm_contentmodel}.
+     * @param name
+     * @return
+     */
+    public static String getJavaIdentifier(String name) {
+        StringBuilder identifier = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            identifier.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return identifier.toString();
+    }
+
+
+    /**
+     * Get the name of the Java constant holding the uri of the namespace with the given prefix, e.g.
+     * {@code CM_MODEL_URI}.
+     * @param prefix
+     * @return
+     */
+    public static String getUriConstant(String prefix) {
+        return getJavaIdentifier(prefix.toUpperCase(Locale.US)) + "_MODEL_URI";
+    }
+
+
+    /**
+     * Get the name of the Java constant holding the prefix of the namespace with the given prefix, e.g.
+     * {@code CM_MODEL_PREFIX}.
+     * @param prefix
+     * @return
+     */
+    public static String getPrefixConstant(String prefix) {
+        return getJavaIdentifier(prefix.toUpperCase(Locale.US)) + "_MODEL_PREFIX";
+    }
+}
@@ -0,0 +1,42 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+/**
+ * View of a namespace defined or imported by an Alfresco model.
+ *
+ * Template attributes : {@code prefix}, {@code uri}, {@code uriConstant} (e.g. CM_MODEL_URI), {@code prefixConstant}
+ * (e.g. CM_MODEL_PREFIX) and {@code imported}.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class NamespaceView extends TemplateView {
+
+    private final String prefix;
+
+    private final String uri;
+
+    private final boolean imported;
+
+    public NamespaceView(String prefix, String uri, boolean imported) {
+        this.prefix = prefix;
+        this.uri = uri;
+        this.imported = imported;
+        put("prefix", prefix);
+        put("uri", uri);
+        put("uriConstant", Names.getUriConstant(prefix));
+        put("prefixConstant", Names.getPrefixConstant(prefix));
+        put("imported", imported);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public boolean isImported() {
+        return imported;
+    }
+}
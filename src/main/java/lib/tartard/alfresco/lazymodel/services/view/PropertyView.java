@@ -0,0 +1,83 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import org.alfresco.repo.dictionary.M2Constraint;
+import org.alfresco.repo.dictionary.M2Property;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * View of a property of an Alfresco class.
+ *
+ * Template attributes, besides the ones of {@link NamedView} : {@code type} (e.g. d:text), {@code mandatory},
+ * {@code multiple}, {@code protected}, {@code defaultValue}, {@code constraints} (names of the referenced or inline
+ * constraints) and {@code className} (name of the class defining the property).
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class PropertyView extends NamedView {
+
+    private final String type;
+
+    private final String className;
+
+    private final boolean mandatory;
+
+    private final boolean multiple;
+
+    private final List<String> constraintNames;
+
+    public PropertyView(M2Property property, String className, Map<String, String> namespaces) {
+        super(property.getName(), namespaces.get(Names.getPrefix(property.getName())), property.getTitle(),
+                property.getDescription());
+        this.type = property.getType();
+        this.className = className;
+        this.mandatory = property.isMandatory();
+        this.multiple = property.isMultiValued();
+
+        List<String> constraints = new ArrayList<>();
+        if (property.getConstraints() != null) {
+            for (M2Constraint constraint : property.getConstraints()) {
+                constraints.add(constraint.getRef() != null ? constraint.getRef() : constraint.getName());
+            }
+        }
+        this.constraintNames = Collections.unmodifiableList(constraints);
+
+        put("type", type);
+        put("className", className);
+        put("mandatory", mandatory);
+        put("multiple", multiple);
+        put("protected", property.isProtected());
+        put("defaultValue", property.getDefaultValue());
+        put("constraints", toScalars(constraintNames));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the name of the class defining this property.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public boolean isMandatory() {
+        return mandatory;
+    }
+
+    public boolean isMultiple() {
+        return multiple;
+    }
+
+    /**
+     * @return the names of the constraints of this property.
+     */
+    public List<String> getConstraintNames() {
+        return constraintNames;
+    }
+}
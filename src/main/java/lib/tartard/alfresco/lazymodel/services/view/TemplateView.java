@@ -0,0 +1,104 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import freemarker.template.*;
+
+import java.util.*;
+
+/**
+ * Base class of the precomputed views of an Alfresco model given to the Freemarker templates.
+ *
+ * A view is a Freemarker hash whose values are built once, when the view is built : templates read them without any
+ * reflection or object wrapping, whatever the object wrapper of the configuration. Views are immutable once built,
+ * and can be shared by concurrent conversions.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public abstract class TemplateView implements TemplateHashModelEx {
+
+    private final Map<String, TemplateModel> attributes = new LinkedHashMap<>();
+
+
+    @Override
+    public TemplateModel get(String key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return attributes.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return attributes.size();
+    }
+
+    @Override
+    public TemplateCollectionModel keys() {
+        List<TemplateModel> keys = new ArrayList<>(attributes.size());
+        for (String key : attributes.keySet()) {
+            keys.add(new SimpleScalar(key));
+        }
+        return new ViewSequence(keys);
+    }
+
+    @Override
+    public TemplateCollectionModel values() {
+        return new ViewSequence(new ArrayList<>(attributes.values()));
+    }
+
+
+    /**
+     * Set a string attribute. Null values are left undefined for the templates.
+     * @param key
+     * @param value
+     */
+    protected void put(String key, String value) {
+        if (value != null) {
+            attributes.put(key, new SimpleScalar(value));
+        }
+    }
+
+    /**
+     * Set a boolean attribute.
+     * @param key
+     * @param value
+     */
+    protected void put(String key, boolean value) {
+        attributes.put(key, value ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE);
+    }
+
+    /**
+     * Set a list attribute.
+     * @param key
+     * @param values
+     */
+    protected void put(String key, List<? extends TemplateModel> values) {
+        attributes.put(key, new ViewSequence(values));
+    }
+
+    /**
+     * Set an attribute already built as a template model. Null values are left undefined for the templates.
+     * @param key
+     * @param value
+     */
+    protected void put(String key, TemplateModel value) {
+        if (value != null) {
+            attributes.put(key, value);
+        }
+    }
+
+    /**
+     * Build a list attribute of strings.
+     * @param values
+     * @return
+     */
+    protected static List<TemplateModel> toScalars(Collection<String> values) {
+        List<TemplateModel> scalars = new ArrayList<>(values.size());
+        for (String value : values) {
+            scalars.add(new SimpleScalar(value));
+        }
+        return scalars;
+    }
+}
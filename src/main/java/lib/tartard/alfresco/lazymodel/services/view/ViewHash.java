@@ -0,0 +1,20 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import freemarker.template.TemplateModel;
+
+import java.util.Map;
+
+/**
+ * Freemarker hash of precomputed template models, used for lookups by name.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ViewHash extends TemplateView {
+
+    public ViewHash(Map<String, ? extends TemplateModel> entries) {
+        for (Map.Entry<String, ? extends TemplateModel> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package lib.tartard.alfresco.lazymodel.services.view;
+
+import freemarker.template.*;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Freemarker sequence of precomputed template models, which can be listed and indexed without any wrapping.
+ *
+ * @author Alexandre Hausherr
+ * @version 1.0 18/03/2018
+ */
+public class ViewSequence implements TemplateSequenceModel, TemplateCollectionModel {
+
+    private final List<? extends TemplateModel> items;
+
+    public ViewSequence(List<? extends TemplateModel> items) {
+        this.items = items;
+    }
+
+    @Override
+    public TemplateModel get(int index) {
+        return index >= 0 && index < items.size() ? items.get(index) : null;
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public TemplateModelIterator iterator() {
+        final Iterator<? extends TemplateModel> iterator = items.iterator();
+        return new TemplateModelIterator() {
+            @Override
+            public TemplateModel next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+        };
+    }
+}
@@ -1,18 +1,13 @@
-<#assign modelName=model.name?replace(":", "_")>
-<#assign savedNameSpaces={}>
+<#assign modelName=javaClassName!view.javaName>
 
-<#macro constantize string>
-<#assign array = string?split("(?=\\p{Upper})", "r")>
-${(array?join("_"))?upper_case}</#macro>
 
-<#macro qname qname type>
-<#assign qnameParts=qname?split(":")>
-    public static final QName ${type}_<@constantize qnameParts[1] /> = QName.createQName(${savedNameSpaces[qnameParts[0]]}, "${qnameParts[1]}");
+<#macro qname element type>
+    public static final QName ${type}_${element.constantName} = QName.createQName(${element.uriConstant}, "${element.localName}");
 </#macro>
 
 <#macro renderClasses classes classType>
 <#list classes as class>
-<@qname qname=class.name type=classType/>
+<@qname element=class type=classType/>
 <@renderProps class.properties "PROP"/>
 <@renderProps class.associations "ASSOC"/>
 
@@ -22,34 +17,32 @@ ${(array?join("_"))?upper_case}</#macro>
 
 <#macro renderProps properties propType>
 <#list properties as property>
-<@qname qname=property.name type=propType/>
+<@qname element=property type=propType/>
 </#list>
 </#macro>
 
 
 <#macro renderConstraints constraints>
 <#list constraints as constraint>
-<#if constraint.type = "LIST">
-<@qname qname=constraint.name type="CONSTRAINT"/>
-</#if>
+<@qname element=constraint type="CONSTRAINT"/>
 </#list>
 </#macro>
 
 
 <#macro renderNameSpaces nameSpaces>
 <#list nameSpaces as nameSpace>
-<#assign prefix = nameSpace.prefix?upper_case>
-<#assign savedNameSpaces = savedNameSpaces + { nameSpace.prefix : "${prefix}_MODEL_URI"}>
-    public static final String ${prefix}_MODEL_URI = "${nameSpace.uri}";
-    public static final String ${prefix}_MODEL_PREFIX = "${nameSpace.prefix}";
+    public static final String ${nameSpace.uriConstant} = "${nameSpace.uri}";
+    public static final String ${nameSpace.prefixConstant} = "${nameSpace.prefix}";
 
 </#list>
 </#macro>
 <#--
 
 -->
-package ;
+<#if javaPackage??>
+package ${javaPackage};
 
+</#if>
 import org.alfresco.service.namespace.QName;
 
 /**
@@ -60,14 +53,14 @@ import org.alfresco.service.namespace.QName;
 public class ${modelName} {
 
     // Namespaces
-    <@renderNameSpaces model.namespaces/>
+    <@renderNameSpaces view.namespaces/>
 
     // Types
-    <@renderClasses model.types "TYPE"/>
+    <@renderClasses view.types "TYPE"/>
 
     // Aspects
-    <@renderClasses model.aspects "ASPECT"/>
+    <@renderClasses view.aspects "ASPECT"/>
 
     // List Constraints
-    <@renderConstraints model.constraints/>
+    <@renderConstraints view.listConstraints/>
 }
\ No newline at end of file
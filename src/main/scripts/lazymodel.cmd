@@ -0,0 +1,47 @@
+@echo off
+rem Runs lazymodel.jar with a class data sharing archive of the classes a conversion loads, so that the JVM maps them
+rem from the archive instead of loading and verifying them from the jar on each run.
+rem The archive is created on first run from the class list trained when lazymodel was built, and again whenever the
+rem java in use or the jar changes. It requires Java 11 or later : older JVMs run without it. Set LAZYMODEL_CDS=false
+rem to always run without it.
+setlocal
+
+set "DIR=%~dp0"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+set "JAR=%DIR%lazymodel.jar"
+set "CLASS_LIST=%DIR%lazymodel.classlist"
+set "ARCHIVE=%DIR%lazymodel.jsa"
+set "ARCHIVE_ID=%DIR%lazymodel.jsa.id"
+set "CDS_OPTS="
+
+if /i "%LAZYMODEL_CDS%"=="false" goto run
+if not exist "%CLASS_LIST%" goto run
+
+rem An archive only works with the java it was created with, and the jar it was created from : the date and size of
+rem the jar and the version output of java are compared with the ones the archive was created for.
+set "ARCHIVE_ID_TMP=%ARCHIVE_ID%.%RANDOM%.tmp"
+for %%F in ("%JAR%") do (
+    echo %%~tF %%~zF
+    "%JAVA%" -version 2>&1
+) > "%ARCHIVE_ID_TMP%"
+if exist "%ARCHIVE%" if exist "%ARCHIVE_ID%" (
+    fc /b "%ARCHIVE_ID_TMP%" "%ARCHIVE_ID%" > nul 2>&1 && goto archived
+)
+
+rem Dumped under a temporary name, so that concurrent runs never map a partial archive
+set "ARCHIVE_TMP=%ARCHIVE%.%RANDOM%.tmp"
+"%JAVA%" -XX:+IgnoreUnrecognizedVMOptions -Xshare:dump "-XX:SharedClassListFile=%CLASS_LIST%" ^
+    "-XX:SharedArchiveFile=%ARCHIVE_TMP%" -cp "%JAR%" > nul 2>&1
+if errorlevel 1 goto archived
+if exist "%ARCHIVE_TMP%" (
+    move /y "%ARCHIVE_TMP%" "%ARCHIVE%" > nul && move /y "%ARCHIVE_ID_TMP%" "%ARCHIVE_ID%" > nul
+)
+
+:archived
+if defined ARCHIVE_TMP if exist "%ARCHIVE_TMP%" del "%ARCHIVE_TMP%" > nul 2>&1
+if exist "%ARCHIVE_ID_TMP%" del "%ARCHIVE_ID_TMP%" > nul 2>&1
+if exist "%ARCHIVE%" set CDS_OPTS=-XX:+IgnoreUnrecognizedVMOptions -Xshare:auto "-XX:SharedArchiveFile=%ARCHIVE%"
+
+:run
+"%JAVA%" %CDS_OPTS% %LAZYMODEL_OPTS% -cp "%JAR%" lib.tartard.alfresco.lazymodel.App %*
@@ -0,0 +1,77 @@
+package lib.tartard.alfresco.lazymodel.test;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * App test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class AppTest {
+
+    private static final String APP_CLASS = "lib.tartard.alfresco.lazymodel.App";
+
+
+    /**
+     * Printing the help should load neither Freemarker nor the Alfresco data model.
+     */
+    @Test
+    public void testHelpLoadsNoFreemarker() throws Exception {
+        try (RecordingClassLoader classLoader = new RecordingClassLoader()) {
+            Class<?> app = classLoader.loadClass(APP_CLASS);
+            app.getMethod("main", String[].class).invoke(null, (Object) new String[]{"-help"});
+
+            assertTrue(classLoader.loadedClasses.contains(APP_CLASS));
+            for (String loadedClass : classLoader.loadedClasses) {
+                assertFalse(loadedClass, loadedClass.startsWith("freemarker."));
+                assertFalse(loadedClass, loadedClass.startsWith("org.alfresco."));
+            }
+        }
+    }
+
+
+    /**
+     * Class loader loading the classes of the test class path itself, rather than delegating to the application class
+     * loader which already loaded some of them, and keeping their names.
+     */
+    private static class RecordingClassLoader extends URLClassLoader {
+
+        private final Set<String> loadedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private RecordingClassLoader() throws MalformedURLException {
+            super(getClassPath(), ClassLoader.getSystemClassLoader().getParent());
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Class<?> loadedClass = super.findClass(name);
+            loadedClasses.add(name);
+            return loadedClass;
+        }
+
+        private static URL[] getClassPath() throws MalformedURLException {
+            List<URL> urls = new ArrayList<>();
+            for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                urls.add(new File(path).toURI().toURL());
+            }
+            return urls.toArray(new URL[urls.size()]);
+        }
+    }
+}
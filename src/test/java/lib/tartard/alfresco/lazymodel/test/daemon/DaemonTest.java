@@ -0,0 +1,161 @@
+package lib.tartard.alfresco.lazymodel.test.daemon;
+
+import lib.tartard.alfresco.lazymodel.daemon.Daemon;
+import lib.tartard.alfresco.lazymodel.daemon.DaemonClient;
+import lib.tartard.alfresco.lazymodel.daemon.DaemonRegistry;
+import lib.tartard.alfresco.lazymodel.daemon.RunOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Daemon, DaemonClient and DaemonRegistry test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class DaemonTest {
+
+    private static final String VERSION = "1.0-test";
+
+    private File registryFolder;
+
+    private DaemonRegistry registry;
+
+    private Daemon daemon;
+
+    private Thread daemonThread;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+
+    @Before
+    public void setup() throws IOException {
+        registryFolder = Files.createTempDirectory("lazymodel-daemon").toFile();
+        registry = new DaemonRegistry(registryFolder, VERSION);
+        daemon = new Daemon(registry, Daemon.DEFAULT_IDLE_TIMEOUT, new Daemon.RequestHandler() {
+            @Override
+            public int handle(File workingDir, List<String> args, RunOutput output) {
+                requests.incrementAndGet();
+                output.info("Running in " + workingDir.getName());
+                output.error(args.size() + " argument(s)");
+                return args.size();
+            }
+        });
+        daemon.start();
+        daemonThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.run();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        daemonThread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        daemon.close();
+        daemonThread.join(5000);
+    }
+
+
+    /**
+     * The daemon should register its port, and send back the messages and status of the runs.
+     */
+    @Test
+    public void testRun() throws IOException {
+        DaemonRegistry.Entry entry = registry.read();
+        assertNotNull(entry);
+        assertEquals(daemon.getPort(), entry.getPort());
+
+        DaemonClient client = new DaemonClient(registry);
+        assertTrue(client.isRunning());
+
+        RunOutput output = new RunOutput(null);
+        Integer status = client.run(new File(registryFolder, "project"), Arrays.asList("a.xml", "-o", "out"), output);
+        assertEquals(Integer.valueOf(3), status);
+        assertEquals(1, requests.get());
+
+        List<RunOutput.Message> messages = output.getMessages();
+        assertEquals(2, messages.size());
+        assertFalse(messages.get(0).isError());
+        assertEquals("Running in project", messages.get(0).getText());
+        assertTrue(messages.get(1).isError());
+        assertEquals("3 argument(s)", messages.get(1).getText());
+    }
+
+
+    /**
+     * Clients of another version, or without the token of the daemon, should be rejected.
+     */
+    @Test
+    public void testRejectedClients() throws IOException {
+        DaemonClient otherVersion = new DaemonClient(new DaemonRegistry(registryFolder, "0.9") {
+            @Override
+            public Entry read() throws IOException {
+                return registry.read();
+            }
+        });
+        assertFalse(otherVersion.isRunning());
+        assertNull(otherVersion.run(registryFolder, Arrays.asList("a.xml"), new RunOutput(null)));
+
+        final DaemonRegistry.Entry entry = registry.read();
+        DaemonClient wrongToken = new DaemonClient(new DaemonRegistry(registryFolder, VERSION) {
+            @Override
+            public Entry read() {
+                return new Entry(entry.getPort(), "not the token");
+            }
+        });
+        assertFalse(wrongToken.isRunning());
+        assertEquals(0, requests.get());
+    }
+
+
+    /**
+     * A stopped daemon should unregister itself, and clients should find no daemon anymore.
+     */
+    @Test
+    public void testStop() throws IOException, InterruptedException {
+        DaemonClient client = new DaemonClient(registry);
+        assertTrue(client.stop());
+        daemonThread.join(5000);
+
+        assertTrue(daemon.isStopped());
+        assertFalse(registry.getFile().exists());
+        assertFalse(client.isRunning());
+        assertNull(client.run(registryFolder, Arrays.asList("a.xml"), new RunOutput(null)));
+    }
+
+
+    /**
+     * A daemon idle for longer than its idle timeout should stop by itself.
+     */
+    @Test
+    public void testIdleTimeout() throws IOException, InterruptedException {
+        DaemonRegistry idleRegistry = new DaemonRegistry(registryFolder, VERSION + "-idle");
+        Daemon idleDaemon = new Daemon(idleRegistry, 100L, null);
+        long start = System.currentTimeMillis();
+        idleDaemon.run();
+
+        assertTrue(idleDaemon.isStopped());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertFalse(idleRegistry.getFile().exists());
+    }
+}
@@ -0,0 +1,155 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * ArchiveOutputSink test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ArchiveOutputSinkTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private static final List<String> NAMES = Arrays.asList("z.java", "sub/a.java",
+            "very/long/path/of/a/generated/file/which/does/not/fit/in/the/name/of/a/tar/header/alone/Element.java");
+
+    private File folder;
+
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("lazymodel-archive").toFile();
+    }
+
+
+    /**
+     * Entries should be named after their path relative to the base folder.
+     */
+    @Test
+    public void testEntryNames() {
+        ArchiveOutputSink sink = new ArchiveOutputSink(new ByteArrayOutputStream(), ArchiveOutputSink.Format.ZIP,
+                folder);
+        assertEquals("sub/a.java", sink.getEntryName(new File(folder, "sub/a.java")));
+        assertEquals(ArchiveOutputSink.Format.ZIP, ArchiveOutputSink.Format.of(new File("generated.jar")));
+        assertEquals(ArchiveOutputSink.Format.TAR, ArchiveOutputSink.Format.of(new File("generated.TAR")));
+        assertNull(ArchiveOutputSink.Format.of(new File("generated")));
+    }
+
+    /**
+     * The same files should give the same bytes, whatever the order in which they are written.
+     */
+    @Test
+    public void testReproducible() throws IOException {
+        for (ArchiveOutputSink.Format format : ArchiveOutputSink.Format.values()) {
+            List<String> reversed = new ArrayList<>(NAMES);
+            Collections.reverse(reversed);
+            byte[] archive = write(format, NAMES);
+            assertArrayEquals(archive, write(format, reversed));
+        }
+    }
+
+    /**
+     * A zip archive should hold all the files, with the same date, and its spill file should be deleted.
+     */
+    @Test
+    public void testZip() throws IOException {
+        File archive = new File(folder, "generated.zip");
+        ArchiveOutputSink sink = new ArchiveOutputSink(archive, folder);
+        for (String name : NAMES) {
+            writeEntry(sink, new File(folder, name).getPath());
+        }
+        try (OutputSink.Output output = sink.open(new File(folder, "z.java"))) {
+            output.getOutputStream().write(("content of " + new File(folder, "z.java").getPath())
+                    .getBytes(StandardCharsets.UTF_8));
+            assertFalse(output.commit());
+        }
+        sink.close();
+        assertArrayEquals(new String[]{"generated.zip"}, folder.list());
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            List<String> names = new ArrayList<>();
+            long time = -1;
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+                assertTrue(time == -1 || time == entry.getTime());
+                time = entry.getTime();
+            }
+            List<String> sorted = new ArrayList<>(NAMES);
+            Collections.sort(sorted);
+            assertEquals(sorted, names);
+        }
+    }
+
+    /**
+     * A converter writing to an archive should write no other file, and refuse the incremental mode.
+     */
+    @Test
+    public void testConvertToArchive() throws IOException {
+        File archive = new File(folder, "generated.jar");
+        File outputFolder = new File(folder, "out");
+        ConversionConfig config = new ConversionConfig(getResource(CONTENT_MODEL_PATH).getAbsolutePath(),
+                getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                new File(outputFolder, "contentModel.java").getPath(), "UTF-8");
+
+        ModelConverter modelConverter = new ModelConverter();
+        ArchiveOutputSink sink = new ArchiveOutputSink(archive, outputFolder);
+        modelConverter.setOutputSink(sink);
+        modelConverter.convert(config);
+        assertEquals(Collections.singleton("contentModel.java"), sink.getEntryNames());
+        sink.close();
+        assertFalse(outputFolder.exists());
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertTrue(zip.getEntry("contentModel.java").getSize() > 0);
+        }
+
+        modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        try {
+            modelConverter.convert(config);
+            fail("Incremental mode should need files");
+        } catch (ModelConversionException e) {
+            // Expected
+        }
+    }
+
+
+    private static byte[] write(ArchiveOutputSink.Format format, List<String> names) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ArchiveOutputSink sink = new ArchiveOutputSink(archive, format, new File("out"));
+        for (String name : names) {
+            writeEntry(sink, "out/" + name);
+        }
+        sink.close();
+        return archive.toByteArray();
+    }
+
+    private static void writeEntry(OutputSink sink, String name) throws IOException {
+        try (OutputSink.Output output = sink.open(new File(name))) {
+            output.getOutputStream().write(("content of " + name).getBytes(StandardCharsets.UTF_8));
+            output.commit();
+        }
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
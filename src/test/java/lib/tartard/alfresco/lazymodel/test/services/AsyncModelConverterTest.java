@@ -0,0 +1,178 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncModelConverter test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class AsyncModelConverterTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String FAKE_MODEL_PATH = "models/fakeModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+    private static final String OUTPUT_FOLDER_PATH = "target/output/async";
+
+
+    /**
+     * Conversions should complete their futures with their results, failed ones included.
+     */
+    @Test
+    public void testConvertAsync() {
+        try (AsyncModelConverter asyncConverter = new AsyncModelConverter(new ModelConverter())) {
+            ConversionResult result = asyncConverter.convertAsync(getConfig(CONTENT_MODEL_PATH)).join();
+            assertEquals(ConversionResult.Status.GENERATED, result.getStatus());
+            assertTrue(result.getOutputFile().isFile());
+
+            ConversionResult failed = asyncConverter.convertAsync(getConfig(FAKE_MODEL_PATH)).join();
+            assertEquals(ConversionResult.Status.FAILED, failed.getStatus());
+            assertNotNull(failed.getError());
+        }
+    }
+
+    /**
+     * The results of a batch should be streamed as the conversions complete, and returned in order.
+     */
+    @Test
+    public void testConvertBatchAsync() {
+        List<ConversionConfig> configs = Arrays.asList(getConfig(CONTENT_MODEL_PATH), getConfig(FAKE_MODEL_PATH),
+                getConfig(CONTENT_MODEL_PATH));
+        final List<ConversionResult> streamed = Collections.synchronizedList(new ArrayList<ConversionResult>());
+        List<ConversionResult> results;
+        try (AsyncModelConverter asyncConverter = new AsyncModelConverter(new ModelConverter())) {
+            results = asyncConverter.convertAsync(configs, streamed::add).join();
+        }
+
+        assertEquals(3, results.size());
+        assertEquals(3, streamed.size());
+        for (int i = 0; i < configs.size(); i++) {
+            assertSame(configs.get(i), results.get(i).getConfig());
+            assertTrue(streamed.contains(results.get(i)));
+        }
+        assertEquals(1, BatchConverter.countFailures(results));
+    }
+
+    /**
+     * Conversions should hold a place until they complete, and cancelled conversions should never run.
+     */
+    @Test
+    public void testBackpressureAndCancellation() {
+        final List<Runnable> queued = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        AsyncModelConverter asyncConverter = new AsyncModelConverter(new ModelConverter(), executor, 2);
+
+        ConversionConfig cancelledConfig = getConfig(CONTENT_MODEL_PATH);
+        CompletableFuture<ConversionResult> cancelled = asyncConverter.convertAsync(cancelledConfig);
+        CompletableFuture<ConversionResult> performed = asyncConverter.convertAsync(getConfig(CONTENT_MODEL_PATH));
+        assertEquals(0, asyncConverter.getAvailablePlaces());
+
+        assertTrue(cancelled.cancel(false));
+        assertEquals(1, asyncConverter.getAvailablePlaces());
+
+        for (Runnable conversion : queued) {
+            conversion.run();
+        }
+        assertFalse(new File(cancelledConfig.getOutputFile()).exists());
+        assertEquals(ConversionResult.Status.GENERATED, performed.join().getStatus());
+        assertEquals(2, asyncConverter.getAvailablePlaces());
+    }
+
+    /**
+     * A batch larger than the number of places should be submitted without blocking, as places free up.
+     */
+    @Test
+    public void testBatchLargerThanPlaces() {
+        final List<Runnable> queued = new ArrayList<>();
+        AsyncModelConverter asyncConverter = new AsyncModelConverter(new ModelConverter(), getQueueingExecutor(queued),
+                2);
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            configs.add(getConfig(CONTENT_MODEL_PATH));
+        }
+        final List<ConversionResult> streamed = Collections.synchronizedList(new ArrayList<ConversionResult>());
+
+        CompletableFuture<List<ConversionResult>> all = asyncConverter.convertAsync(configs, streamed::add);
+        assertFalse(all.isDone());
+        assertEquals(2, queued.size());
+        assertEquals(0, asyncConverter.getAvailablePlaces());
+
+        for (int i = 0; i < queued.size(); i++) {
+            queued.get(i).run();
+        }
+        assertEquals(5, queued.size());
+        List<ConversionResult> results = all.join();
+        assertEquals(5, results.size());
+        assertEquals(5, streamed.size());
+        for (int i = 0; i < configs.size(); i++) {
+            assertSame(configs.get(i), results.get(i).getConfig());
+            assertEquals(ConversionResult.Status.GENERATED, results.get(i).getStatus());
+        }
+        assertEquals(2, asyncConverter.getAvailablePlaces());
+    }
+
+    /**
+     * Cancelling a batch should cancel its conversions which haven't started, and never submit the remaining ones.
+     */
+    @Test
+    public void testBatchCancellation() {
+        final List<Runnable> queued = new ArrayList<>();
+        AsyncModelConverter asyncConverter = new AsyncModelConverter(new ModelConverter(), getQueueingExecutor(queued),
+                1);
+        List<ConversionConfig> configs = Arrays.asList(getConfig(CONTENT_MODEL_PATH), getConfig(CONTENT_MODEL_PATH),
+                getConfig(CONTENT_MODEL_PATH));
+
+        CompletableFuture<List<ConversionResult>> all = asyncConverter.convertAsync(configs,
+                result -> fail("A cancelled batch should not convert anything"));
+        assertEquals(1, queued.size());
+        assertTrue(all.cancel(false));
+        assertEquals(1, asyncConverter.getAvailablePlaces());
+
+        for (int i = 0; i < queued.size(); i++) {
+            queued.get(i).run();
+        }
+        assertEquals(1, queued.size());
+        for (ConversionConfig config : configs) {
+            assertFalse(new File(config.getOutputFile()).exists());
+        }
+        assertEquals(1, asyncConverter.getAvailablePlaces());
+    }
+
+
+    private static Executor getQueueingExecutor(final List<Runnable> queued) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+    }
+
+    private ConversionConfig getConfig(String modelPath) {
+        return new ConversionConfig(getResource(modelPath).getAbsolutePath(),
+                getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                new File(OUTPUT_FOLDER_PATH, UUID.randomUUID() + ".java").getPath(), "UTF-8");
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
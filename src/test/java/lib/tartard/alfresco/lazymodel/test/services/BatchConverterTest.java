@@ -0,0 +1,86 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.BatchConverter;
+import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
+import lib.tartard.alfresco.lazymodel.services.ConversionResult;
+import lib.tartard.alfresco.lazymodel.services.ModelConversionException;
+import lib.tartard.alfresco.lazymodel.services.ModelConverter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchConverter test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class BatchConverterTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String FAKE_MODEL_PATH = "models/fakeModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+    private static final String OUTPUT_FOLDER_PATH = "target/output/batch";
+
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        Files.createDirectories(Paths.get(OUTPUT_FOLDER_PATH));
+    }
+
+
+    /**
+     * Results should be returned in the order of the configurations, and a failing conversion should not prevent the
+     * other ones from being performed.
+     */
+    @Test
+    public void testResultsOrderAndFailureIsolation() {
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String modelPath = getResource(i % 4 == 1 ? FAKE_MODEL_PATH : CONTENT_MODEL_PATH).getAbsolutePath();
+            configs.add(new ConversionConfig(modelPath, getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                    OUTPUT_FOLDER_PATH + "/" + UUID.randomUUID() + ".java", "UTF-8"));
+        }
+
+        List<ConversionResult> results = new BatchConverter(new ModelConverter(), 4).convert(configs);
+
+        assertEquals(configs.size(), results.size());
+        for (int i = 0; i < configs.size(); i++) {
+            ConversionResult result = results.get(i);
+            assertSame(configs.get(i), result.getConfig());
+            if (i % 4 == 1) {
+                assertTrue(result.isFailed());
+                assertTrue(result.getError() instanceof ModelConversionException);
+            } else {
+                assertEquals(ConversionResult.Status.GENERATED, result.getStatus());
+                assertTrue(result.getOutputFile().isFile());
+            }
+        }
+        assertEquals(2, BatchConverter.countFailures(results));
+    }
+
+    /**
+     * An empty batch gives no result.
+     */
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(new BatchConverter(new ModelConverter()).convert(new ArrayList<ConversionConfig>()).isEmpty());
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
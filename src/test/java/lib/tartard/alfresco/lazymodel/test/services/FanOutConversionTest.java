@@ -0,0 +1,118 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.BatchConverter;
+import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
+import lib.tartard.alfresco.lazymodel.services.ConversionResult;
+import lib.tartard.alfresco.lazymodel.services.ModelConverter;
+import lib.tartard.alfresco.lazymodel.services.TemplateName;
+import lib.tartard.alfresco.lazymodel.services.TemplateScope;
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import lib.tartard.alfresco.lazymodel.services.view.Names;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class of the conversions rendering their template once per element of the model.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class FanOutConversionTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String TYPE_TEMPLATE_PATH = "templates/fanout/txt.UTF-8.type.ftl";
+    private static final String OUTPUT_FOLDER_PATH = "target/output/fanout";
+
+
+    /**
+     * The scope of a template should be read from its name.
+     */
+    @Test
+    public void testTemplateName() {
+        TemplateName name = TemplateName.parse("templates/java.ISO-8859-1.aspect.ftl");
+        assertEquals("java", name.getExtension());
+        assertEquals("ISO-8859-1", name.getEncoding());
+        assertEquals(TemplateScope.ASPECT, name.getScope());
+
+        assertEquals(TemplateScope.MODEL, TemplateName.parse("java.UTF-8.ftl").getScope());
+        assertEquals(TemplateScope.MODEL, TemplateName.parse("java.UTF-8.unknown.ftl").getScope());
+    }
+
+    /**
+     * A template scoped to types should generate one file per type, in parallel, and the same files as when they are
+     * generated one after the other.
+     */
+    @Test
+    public void testOneFilePerType() throws IOException {
+        ModelConverter modelConverter = new ModelConverter();
+        String modelPath = getResource(CONTENT_MODEL_PATH).getAbsolutePath();
+        ModelView view = modelConverter.getModelCache().get(modelPath).getView();
+        assertFalse(view.getTypes().isEmpty());
+
+        File parallelFolder = new File(OUTPUT_FOLDER_PATH, UUID.randomUUID().toString());
+        ConversionConfig config = new ConversionConfig(modelPath, getResource(TYPE_TEMPLATE_PATH).getAbsolutePath(),
+                parallelFolder.getPath(), "UTF-8");
+        ConversionResult result = new BatchConverter(modelConverter, 4).convert(Collections.singletonList(config))
+                .get(0);
+        assertEquals(ConversionResult.Status.GENERATED, result.getStatus());
+        assertEquals(parallelFolder, result.getOutputFile());
+
+        File sequentialFolder = new File(OUTPUT_FOLDER_PATH, UUID.randomUUID().toString());
+        ConversionConfig sequentialConfig = new ConversionConfig(modelPath,
+                getResource(TYPE_TEMPLATE_PATH).getAbsolutePath(), sequentialFolder.getPath(), "UTF-8");
+        assertEquals(ConversionResult.Status.GENERATED, modelConverter.generate(sequentialConfig).getStatus());
+
+        assertEquals(view.getTypes().size(), parallelFolder.listFiles().length);
+        for (ClassView type : view.getTypes()) {
+            String fileName = Names.getJavaIdentifier(type.getName()) + ".txt";
+            String content = new String(Files.readAllBytes(new File(parallelFolder, fileName).toPath()),
+                    StandardCharsets.UTF_8);
+            assertEquals(type.getName(), content.trim());
+            assertEquals(content, new String(Files.readAllBytes(new File(sequentialFolder, fileName).toPath()),
+                    StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Elements whose files would have the same name, even only on case insensitive file systems, should fail the
+     * conversion instead of overwriting each other's file.
+     */
+    @Test
+    public void testCollidingElementNames() throws IOException {
+        File folder = new File(OUTPUT_FOLDER_PATH, UUID.randomUUID().toString());
+        Files.createDirectories(folder.toPath());
+        String[][] collisions = {{"my:my-type", "my:my_type"}, {"my:Document", "my:document"}};
+        for (String[] names : collisions) {
+            File modelFile = new File(folder, "collidingModel.xml");
+            String model = "<model name=\"my:colliding\" xmlns=\"http://www.alfresco.org/model/dictionary/1.0\">"
+                    + "<namespaces><namespace uri=\"http://www.example.org/model/my/1.0\" prefix=\"my\"/>"
+                    + "</namespaces><types><type name=\"" + names[0] + "\"/><type name=\"" + names[1] + "\"/>"
+                    + "</types></model>";
+            Files.write(modelFile.toPath(), model.getBytes(StandardCharsets.UTF_8));
+
+            ConversionConfig config = new ConversionConfig(modelFile.getAbsolutePath(),
+                    getResource(TYPE_TEMPLATE_PATH).getAbsolutePath(), new File(folder, "out").getPath(), "UTF-8");
+            ConversionResult result = new BatchConverter(new ModelConverter(), 4)
+                    .convert(Collections.singletonList(config)).get(0);
+            assertEquals(ConversionResult.Status.FAILED, result.getStatus());
+            assertTrue(result.getError().getMessage(), result.getError().getMessage().contains(names[1]));
+        }
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
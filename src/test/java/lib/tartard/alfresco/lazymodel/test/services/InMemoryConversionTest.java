@@ -0,0 +1,113 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import freemarker.template.Template;
+import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
+import lib.tartard.alfresco.lazymodel.services.ModelConversionException;
+import lib.tartard.alfresco.lazymodel.services.ModelConverter;
+import lib.tartard.alfresco.lazymodel.services.ResolvedModel;
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import org.alfresco.repo.dictionary.M2Model;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class of the conversions of models and templates given in memory.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class InMemoryConversionTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+    private static final String TYPE_TEMPLATE_PATH = "templates/fanout/txt.UTF-8.type.ftl";
+    private static final String OUTPUT_FOLDER_PATH = "target/output/memory";
+
+
+    /**
+     * Rendering a model given as bytes should give the same content as generating its file.
+     */
+    @Test
+    public void testRenderToBytes() throws IOException {
+        ModelConverter modelConverter = new ModelConverter();
+        File modelFile = getResource(CONTENT_MODEL_PATH);
+        String templatePath = getResource(JAVA_TEMPLATE_PATH).getAbsolutePath();
+
+        File outputFile = new File(OUTPUT_FOLDER_PATH, UUID.randomUUID() + ".java");
+        modelConverter.convert(new ConversionConfig(modelFile.getAbsolutePath(), templatePath, outputFile.getPath(),
+                "UTF-8"));
+
+        ResolvedModel resolvedModel = modelConverter.resolve(Files.readAllBytes(modelFile.toPath()));
+        byte[] content = modelConverter.renderToBytes(resolvedModel, modelConverter.getTemplate(templatePath), null,
+                StandardCharsets.UTF_8);
+        assertArrayEquals(Files.readAllBytes(outputFile.toPath()), content);
+    }
+
+    /**
+     * Models with the same content should be parsed once, whether they are given as bytes or as streams.
+     */
+    @Test
+    public void testModelCache() throws IOException {
+        ModelConverter modelConverter = new ModelConverter();
+        byte[] modelContent = Files.readAllBytes(getResource(CONTENT_MODEL_PATH).toPath());
+
+        ResolvedModel fromBytes = modelConverter.resolve(modelContent);
+        ResolvedModel fromStream = modelConverter.resolve(new ByteArrayInputStream(modelContent));
+        assertSame(fromBytes.getParsedModel(), fromStream.getParsedModel());
+        assertEquals(1, modelConverter.getModelCache().getMissCount());
+        assertEquals(1, modelConverter.getModelCache().getHitCount());
+    }
+
+    /**
+     * Templates given as readers should be rendered to writers, for the whole model or one of its elements.
+     */
+    @Test
+    public void testRenderToWriter() throws IOException {
+        ModelConverter modelConverter = new ModelConverter();
+        M2Model model;
+        try (InputStream modelStream = new FileInputStream(getResource(CONTENT_MODEL_PATH))) {
+            model = M2Model.createModel(modelStream);
+        }
+        ResolvedModel resolvedModel = modelConverter.resolve(model);
+
+        Template template = modelConverter.createTemplate("name.txt", new StringReader("${model.name}"));
+        StringWriter writer = new StringWriter();
+        modelConverter.render(resolvedModel, template, null, writer);
+        assertEquals(model.getName(), writer.toString());
+
+        ClassView type = resolvedModel.getParsedModel().getView().getTypes().get(0);
+        Template typeTemplate = modelConverter.createTemplate("txt.UTF-8.type.ftl",
+                new StringReader("${element.name}"));
+        writer = new StringWriter();
+        modelConverter.render(resolvedModel, typeTemplate, type.getName(), writer);
+        assertEquals(type.getName(), writer.toString());
+
+        // The fan-out template of the test resources renders the same
+        Template typeTemplateFile = modelConverter.getTemplate(getResource(TYPE_TEMPLATE_PATH).getAbsolutePath());
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        modelConverter.render(resolvedModel, typeTemplateFile, type.getName(), stream, StandardCharsets.UTF_8);
+        assertEquals(type.getName(), new String(stream.toByteArray(), StandardCharsets.UTF_8).trim());
+
+        try {
+            modelConverter.render(resolvedModel, typeTemplate, "cm:unknown", new StringWriter());
+            fail("An unknown element should fail the rendering.");
+        } catch (ModelConversionException e) {
+            // Expected
+        }
+    }
+
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,91 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Incremental conversions test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class IncrementalConversionTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private ModelConverter modelConverter;
+
+    private File outputFile;
+
+    private ConversionConfig config;
+
+
+    @Before
+    public void setup() throws IOException {
+        modelConverter = new ModelConverter();
+        modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        outputFile = new File(Files.createTempDirectory("lazymodel").toFile(), "contentModel.java");
+        config = new ConversionConfig(getResource(CONTENT_MODEL_PATH).getAbsolutePath(),
+                getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(), outputFile.getPath(), "UTF-8");
+    }
+
+
+    /**
+     * An output generated from unchanged inputs should be skipped.
+     */
+    @Test
+    public void testUpToDateOutputSkipped() {
+        assertEquals(ConversionResult.Status.GENERATED, modelConverter.generate(config).getStatus());
+        modelConverter.saveManifests();
+        assertTrue(new File(outputFile.getParentFile(), GenerationManifest.FILE_NAME).isFile());
+
+        // A new converter should rely on the saved manifest
+        ModelConverter otherConverter = new ModelConverter();
+        otherConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        assertEquals(ConversionResult.Status.UP_TO_DATE, otherConverter.generate(config).getStatus());
+    }
+
+    /**
+     * A modified output should be generated again.
+     * @throws IOException
+     */
+    @Test
+    public void testModifiedOutputGenerated() throws IOException {
+        modelConverter.convert(config);
+        Files.write(outputFile.toPath(), "modified".getBytes("UTF-8"));
+        assertEquals(ConversionResult.Status.GENERATED, modelConverter.generate(config).getStatus());
+        assertFalse("modified".equals(new String(Files.readAllBytes(outputFile.toPath()), "UTF-8")));
+    }
+
+    /**
+     * A check should report stale outputs without writing anything.
+     * @throws IOException
+     */
+    @Test
+    public void testCheck() throws IOException {
+        modelConverter.setIncrementalMode(IncrementalMode.CHECK);
+        assertEquals(ConversionResult.Status.STALE, modelConverter.generate(config).getStatus());
+        assertFalse(outputFile.exists());
+
+        modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        modelConverter.convert(config);
+        modelConverter.setIncrementalMode(IncrementalMode.CHECK);
+        assertEquals(ConversionResult.Status.UP_TO_DATE, modelConverter.generate(config).getStatus());
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,153 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * JavaOutputCompiler test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class JavaOutputCompilerTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private File folder;
+
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("lazymodel-compile").toFile();
+    }
+
+
+    /**
+     * The class generated by the bundled java template should compile into a jar, only once while it doesn't change.
+     */
+    @Test
+    public void testCompileGeneratedClass() throws IOException {
+        File source = new ModelConverter().convert(new ConversionConfig(
+                getResource(CONTENT_MODEL_PATH).getAbsolutePath(), getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                new File(folder, "ContentModel.java").getPath(), "UTF-8"));
+        List<File> sources = Collections.singletonList(source);
+        File jar = new File(folder, "classes/model.jar");
+
+        JavaOutputCompiler compiler = new JavaOutputCompiler();
+        assertTrue(compiler.compile(sources, jar));
+        try (ZipFile zip = new ZipFile(jar)) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            assertEquals(1, entries.size());
+            assertTrue(entries.get(0).getName().endsWith(".class"));
+        }
+        assertFalse(compiler.compile(sources, jar));
+
+        // Any change of the sources compiles them again
+        Files.write(source.toPath(), "\n".getBytes(StandardCharsets.UTF_8), java.nio.file.StandardOpenOption.APPEND);
+        assertTrue(compiler.compile(sources, jar));
+    }
+
+    /**
+     * The class generated by the bundled java template should be declared in the given package, in a file laid out
+     * as javac expects it.
+     */
+    @Test
+    public void testGeneratePackagedClass() throws IOException {
+        File outputFolder = new File(folder, "out");
+        List<ConversionConfig> configs = ConversionConfigs.forTemplatesFolder(
+                Collections.singletonList(getResource(CONTENT_MODEL_PATH).getAbsolutePath()),
+                getResource(JAVA_TEMPLATE_PATH).getParentFile(), outputFolder.getPath(), "com.acme.model");
+        // Sorted by template name : the java template comes first, the properties one isn't in a package
+        assertEquals("com.acme.model", configs.get(0).getJavaPackage());
+        assertNull(configs.get(1).getJavaPackage());
+
+        File source = new ModelConverter(getResource(JAVA_TEMPLATE_PATH).getParent()).convert(configs.get(0));
+        assertEquals(new File(outputFolder, "com/acme/model/contentModel.java").getAbsoluteFile(),
+                source.getAbsoluteFile());
+        String content = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("package com.acme.model;"));
+        assertTrue(content.contains("public class contentModel {"));
+
+        File classes = new File(folder, "classes");
+        assertTrue(new JavaOutputCompiler().compile(Collections.singletonList(source), classes));
+        assertTrue(new File(classes, "com/acme/model/contentModel.class").isFile());
+    }
+
+    /**
+     * Several sources should be compiled together into a classes folder, and errors should be reported.
+     */
+    @Test
+    public void testCompileToFolder() throws IOException {
+        File first = write(new File(folder, "src/First.java"), "package com.acme;\npublic class First {}\n");
+        File second = write(new File(folder, "src/Second.java"), "public class Second { com.acme.First first; }\n");
+        File classes = new File(folder, "classes");
+
+        assertTrue(new JavaOutputCompiler().compile(Arrays.asList(first, second), classes));
+        assertTrue(new File(classes, "com/acme/First.class").isFile());
+        assertTrue(new File(classes, "Second.class").isFile());
+
+        File invalid = write(new File(folder, "src/Invalid.java"), "public class Invalid { int i = \"i\"; }\n");
+        try {
+            new JavaOutputCompiler().compile(Collections.singletonList(invalid), classes);
+            fail("Invalid source should not compile");
+        } catch (ModelConversionException e) {
+            assertTrue(e.getMessage().contains("Invalid.java"));
+        }
+    }
+
+    /**
+     * Classes which are no longer compiled into a classes folder should be deleted from it, unlike its other files.
+     */
+    @Test
+    public void testRemoveStaleClasses() throws IOException {
+        File first = write(new File(folder, "src/First.java"), "package com.acme;\npublic class First {}\n");
+        File second = write(new File(folder, "src/Second.java"), "package com.acme.other;\npublic class Second {}\n");
+        File classes = new File(folder, "classes");
+        File other = write(new File(classes, "com/acme/other/other.properties"), "key=value\n");
+
+        JavaOutputCompiler compiler = new JavaOutputCompiler();
+        assertTrue(compiler.compile(Arrays.asList(first, second), classes));
+        assertTrue(new File(classes, "com/acme/other/Second.class").isFile());
+
+        assertTrue(compiler.compile(Collections.singletonList(first), classes));
+        assertTrue(new File(classes, "com/acme/First.class").isFile());
+        assertFalse(new File(classes, "com/acme/other/Second.class").exists());
+        assertTrue(other.isFile());
+
+        other.delete();
+        write(second, "package com.acme.other;\npublic class Second { }\n");
+        assertTrue(compiler.compile(Arrays.asList(first, second), classes));
+        assertTrue(compiler.compile(Collections.singletonList(first), classes));
+        // Folders left empty are deleted too
+        assertFalse(new File(classes, "com/acme/other").exists());
+    }
+
+
+    private static File write(File file, String content) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,189 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelArchives test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelArchivesTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String CUSTOM_MODEL_PATH = "models/customModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private static final String MODEL_FOLDER = "config/alfresco/module/test-module/model/";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File folder;
+
+    private File archive;
+
+
+    @Before
+    public void setup() throws IOException {
+        folder = temporaryFolder.getRoot();
+        archive = new File(folder, "test-module.amp");
+        writeArchive(archive);
+    }
+
+
+    /**
+     * An archive should designate the models of the model folders of its modules, and an entry path the matching
+     * entries.
+     */
+    @Test
+    public void testResolveArchive() {
+        ModelPathResolver resolver = new ModelPathResolver(folder);
+        String contentModelPath = ModelArchives.getEntryPath(archive, MODEL_FOLDER + "contentModel.xml");
+        String customModelPath = ModelArchives.getEntryPath(archive, MODEL_FOLDER + "customModel.xml");
+
+        assertEquals(Arrays.asList(contentModelPath, customModelPath),
+                resolver.resolve(Collections.singletonList("test-module.amp")));
+        assertEquals(Collections.singletonList(customModelPath),
+                resolver.resolve(Collections.singletonList("test-module.amp!/**/custom*.xml")));
+        assertEquals(Collections.singletonList(contentModelPath),
+                resolver.resolve(Collections.singletonList("test-module.amp!/" + MODEL_FOLDER + "contentModel.xml")));
+        List<String> globPaths = resolver.resolve(Collections.singletonList("*.amp"));
+        assertEquals(2, globPaths.size());
+        assertEquals(MODEL_FOLDER + "contentModel.xml", ModelArchives.getEntryName(globPaths.get(0)));
+        assertEquals(MODEL_FOLDER + "customModel.xml", ModelArchives.getEntryName(globPaths.get(1)));
+    }
+
+
+    /**
+     * Models of an archive should be parsed and converted like model files, without extracting anything.
+     */
+    @Test
+    public void testConvertArchivedModel() throws IOException {
+        String modelPath = ModelArchives.getEntryPath(archive, MODEL_FOLDER + "contentModel.xml");
+        ModelCache modelCache = new ModelCache();
+        ParsedModel parsedModel = modelCache.get(modelPath);
+        assertEquals("cm:contentmodel", parsedModel.getModel().getName());
+        assertEquals(ContentHash.of(Files.readAllBytes(getResource(CONTENT_MODEL_PATH).toPath())),
+                modelCache.getHash(modelPath));
+        assertSame(parsedModel, modelCache.get(getResource(CONTENT_MODEL_PATH).getPath()));
+
+        File outputFolder = new File(folder, "out");
+        List<ConversionConfig> configs = ConversionConfigs.forTemplatesFolder(Collections.singletonList(modelPath),
+                getResource(JAVA_TEMPLATE_PATH).getParentFile(), outputFolder.getPath());
+        ModelConverter modelConverter = new ModelConverter(getResource(JAVA_TEMPLATE_PATH).getParent());
+        for (ConversionConfig config : configs) {
+            modelConverter.convert(config);
+        }
+        assertTrue(new File(outputFolder, "contentModel.java").isFile());
+        assertEquals(Arrays.asList("out", "test-module.amp"), sortedNames(folder));
+
+        try {
+            modelCache.get(ModelArchives.getEntryPath(archive, MODEL_FOLDER + "missingModel.xml"));
+            fail("A missing entry should not be read");
+        } catch (ModelConversionException e) {
+            // Expected
+        }
+        modelCache.clear();
+    }
+
+
+    /**
+     * An archive replaced while its models are read should only be closed once the reads in progress are over.
+     */
+    @Test
+    public void testReplacedWhileRead() throws Exception {
+        final String modelPath = ModelArchives.getEntryPath(archive, MODEL_FOLDER + "contentModel.xml");
+        final byte[] content = Files.readAllBytes(getResource(CONTENT_MODEL_PATH).toPath());
+        final ModelArchives archives = new ModelArchives();
+        final AtomicBoolean replacing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        while (replacing.get()) {
+                            assertEquals(ByteBuffer.wrap(content), archives.read(modelPath));
+                            assertEquals(2, archives.list(archive, ModelArchives.DEFAULT_MODELS_GLOB).size());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 1; i <= 20; i++) {
+                // Replaced atomically, with another date, so that the archive is opened again
+                File replacement = new File(folder, "replacement.amp");
+                writeArchive(replacement);
+                assertTrue(replacement.setLastModified(archive.lastModified() + 2000L));
+                Files.move(replacement.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Thread.sleep(10L);
+            }
+            replacing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            replacing.set(false);
+            executor.shutdownNow();
+            archives.close();
+        }
+    }
+
+
+    private void writeArchive(File file) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            addEntry(zip, MODEL_FOLDER + "customModel.xml", getResource(CUSTOM_MODEL_PATH));
+            addEntry(zip, MODEL_FOLDER + "contentModel.xml", getResource(CONTENT_MODEL_PATH));
+            addEntry(zip, "config/alfresco/module/test-module/module-context.xml", getResource(CUSTOM_MODEL_PATH));
+            // Not in the model folder of a module
+            addEntry(zip, "web/model/otherModel.xml", getResource(CUSTOM_MODEL_PATH));
+        }
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, File file) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(Files.readAllBytes(file.toPath()));
+        zip.closeEntry();
+    }
+
+    private static List<String> sortedNames(File folder) {
+        String[] names = folder.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,100 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.ModelCache;
+import lib.tartard.alfresco.lazymodel.services.ParsedModel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelCache test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelCacheTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+
+
+    /**
+     * The same model should be parsed only once, even when found under another path.
+     * @throws IOException
+     */
+    @Test
+    public void testSameContentParsedOnce() throws IOException {
+        ModelCache cache = new ModelCache();
+        File model = getResource(CONTENT_MODEL_PATH);
+        File copy = copy(model);
+
+        ParsedModel first = cache.get(model.getPath());
+        ParsedModel second = cache.get(model.getPath());
+        ParsedModel third = cache.get(copy.getPath());
+
+        assertSame(first, second);
+        assertSame(first, third);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * A modified model should be parsed again.
+     * @throws IOException
+     */
+    @Test
+    public void testModifiedModelParsedAgain() throws IOException {
+        ModelCache cache = new ModelCache();
+        File copy = copy(getResource(CONTENT_MODEL_PATH));
+        ParsedModel first = cache.get(copy.getPath());
+
+        Files.write(copy.toPath(), "\n<!-- modified -->".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        ParsedModel second = cache.get(copy.getPath());
+
+        assertNotSame(first, second);
+        assertFalse(first.getHash().equals(second.getHash()));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * The least recently used model should be evicted when the cache is full.
+     * @throws IOException
+     */
+    @Test
+    public void testEviction() throws IOException {
+        ModelCache cache = new ModelCache(1);
+        File model = getResource(CONTENT_MODEL_PATH);
+        File modified = copy(model);
+        Files.write(modified.toPath(), "\n<!-- modified -->".getBytes("UTF-8"), StandardOpenOption.APPEND);
+
+        cache.get(model.getPath());
+        cache.get(modified.getPath());
+        cache.get(model.getPath());
+
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    private File copy(File model) throws IOException {
+        Path copy = Files.createTempFile("lazymodel", ".xml");
+        Files.copy(model.toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+        copy.toFile().deleteOnExit();
+        return copy.toFile();
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
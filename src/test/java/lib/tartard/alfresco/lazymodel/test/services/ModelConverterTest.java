@@ -1,7 +1,9 @@
 package lib.tartard.alfresco.lazymodel.test.services;
 
 import freemarker.template.TemplateException;
+import lib.tartard.alfresco.lazymodel.services.BatchConverter;
 import lib.tartard.alfresco.lazymodel.services.ConversionConfig;
+import lib.tartard.alfresco.lazymodel.services.ConversionResult;
 import lib.tartard.alfresco.lazymodel.services.ModelConversionException;
 import lib.tartard.alfresco.lazymodel.services.ModelConverter;
 import org.alfresco.service.cmr.dictionary.DictionaryException;
@@ -17,6 +19,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
@@ -188,6 +192,73 @@ public class ModelConverterTest {
         assertEquals(outputFile, result);
     }
 
+    /**
+     * Converting again an unchanged model should leave the output file untouched.
+     * @throws IOException
+     */
+    @Test
+    public void testUnchangedOutputNotRewritten() throws IOException {
+        ConversionConfig config = new ConversionConfig();
+        config.setAlfrescoModelPath(getModel(CONTENT_MODEL_NAME).getAbsolutePath());
+        config.setFtlTemplatePath(getTemplate("java.UTF-8.ftl").getAbsolutePath());
+        File outputFile = new File(OUTPUT_FOLDER_PATH, UUID.randomUUID() + ".java");
+        config.setOutputFile(outputFile.getPath());
+        config.setOutputEncoding("UTF-8");
+
+        modelConverter.convert(config);
+        long lastModified = outputFile.lastModified() - 60000L;
+        assertTrue(outputFile.setLastModified(lastModified));
+        modelConverter.convert(config);
+
+        assertEquals(lastModified, outputFile.lastModified());
+    }
+
+    /**
+     * A failed conversion should leave the existing output file untouched, and no temporary file.
+     * @throws IOException
+     */
+    @Test
+    public void testFailedConversionKeepsOutput() throws IOException {
+        File outputFolder = Files.createTempDirectory("lazymodel").toFile();
+        File outputFile = new File(outputFolder, "output.txt");
+        Files.write(outputFile.toPath(), "previous".getBytes("UTF-8"));
+
+        ConversionConfig config = new ConversionConfig();
+        config.setAlfrescoModelPath(getModel(CONTENT_MODEL_NAME).getAbsolutePath());
+        config.setFtlTemplatePath(getTemplate(FAKE_TEMPLATE_NAME).getAbsolutePath());
+        config.setOutputFile(outputFile.getPath());
+        testException(config, TemplateException.class);
+
+        assertEquals("previous", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+        assertEquals(1, outputFolder.list().length);
+    }
+
+    /**
+     * Templates with the same name in different folders should not be mixed up, even by concurrent conversions.
+     * @throws IOException
+     */
+    @Test
+    public void testSameTemplateNameInSeveralFolders() throws IOException {
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (String prefix : new String[]{"first", "second"}) {
+            File folder = Files.createTempDirectory(prefix).toFile();
+            File template = new File(folder, "name.UTF-8.ftl");
+            Files.write(template.toPath(), (prefix + " ${model.name}").getBytes("UTF-8"));
+            for (int i = 0; i < 4; i++) {
+                configs.add(new ConversionConfig(getModel(CONTENT_MODEL_NAME).getAbsolutePath(), template.getPath(),
+                        OUTPUT_FOLDER_PATH + "/" + UUID.randomUUID() + ".txt", "UTF-8"));
+            }
+        }
+
+        List<ConversionResult> results = new BatchConverter(modelConverter, 4).convert(configs);
+
+        for (ConversionResult result : results) {
+            String expectedPrefix = result.getConfig().getFtlTemplatePath().contains("first") ? "first" : "second";
+            String content = new String(Files.readAllBytes(result.getOutputFile().toPath()), "UTF-8");
+            assertEquals(expectedPrefix + " cm:contentmodel", content);
+        }
+    }
+
     /**
      * Tests that the conversion of the given {@code config} will throw a ModelConversionException caused by the given
      * {@code expectedParentException}, or caused by nothing if {@code expectedParentException} is null.
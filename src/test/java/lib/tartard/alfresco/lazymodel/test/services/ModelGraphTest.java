@@ -0,0 +1,98 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelGraph test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelGraphTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String CUSTOM_MODEL_PATH = "models/customModel.xml";
+    private static final String CYCLE_A_MODEL_PATH = "models/cycle/a.xml";
+    private static final String CYCLE_B_MODEL_PATH = "models/cycle/b.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+    private static final String OUTPUT_FOLDER_PATH = "target/output/graph";
+
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        Files.createDirectories(Paths.get(OUTPUT_FOLDER_PATH));
+    }
+
+
+    /**
+     * A model should depend on the models defining the namespaces it imports, and cycles should be reported.
+     */
+    @Test
+    public void testDependenciesAndCycles() {
+        ModelCache modelCache = new ModelCache();
+        Map<String, ParsedModel> models = new LinkedHashMap<>();
+        for (String path : Arrays.asList(CUSTOM_MODEL_PATH, CONTENT_MODEL_PATH, CYCLE_A_MODEL_PATH,
+                CYCLE_B_MODEL_PATH)) {
+            models.put(path, modelCache.get(getResource(path).getPath()));
+        }
+
+        ModelGraph graph = new ModelGraph(models);
+
+        assertEquals(Collections.singletonList(CONTENT_MODEL_PATH), graph.getDependencies(CUSTOM_MODEL_PATH));
+        assertEquals(Collections.singletonList(CUSTOM_MODEL_PATH), graph.getDependents(CONTENT_MODEL_PATH));
+        // The dictionary and system namespaces are defined by none of the models
+        assertTrue(graph.getDependencies(CONTENT_MODEL_PATH).isEmpty());
+
+        assertEquals(1, graph.getCycles().size());
+        List<String> cycle = graph.getCycles().get(0);
+        assertEquals(3, cycle.size());
+        assertEquals(cycle.get(0), cycle.get(2));
+        assertEquals(new HashSet<>(Arrays.asList(CYCLE_A_MODEL_PATH, CYCLE_B_MODEL_PATH)), graph.getCyclicModels());
+    }
+
+
+    /**
+     * Models should be converted after the models they import, and models importing each other should fail without
+     * preventing the other conversions.
+     */
+    @Test
+    public void testConversionInDependencyOrder() {
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (String path : Arrays.asList(CUSTOM_MODEL_PATH, CYCLE_A_MODEL_PATH, CONTENT_MODEL_PATH)) {
+            configs.add(new ConversionConfig(getResource(path).getAbsolutePath(),
+                    getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                    OUTPUT_FOLDER_PATH + "/" + UUID.randomUUID() + ".java", "UTF-8"));
+        }
+        configs.add(new ConversionConfig(getResource(CYCLE_B_MODEL_PATH).getAbsolutePath(),
+                getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(),
+                OUTPUT_FOLDER_PATH + "/" + UUID.randomUUID() + ".java", "UTF-8"));
+
+        BatchConverter batchConverter = new BatchConverter(new ModelConverter(), 2);
+        batchConverter.setResolvingImports(true);
+        List<ConversionResult> results = batchConverter.convert(configs);
+
+        assertEquals(ConversionResult.Status.GENERATED, results.get(0).getStatus());
+        assertTrue(results.get(1).isFailed());
+        assertTrue(results.get(1).getError().getMessage().contains("cycle"));
+        assertEquals(ConversionResult.Status.GENERATED, results.get(2).getStatus());
+        assertTrue(results.get(3).isFailed());
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,159 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.ModelCache;
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import lib.tartard.alfresco.lazymodel.services.view.ModelIndex;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import lib.tartard.alfresco.lazymodel.services.view.PropertyView;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelIndex test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelIndexTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+
+    private static final String CUSTOM_MODEL_PATH = "models/customModel.xml";
+
+    private static final String CM_URI = "http://www.alfresco.org/model/content/1.0";
+
+    private ModelIndex dictionaryIndex;
+
+    private ModelIndex index;
+
+    @Before
+    public void setUp() {
+        ModelCache modelCache = new ModelCache();
+        ModelView contentModel = modelCache.get(getResource(CONTENT_MODEL_PATH).getPath()).getView();
+        ModelView customModel = modelCache.get(getResource(CUSTOM_MODEL_PATH).getPath()).getView();
+        dictionaryIndex = new ModelIndex(Collections.singletonList(contentModel));
+        index = new ModelIndex(Collections.singletonList(customModel), dictionaryIndex);
+    }
+
+
+    /**
+     * Classes should be found by prefixed or qualified name, whatever the prefix their namespace is imported with.
+     */
+    @Test
+    public void testLookups() {
+        ClassView content = index.getClassByName("cm:content");
+        assertNotNull(content);
+        assertSame(content, index.getClassByName("{" + CM_URI + "}content"));
+        assertSame(content, dictionaryIndex.getClassByName("cm:content"));
+        assertEquals(CM_URI, index.getNamespace("cm").getUri());
+        assertEquals("cm", index.getNamespace(CM_URI).getPrefix());
+        assertNotNull(index.getProperty("cm:name"));
+        assertNull(index.getClassByName("my:unknown"));
+        assertNull(dictionaryIndex.getClassByName("my:document"));
+    }
+
+
+    /**
+     * Parents and mandatory aspects should be resolved across the models.
+     */
+    @Test
+    public void testInheritance() {
+        List<String> ancestors = new ArrayList<>();
+        for (ClassView ancestor : index.getAncestors("my:document")) {
+            ancestors.add(ancestor.getName());
+        }
+        assertEquals(ancestors.toString(), 2, ancestors.size());
+        assertEquals("cm:content", ancestors.get(0));
+        assertEquals("cm:cmobject", ancestors.get(1));
+
+        List<String> properties = new ArrayList<>();
+        for (PropertyView property : index.getEffectiveProperties("my:document")) {
+            properties.add(property.getName());
+        }
+        assertTrue(properties.contains("cm:name"));
+        assertTrue(properties.contains("cm:created"));
+        assertTrue(properties.contains("cm:title"));
+        assertEquals("my:reference", properties.get(properties.size() - 1));
+
+        List<String> aspects = new ArrayList<>();
+        for (ClassView aspect : index.getEffectiveMandatoryAspects("my:document")) {
+            aspects.add(aspect.getName());
+        }
+        assertTrue(aspects.contains("cm:auditable"));
+        assertTrue(aspects.contains("cm:titled"));
+
+        // sys:base is defined in none of the models
+        assertTrue(dictionaryIndex.getUnresolvedNames().contains("{http://www.alfresco.org/model/system/1.0}base"));
+        assertTrue(index.getUnresolvedNames().isEmpty());
+    }
+
+
+    /**
+     * A class inheriting from itself, or being one of its own mandatory aspects, should be reported as such.
+     */
+    @Test
+    public void testCycles() {
+        String parentCycle = "<type name=\"my:a\"><parent>my:b</parent></type>"
+                + "<type name=\"my:b\"><parent>my:a</parent></type>";
+        try {
+            new ModelIndex(Collections.singletonList(getView("<types>" + parentCycle + "</types>")));
+            fail("A class inheriting from itself should not be indexed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("inherits from itself."));
+        }
+
+        String aspectCycle = "<aspect name=\"my:a\"><mandatory-aspects><aspect>my:b</aspect></mandatory-aspects>"
+                + "</aspect><aspect name=\"my:b\"><parent>my:a</parent></aspect>";
+        try {
+            new ModelIndex(Collections.singletonList(getView("<aspects>" + aspectCycle + "</aspects>")));
+            fail("A class being one of its own mandatory aspects should not be indexed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is one of its own mandatory aspects."));
+        }
+    }
+
+
+    /**
+     * Indexes sharing a parent, e.g. the dictionary, should find its definitions through each other.
+     */
+    @Test
+    public void testSharedParents() {
+        ModelView customModel = index.getModels().get(0);
+        ModelIndex left = new ModelIndex(Collections.<ModelView>emptyList(), index);
+        ModelIndex right = new ModelIndex(Collections.<ModelView>emptyList(), dictionaryIndex);
+        ModelIndex top = new ModelIndex(Collections.singletonList(customModel), Arrays.asList(left, right));
+
+        ClassView content = dictionaryIndex.getClassByName("cm:content");
+        for (int i = 0; i < 2; i++) {
+            assertSame(content, top.getClassByName("cm:content"));
+            assertSame(index.getProperty("cm:name"), top.getProperty("cm:name"));
+            assertNull(top.getClassByName("cm:unknown"));
+            assertNull(top.getNamespace("unknown"));
+        }
+    }
+
+
+    private ModelView getView(String definitions) {
+        String model = "<model name=\"my:cycles\" xmlns=\"http://www.alfresco.org/model/dictionary/1.0\">"
+                + "<namespaces><namespace uri=\"http://www.example.org/model/my/1.0\" prefix=\"my\"/></namespaces>"
+                + definitions + "</model>";
+        return new ModelCache().get(model.getBytes(StandardCharsets.UTF_8)).getView();
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,92 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.M2ModelCodec;
+import lib.tartard.alfresco.lazymodel.services.ModelCache;
+import lib.tartard.alfresco.lazymodel.services.ModelSnapshots;
+import lib.tartard.alfresco.lazymodel.services.ParsedModel;
+import lib.tartard.alfresco.lazymodel.services.ToolVersion;
+import org.alfresco.repo.dictionary.M2Model;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelSnapshots test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelSnapshotsTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+    /**
+     * The content model should be encoded and decoded without loss.
+     */
+    @Test
+    public void testCodecRoundTrip() throws IOException {
+        M2Model model = new ModelCache().get(getResource(CONTENT_MODEL_PATH).getPath()).getModel();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        M2ModelCodec.write(model, new DataOutputStream(encoded));
+        M2Model decoded = M2ModelCodec.read(new DataInputStream(new ByteArrayInputStream(encoded.toByteArray())));
+
+        assertEquals(model.getName(), decoded.getName());
+        assertEquals(model.getTypes().size(), decoded.getTypes().size());
+        assertTrue(M2ModelCodec.isLossless(model, decoded));
+    }
+
+
+    /**
+     * The version of the Alfresco data model should be the one recorded by the build, not the version of this tool.
+     */
+    @Test
+    public void testAlfrescoVersion() {
+        String version = ModelSnapshots.getAlfrescoVersion();
+        assertNotEquals(ModelSnapshots.UNKNOWN_VERSION, version);
+        assertNotEquals(ToolVersion.get(), version);
+        assertFalse(version.contains("${"));
+    }
+
+
+    /**
+     * A model parsed once should be loaded from its snapshot by another cache, unless the versions changed.
+     */
+    @Test
+    public void testSnapshotReusedByLaterRuns() throws IOException {
+        File folder = temporaryFolder.newFolder("snapshots");
+        String modelPath = getResource(CONTENT_MODEL_PATH).getPath();
+
+        ModelCache firstRun = new ModelCache();
+        firstRun.setSnapshots(new ModelSnapshots(folder, "1.0", "5.0.d"));
+        ParsedModel parsed = firstRun.get(modelPath);
+        assertEquals(1, folder.listFiles().length);
+
+        M2Model loaded = new ModelSnapshots(folder, "1.0", "5.0.d").load(parsed.getHash());
+        assertNotNull(loaded);
+        assertEquals(parsed.getModel().getName(), loaded.getName());
+
+        ModelCache secondRun = new ModelCache();
+        secondRun.setSnapshots(new ModelSnapshots(folder, "1.0", "5.0.d"));
+        assertEquals("cm:contentmodel", secondRun.get(modelPath).getModel().getName());
+
+        assertNull(new ModelSnapshots(folder, "1.1", "5.0.d").load(parsed.getHash()));
+        assertNull(new ModelSnapshots(folder, "1.0", "5.2.0").load(parsed.getHash()));
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,144 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelStructure test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelStructureTest {
+
+    private static final String STRUCTURE_MODEL_PATH = "models/structureModel.xml";
+    private static final String TYPE_TEMPLATE_PATH = "templates/fanout/txt.UTF-8.type.ftl";
+
+    private ModelConverter modelConverter;
+
+    private File modelFile;
+
+    private File outputFolder;
+
+    private ConversionConfig config;
+
+
+    @Before
+    public void setup() throws IOException {
+        modelConverter = new ModelConverter();
+        modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        File folder = Files.createTempDirectory("lazymodel").toFile();
+        modelFile = new File(folder, "structureModel.xml");
+        Files.copy(getResource(STRUCTURE_MODEL_PATH).toPath(), modelFile.toPath());
+        outputFolder = new File(folder, "output");
+        config = new ConversionConfig(modelFile.getAbsolutePath(), getResource(TYPE_TEMPLATE_PATH).getAbsolutePath(),
+                outputFolder.getPath(), "UTF-8");
+    }
+
+
+    /**
+     * The diff should report the changed elements only.
+     * @throws IOException
+     */
+    @Test
+    public void testDiff() throws IOException {
+        ModelStructure before = modelConverter.resolve(config).getStructure();
+        assertTrue(before.diff(before).isEmpty());
+        assertEquals(6, before.diff(null).getChanges(ModelDiff.ChangeType.ADDED).size());
+
+        replaceInModel("<value>B</value>", "<value>B</value><value>C</value>");
+        replaceInModel("<title>Other</title>", "");
+        ModelDiff diff = modelConverter.resolve(config).getStructure().diff(before);
+
+        assertEquals(2, diff.getChanges().size());
+        for (ModelDiff.Change change : diff.getChanges()) {
+            assertEquals(ModelDiff.ChangeType.CHANGED, change.getType());
+        }
+        assertEquals(ModelStructure.CONSTRAINT_KIND, diff.getChanges().get(0).getKind());
+        assertEquals("st:codes", diff.getChanges().get(0).getName());
+        assertEquals("st:other", diff.getChanges().get(1).getName());
+    }
+
+    /**
+     * Only the files of the changed types, and of the types inheriting from them, should be generated again.
+     * @throws IOException
+     */
+    @Test
+    public void testChangedElementsGenerated() throws IOException {
+        assertEquals(ConversionResult.Status.GENERATED, modelConverter.generate(config).getStatus());
+        assertEquals(ConversionResult.Status.UP_TO_DATE, modelConverter.generate(config).getStatus());
+
+        // The constraint of a property of the base type changes both the base and the derived types
+        replaceInModel("<value>B</value>", "<value>B</value><value>C</value>");
+        ResolvedModel resolvedModel = modelConverter.resolve(config);
+        assertEquals(ConversionResult.Status.GENERATED, generate(resolvedModel, "st:base").getStatus());
+        assertEquals(ConversionResult.Status.GENERATED, generate(resolvedModel, "st:derived").getStatus());
+        assertEquals(ConversionResult.Status.UP_TO_DATE, generate(resolvedModel, "st:other").getStatus());
+    }
+
+    /**
+     * Changing the target class of an association should generate the file of the source type again.
+     * @throws IOException
+     */
+    @Test
+    public void testAssociationTargetChanged() throws IOException {
+        replaceInModel("<parent>st:base</parent>", "<parent>st:base</parent>\n"
+                + "<associations><association name=\"st:others\"><target><class>st:other</class></target>"
+                + "</association></associations>");
+        assertEquals(ConversionResult.Status.GENERATED, modelConverter.generate(config).getStatus());
+
+        replaceInModel("<title>Other</title>", "<title>Another</title>");
+        ResolvedModel resolvedModel = modelConverter.resolve(config);
+        assertEquals(ConversionResult.Status.GENERATED, generate(resolvedModel, "st:other").getStatus());
+        assertEquals(ConversionResult.Status.GENERATED, generate(resolvedModel, "st:derived").getStatus());
+        assertEquals(ConversionResult.Status.UP_TO_DATE, generate(resolvedModel, "st:base").getStatus());
+    }
+
+    /**
+     * The file of a removed type should be deleted.
+     * @throws IOException
+     */
+    @Test
+    public void testRemovedElementDeleted() throws IOException {
+        modelConverter.generate(config);
+        File otherFile = new File(outputFolder, "st_other.txt");
+        assertTrue(otherFile.isFile());
+
+        replaceInModel("<type name=\"st:other\">\n            <title>Other</title>\n        </type>", "");
+        modelConverter.setIncrementalMode(IncrementalMode.CHECK);
+        assertEquals(ConversionResult.Status.STALE, modelConverter.generate(config).getStatus());
+        assertTrue(otherFile.isFile());
+
+        modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+        assertEquals(ConversionResult.Status.DELETED, modelConverter.generate(config).getStatus());
+        assertFalse(otherFile.exists());
+        assertTrue(new File(outputFolder, "st_base.txt").isFile());
+        assertEquals(ConversionResult.Status.UP_TO_DATE, modelConverter.generate(config).getStatus());
+    }
+
+    private ConversionResult generate(ResolvedModel resolvedModel, String elementName) {
+        return modelConverter.generate(config, resolvedModel, elementName);
+    }
+
+    private void replaceInModel(String target, String replacement) throws IOException {
+        String content = new String(Files.readAllBytes(modelFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains(target));
+        Files.write(modelFile.toPath(), content.replace(target, replacement).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
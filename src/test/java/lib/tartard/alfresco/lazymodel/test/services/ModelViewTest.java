@@ -0,0 +1,69 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.ModelCache;
+import lib.tartard.alfresco.lazymodel.services.view.ClassView;
+import lib.tartard.alfresco.lazymodel.services.view.ModelView;
+import lib.tartard.alfresco.lazymodel.services.view.Names;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelView test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelViewTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+
+
+    /**
+     * Constant names should be computed as the java template used to.
+     */
+    @Test
+    public void testNames() {
+        assertEquals("VERSION_LABEL", Names.getConstantName("versionLabel"));
+        assertEquals("CATEGORY_ROOT", Names.getConstantName("category_root"));
+        assertEquals("CM_MODEL_URI", Names.getUriConstant("cm"));
+        assertEquals("cm_contentmodel", Names.getJavaIdentifier("cm:contentmodel"));
+        assertEquals("_3d_model", Names.getJavaIdentifier("3d-model"));
+        assertEquals("cm", Names.getPrefix("cm:content"));
+        assertEquals("content", Names.getLocalName("cm:content"));
+    }
+
+    /**
+     * The view should index the classes of the model and resolve their namespaces.
+     */
+    @Test
+    public void testContentModelView() {
+        ModelView view = new ModelCache().get(getResource(CONTENT_MODEL_PATH).getPath()).getView();
+
+        assertEquals("cm:contentmodel", view.getName());
+        assertEquals("http://www.alfresco.org/model/dictionary/1.0", view.getNamespace("d").getUri());
+        assertTrue(view.getNamespace("d").isImported());
+        assertFalse(view.getNamespace("cm").isImported());
+
+        ClassView content = view.getClassByName("cm:content");
+        assertNotNull(content);
+        assertFalse(content.isAspect());
+        assertEquals("CONTENT", content.getConstantName());
+        assertEquals("http://www.alfresco.org/model/content/1.0", content.getNamespaceUri());
+        assertEquals("cm:cmobject", content.getParentName());
+
+        ClassView titled = view.getClassByName("cm:titled");
+        assertTrue(titled.isAspect());
+        assertEquals(view.getTypes().size() + view.getAspects().size(), view.getClasses().size());
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
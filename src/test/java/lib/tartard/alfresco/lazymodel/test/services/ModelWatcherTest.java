@@ -0,0 +1,221 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelWatcher test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ModelWatcherTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String CUSTOM_MODEL_PATH = "models/customModel.xml";
+    private static final String STRUCTURE_MODEL_PATH = "models/structureModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private static final long DEBOUNCE_DELAY = 500L;
+    private static final long TIMEOUT = 30000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<ConversionEvent> events = Collections.synchronizedList(new ArrayList<ConversionEvent>());
+
+    private File contentModel;
+
+    private File customModel;
+
+    private File modelsFolder;
+
+    private File templatesFolder;
+
+    private File javaTemplate;
+
+    private File outputFolder;
+
+    private ModelWatcher watcher;
+
+    private Thread watcherThread;
+
+
+    @Before
+    public void setup() throws IOException {
+        modelsFolder = temporaryFolder.newFolder("models");
+        templatesFolder = temporaryFolder.newFolder("templates");
+        outputFolder = temporaryFolder.newFolder("out");
+        contentModel = copy(getResource(CONTENT_MODEL_PATH), modelsFolder);
+        customModel = copy(getResource(CUSTOM_MODEL_PATH), modelsFolder);
+        javaTemplate = copy(getResource(JAVA_TEMPLATE_PATH), templatesFolder);
+
+        List<ConversionConfig> configs = getConfigs();
+        ModelConverter modelConverter = new ModelConverter();
+        BatchConverter batchConverter = new BatchConverter(modelConverter, 2);
+        assertEquals(0, BatchConverter.countFailures(batchConverter.convert(configs)));
+
+        modelConverter.addConversionListener(new ConversionListener() {
+            @Override
+            public void conversionPerformed(ConversionEvent event) {
+                events.add(event);
+            }
+        });
+        watcher = new ModelWatcher(modelConverter, batchConverter, configs, DEBOUNCE_DELAY);
+        watcher.setConfigResolver(new ModelWatcher.ConfigResolver() {
+            @Override
+            public List<ConversionConfig> resolve() {
+                return getConfigs();
+            }
+
+            @Override
+            public Collection<File> getInputs() {
+                return Collections.singletonList(modelsFolder);
+            }
+        });
+        watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watcher.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        watcherThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        watcher.close();
+        watcherThread.join(5000);
+    }
+
+
+    /**
+     * Saving a model several times in a row should regenerate the outputs of this model only, once.
+     */
+    @Test
+    public void testRegenerateChangedModel() throws IOException, InterruptedException {
+        append(customModel, "<!-- First save -->\n");
+        append(customModel, "<!-- Second save -->\n");
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        // Leave time for a second regeneration, which should not happen
+        Thread.sleep(2 * DEBOUNCE_DELAY);
+
+        assertEquals(1, events.size());
+        ConversionEvent event = events.get(0);
+        assertEquals(customModel.getPath(), event.getConfig().getAlfrescoModelPath());
+        assertNull(event.getError());
+    }
+
+
+    /**
+     * A model added to a watched folder should be converted, and only this model.
+     */
+    @Test
+    public void testConvertAddedModel() throws IOException, InterruptedException {
+        File structureModel = copy(getResource(STRUCTURE_MODEL_PATH), temporaryFolder.newFolder("models", "sub"));
+
+        waitForEvents(1);
+        Thread.sleep(2 * DEBOUNCE_DELAY);
+
+        assertEquals(1, events.size());
+        assertEquals(structureModel.getPath(), events.get(0).getConfig().getAlfrescoModelPath());
+        assertNull(events.get(0).getError());
+        assertTrue(new File(outputFolder, "structureModel.java").isFile());
+    }
+
+
+    /**
+     * Changing a template of the folder of the template of the conversions, such as an included one, should convert
+     * every model again.
+     */
+    @Test
+    public void testRegenerateChangedTemplateFolder() throws IOException, InterruptedException {
+        File included = new File(templatesFolder, "macros.ftl");
+        Files.write(included.toPath(), "<#macro unused></#macro>\n".getBytes(StandardCharsets.UTF_8));
+        append(included, "<#-- Saved again -->\n");
+
+        waitForEvents(2);
+        Thread.sleep(2 * DEBOUNCE_DELAY);
+
+        assertEquals(2, events.size());
+        for (ConversionEvent event : events) {
+            assertEquals(javaTemplate.getAbsolutePath(), event.getConfig().getFtlTemplatePath());
+            assertNull(event.getError());
+        }
+    }
+
+
+    /**
+     * A closed watcher should stop watching, and stop its thread.
+     */
+    @Test
+    public void testClose() throws IOException, InterruptedException {
+        watcher.close();
+        watcherThread.join(5000);
+        assertFalse(watcherThread.isAlive());
+
+        append(contentModel, "<!-- Saved once closed -->\n");
+        Thread.sleep(2 * DEBOUNCE_DELAY);
+        assertTrue(events.isEmpty());
+    }
+
+
+    private List<ConversionConfig> getConfigs() {
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (String modelPath : new ModelPathResolver().resolve(Collections.singletonList(modelsFolder.getPath()))) {
+            configs.add(new ConversionConfig(modelPath, javaTemplate.getAbsolutePath(),
+                    new File(outputFolder, new File(modelPath).getName().replace(".xml", ".java")).getPath(),
+                    "UTF-8"));
+        }
+        return configs;
+    }
+
+    private void waitForEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+    }
+
+    private static File copy(File file, File folder) throws IOException {
+        File copy = new File(folder, file.getName());
+        Files.copy(file.toPath(), copy.toPath());
+        return copy;
+    }
+
+    private static void append(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,192 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * OutputCache test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class OutputCacheTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private File folder;
+
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("lazymodel-cache").toFile();
+    }
+
+
+    /**
+     * Keys should differ as soon as one of the inputs differs.
+     */
+    @Test
+    public void testKeys() {
+        String key = OutputCache.getKey("model", "template", "UTF-8", "1.0", null, null);
+        assertEquals(key, OutputCache.getKey("model", "template", "UTF-8", "1.0", null, null));
+        assertFalse(key.equals(OutputCache.getKey("model", "template", "UTF-8", "1.1", null, null)));
+        assertFalse(key.equals(OutputCache.getKey("model", "template", "UTF-8", "1.0", "cm:content", null)));
+        assertFalse(OutputCache.getKey("ab", "c", null, null, null, null)
+                .equals(OutputCache.getKey("a", "bc", null, null, null, null)));
+        assertFalse(key.equals(OutputCache.getKey("model", "template", "UTF-8", "1.0", null, "model.contentModel")));
+    }
+
+    /**
+     * A stored file should be restored as a copy or a link, and unknown keys should be misses.
+     */
+    @Test
+    public void testStoreAndRestore() throws IOException {
+        OutputCache cache = new OutputCache(new File(folder, "cache"));
+        File generated = write(new File(folder, "generated.txt"), "content");
+        cache.store("0123456789abcdef", generated);
+
+        File restored = new File(folder, "out/restored.txt");
+        assertTrue(cache.restore("0123456789abcdef", restored));
+        assertEquals("content", read(restored));
+        assertFalse(cache.restore("fedcba9876543210", new File(folder, "out/other.txt")));
+        assertFalse(new File(folder, "out/other.txt").exists());
+
+        cache.setLinking(true);
+        File linked = new File(folder, "out/linked.txt");
+        assertTrue(cache.restore("0123456789abcdef", linked));
+        assertEquals("content", read(linked));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * The least recently used files should be evicted once the cache is full.
+     */
+    @Test
+    public void testEviction() throws IOException {
+        OutputCache cache = new OutputCache(new File(folder, "cache"), 100);
+        char[] content = new char[40];
+        Arrays.fill(content, 'x');
+        File generated = write(new File(folder, "generated.txt"), new String(content));
+        for (String key : new String[]{"aa01", "bb02", "cc03"}) {
+            cache.store(key, generated);
+        }
+
+        int restored = 0;
+        for (String key : new String[]{"aa01", "bb02", "cc03"}) {
+            if (cache.restore(key, new File(folder, key + ".txt"))) {
+                restored++;
+            }
+        }
+        assertTrue(restored > 0);
+        assertTrue(restored <= 2);
+    }
+
+    /**
+     * A converter sharing the output cache of another one should copy its files, without parsing the model.
+     */
+    @Test
+    public void testSharedBetweenConverters() throws IOException {
+        File cacheFolder = new File(folder, "cache");
+        String modelPath = getResource(CONTENT_MODEL_PATH).getAbsolutePath();
+        String templatePath = getResource(JAVA_TEMPLATE_PATH).getAbsolutePath();
+
+        ModelConverter first = new ModelConverter();
+        first.setOutputCache(new OutputCache(cacheFolder));
+        File firstFile = new File(folder, "first/contentModel.java");
+        first.convert(new ConversionConfig(modelPath, templatePath, firstFile.getPath(), "UTF-8"));
+        assertEquals(1, first.getOutputCache().getMissCount());
+
+        ModelConverter second = new ModelConverter();
+        second.setOutputCache(new OutputCache(cacheFolder));
+        File secondFile = new File(folder, "second/contentModel.java");
+        second.convert(new ConversionConfig(modelPath, templatePath, secondFile.getPath(), "UTF-8"));
+        assertEquals(1, second.getOutputCache().getHitCount());
+        assertEquals(0, second.getModelCache().getMissCount());
+        assertEquals(read(firstFile), read(secondFile));
+    }
+
+    /**
+     * Changing a template included by another one should change the key of the files of the other one.
+     */
+    @Test
+    public void testIncludedTemplateChanged() throws IOException {
+        File cacheFolder = new File(folder, "cache");
+        String modelPath = getResource(CONTENT_MODEL_PATH).getAbsolutePath();
+        File template = write(new File(folder, "templates/txt.UTF-8.ftl"), "<#include \"name.ftl\">");
+        File included = write(new File(folder, "templates/name.ftl"), "first");
+        File outputFile = new File(folder, "out/contentModel.txt");
+        ConversionConfig config = new ConversionConfig(modelPath, template.getAbsolutePath(), outputFile.getPath(),
+                "UTF-8");
+
+        ModelConverter first = new ModelConverter();
+        first.setOutputCache(new OutputCache(cacheFolder));
+        first.convert(config);
+        assertEquals("first", read(outputFile));
+
+        write(included, "second");
+        ModelConverter second = new ModelConverter();
+        second.setOutputCache(new OutputCache(cacheFolder));
+        second.convert(config);
+        assertEquals(0, second.getOutputCache().getHitCount());
+        assertEquals("second", read(outputFile));
+    }
+
+
+    /**
+     * Files of the templates folder which the template doesn't include, such as generated files, should not change
+     * its hash.
+     */
+    @Test
+    public void testOtherTemplateFilesIgnored() throws IOException {
+        File cacheFolder = new File(folder, "cache");
+        String modelPath = getResource(CONTENT_MODEL_PATH).getAbsolutePath();
+        File template = write(new File(folder, "templates/txt.UTF-8.ftl"), "<#include \"name.ftl\">");
+        write(new File(folder, "templates/name.ftl"), "name");
+        File outputFile = new File(folder, "templates/out/contentModel.txt");
+        ConversionConfig config = new ConversionConfig(modelPath, template.getAbsolutePath(), outputFile.getPath(),
+                "UTF-8");
+
+        ModelConverter first = new ModelConverter();
+        first.setOutputCache(new OutputCache(cacheFolder));
+        first.convert(config);
+
+        write(new File(folder, "templates/other.ftl"), "other");
+        write(new File(folder, "templates/out/contentModel.txt"), "changed");
+        ModelConverter second = new ModelConverter();
+        second.setOutputCache(new OutputCache(cacheFolder));
+        second.convert(config);
+        assertEquals(1, second.getOutputCache().getHitCount());
+        assertEquals("name", read(outputFile));
+    }
+
+
+    private static File write(File file, String content) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,106 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Conversion metrics and RunReport test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class RunReportTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String FAKE_MODEL_PATH = "models/fakeModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private File outputFolder;
+
+    private ModelConverter modelConverter;
+
+    private RunReport report;
+
+
+    @Before
+    public void setup() throws IOException {
+        outputFolder = Files.createTempDirectory("lazymodel").toFile();
+        modelConverter = new ModelConverter();
+        report = new RunReport();
+        modelConverter.addConversionListener(report);
+    }
+
+
+    /**
+     * Each conversion should be reported with the time spent in its phases and the bytes it wrote, failed ones
+     * included.
+     */
+    @Test
+    public void testConversionEvents() {
+        ConversionConfig config = getConfig(CONTENT_MODEL_PATH, "contentModel.java");
+        ConversionConfig failingConfig = getConfig(FAKE_MODEL_PATH, "fakeModel.java");
+        List<ConversionResult> results = new BatchConverter(modelConverter, 2)
+                .convert(Arrays.asList(config, failingConfig));
+        assertEquals(ConversionResult.Status.GENERATED, results.get(0).getStatus());
+
+        List<ConversionEvent> events = report.getEvents();
+        assertEquals(2, events.size());
+        for (ConversionEvent event : events) {
+            if (event.getConfig() == config) {
+                assertEquals(ConversionResult.Status.GENERATED, event.getStatus());
+                assertTrue(event.getDuration(ConversionPhase.RENDER) > 0);
+                assertTrue(event.getDuration(ConversionPhase.PARSE) > 0);
+                assertTrue(event.getDuration() >= event.getDuration(ConversionPhase.RENDER));
+                assertEquals(results.get(0).getOutputFile().length(), event.getBytesWritten());
+            } else {
+                assertEquals(ConversionResult.Status.FAILED, event.getStatus());
+                assertNotNull(event.getError());
+            }
+        }
+    }
+
+    /**
+     * The report should summarize the conversions per model and per template.
+     * @throws IOException
+     */
+    @Test
+    public void testWrite() throws IOException {
+        modelConverter.convert(getConfig(CONTENT_MODEL_PATH, "contentModel.java"));
+        modelConverter.convert(getConfig(CONTENT_MODEL_PATH, "otherContentModel.java"));
+
+        File reportFile = new File(outputFolder, "report/report.json");
+        report.write(reportFile, modelConverter.getModelCache());
+        String json = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\"conversions\": 2,"));
+        assertTrue(json.contains("\"GENERATED\": 2"));
+        assertTrue(json.contains("\"modelCache\": {\"hits\": 1, \"misses\": 1}"));
+        assertTrue(json.contains("\"render\": {\"total\": "));
+        assertTrue(json.contains("\"p99\": "));
+        assertTrue(json.contains(getResource(JAVA_TEMPLATE_PATH).getAbsolutePath().replace("\\", "\\\\")));
+    }
+
+    private ConversionConfig getConfig(String modelPath, String outputName) {
+        return new ConversionConfig(getResource(modelPath).getAbsolutePath(),
+                getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(), new File(outputFolder, outputName).getPath(),
+                "UTF-8");
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
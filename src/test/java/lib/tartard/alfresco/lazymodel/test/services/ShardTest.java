@@ -0,0 +1,240 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Shard and ShardMerger test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class ShardTest {
+
+    private static final String CONTENT_MODEL_PATH = "models/contentModel.xml";
+    private static final String CUSTOM_MODEL_PATH = "models/customModel.xml";
+    private static final String JAVA_TEMPLATE_PATH = "templates/java.UTF-8.ftl";
+
+    private File folder;
+
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("lazymodel-shard").toFile();
+    }
+
+
+    /**
+     * Shards should be parsed from index/count, numbered from 1.
+     */
+    @Test
+    public void testParse() {
+        Shard shard = Shard.parse("2/4");
+        assertEquals(2, shard.getIndex());
+        assertEquals(4, shard.getCount());
+        assertEquals("2/4", shard.toString());
+        for (String invalid : new String[]{"0/4", "5/4", "2", "a/4", "2/4/1", ""}) {
+            try {
+                Shard.parse(invalid);
+                fail("Shard '" + invalid + "' should be invalid");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Every configuration should be assigned to exactly one shard, whatever the order of the configurations, and the
+     * shards should be balanced on the sizes of the models.
+     */
+    @Test
+    public void testAssignment() throws IOException {
+        File template = write(new File(folder, "template.ftl"), "x");
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            File model = write(new File(folder, "models/model" + i + ".xml"), repeat('x', 100 * (i + 1)));
+            configs.add(new ConversionConfig(model.getAbsolutePath(), template.getAbsolutePath(), "out" + i, null));
+        }
+
+        Map<String, Integer> assignment = new HashMap<>();
+        long[] loads = new long[3];
+        for (int index = 1; index <= 3; index++) {
+            Shard shard = new Shard(index, 3);
+            shard.setBaseFolder(folder);
+            for (ConversionConfig config : shard.select(configs)) {
+                assertNull(assignment.put(config.getOutputFile(), index));
+                loads[index - 1] += new File(config.getAlfrescoModelPath()).length();
+            }
+        }
+        assertEquals(configs.size(), assignment.size());
+        long lightest = Math.min(loads[0], Math.min(loads[1], loads[2]));
+        long heaviest = Math.max(loads[0], Math.max(loads[1], loads[2]));
+        assertTrue(heaviest - lightest <= 2000);
+
+        List<ConversionConfig> shuffled = new ArrayList<>(configs);
+        Collections.shuffle(shuffled, new Random(1));
+        Shard shard = new Shard(1, 3);
+        shard.setBaseFolder(folder);
+        int[] shards = shard.assign(shuffled);
+        for (int i = 0; i < shuffled.size(); i++) {
+            assertEquals(assignment.get(shuffled.get(i).getOutputFile()).intValue(), shards[i]);
+        }
+        assertEquals("models/model0.xml|template.ftl", Shard.getKey(configs.get(0), folder));
+    }
+
+    /**
+     * Recorded costs should replace the sizes of the files, the highest one being kept.
+     */
+    @Test
+    public void testCosts() throws IOException {
+        File template = write(new File(folder, "template.ftl"), "x");
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File model = write(new File(folder, "model" + i + ".xml"), "x");
+            configs.add(new ConversionConfig(model.getAbsolutePath(), template.getAbsolutePath(), "out" + i, null));
+        }
+        File costs = write(new File(folder, "costs.tsv"), "# costs\nmodel0.xml|template.ftl\t10\n"
+                + "model0.xml|template.ftl\t1000\nmodel1.xml|template.ftl\t600\ninvalid\n");
+        assertEquals(Long.valueOf(1000L), Shard.loadCosts(costs).get("model0.xml|template.ftl"));
+
+        // The most expensive model is alone in its shard
+        Shard shard = new Shard(1, 2);
+        shard.setBaseFolder(folder);
+        shard.setCosts(Shard.loadCosts(costs));
+        int[] shards = shard.assign(configs);
+        assertTrue(shards[0] != shards[1]);
+        assertEquals(shards[1], shards[2]);
+    }
+
+    /**
+     * The sizes of the pairs without a recorded cost should be weighted like the recorded costs, in nanoseconds.
+     */
+    @Test
+    public void testCostsAndSizes() throws IOException {
+        File template = write(new File(folder, "template.ftl"), "x");
+        List<ConversionConfig> configs = new ArrayList<>();
+        StringBuilder costs = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            // The last model is three times as large as the others, and its cost wasn't recorded
+            File model = write(new File(folder, "model" + i + ".xml"), repeat('x', i < 3 ? 100 : 300));
+            configs.add(new ConversionConfig(model.getAbsolutePath(), template.getAbsolutePath(), "out" + i, null));
+            if (i < 3) {
+                costs.append("model").append(i).append(".xml|template.ftl\t1000000\n");
+            }
+        }
+
+        // Weighted by its size in bytes, the large model would look a thousand times cheaper than the others
+        Shard shard = new Shard(1, 2);
+        shard.setBaseFolder(folder);
+        shard.setCosts(Shard.loadCosts(write(new File(folder, "costs.tsv"), costs.toString())));
+        int[] shards = shard.assign(configs);
+        assertEquals(shards[0], shards[1]);
+        assertEquals(shards[1], shards[2]);
+        assertTrue(shards[3] != shards[0]);
+    }
+
+    /**
+     * The outputs of the shards of a batch should be merged into the outputs of the whole batch, even when a model
+     * of a shard imports a model of another shard.
+     */
+    @Test
+    public void testShardedBatch() throws IOException {
+        List<ConversionConfig> configs = new ArrayList<>();
+        for (String modelPath : new String[]{CONTENT_MODEL_PATH, CUSTOM_MODEL_PATH}) {
+            String name = new File(modelPath).getName().replace(".xml", ".java");
+            configs.add(new ConversionConfig(getResource(modelPath).getAbsolutePath(),
+                    getResource(JAVA_TEMPLATE_PATH).getAbsolutePath(), name, "UTF-8"));
+        }
+
+        List<File> shardFolders = new ArrayList<>();
+        int converted = 0;
+        for (int index = 1; index <= 2; index++) {
+            File shardFolder = new File(folder, "shard" + index);
+            ModelConverter modelConverter = new ModelConverter();
+            modelConverter.setIncrementalMode(IncrementalMode.INCREMENTAL);
+            BatchConverter batchConverter = new BatchConverter(modelConverter, 2);
+            batchConverter.setResolvingImports(true);
+            batchConverter.setShard(new Shard(index, 2));
+            List<ConversionResult> results = batchConverter.convert(inFolder(configs, shardFolder));
+            assertEquals(0, BatchConverter.countFailures(results));
+            converted += results.size();
+            shardFolders.add(shardFolder);
+        }
+        assertEquals(configs.size(), converted);
+
+        File merged = new File(folder, "merged");
+        assertTrue(new ShardMerger(merged).merge(shardFolders).isEmpty());
+        List<File> outputs = new ArrayList<>();
+        for (ConversionConfig config : inFolder(configs, merged)) {
+            outputs.add(new File(config.getOutputFile()));
+        }
+        assertTrue(ShardMerger.checkOutputs(outputs).isEmpty());
+        assertEquals(configs.size(), GenerationManifest.load(merged).getEntries().size());
+    }
+
+    /**
+     * Conflicting files and files not matching their manifest should be reported by the merge.
+     */
+    @Test
+    public void testMergeProblems() throws IOException {
+        File first = new File(folder, "first");
+        File second = new File(folder, "second");
+        write(new File(first, "same.txt"), "same");
+        write(new File(second, "same.txt"), "same");
+        write(new File(first, "conflict.txt"), "first");
+        write(new File(second, "conflict.txt"), "second");
+        File tampered = write(new File(second, "tampered.txt"), "generated");
+        GenerationManifest manifest = GenerationManifest.load(second);
+        manifest.put("tampered.txt", new GenerationManifest.Entry("m", "t", "UTF-8", "1.0",
+                ContentHash.of(Files.readAllBytes(tampered.toPath()))));
+        manifest.save();
+        write(tampered, "edited");
+
+        List<String> problems = new ShardMerger(new File(folder, "merged")).merge(Arrays.asList(first, second));
+        assertEquals(problems.toString(), 2, problems.size());
+        assertTrue(problems.get(0).contains("conflict.txt"));
+        assertTrue(problems.get(1).contains("tampered.txt"));
+
+        assertEquals(1, ShardMerger.checkOutputs(Arrays.asList(new File(folder, "merged/same.txt"),
+                new File(folder, "merged/missing.txt"))).size());
+    }
+
+
+    private static List<ConversionConfig> inFolder(List<ConversionConfig> configs, File outputFolder) {
+        List<ConversionConfig> moved = new ArrayList<>();
+        for (ConversionConfig config : configs) {
+            moved.add(new ConversionConfig(config.getAlfrescoModelPath(), config.getFtlTemplatePath(),
+                    new File(outputFolder, config.getOutputFile()).getPath(), config.getOutputEncoding()));
+        }
+        return moved;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1,147 @@
+package lib.tartard.alfresco.lazymodel.test.services;
+
+import lib.tartard.alfresco.lazymodel.services.*;
+import org.alfresco.repo.dictionary.M2Model;
+import org.alfresco.service.cmr.dictionary.DictionaryException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * StaxModelReader test class.
+ *
+ * @author Alexandre Hausherr
+ * <p>
+ * Created on 20/03/2018
+ */
+@RunWith(JUnit4.class)
+public class StaxModelReaderTest {
+
+    private static final String[] MODEL_PATHS = {"models/contentModel.xml", "models/customModel.xml",
+            "models/structureModel.xml", "models/cycle/a.xml", "models/cycle/b.xml"};
+
+    private static final String FAKE_MODEL_PATH = "models/fakeModel.xml";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+    /**
+     * The streaming reader should read the same models as the JiBX unmarshalling.
+     */
+    @Test
+    public void testSameModels() throws IOException {
+        for (String modelPath : MODEL_PATHS) {
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(getResource(modelPath).toPath()));
+            M2Model expected = new JibxModelReader().read(content);
+            M2Model model = new StaxModelReader().read(content);
+            assertEquals(expected.getName(), model.getName());
+            assertTrue(modelPath, M2ModelCodec.isLossless(expected, model));
+        }
+    }
+
+
+    /**
+     * Models holding elements the streaming reader doesn't read, or invalid ones, should be left to JiBX.
+     */
+    @Test
+    public void testFallback() throws IOException {
+        String overrides = "<model name=\"my:overrides\" xmlns=\"http://www.alfresco.org/model/dictionary/1.0\">"
+                + "<namespaces><namespace uri=\"http://www.example.org/model/my/1.0\" prefix=\"my\"/></namespaces>"
+                + "<types><type name=\"my:document\"><parent>cm:content</parent>"
+                + "<overrides><property name=\"cm:name\"><mandatory>true</mandatory></property></overrides>"
+                + "</type></types></model>";
+        ByteBuffer content = ByteBuffer.wrap(overrides.getBytes(StandardCharsets.UTF_8));
+        assertTrue(M2ModelCodec.isLossless(new JibxModelReader().read(content), new StaxModelReader().read(content)));
+        assertEquals(0, content.position());
+
+        try {
+            new StaxModelReader().read(ByteBuffer.wrap(Files.readAllBytes(getResource(FAKE_MODEL_PATH).toPath())));
+            fail("An invalid model should not be read");
+        } catch (DictionaryException e) {
+            // Expected
+        }
+    }
+
+
+    /**
+     * A cache should parse large model files through their memory mapping with the given reader.
+     */
+    @Test
+    public void testMappedModelFile() throws IOException {
+        byte[] content = Files.readAllBytes(getResource(MODEL_PATHS[0]).toPath());
+        File modelFile = newLargeModelFile(content);
+
+        ModelCache modelCache = new ModelCache();
+        modelCache.setModelReader(new StaxModelReader());
+        ParsedModel parsedModel = modelCache.get(modelFile.getPath());
+        assertEquals(ContentHash.of(Files.readAllBytes(modelFile.toPath())), parsedModel.getHash());
+        assertTrue(M2ModelCodec.isLossless(new JibxModelReader().read(ByteBuffer.wrap(content)),
+                parsedModel.getModel()));
+    }
+
+
+    /**
+     * A model whose mapping can't be accessed, as when its file is truncated, should be read again into the heap.
+     */
+    @Test
+    public void testMappingFault() throws IOException {
+        byte[] content = Files.readAllBytes(getResource(MODEL_PATHS[0]).toPath());
+        File modelFile = newLargeModelFile(content);
+        final List<Boolean> mapped = new ArrayList<>();
+
+        ModelCache modelCache = new ModelCache();
+        modelCache.setModelReader(new StaxModelReader() {
+            @Override
+            public M2Model read(ByteBuffer content) {
+                mapped.add(content instanceof MappedByteBuffer);
+                if (content instanceof MappedByteBuffer) {
+                    // As raised by the JVM on the access to a truncated mapping
+                    throw new InternalError("a fault occurred in an unsafe memory access operation");
+                }
+                return super.read(content);
+            }
+        });
+        ParsedModel parsedModel = modelCache.get(modelFile.getPath());
+        assertEquals(Arrays.asList(true, false), mapped);
+        assertEquals(ContentHash.of(Files.readAllBytes(modelFile.toPath())), parsedModel.getHash());
+        assertTrue(M2ModelCodec.isLossless(new JibxModelReader().read(ByteBuffer.wrap(content)),
+                parsedModel.getModel()));
+    }
+
+
+    /**
+     * Write the given model padded with a comment, so that a cache maps it in memory.
+     * @param content
+     * @return
+     */
+    private File newLargeModelFile(byte[] content) throws IOException {
+        String xml = new String(content, StandardCharsets.UTF_8);
+        StringBuilder padding = new StringBuilder("<!--");
+        while (padding.length() < ModelCache.MAPPED_FILE_MIN_SIZE) {
+            padding.append("                ");
+        }
+        xml = xml.replaceFirst("<model ", padding + "-->\n<model ");
+        File modelFile = temporaryFolder.newFile("largeModel.xml");
+        Files.write(modelFile.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return modelFile;
+    }
+
+    private File getResource(String path) {
+        return new File(this.getClass().getClassLoader().getResource(path).getFile());
+    }
+}
@@ -0,0 +1 @@
+${element.name}